@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane;
+
+import com.janrain.backplane2.server.BackplaneMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message id formatting and parsing, against the SimpleDateFormat based ISO8601 conversions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageIdBenchmark {
+
+    @Setup
+    public void setup() {
+        id = MessageId.fromTime(System.currentTimeMillis()) + 3;
+        messageId = MessageId.format(id, "uDuDFMjcAw");
+        iso8601 = DateTimeUtils.ISO8601.get().format(new Date(MessageId.getTime(id)));
+    }
+
+    @Benchmark
+    public String format() {
+        return MessageId.format(id, "uDuDFMjcAw");
+    }
+
+    @Benchmark
+    public long parse() {
+        return MessageId.parse(messageId);
+    }
+
+    @Benchmark
+    public long score() {
+        return MessageId.score(messageId);
+    }
+
+    @Benchmark
+    public Date getDateFromId() {
+        return BackplaneMessage.getDateFromId(messageId);
+    }
+
+    @Benchmark
+    public String formatIso8601() {
+        return DateTimeUtils.formatIso8601(MessageId.getTime(id));
+    }
+
+    @Benchmark
+    public String formatIso8601SimpleDateFormat() {
+        return DateTimeUtils.ISO8601.get().format(new Date(MessageId.getTime(id)));
+    }
+
+    @Benchmark
+    public Date parseIso8601SimpleDateFormat() throws Exception {
+        return DateTimeUtils.ISO8601.get().parse(iso8601);
+    }
+
+    // - PRIVATE
+
+    private long id;
+    private String messageId;
+    private String iso8601;
+}
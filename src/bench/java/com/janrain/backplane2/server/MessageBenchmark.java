@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message construction, serialization (Redis storage format) and response rendering.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({"1", "50"})
+    public int messageCount;
+
+    @Setup
+    public void setup() throws Exception {
+        message = newMessage();
+        serialized = SerializationUtils.serialize(message);
+        messages = new ArrayList<BackplaneMessage>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            messages.add(newMessage());
+        }
+    }
+
+    @Benchmark
+    public BackplaneMessage construct() throws Exception {
+        return newMessage();
+    }
+
+    @Benchmark
+    public Map<String, Object> asFrame() throws Exception {
+        return message.asFrame(SERVER_NAME, false);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return SerializationUtils.serialize(message);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return SerializationUtils.deserialize(serialized);
+    }
+
+    @Benchmark
+    public Map<String, Object> asResponseFields() throws Exception {
+        MessagesResponse response = new MessagesResponse(null);
+        response.addMessages(messages);
+        return response.asResponseFields(SERVER_NAME, false);
+    }
+
+    /**
+     * @return a typical posted message, with a small JSON payload
+     */
+    static BackplaneMessage newMessage() throws Exception {
+        Map<String,Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("identities", "{\"entries\":[]}");
+        payload.put("context", "http://customer.example.com/page.html");
+        Map<String,Object> data = new LinkedHashMap<String, Object>();
+        data.put(BackplaneMessage.Field.BUS.getFieldName(), "customer.example.com");
+        data.put(BackplaneMessage.Field.CHANNEL.getFieldName(), "Oc7V4mhB5fGvYqFbVcKlQnwZtEWmDAWL");
+        data.put(BackplaneMessage.Field.TYPE.getFieldName(), "identity/login");
+        data.put(BackplaneMessage.Field.PAYLOAD.getFieldName(), payload);
+        return new BackplaneMessage("http://customer.example.com", 60, 3600, data);
+    }
+
+    // - PRIVATE
+
+    private static final String SERVER_NAME = "backplane.example.com";
+
+    private BackplaneMessage message;
+    private byte[] serialized;
+    private List<BackplaneMessage> messages;
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token scope parsing and message scope filtering, done for every poll.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScopeBenchmark {
+
+    @Setup
+    public void setup() throws Exception {
+        scope = new Scope(SCOPE_STRING);
+        message = MessageBenchmark.newMessage();
+    }
+
+    @Benchmark
+    public Scope parse() throws Exception {
+        return new Scope(SCOPE_STRING);
+    }
+
+    @Benchmark
+    public boolean isMessageInScope() {
+        return scope.isMessageInScope(message);
+    }
+
+    // - PRIVATE
+
+    private static final String SCOPE_STRING =
+            "bus:customer.example.com bus:other.example.com channel:Oc7V4mhB5fGvYqFbVcKlQnwZtEWmDAWL type:identity/login";
+
+    private Scope scope;
+    private BackplaneMessage message;
+}
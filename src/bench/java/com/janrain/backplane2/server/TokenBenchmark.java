@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import com.janrain.backplane.server.dao.redis.RedisConfigDAO;
+import com.janrain.backplane2.server.dao.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access token extraction and validation from request parameters and headers,
+ * with the token lookup answered from memory.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenBenchmark {
+
+    @Setup
+    public void setup() throws Exception {
+        token = new Token.Builder(GrantType.ANONYMOUS, "bus:customer.example.com channel:Oc7V4mhB5fGvYqFbVcKlQnwZtEWmDAWL")
+                .expires(new Date(System.currentTimeMillis() + 3600000L))
+                .buildToken();
+        daoFactory = new SingleTokenDAOFactory(token);
+        queryRequest = new MockHttpServletRequest("GET", "/v2/messages");
+        queryRequest.setQueryString("access_token=" + token.getIdValue() + "&block=0");
+        headerRequest = new MockHttpServletRequest("GET", "/v2/messages");
+    }
+
+    @Benchmark
+    public Token fromQueryString() throws Exception {
+        return Token.fromRequest(daoFactory, queryRequest, token.getIdValue(), null);
+    }
+
+    @Benchmark
+    public Token fromAuthorizationHeader() throws Exception {
+        return Token.fromRequest(daoFactory, headerRequest, null, "Bearer " + token.getIdValue());
+    }
+
+    // - PRIVATE
+
+    private Token token;
+    private DAOFactory daoFactory;
+    private MockHttpServletRequest queryRequest;
+    private MockHttpServletRequest headerRequest;
+
+    private static class SingleTokenDAOFactory extends DAOFactory {
+
+        private SingleTokenDAOFactory(final Token token) {
+            tokenDao = (TokenDAO) Proxy.newProxyInstance(TokenDAO.class.getClassLoader(), new Class<?>[] {TokenDAO.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("get".equals(method.getName()) && token.getIdValue().equals(args[0])) {
+                                return token;
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        @Override public BusDAO getBusDao() { return null; }
+        @Override public ChannelDAO getChannelDao() { return null; }
+        @Override public TokenDAO getTokenDao() { return tokenDao; }
+        @Override public GrantDAO getGrantDao() { return null; }
+        @Override public BusOwnerDAO getBusOwnerDAO() { return null; }
+        @Override public ClientDAO getClientDAO() { return null; }
+        @Override public BackplaneMessageDAO getBackplaneMessageDAO() { return null; }
+        @Override public AuthSessionDAO getAuthSessionDAO() { return null; }
+        @Override public AuthorizationRequestDAO getAuthorizationRequestDAO() { return null; }
+        @Override public AuthorizationDecisionKeyDAO getAuthorizationDecisionKeyDAO() { return null; }
+        @Override public RedisConfigDAO getConfigDAO() { return null; }
+        @Override public DAO getDaoByObjectType(Class<?> obj) { return null; }
+        @Override public AdminDAO getAdminDAO() { return null; }
+
+        private final TokenDAO tokenDao;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.bench;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares JMH JSON results with a baseline result file, failing (exit status 1) if any benchmark's
+ * time per operation or allocation per operation (gc profiler) got worse by more than the threshold.
+ *
+ * Usage: BaselineCheck <result.json> <baseline.json> [threshold] [update]
+ *
+ * The baseline is only written from the results if update is "true"; a missing baseline fails the check
+ * (exit status 2), so that the gate can't silently pass on a checkout without one.
+ */
+public class BaselineCheck {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineCheck <result.json> <baseline.json> [threshold] [update]");
+            System.exit(2);
+        }
+        File resultFile = new File(args[0]);
+        File baselineFile = new File(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        boolean update = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+        if (update) {
+            copy(resultFile, baselineFile);
+            System.out.println("baseline " + baselineFile + " written from " + resultFile);
+            return;
+        }
+        if (! baselineFile.exists()) {
+            System.err.println("baseline " + baselineFile + " not found, record one with -Dbench.updateBaseline=true");
+            System.exit(2);
+        }
+
+        Map<String,Result> results = read(resultFile);
+        Map<String,Result> baseline = read(baselineFile);
+
+        int regressions = 0;
+        for (Map.Entry<String,Result> entry : results.entrySet()) {
+            Result current = entry.getValue();
+            Result base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.println(String.format("%-90s new, no baseline", entry.getKey()));
+                continue;
+            }
+            boolean slower = current.higherIsBetter ?
+                    current.score < base.score * (1 - threshold) :
+                    current.score > base.score * (1 + threshold);
+            boolean allocates = current.allocated > base.allocated * (1 + threshold) + ALLOCATION_SLACK_BYTES;
+            String status = slower || allocates ? "REGRESSION" : "ok";
+            if (slower || allocates) regressions++;
+            System.out.println(String.format("%-90s %12.2f %-8s (baseline %12.2f) %10.1f B/op (baseline %10.1f) %s",
+                    entry.getKey(), current.score, current.unit, base.score, current.allocated, base.allocated, status));
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + (int) (threshold * 100) + "% against " + baselineFile);
+            System.exit(1);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final double DEFAULT_THRESHOLD = 0.10;
+
+    /** allocation noise from the gc profiler, per operation */
+    private static final double ALLOCATION_SLACK_BYTES = 16;
+
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    private static class Result {
+        private double score;
+        private String unit;
+        private boolean higherIsBetter;
+        private double allocated;
+    }
+
+    private BaselineCheck() { }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buf = new byte[8192];
+                int read;
+                while ((read = in.read(buf)) > 0) {
+                    out.write(buf, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Map<String,Result> read(File file) throws Exception {
+        Map<String,Result> results = new LinkedHashMap<String, Result>();
+        for (JsonNode run : new ObjectMapper().readValue(file, JsonNode.class)) {
+            StringBuilder key = new StringBuilder(run.get("benchmark").getTextValue());
+            JsonNode params = run.get("params");
+            if (params != null) {
+                Iterator<String> names = params.getFieldNames();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    key.append(' ').append(name).append('=').append(params.get(name).getTextValue());
+                }
+            }
+
+            Result result = new Result();
+            JsonNode primary = run.get("primaryMetric");
+            result.score = primary.get("score").getDoubleValue();
+            result.unit = primary.get("scoreUnit").getTextValue();
+            result.higherIsBetter = "thrpt".equals(run.get("mode").getTextValue());
+            JsonNode secondary = run.get("secondaryMetrics");
+            if (secondary != null) {
+                Iterator<String> names = secondary.getFieldNames();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    if (name.endsWith(ALLOCATION_METRIC)) {
+                        result.allocated = secondary.get(name).get("score").getDoubleValue();
+                    }
+                }
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
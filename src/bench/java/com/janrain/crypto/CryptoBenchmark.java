@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password hash checks (client and bus owner authentication) and random id generation (channels, tokens, messages).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBenchmark {
+
+    @Setup
+    public void setup() {
+        hash = HmacHashUtils.hmacHash(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean checkHmacHash() {
+        return HmacHashUtils.checkHmacHash(PASSWORD, hash);
+    }
+
+    @Benchmark
+    public String randomString() {
+        return ChannelUtil.randomString(32);
+    }
+
+    // - PRIVATE
+
+    private static final String PASSWORD = "s3cr3t-client-password";
+
+    private String hash;
+}
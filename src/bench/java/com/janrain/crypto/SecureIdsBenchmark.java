@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random id generation throughput on one thread and on all cores, with the per-thread SecureIds generators
+ * against a single shared SecureRandom (the previous ChannelUtil implementation).
+ * The shared generator's throughput doesn't grow with the thread count, the per-thread generators' should.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecureIdsBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public String secureIds1Thread() {
+        return SecureIds.randomString(ID_LENGTH);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String secureIdsAllThreads() {
+        return SecureIds.randomString(ID_LENGTH);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String sharedSecureRandom1Thread() {
+        return sharedRandomString(ID_LENGTH);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String sharedSecureRandomAllThreads() {
+        return sharedRandomString(ID_LENGTH);
+    }
+
+    // - PRIVATE
+
+    private static final int ID_LENGTH = 32;
+
+    private static final byte[] ALPHANUMERIC = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".getBytes();
+
+    private static final Random sharedRandom = new SecureRandom();
+
+    private static String sharedRandomString(int length) {
+        byte[] randomBytes = new byte[length];
+        sharedRandom.nextBytes(randomBytes);
+        for (int i = 0; i < length; i++) {
+            randomBytes[i] = ALPHANUMERIC[Math.abs(randomBytes[i] % ALPHANUMERIC.length)];
+        }
+        return new String(randomBytes);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.utils;
+
+import org.apache.log4j.AsyncAppender;
+import org.apache.log4j.FileAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caller side cost of logging on all cores, through a synchronous file appender (as the console and syslog appenders were)
+ * and through the AsyncAppender configured in log4j_special.xml, in front of the same file appender;
+ * and of disabled debug statements with and without an isDebugEnabled() guard.
+ *
+ * The async appender doesn't block when its buffer is full: past the file appender's own throughput,
+ * events are discarded and summarized.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+
+    @Param({"sync", "async"})
+    public String appender;
+
+    @Setup
+    public void setup() throws Exception {
+        file = File.createTempFile("logging-benchmark", ".log");
+        FileAppender fileAppender = new FileAppender(new PatternLayout("%d %-5p [%t]: %c - %m%n"), file.getAbsolutePath(), false);
+        logger = Logger.getLogger(LoggingBenchmark.class.getName() + "." + appender);
+        logger.setAdditivity(false);
+        logger.setLevel(Level.INFO);
+        if ("async".equals(appender)) {
+            AsyncAppender async = new AsyncAppender();
+            async.setBufferSize(8192);
+            async.setBlocking(false);
+            async.setLocationInfo(false);
+            async.addAppender(fileAppender);
+            logger.addAppender(async);
+        } else {
+            logger.addAppender(fileAppender);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        logger.removeAllAppenders();
+        file.delete();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void info() {
+        logger.info("pipelined v2 message " + OLD_ID + " -> " + NEW_ID);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void debugUnguarded() {
+        logger.debug("returning jedis: " + logger.toString() + " to pool -> isBroken: " + false);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void debugGuarded() {
+        if (logger.isDebugEnabled()) {
+            logger.debug("returning jedis: " + logger.toString() + " to pool -> isBroken: " + false);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final String OLD_ID = "2012-09-20T18:37:50.327Z-0000000001-uDuDFMjcAw";
+    private static final String NEW_ID = "2012-09-20T18:37:50.327Z-0000000002-uDuDFMjcAw";
+
+    private File file;
+    private Logger logger;
+}
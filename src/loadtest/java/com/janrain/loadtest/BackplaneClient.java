@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.loadtest;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal Backplane v2 HTTP client for the load test: token requests, message polls and posts, provisioning.
+ *
+ * Thread safe, all simulated clients share one connection manager.
+ */
+public class BackplaneClient {
+
+    // - PUBLIC
+
+    public BackplaneClient(String baseUrl, int maxConnections) {
+        this.baseUrl = StringUtils.removeEnd(baseUrl, "/");
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxConnections);
+        connectionManager.getParams().setMaxTotalConnections(maxConnections);
+        this.httpClient = new HttpClient(connectionManager);
+    }
+
+    public static class Response {
+
+        public Response(int status, Map<String,Object> body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public Map<String, Object> getBody() {
+            return body;
+        }
+
+        private final int status;
+        private final Map<String,Object> body;
+    }
+
+    /**
+     * Anonymous token request, as done by the widget (JSONP).
+     */
+    public Response anonymousToken(String bus) throws IOException {
+        GetMethod get = new GetMethod(baseUrl + "/v2/token");
+        get.setQueryString(new NameValuePair[] {
+                new NameValuePair("bus", bus),
+                new NameValuePair("callback", JSONP_CALLBACK)
+        });
+        return execute(get);
+    }
+
+    /**
+     * Privileged token request, client_credentials grant type.
+     */
+    public Response clientCredentialsToken(String clientId, String secret, String scope) throws IOException {
+        PostMethod post = new PostMethod(baseUrl + "/v2/token");
+        post.setRequestHeader("Authorization", "Basic " +
+                new String(Base64.encodeBase64((clientId + ":" + secret).getBytes("UTF-8")), "UTF-8"));
+        post.addParameter("grant_type", "client_credentials");
+        post.addParameter("scope", scope);
+        return execute(post);
+    }
+
+    public Response getMessages(String accessToken, String since, int blockSeconds) throws IOException {
+        GetMethod get = new GetMethod(baseUrl + "/v2/messages");
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        params.add(new NameValuePair("access_token", accessToken));
+        params.add(new NameValuePair("block", Integer.toString(blockSeconds)));
+        if (since != null) {
+            params.add(new NameValuePair("since", since));
+        }
+        get.setQueryString(params.toArray(new NameValuePair[params.size()]));
+        return execute(get);
+    }
+
+    public Response postMessage(String accessToken, Map<String,Object> message) throws IOException {
+        Map<String,Object> body = new HashMap<String, Object>();
+        body.put("message", message);
+        PostMethod post = jsonPost("/v2/message", body);
+        post.setRequestHeader("Authorization", "Bearer " + accessToken);
+        return execute(post);
+    }
+
+    /**
+     * POST to a provisioning endpoint, e.g. /v2/provision/bus/update
+     */
+    public Response provision(String path, Map<String,Object> body) throws IOException {
+        return execute(jsonPost(path, body));
+    }
+
+    // - PRIVATE
+
+    private static final String JSONP_CALLBACK = "loadtest";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String baseUrl;
+    private final HttpClient httpClient;
+
+    private PostMethod jsonPost(String path, Map<String,Object> body) throws IOException {
+        PostMethod post = new PostMethod(baseUrl + path);
+        post.setRequestEntity(new StringRequestEntity(mapper.writeValueAsString(body), "application/json", "UTF-8"));
+        return post;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response execute(HttpMethod method) throws IOException {
+        try {
+            int status = httpClient.executeMethod(method);
+            String body = method.getResponseBodyAsString();
+            if (StringUtils.isBlank(body)) {
+                return new Response(status, null);
+            }
+            body = body.trim();
+            if (body.startsWith(JSONP_CALLBACK + "(")) {
+                body = body.substring(JSONP_CALLBACK.length() + 1, body.lastIndexOf(')'));
+            }
+            return new Response(status, body.startsWith("{") ? mapper.readValue(body, Map.class) : null);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples (milliseconds) for one kind of operation and reports percentiles.
+ *
+ * All samples are kept, a load test run is bounded and the percentiles need to be exact at p999.
+ */
+public class LatencyRecorder {
+
+    // - PUBLIC
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long millis) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = millis;
+    }
+
+    public synchronized void error() {
+        errors++;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized int getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the latency at the given percentile (0 < percentile <= 100), or -1 if there are no samples
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) return -1;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public String summary() {
+        return String.format("%-10s count %8d  errors %6d  p50 %6d ms  p99 %6d ms  p999 %6d ms  max %6d ms",
+                name, getCount(), getErrors(), percentile(50), percentile(99), percentile(99.9), percentile(100));
+    }
+
+    // - PRIVATE
+
+    private final String name;
+    private long[] samples = new long[1024];
+    private int count;
+    private int errors;
+}
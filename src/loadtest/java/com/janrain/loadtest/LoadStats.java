@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.loadtest;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * State shared by the simulated clients of one load test run:
+ * the widgets' channels (for the publishers to post to) and the latency recorders.
+ *
+ * Latencies are only recorded while measuring, i.e. after ramp-up.
+ */
+public class LoadStats {
+
+    // - PUBLIC
+
+    public final LatencyRecorder tokens = new LatencyRecorder("token");
+    public final LatencyRecorder posts = new LatencyRecorder("post");
+    public final LatencyRecorder polls = new LatencyRecorder("poll");
+    public final LatencyRecorder deliveries = new LatencyRecorder("delivery");
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public boolean isMeasuring() {
+        return measuring;
+    }
+
+    public void startMeasuring() {
+        measuring = true;
+    }
+
+    public void addChannel(String bus, String channel) {
+        channels.add(new String[] {bus, channel});
+    }
+
+    /**
+     * @return a random {bus, channel} pair, or null if no widget got its channel yet
+     */
+    public String[] randomChannel(Random random) {
+        List<String[]> snapshot = channels;
+        int size = snapshot.size();
+        return size == 0 ? null : snapshot.get(random.nextInt(size));
+    }
+
+    // - PRIVATE
+
+    private final List<String[]> channels = new CopyOnWriteArrayList<String[]>();
+    private volatile boolean running = true;
+    private volatile boolean measuring = false;
+}
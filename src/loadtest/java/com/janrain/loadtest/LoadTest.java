@@ -0,0 +1,254 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.loadtest;
+
+import com.janrain.backplane2.server.config.User;
+import com.janrain.crypto.HmacHashUtils;
+import com.janrain.redis.Keyspace;
+import com.janrain.utils.BackplaneSystemProps;
+import com.netflix.curator.test.TestingServer;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.webapp.WebAppContext;
+import redis.clients.jedis.Jedis;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * End-to-end load test: boots the webapp (or uses a running server) against a local Redis,
+ * provisions a bus owner, buses and publisher clients, and runs the widgets and publishers of a scenario.
+ *
+ * Usage: LoadTest <scenario.json>
+ *
+ * Reports p50/p99/p999 latencies for token requests, posts, polls and message delivery
+ * (post to receipt by a widget), and the Redis commands per second during the measurement.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: LoadTest <scenario.json>");
+            System.exit(2);
+        }
+        Scenario scenario = Scenario.load(new File(args[0]));
+        LoadTest loadTest = new LoadTest(scenario);
+        int status;
+        try {
+            status = loadTest.run();
+        } finally {
+            loadTest.shutdown();
+        }
+        System.exit(status);
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(LoadTest.class);
+
+    private static final String WEBAPP_DIR_PROPERTY = "loadtest.webapp";
+
+    private static final String ADMIN = "loadtest-admin";
+    private static final String BUS_OWNER = "loadtest-owner";
+    private static final String PUBLISHER_CLIENT = "loadtest-publisher-";
+    private static final String SECRET = "loadtest-secret";
+
+    private static final int RETENTION_SECONDS = 600;
+
+    private final Scenario scenario;
+    private final LoadStats stats = new LoadStats();
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    private LocalRedis redis;
+    private TestingServer zookeeper;
+    private Server jetty;
+
+    private LoadTest(Scenario scenario) {
+        this.scenario = scenario;
+    }
+
+    private int run() throws Exception {
+        redis = scenario.getRedis() == null ? LocalRedis.start() : LocalRedis.existing(scenario.getRedis());
+        String baseUrl = scenario.getServer() == null ? bootWebapp() : scenario.getServer();
+        logger.info("running scenario " + scenario.getName() + " against " + baseUrl + ", redis " + redis.getHostPort());
+
+        BackplaneClient client = new BackplaneClient(baseUrl, scenario.getWidgets() + scenario.getPublishers() + 10);
+        List<String> buses = provision(client);
+
+        StringBuilder scope = new StringBuilder();
+        for (String bus : buses) {
+            scope.append(scope.length() > 0 ? " " : "").append("bus:").append(bus);
+        }
+        double postsPerSecond = (double) scenario.getPostsPerSecond() / Math.max(1, scenario.getPublishers());
+        for (int i = 0; i < scenario.getPublishers(); i++) {
+            start(new Publisher(client, stats, PUBLISHER_CLIENT + i, SECRET, scope.toString(), postsPerSecond), "publisher-" + i);
+        }
+
+        long rampUpMillis = scenario.getRampUpSeconds() * 1000L;
+        long rampUpStart = System.currentTimeMillis();
+        for (int i = 0; i < scenario.getWidgets(); i++) {
+            start(new Widget(client, stats, buses.get(i % buses.size()), scenario.getBlockSeconds()), "widget-" + i);
+            long wait = rampUpStart + rampUpMillis * (i + 1) / scenario.getWidgets() - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+
+        stats.startMeasuring();
+        long commandsBefore = redis.commandsProcessed();
+        long measureStart = System.currentTimeMillis();
+        Thread.sleep(scenario.getDurationSeconds() * 1000L);
+        long commandsAfter = redis.commandsProcessed();
+        long measureMillis = System.currentTimeMillis() - measureStart;
+        stats.stop();
+
+        System.out.println();
+        System.out.println(String.format("scenario %s: %d widgets on %d bus(es), %d publishers at %d posts/s, block %ds, measured %ds",
+                scenario.getName(), scenario.getWidgets(), buses.size(), scenario.getPublishers(),
+                scenario.getPostsPerSecond(), scenario.getBlockSeconds(), measureMillis / 1000));
+        for (LatencyRecorder recorder : Arrays.asList(stats.tokens, stats.posts, stats.polls, stats.deliveries)) {
+            System.out.println(recorder.summary());
+        }
+        System.out.println(String.format("redis      %.0f ops/s", (commandsAfter - commandsBefore) * 1000.0 / measureMillis));
+
+        return stats.deliveries.getCount() > 0 ? 0 : 1;
+    }
+
+    private String bootWebapp() throws Exception {
+        zookeeper = new TestingServer();
+        System.setProperty(BackplaneSystemProps.ZOOKEEPER_SERVERS, zookeeper.getConnectString());
+        System.setProperty(BackplaneSystemProps.REDIS_SERVER_PRIMARY, redis.getHostPort());
+        System.setProperty(BackplaneSystemProps.REDIS_SERVER_READS, redis.getHostPort());
+        for (Map.Entry<String,String> property : scenario.getSystemProperties().entrySet()) {
+            System.setProperty(property.getKey(), property.getValue());
+        }
+
+        int port = LocalRedis.freePort();
+        jetty = new Server(port);
+        WebAppContext webapp = new WebAppContext(System.getProperty(WEBAPP_DIR_PROPERTY, "src/main/webapp"), "/");
+        // webapp classes and dependencies come from the load test classpath
+        webapp.setParentLoaderPriority(true);
+        jetty.setHandler(webapp);
+        jetty.start();
+        if ( ! webapp.isAvailable()) {
+            throw new IllegalStateException("webapp failed to start", webapp.getUnavailableException());
+        }
+        // localhost requests pass the webapp's https check
+        return "http://localhost:" + port;
+    }
+
+    /**
+     * Creates the admin user directly in Redis, then provisions through the provisioning API.
+     *
+     * @return the bus names
+     */
+    private List<String> provision(BackplaneClient client) throws Exception {
+        User admin = new User();
+        admin.setUserNamePassword(ADMIN, HmacHashUtils.hmacHash(SECRET));
+        Jedis jedis = redis.connect();
+        try {
+            jedis.set(Keyspace.V2_ADMIN.key(ADMIN), SerializationUtils.serialize(admin));
+        } finally {
+            jedis.disconnect();
+        }
+
+        List<Map<String,Object>> owners = new ArrayList<Map<String, Object>>();
+        owners.add(config("USER", BUS_OWNER, "PWDHASH", SECRET));
+        checkProvisioned(client, "/v2/provision/user/update", "configs", owners);
+
+        List<String> buses = new ArrayList<String>();
+        List<Map<String,Object>> busConfigs = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < Math.max(1, scenario.getBuses()); i++) {
+            String bus = "loadtest" + i + ".example.com";
+            buses.add(bus);
+            busConfigs.add(config("BUS_NAME", bus, "OWNER", BUS_OWNER,
+                    "RETENTION_TIME_SECONDS", Integer.toString(RETENTION_SECONDS),
+                    "RETENTION_STICKY_TIME_SECONDS", Integer.toString(RETENTION_SECONDS)));
+        }
+        checkProvisioned(client, "/v2/provision/bus/update", "configs", busConfigs);
+
+        List<Map<String,Object>> clients = new ArrayList<Map<String, Object>>();
+        Map<String,Object> grants = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < scenario.getPublishers(); i++) {
+            clients.add(config("USER", PUBLISHER_CLIENT + i, "PWDHASH", SECRET,
+                    "SOURCE_URL", "http://loadtest.example.com", "REDIRECT_URI", "http://loadtest.example.com/"));
+            StringBuilder grantedBuses = new StringBuilder();
+            for (String bus : buses) {
+                grantedBuses.append(grantedBuses.length() > 0 ? " " : "").append(bus);
+            }
+            grants.put(PUBLISHER_CLIENT + i, grantedBuses.toString());
+        }
+        if ( ! clients.isEmpty()) {
+            checkProvisioned(client, "/v2/provision/client/update", "configs", clients);
+            checkProvisioned(client, "/v2/provision/grant/add", "grants", grants);
+        }
+
+        return buses;
+    }
+
+    private static Map<String,Object> config(String... keyValues) {
+        Map<String,Object> config = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            config.put(keyValues[i], keyValues[i + 1]);
+        }
+        return config;
+    }
+
+    private static void checkProvisioned(BackplaneClient client, String path, String field, Object entries) throws Exception {
+        Map<String,Object> request = new LinkedHashMap<String, Object>();
+        request.put("admin", ADMIN);
+        request.put("secret", SECRET);
+        request.put(field, entries);
+        BackplaneClient.Response response = client.provision(path, request);
+        if (response.getStatus() != 200) {
+            throw new IllegalStateException(path + " failed: " + response.getStatus() + " " + response.getBody());
+        }
+        if (response.getBody() != null) {
+            for (Map.Entry<String,Object> result : response.getBody().entrySet()) {
+                if (result.getValue() instanceof String && ! ((String) result.getValue()).endsWith("_SUCCESS")) {
+                    throw new IllegalStateException(path + " failed for " + result.getKey() + ": " + result.getValue());
+                }
+            }
+        }
+    }
+
+    private void start(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+    }
+
+    private void shutdown() {
+        stats.stop();
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        try {
+            if (jetty != null) jetty.stop();
+        } catch (Exception e) {
+            logger.warn("error stopping the webapp: " + e.getMessage());
+        }
+        try {
+            if (zookeeper != null) zookeeper.close();
+        } catch (Exception e) {
+            logger.warn("error stopping zookeeper: " + e.getMessage());
+        }
+        if (redis != null) redis.stop();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.loadtest;
+
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * A Redis server for the load test: either an existing one, or a throw-away redis-server process
+ * (no persistence) started on a free local port.
+ *
+ * The redis-server executable is looked up on the PATH, unless set with the loadtest.redisServer system property.
+ */
+public class LocalRedis {
+
+    // - PUBLIC
+
+    public static LocalRedis start() throws Exception {
+        int port = freePort();
+        String executable = System.getProperty(REDIS_SERVER_EXECUTABLE_PROPERTY, "redis-server");
+        // log to a file, nothing drains the process output
+        File logFile = File.createTempFile("loadtest-redis-", ".log");
+        Process process = new ProcessBuilder(executable, "--port", Integer.toString(port), "--bind", "127.0.0.1",
+                "--save", "", "--appendonly", "no", "--logfile", logFile.getAbsolutePath())
+                .redirectErrorStream(true)
+                .start();
+        LocalRedis redis = new LocalRedis("127.0.0.1", port, process);
+        redis.awaitStartup();
+        logger.info("started " + executable + " on port " + port + ", logging to " + logFile);
+        return redis;
+    }
+
+    public static LocalRedis existing(String hostPort) {
+        String[] parts = hostPort.split(":");
+        return new LocalRedis(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 6379, null);
+    }
+
+    public String getHostPort() {
+        return host + ":" + port;
+    }
+
+    public Jedis connect() {
+        return new Jedis(host, port);
+    }
+
+    /**
+     * @return the server's total_commands_processed counter
+     */
+    public long commandsProcessed() {
+        Jedis jedis = connect();
+        try {
+            for (String line : jedis.info().split("\r\n")) {
+                if (line.startsWith(COMMANDS_PROCESSED)) {
+                    return Long.parseLong(line.substring(COMMANDS_PROCESSED.length()).trim());
+                }
+            }
+            return -1;
+        } finally {
+            jedis.disconnect();
+        }
+    }
+
+    public void stop() {
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(LocalRedis.class);
+
+    private static final String REDIS_SERVER_EXECUTABLE_PROPERTY = "loadtest.redisServer";
+    private static final String COMMANDS_PROCESSED = "total_commands_processed:";
+    private static final long STARTUP_TIMEOUT_MILLIS = 10000L;
+
+    private final String host;
+    private final int port;
+    private final Process process;
+
+    private LocalRedis(String host, int port, Process process) {
+        this.host = host;
+        this.port = port;
+        this.process = process;
+    }
+
+    static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void awaitStartup() throws Exception {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            Jedis jedis = connect();
+            try {
+                jedis.ping();
+                return;
+            } catch (JedisConnectionException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    stop();
+                    throw new IllegalStateException("redis-server did not start on port " + port, e);
+                }
+                Thread.sleep(100);
+            } finally {
+                try {
+                    jedis.disconnect();
+                } catch (Exception e) {
+                    // not connected
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.loadtest;
+
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Simulates a privileged client posting messages, at a fixed rate, to random widget channels.
+ *
+ * The message type carries the time it was sent, for the widgets to measure delivery latency;
+ * anonymous clients don't get message payloads.
+ */
+public class Publisher implements Runnable {
+
+    // - PUBLIC
+
+    /** message type prefix, followed by the time the message was sent */
+    public static final String MESSAGE_TYPE_PREFIX = "loadtest/ping/";
+
+    public Publisher(BackplaneClient client, LoadStats stats, String clientId, String secret, String scope, double postsPerSecond) {
+        this.client = client;
+        this.stats = stats;
+        this.clientId = clientId;
+        this.secret = secret;
+        this.scope = scope;
+        this.intervalNanos = (long) (1e9 / postsPerSecond);
+    }
+
+    @Override
+    public void run() {
+        try {
+            BackplaneClient.Response tokenResponse = client.clientCredentialsToken(clientId, secret, scope);
+            Map<String,Object> tokenBody = tokenResponse.getBody();
+            String accessToken = tokenBody == null ? null : (String) tokenBody.get("access_token");
+            if (accessToken == null) {
+                logger.error("client_credentials token request failed: " + tokenResponse.getStatus() + " " + tokenBody);
+                stats.tokens.error();
+                return;
+            }
+
+            long next = System.nanoTime();
+            while (stats.isRunning()) {
+                next += intervalNanos;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } else if (-wait > MAX_LAG_NANOS) {
+                    // don't try to catch up on posts missed while the server was stalling
+                    next = System.nanoTime();
+                }
+
+                String[] busChannel = stats.randomChannel(random);
+                if (busChannel == null) continue;
+
+                long start = System.currentTimeMillis();
+                BackplaneClient.Response response = client.postMessage(accessToken, newMessage(busChannel[0], busChannel[1], start));
+                if ( ! stats.isMeasuring()) continue;
+                if (response.getStatus() == 201) {
+                    stats.posts.record(System.currentTimeMillis() - start);
+                } else {
+                    logger.warn("post failed: " + response.getStatus() + " " + response.getBody());
+                    stats.posts.error();
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (Exception e) {
+            logger.error("publisher " + clientId + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(Publisher.class);
+
+    private static final long MAX_LAG_NANOS = 1000000000L;
+
+    private final BackplaneClient client;
+    private final LoadStats stats;
+    private final String clientId;
+    private final String secret;
+    private final String scope;
+    private final long intervalNanos;
+    private final Random random = new Random();
+
+    private static Map<String,Object> newMessage(String bus, String channel, long sent) {
+        Map<String,Object> payload = new HashMap<String, Object>();
+        payload.put("loadtest", true);
+        Map<String,Object> message = new HashMap<String, Object>();
+        message.put("bus", bus);
+        message.put("channel", channel);
+        message.put("type", MESSAGE_TYPE_PREFIX + sent);
+        message.put("sticky", false);
+        message.put("payload", payload);
+        return message;
+    }
+}
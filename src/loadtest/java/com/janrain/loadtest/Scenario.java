@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.loadtest;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Load test scenario, read from a JSON file; see src/loadtest/scenarios.
+ *
+ * Fields not present in the file take the defaults below.
+ */
+public class Scenario {
+
+    // - PUBLIC
+
+    public static Scenario load(File file) throws IOException {
+        JsonNode json = new ObjectMapper().readValue(file, JsonNode.class);
+        Scenario scenario = new Scenario();
+        scenario.name = text(json, "name", file.getName());
+        scenario.widgets = integer(json, "widgets", 10);
+        scenario.publishers = integer(json, "publishers", 1);
+        scenario.postsPerSecond = integer(json, "postsPerSecond", 10);
+        scenario.buses = integer(json, "buses", 1);
+        scenario.blockSeconds = integer(json, "blockSeconds", 10);
+        scenario.rampUpSeconds = integer(json, "rampUpSeconds", 5);
+        scenario.durationSeconds = integer(json, "durationSeconds", 30);
+        scenario.redis = text(json, "redis", null);
+        scenario.server = text(json, "server", null);
+        JsonNode props = json.get("systemProperties");
+        if (props != null) {
+            Iterator<String> names = props.getFieldNames();
+            while (names.hasNext()) {
+                String name = names.next();
+                scenario.systemProperties.put(name, props.get(name).getValueAsText());
+            }
+        }
+        return scenario;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** anonymous (widget) clients, each holding one channel and long polling it */
+    public int getWidgets() {
+        return widgets;
+    }
+
+    /** privileged clients posting to the widgets' channels */
+    public int getPublishers() {
+        return publishers;
+    }
+
+    /** total post rate, divided evenly among the publishers */
+    public int getPostsPerSecond() {
+        return postsPerSecond;
+    }
+
+    public int getBuses() {
+        return buses;
+    }
+
+    /** the block parameter of the widgets' /v2/messages polls */
+    public int getBlockSeconds() {
+        return blockSeconds;
+    }
+
+    /** widgets and publishers are started evenly over this interval */
+    public int getRampUpSeconds() {
+        return rampUpSeconds;
+    }
+
+    /** measurement time, after ramp-up */
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /** host:port of an existing Redis server, or null to start a local redis-server */
+    public String getRedis() {
+        return redis;
+    }
+
+    /** base URL of a running backplane server, or null to boot the webapp in-process */
+    public String getServer() {
+        return server;
+    }
+
+    /** system properties set before booting the webapp */
+    public Map<String, String> getSystemProperties() {
+        return systemProperties;
+    }
+
+    // - PRIVATE
+
+    private String name;
+    private int widgets;
+    private int publishers;
+    private int postsPerSecond;
+    private int buses;
+    private int blockSeconds;
+    private int rampUpSeconds;
+    private int durationSeconds;
+    private String redis;
+    private String server;
+    private final Map<String,String> systemProperties = new LinkedHashMap<String, String>();
+
+    private Scenario() { }
+
+    private static String text(JsonNode json, String field, String defaultValue) {
+        JsonNode value = json.get(field);
+        return value == null || value.isNull() ? defaultValue : value.getValueAsText();
+    }
+
+    private static int integer(JsonNode json, String field, int defaultValue) {
+        JsonNode value = json.get(field);
+        return value == null || value.isNull() ? defaultValue : value.getIntValue();
+    }
+}
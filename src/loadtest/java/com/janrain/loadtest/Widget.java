@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.loadtest;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simulates a browser widget: gets an anonymous token (and with it a channel) for its bus,
+ * then long polls /v2/messages for as long as the load test runs.
+ *
+ * Delivery latency is measured from the time the publishers put in the message type.
+ * Poll latency is only recorded for polls that returned messages, empty polls return after the block time.
+ */
+public class Widget implements Runnable {
+
+    // - PUBLIC
+
+    public Widget(BackplaneClient client, LoadStats stats, String bus, int blockSeconds) {
+        this.client = client;
+        this.stats = stats;
+        this.bus = bus;
+        this.blockSeconds = blockSeconds;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+        try {
+            String accessToken = getToken();
+            if (accessToken == null) return;
+
+            String since = null;
+            while (stats.isRunning()) {
+                long start = System.currentTimeMillis();
+                BackplaneClient.Response response = client.getMessages(accessToken, since, blockSeconds);
+                long now = System.currentTimeMillis();
+                Map<String,Object> body = response.getBody();
+                if (response.getStatus() != 200 || body == null || body.containsKey("error")) {
+                    logger.warn("poll failed: " + response.getStatus() + " " + body);
+                    if (stats.isMeasuring()) stats.polls.error();
+                    Thread.sleep(ERROR_BACKOFF_MILLIS);
+                    continue;
+                }
+                since = getSince((String) body.get("nextURL"), since);
+                List<Map<String,Object>> messages = (List<Map<String,Object>>) body.get("messages");
+                if (messages == null || messages.isEmpty() || ! stats.isMeasuring()) continue;
+
+                stats.polls.record(now - start);
+                for (Map<String,Object> message : messages) {
+                    String type = (String) message.get("type");
+                    if (type != null && type.startsWith(Publisher.MESSAGE_TYPE_PREFIX)) {
+                        stats.deliveries.record(now - Long.parseLong(type.substring(Publisher.MESSAGE_TYPE_PREFIX.length())));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (Exception e) {
+            logger.error("widget on bus " + bus + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(Widget.class);
+
+    private static final long ERROR_BACKOFF_MILLIS = 1000L;
+    private static final String CHANNEL_SCOPE_PREFIX = "channel:";
+
+    private final BackplaneClient client;
+    private final LoadStats stats;
+    private final String bus;
+    private final int blockSeconds;
+
+    private String getToken() throws Exception {
+        long start = System.currentTimeMillis();
+        BackplaneClient.Response response = client.anonymousToken(bus);
+        Map<String,Object> body = response.getBody();
+        String accessToken = body == null ? null : (String) body.get("access_token");
+        String scope = body == null ? null : (String) body.get("scope");
+        if (accessToken == null || scope == null) {
+            logger.error("anonymous token request failed: " + response.getStatus() + " " + body);
+            stats.tokens.error();
+            return null;
+        }
+        stats.tokens.record(System.currentTimeMillis() - start);
+        for (String scopeToken : scope.split(" ")) {
+            if (scopeToken.startsWith(CHANNEL_SCOPE_PREFIX)) {
+                stats.addChannel(bus, scopeToken.substring(CHANNEL_SCOPE_PREFIX.length()));
+            }
+        }
+        return accessToken;
+    }
+
+    private static String getSince(String nextUrl, String previous) throws Exception {
+        String since = StringUtils.substringAfter(nextUrl, "since=");
+        return StringUtils.isBlank(since) ? previous : URLDecoder.decode(StringUtils.substringBefore(since, "&"), "UTF-8");
+    }
+}
@@ -24,6 +24,8 @@ public class DateTimeUtils {
             }};
         }
     };
+    public static final int ISO8601_LENGTH = "yyyy-MM-ddTHH:mm:ss.SSSZ".length();
+
     public static final ThreadLocal<DateFormat> INTERNETDATE = new ThreadLocal<DateFormat>() {
         @Override
         protected DateFormat initialValue() {
@@ -33,6 +35,84 @@ public class DateTimeUtils {
         }
     };
 
+    /**
+     * Formats the provided time in the ISO8601 format, same as ISO8601, without the SimpleDateFormat overhead.
+     */
+    public static String formatIso8601(long millis) {
+        char[] buf = new char[ISO8601_LENGTH];
+        formatIso8601(millis, buf, 0);
+        return new String(buf);
+    }
+
+    /**
+     * Writes the provided time in the ISO8601 format (ISO8601_LENGTH characters) to buf, starting at offset.
+     */
+    public static void formatIso8601(long millis, char[] buf, int offset) {
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+
+        // civil from days, http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        writeDigits(buf, offset, (int) year, 4);
+        buf[offset + 4] = '-';
+        writeDigits(buf, offset + 5, month, 2);
+        buf[offset + 7] = '-';
+        writeDigits(buf, offset + 8, day, 2);
+        buf[offset + 10] = 'T';
+        writeDigits(buf, offset + 11, millisOfDay / 3600000, 2);
+        buf[offset + 13] = ':';
+        writeDigits(buf, offset + 14, millisOfDay / 60000 % 60, 2);
+        buf[offset + 16] = ':';
+        writeDigits(buf, offset + 17, millisOfDay / 1000 % 60, 2);
+        buf[offset + 19] = '.';
+        writeDigits(buf, offset + 20, millisOfDay % 1000, 3);
+        buf[offset + 23] = 'Z';
+    }
+
+    /**
+     * Parses an ISO8601 formatted time, as written by formatIso8601, starting at offset.
+     *
+     * @return the time in milliseconds, or -1 if the value is not a valid time in the ISO8601 format
+     */
+    public static long parseIso8601(String value, int offset) {
+        if (value == null || value.length() < offset + ISO8601_LENGTH ||
+            value.charAt(offset + 4) != '-' || value.charAt(offset + 7) != '-' || value.charAt(offset + 10) != 'T' ||
+            value.charAt(offset + 13) != ':' || value.charAt(offset + 16) != ':' || value.charAt(offset + 19) != '.' ||
+            value.charAt(offset + 23) != 'Z') {
+            return -1;
+        }
+        int year = readDigits(value, offset, 4);
+        int month = readDigits(value, offset + 5, 2);
+        int day = readDigits(value, offset + 8, 2);
+        int hour = readDigits(value, offset + 11, 2);
+        int minute = readDigits(value, offset + 14, 2);
+        int second = readDigits(value, offset + 17, 2);
+        int millis = readDigits(value, offset + 20, 3);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+            hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return -1;
+        }
+
+        // days from civil, http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097L + doe - 719468;
+
+        return days * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L + second * 1000L + millis;
+    }
+
     public static int getExpireSeconds(String messageId, String expire, boolean sticky) {
         long seconds = (getExpireTime(messageId, expire, sticky).getTime() - System.currentTimeMillis()) / 1000;
         if (seconds < 0 || seconds>Integer.MAX_VALUE) {
@@ -75,8 +155,44 @@ public class DateTimeUtils {
 
     private static final Logger logger = Logger.getLogger(DateTimeUtils.class);
 
+    private static final long MILLIS_PER_DAY = 24 * 3600 * 1000L;
+
     private static final int DEFAULT_RETENTION_SECONDS = 60;
     private static final int MAX_RETENTION_SECONDS = 3600;
 
     private DateTimeUtils() { }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && ((x < 0) != (y < 0))) ? q - 1 : q;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    private static void writeDigits(char[] buf, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * @return the value of the decimal digits, or -1 if any of the characters is not a digit
+     */
+    private static int readDigits(String value, int offset, int digits) {
+        int result = 0;
+        for (int i = offset; i < offset + digits; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane;
+
+/**
+ * Numeric message ids: epoch milliseconds shifted left by SEQUENCE_BITS, plus a sequence number
+ * for messages committed within the same millisecond.
+ *
+ * The numeric id is the message's score in the Redis indexes and is exactly representable as a double.
+ * On the wire, message ids are strings: the ISO8601 time, the zero-padded sequence number and a random suffix,
+ * e.g. 2013-03-21T22:34:01.867Z-0001-uDuDFMjcAw, which compare lexicographically in numeric id order.
+ *
+ * Legacy message ids (ISO8601 time and random suffix, without a sequence number) were indexed with
+ * the time in milliseconds as score; score() returns that for them.
+ */
+public final class MessageId {
+
+    // - PUBLIC
+
+    public static final int SEQUENCE_BITS = 10;
+
+    /**
+     * @return the numeric id of the first message in the millisecond
+     */
+    public static long fromTime(long millis) {
+        return millis << SEQUENCE_BITS;
+    }
+
+    public static long getTime(long id) {
+        return id >> SEQUENCE_BITS;
+    }
+
+    public static int getSequence(long id) {
+        return (int) (id & SEQUENCE_MASK);
+    }
+
+    /**
+     * @return the wire id string for the numeric id
+     */
+    public static String format(long id, String suffix) {
+        int length = DateTimeUtils.ISO8601_LENGTH;
+        char[] buf = new char[length + SEQUENCE_DIGITS + 2 + suffix.length()];
+        DateTimeUtils.formatIso8601(getTime(id), buf, 0);
+        buf[length] = '-';
+        int sequence = getSequence(id);
+        for (int i = length + SEQUENCE_DIGITS; i > length; i--) {
+            buf[i] = (char) ('0' + sequence % 10);
+            sequence /= 10;
+        }
+        buf[length + SEQUENCE_DIGITS + 1] = '-';
+        suffix.getChars(0, suffix.length(), buf, length + SEQUENCE_DIGITS + 2);
+        return new String(buf);
+    }
+
+    /**
+     * @return the numeric id of the provided wire id (for legacy ids, that of the first message in the millisecond),
+     * or -1 if the wire id is not valid
+     */
+    public static long parse(String messageId) {
+        long millis = DateTimeUtils.parseIso8601(messageId, 0);
+        if (millis < 0) {
+            return -1;
+        }
+        int sequence = parseSequence(messageId);
+        return fromTime(millis) | (sequence < 0 ? 0 : sequence);
+    }
+
+    /**
+     * @return the score of the provided wire id in the Redis message indexes, or -1 if the wire id is not valid
+     */
+    public static long score(String messageId) {
+        long millis = DateTimeUtils.parseIso8601(messageId, 0);
+        if (millis < 0) {
+            return -1;
+        }
+        int sequence = parseSequence(messageId);
+        return sequence < 0 ? millis : fromTime(millis) | sequence;
+    }
+
+    /**
+     * @return the time of the provided wire id, or -1 if the wire id is not valid
+     */
+    public static long parseTime(String messageId) {
+        return DateTimeUtils.parseIso8601(messageId, 0);
+    }
+
+    /**
+     * @return the suffix of the provided wire id, following the time and sequence number
+     */
+    public static String getSuffix(String messageId) {
+        int start = DateTimeUtils.ISO8601_LENGTH + 1;
+        if (parseSequence(messageId) >= 0) {
+            start += SEQUENCE_DIGITS + 1;
+        }
+        return messageId.length() > start ? messageId.substring(start) : "";
+    }
+
+    // - PRIVATE
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int SEQUENCE_DIGITS = 4;
+
+    private MessageId() { }
+
+    /**
+     * @return the sequence number of the wire id, or -1 for legacy ids
+     */
+    private static int parseSequence(String messageId) {
+        int start = DateTimeUtils.ISO8601_LENGTH + 1;
+        int end = start + SEQUENCE_DIGITS;
+        if (messageId.length() <= end || messageId.charAt(start - 1) != '-' || messageId.charAt(end) != '-') {
+            return -1;
+        }
+        int sequence = 0;
+        for (int i = start; i < end; i++) {
+            char c = messageId.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            sequence = sequence * 10 + (c - '0');
+        }
+        return sequence > SEQUENCE_MASK ? -1 : sequence;
+    }
+}
@@ -19,12 +19,14 @@ package com.janrain.backplane.server;
 import com.janrain.backplane.server.config.AuthException;
 import com.janrain.backplane.server.config.Backplane1Config;
 import com.janrain.backplane.server.config.BpServerConfig;
+import com.janrain.backplane.server.config.BpServerConfigHolder;
 import com.janrain.backplane.server.dao.DaoFactory;
 import com.janrain.backplane.server.dao.redis.RedisBackplaneMessageDAO;
 import com.janrain.backplane2.server.config.User;
-import com.janrain.cache.CachedL1;
 import com.janrain.commons.supersimpledb.SimpleDBException;
 import com.janrain.crypto.HmacHashUtils;
+import com.janrain.crypto.SecureIds;
+import com.janrain.redis.MessageNotifier;
 import com.janrain.servlet.ServletUtil;
 import com.janrain.utils.BackplaneSystemProps;
 import com.yammer.metrics.Metrics;
@@ -33,6 +35,8 @@ import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.TimerContext;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -46,9 +50,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Backplane API implementation.
@@ -90,8 +94,8 @@ public class Backplane1Controller {
         if (bpServerConfig == null) {
             bpServerConfig = new BpServerConfig();
         }
-        // add it to the L1 cache
-        CachedL1.getInstance().setObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY, -1, bpServerConfig);
+        // publish the freshly read config to this node's snapshot
+        BpServerConfigHolder.getInstance().update(bpServerConfig);
 
         ModelAndView view = new ModelAndView("admin");
         view.addObject("adminUserExists", adminUserExists);
@@ -121,8 +125,8 @@ public class Backplane1Controller {
         try {
             bpServerConfig.validate();
             DaoFactory.getConfigDAO().persist(bpServerConfig);
-            // add it to the L1 cache
-            CachedL1.getInstance().setObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY, -1, bpServerConfig);
+            // other nodes pick it up on their next snapshot refresh
+            BpServerConfigHolder.getInstance().update(bpServerConfig);
             logger.info(bpServerConfig.toString());
         } catch (Exception e) {
             logger.error(e);
@@ -177,14 +181,23 @@ public class Backplane1Controller {
 
 
 
+    /**
+     * Returns the messages on the bus after since, as a JSON array streamed to the client.
+     *
+     * With the optional limit parameter, at most limit messages are returned and the X-Backplane-More-Messages
+     * response header tells if there are more; they are fetched with the last returned message id as since.
+     * Without a limit, errors after streaming has started truncate the response, leaving the JSON array unterminated.
+     */
     @RequestMapping(value = "/{version}/bus/{bus}", method = RequestMethod.GET)
-    public @ResponseBody List<HashMap<String,Object>> getBusMessages(
+    public void getBusMessages(
             @PathVariable String version,
             @RequestHeader(value = "Authorization", required = false) String basicAuth,
             @PathVariable String bus,
             @RequestParam(value = "since", defaultValue = "") String since,
-            @RequestParam(value = "sticky", required = false) String sticky )
-            throws AuthException, SimpleDBException, BackplaneServerException {
+            @RequestParam(value = "sticky", required = false) String sticky,
+            @RequestParam(value = "limit", defaultValue = "0") int limit,
+            HttpServletResponse response)
+            throws AuthException, SimpleDBException, BackplaneServerException, IOException {
 
         final TimerContext context = getBusMessagesTime.time();
 
@@ -192,13 +205,53 @@ public class Backplane1Controller {
 
             checkAuth(basicAuth, bus, BusConfig1.BUS_PERMISSION.GETALL);
 
-            List<BackplaneMessage> messages = DaoFactory.getBackplaneMessageDAO().getMessagesByBus(bus, since, sticky);
+            RedisBackplaneMessageDAO backplaneMessageDAO = DaoFactory.getBackplaneMessageDAO();
 
-            List<HashMap<String,Object>> frames = new ArrayList<HashMap<String, Object>>();
-            for (BackplaneMessage message : messages) {
-                frames.add(message.asFrame(version));
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+
+            // fetch and write in batches, to keep the memory used by large dumps bounded
+            JsonGenerator out;
+            if (limit > 0) {
+                int pageSize = Math.min(limit, MAX_BUS_PAGE_SIZE);
+                List<BackplaneMessage> page = getBusMessagesPage(backplaneMessageDAO, bus, since, sticky, pageSize);
+                boolean moreMessages = page.size() > pageSize;
+                response.setHeader(MORE_MESSAGES_HEADER, Boolean.toString(moreMessages));
+                out = JSON_MAPPER.getJsonFactory().createJsonGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+                out.writeStartArray();
+                for (BackplaneMessage message : moreMessages ? page.subList(0, pageSize) : page) {
+                    JSON_MAPPER.writeValue(out, message.asFrame(version));
+                }
+            } else {
+                response.setHeader(MORE_MESSAGES_HEADER, Boolean.toString(false));
+                List<String> ids = backplaneMessageDAO.getMessageIdsByBus(bus, since, 0);
+                // errors up to the first batch still get an error response, nothing has been written yet
+                List<BackplaneMessage> batch = backplaneMessageDAO.getMessages(ids.subList(0, Math.min(BUS_FETCH_BATCH_SIZE, ids.size())), sticky);
+                out = JSON_MAPPER.getJsonFactory().createJsonGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+                try {
+                    out.writeStartArray();
+                    for (int i = BUS_FETCH_BATCH_SIZE; ; i += BUS_FETCH_BATCH_SIZE) {
+                        for (BackplaneMessage message : batch) {
+                            JSON_MAPPER.writeValue(out, message.asFrame(version));
+                        }
+                        out.flush();
+                        if (i >= ids.size()) break;
+                        batch = backplaneMessageDAO.getMessages(ids.subList(i, Math.min(i + BUS_FETCH_BATCH_SIZE, ids.size())), sticky);
+                    }
+                } catch (Exception e) {
+                    // the response is committed: abort it with the JSON array left open, so that clients see an error
+                    logger.error("Bus " + bus + " messages response aborted: " + e.getMessage(), e);
+                    out.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                    try {
+                        out.close();
+                    } catch (IOException closeError) {
+                        logger.debug("Error closing aborted bus " + bus + " messages response: " + closeError.getMessage());
+                    }
+                    return;
+                }
             }
-            return frames;
+            out.writeEndArray();
+            out.close();
 
         } finally {
             context.stop();
@@ -213,7 +266,8 @@ public class Backplane1Controller {
             @PathVariable String channel,
             @RequestParam(required = false) String callback,
             @RequestParam(value = "since", required = false) String since,
-            @RequestParam(value = "sticky", required = false) String sticky)
+            @RequestParam(value = "sticky", required = false) String sticky,
+            @RequestParam(value = "block", defaultValue = "0") int block)
             throws SimpleDBException, AuthException, BackplaneServerException {
 
         logger.debug("request started");
@@ -221,7 +275,7 @@ public class Backplane1Controller {
         try {
 
             return new ResponseEntity<String>(
-                    NEW_CHANNEL_LAST_PATH.equals(channel) ? newChannel() : getChannelMessages(bus, channel, since, sticky, version),
+                    NEW_CHANNEL_LAST_PATH.equals(channel) ? newChannel() : getChannelMessages(bus, channel, since, sticky, block, version),
                     new HttpHeaders() {{
                         add("Content-Type", "application/json");
                     }},
@@ -241,6 +295,8 @@ public class Backplane1Controller {
             @PathVariable String bus,
             @PathVariable String channel) throws AuthException, SimpleDBException, BackplaneServerException {
 
+        checkMessageQueueDepth();
+
         checkAuth(basicAuth, bus, BusConfig1.BUS_PERMISSION.POST);
 
         final TimerContext context = postMessagesTime.time();
@@ -258,13 +314,15 @@ public class Backplane1Controller {
 
             BusConfig1 busConfig = DaoFactory.getBusDAO().get(bus);
 
+            // build all messages first, so that an invalid one doesn't leave the post half-applied
+            List<BackplaneMessage> backplaneMessages = new ArrayList<BackplaneMessage>(messages.size());
             for(Map<String,Object> messageData : messages) {
-                BackplaneMessage message = new BackplaneMessage(bus, channel,
+                backplaneMessages.add(new BackplaneMessage(bus, channel,
                         busConfig.getRetentionTimeSeconds(),
                         busConfig.getRetentionTimeStickySeconds(),
-                        messageData);
-                backplaneMessageDAO.persist(message);
+                        messageData));
             }
+            backplaneMessageDAO.persistAll(backplaneMessages);
 
             return "";
 
@@ -286,6 +344,17 @@ public class Backplane1Controller {
         }};
     }
 
+    @ExceptionHandler
+    @ResponseBody
+    public Map<String, String> handle(final ServerBusyException sbe, HttpServletResponse response) {
+        logger.warn("Backplane request not admitted: " + sbe.getMessage());
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", Long.toString(sbe.getRetryAfterSeconds()));
+        return new HashMap<String,String>() {{
+            put(ERR_MSG_FIELD, sbe.getMessage());
+        }};
+    }
+
     @ExceptionHandler
     @ResponseBody
     public Map<String, String> handle(final BackplaneServerException bse, HttpServletResponse response) {
@@ -311,24 +380,9 @@ public class Backplane1Controller {
     }
 
     public static String randomString(int length) {
-        byte[] randomBytes = new byte[length];
-        random.nextBytes(randomBytes);
-        for (int i = 0; i < length; i++) {
-            byte b = randomBytes[i];
-            int c = Math.abs(b % 16);
-            if (c < 10) c += 48; // map (0..9) to '0' .. '9'
-            else c += (97 - 10);   // map (10..15) to 'a'..'f'
-            randomBytes[i] = (byte) c;
-        }
-        try {
-            return new String(randomBytes, "US-ASCII");
-        }
-        catch (UnsupportedEncodingException e) {
-            logger.error("US-ASCII character encoding not supported", e); // shouldn't happen
-            return null;
-        }
+        return SecureIds.randomHexString(length);
     }
-    
+
     // - PRIVATE
 
     private static final Logger logger = Logger.getLogger(Backplane1Controller.class);
@@ -336,6 +390,16 @@ public class Backplane1Controller {
     private static final String NEW_CHANNEL_LAST_PATH = "new";
     private static final String ERR_MSG_FIELD = "ERR_MSG";
     private static final int CHANNEL_NAME_LENGTH = 32;
+    private static final int MAX_BUS_PAGE_SIZE = 1000;
+    private static final int BUS_FETCH_BATCH_SIZE = 100;
+    private static final String MORE_MESSAGES_HEADER = "X-Backplane-More-Messages";
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final int MAX_BLOCK_SECONDS = 25;
+    private static final int MAX_BLOCKED_REQUESTS = 500;
+    private static final long BLOCK_POLL_MILLIS = 3000L;
+    private static final long BLOCK_RECHECK_MILLIS = 250L;
+
+    private final AtomicInteger blockedRequests = new AtomicInteger(0);
 
     private final com.yammer.metrics.core.Timer getBusMessagesTime =
             Metrics.newTimer(new MetricName("v1", this.getClass().getName().replace(".","_"), "get_bus_messages_time"), TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
@@ -354,7 +418,14 @@ public class Backplane1Controller {
     @Inject
     private Backplane1Config bpConfig;
 
-    private static final Random random = new SecureRandom();
+    private static final long SHED_RETRY_AFTER_MILLIS = 5000L;
+
+    private void checkMessageQueueDepth() throws ServerBusyException {
+        long max = bpConfig.getMessageQueueMax();
+        if (max > 0 && bpConfig.getMessageQueueDepth() >= max) {
+            throw new ServerBusyException("Message queue is full, try again later", SHED_RETRY_AFTER_MILLIS);
+        }
+    }
 
     private void checkAuth(String basicAuth, String bus, BusConfig1.BUS_PERMISSION permission) throws AuthException {
         // authN
@@ -417,21 +488,48 @@ public class Backplane1Controller {
     	return newChannel;
     }
 
-    private String getChannelMessages(final String bus, final String channel, final String since, final String sticky, final String version) throws SimpleDBException, BackplaneServerException {
+    /**
+     * Collects up to pageSize + 1 messages from the bus after since, scanning the bus index past
+     * the ids whose messages have expired or are filtered out by sticky, so that a short page
+     * always means the end of the bus.
+     */
+    private List<BackplaneMessage> getBusMessagesPage(RedisBackplaneMessageDAO backplaneMessageDAO,
+                                                      String bus, String since, String sticky, int pageSize)
+            throws BackplaneServerException {
+        List<BackplaneMessage> page = new ArrayList<BackplaneMessage>(pageSize + 1);
+        String cursor = since;
+        while (page.size() <= pageSize) {
+            int scanSize = pageSize + 1 - page.size();
+            List<String> ids = backplaneMessageDAO.getMessageIdsByBus(bus, cursor, scanSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            page.addAll(backplaneMessageDAO.getMessages(ids, sticky));
+            if (ids.size() < scanSize) {
+                break;
+            }
+            cursor = ids.get(ids.size() - 1);
+        }
+        return page;
+    }
+
+    private String getChannelMessages(final String bus, final String channel, final String since, final String sticky, int block, final String version) throws SimpleDBException, BackplaneServerException {
 
-        final TimerContext context = getChannelMessagesTime.time();
+        // only time the event if it is not blocking
+        final TimerContext context = block > 0 ? null : getChannelMessagesTime.time();
 
         try {
-            List<BackplaneMessage> messages = DaoFactory.getBackplaneMessageDAO().getMessagesByChannel(bus, channel, since, sticky);
+            List<BackplaneMessage> messages = block > 0 ?
+                    waitForChannelMessages(bus, channel, since, sticky, block) :
+                    DaoFactory.getBackplaneMessageDAO().getMessagesByChannel(bus, channel, since, sticky);
             List<Map<String,Object>> frames = new ArrayList<Map<String, Object>>();
 
             for (BackplaneMessage message : messages) {
                 frames.add(message.asFrame(version));
             }
 
-            ObjectMapper mapper = new ObjectMapper();
             try {
-                String payload = mapper.writeValueAsString(frames);
+                String payload = JSON_MAPPER.writeValueAsString(frames);
                 payLoadSizesOnGets.update(payload.length());
                 return payload;
             } catch (IOException e) {
@@ -446,7 +544,48 @@ public class Backplane1Controller {
         } catch (Exception e) {
             throw new BackplaneServerException(e.getMessage(), e);
         } finally {
-            context.stop();
+            if (context != null) {
+                context.stop();
+            }
+        }
+    }
+
+    /**
+     * Waits up to block seconds (at most MAX_BLOCK_SECONDS) for messages on the channel,
+     * woken up by the v1 message commit notifications.
+     */
+    private List<BackplaneMessage> waitForChannelMessages(String bus, String channel, String since, String sticky, int block)
+            throws SimpleDBException, BackplaneServerException {
+
+        RedisBackplaneMessageDAO backplaneMessageDAO = DaoFactory.getBackplaneMessageDAO();
+        if (blockedRequests.incrementAndGet() > MAX_BLOCKED_REQUESTS) {
+            // don't run out of request threads, answer right away
+            blockedRequests.decrementAndGet();
+            return backplaneMessageDAO.getMessagesByChannel(bus, channel, since, sticky);
+        }
+
+        MessageNotifier notifier = MessageNotifier.getV1Instance();
+        ChannelWaiter waiter = new ChannelWaiter(bus, channel);
+        // listen before the first read, so that no commit is missed in between
+        notifier.addListener(waiter);
+        try {
+            long end = System.currentTimeMillis() + Math.min(block, MAX_BLOCK_SECONDS) * 1000L;
+            List<BackplaneMessage> messages = backplaneMessageDAO.getMessagesByChannel(bus, channel, since, sticky);
+            boolean recheck = false;
+            long remaining;
+            while (messages.isEmpty() && (remaining = end - System.currentTimeMillis()) > 0) {
+                long wait = recheck ? BLOCK_RECHECK_MILLIS : notifier.isConnected() ? remaining : BLOCK_POLL_MILLIS;
+                boolean notified = waiter.await(Math.min(wait, remaining));
+                if (notified || recheck || ! notifier.isConnected()) {
+                    messages = backplaneMessageDAO.getMessagesByChannel(bus, channel, since, sticky);
+                    // a notification may arrive before the commit is visible on the read replica, look once more
+                    recheck = notified && messages.isEmpty();
+                }
+            }
+            return messages;
+        } finally {
+            notifier.removeListener(waiter);
+            blockedRequests.decrementAndGet();
         }
     }
 }
@@ -17,9 +17,9 @@
 package com.janrain.backplane.server;
 
 import com.janrain.backplane.DateTimeUtils;
+import com.janrain.backplane.MessageId;
 import com.janrain.commons.supersimpledb.SimpleDBException;
 import com.janrain.commons.supersimpledb.message.MessageField;
-import com.janrain.commons.util.Pair;
 import com.janrain.crypto.ChannelUtil;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -42,7 +42,7 @@ public class BackplaneMessage extends ExternalizableCore {
 
     public BackplaneMessage(String bus, String channel, int defaultExpireSeconds, int maxExpireSeconds, Map<String, Object> data) throws BackplaneServerException, SimpleDBException {
         Map<String,String> d = new LinkedHashMap<String, String>(toStringMap(data));
-        String id = generateMessageId(new Date());
+        String id = generateMessageId(System.currentTimeMillis());
         d.put(Field.ID.getFieldName(), id);
         d.put(Field.BUS.getFieldName(), bus);
         d.put(Field.CHANNEL_NAME.getFieldName(), channel);
@@ -63,22 +63,26 @@ public class BackplaneMessage extends ExternalizableCore {
         return EnumSet.allOf(Field.class);
     }
 
-    public Pair<String, Date> updateId(Pair<String, Date> lastIdAndDate) {
-        long thisTime = getDateFromId(getIdValue()).getTime();
-        long lastTime = 0;
-        if (StringUtils.isNotEmpty(lastIdAndDate.getLeft())) {
-            lastTime = getDateFromId(lastIdAndDate.getLeft()).getTime();
+    /**
+     * Assigns the message its final id, the next after lastId if the message's id isn't already greater.
+     *
+     * @return the message's numeric id
+     */
+    public long updateId(long lastId) {
+        String currentId = getIdValue();
+        long id = currentId == null ? -1 : MessageId.parse(currentId);
+        if (id < 0) {
+            id = MessageId.fromTime(System.currentTimeMillis());
         }
-
-        if (thisTime <= lastTime) {
-            logger.warn("message has an id " + getIdValue() + " that is not > the latest id of " + lastIdAndDate.getLeft());
-            Date newDate = new Date(lastIdAndDate.getRight().getTime() + 1);
-            put(Field.ID.getFieldName(), generateMessageId(newDate));
-            logger.warn("fixed");
-            return new Pair<String, Date>(getIdValue(), newDate);
-        } else {
-            return lastIdAndDate;
+        if (id <= lastId) {
+            if (MessageId.getTime(id) < MessageId.getTime(lastId)) {
+                logger.warn("message has an id " + currentId + " that is not > the latest id of " + MessageId.format(lastId, ""));
+            }
+            // next sequence number within the latest id's millisecond
+            id = lastId + 1;
         }
+        put(Field.ID.getFieldName(), MessageId.format(id, currentId == null ? ChannelUtil.randomString(10) : MessageId.getSuffix(currentId)));
+        return id;
     }
 
     public String getBus() {
@@ -200,12 +204,12 @@ public class BackplaneMessage extends ExternalizableCore {
             return null;
         }
 
-        try {
-            return DateTimeUtils.ISO8601.get().parse(backplaneMessageId.substring(0, backplaneMessageId.indexOf("Z") + 1));
-        } catch (ParseException e) {
-            logger.warn(e);
+        long time = MessageId.parseTime(backplaneMessageId);
+        if (time < 0) {
+            logger.warn("invalid message id: " + backplaneMessageId);
+            return null;
         }
-        return null;
+        return new Date(time);
     }
 
     // - PRIVATE
@@ -217,8 +221,8 @@ public class BackplaneMessage extends ExternalizableCore {
     /**
      * @return a time-based, lexicographically comparable message ID.
      */
-    private static String generateMessageId(Date date) {
-        return DateTimeUtils.ISO8601.get().format(date) + "-" + ChannelUtil.randomString(10);
+    private static String generateMessageId(long millis) {
+        return MessageId.format(MessageId.fromTime(millis), ChannelUtil.randomString(10));
     }
 
     private String extractFieldValueAsJsonString(Field field, Map<String,Object> data) throws BackplaneServerException {
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.server;
+
+import com.janrain.redis.MessageNotifier;
+
+/**
+ * Blocks a channel request until a message is committed to the channel, as reported by the v1 MessageNotifier.
+ */
+public class ChannelWaiter implements MessageNotifier.Listener {
+
+    // - PUBLIC
+
+    public ChannelWaiter(String bus, String channel) {
+        this.bus = bus;
+        this.channel = channel;
+    }
+
+    /**
+     * Waits up to millis for a message to be committed to the channel since the previous call (or since creation).
+     *
+     * @return true if a message was committed to the channel
+     */
+    public boolean await(long millis) {
+        synchronized (lock) {
+            long until = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (! signalled && remaining > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining = until - System.currentTimeMillis();
+            }
+            boolean result = signalled;
+            signalled = false;
+            return result;
+        }
+    }
+
+    @Override
+    public void messageCommitted(String bus, String channel, String messageId) {
+        if (this.channel.equals(channel) && this.bus.equals(bus)) {
+            signal();
+        }
+    }
+
+    @Override
+    public void subscribed() {
+        // notifications may have been missed
+        signal();
+    }
+
+    // - PRIVATE
+
+    private final String bus;
+    private final String channel;
+
+    private final Object lock = new Object();
+    private boolean signalled = false;
+
+    private void signal() {
+        synchronized (lock) {
+            signalled = true;
+            lock.notifyAll();
+        }
+    }
+}
@@ -17,12 +17,16 @@
 package com.janrain.backplane.server;
 
 import com.janrain.backplane.DateTimeUtils;
+import com.janrain.backplane.MessageId;
 import com.janrain.backplane.server.config.Backplane1Config;
 import com.janrain.backplane.server.dao.DaoFactory;
+import com.janrain.backplane.server.dao.redis.ChannelIndexMigration;
 import com.janrain.backplane.server.dao.redis.RedisBackplaneMessageDAO;
-import com.janrain.commons.util.Pair;
+import com.janrain.redis.Keyspace;
+import com.janrain.redis.MessageNotifier;
 import com.janrain.redis.Redis;
 import com.janrain.utils.BackplaneSystemProps;
+import com.janrain.utils.LogSampler;
 import com.netflix.curator.framework.CuratorFramework;
 import com.netflix.curator.framework.recipes.leader.LeaderSelectorListener;
 import com.netflix.curator.framework.state.ConnectionState;
@@ -36,7 +40,6 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Transaction;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executors;
@@ -59,7 +62,9 @@ public class MessageProcessor implements LeaderSelectorListener {
         logger.info("[" + BackplaneSystemProps.getMachineName() + "] v1 leader elected for message processing");
 
         ScheduledFuture<?> cleanupTask = scheduledExecutor.scheduleAtFixedRate(cleanupRunnable, 2, 2, TimeUnit.HOURS);
+        ScheduledFuture<?> migrationTask = scheduledExecutor.scheduleWithFixedDelay(ChannelIndexMigration.getInstance(), 0, 1, TimeUnit.SECONDS);
         insertMessages();
+        migrationTask.cancel(false);
         cleanupTask.cancel(false);
 
         logger.info("[" + BackplaneSystemProps.getMachineName() + "] v1 leader ended message processing");
@@ -78,7 +83,10 @@ public class MessageProcessor implements LeaderSelectorListener {
 
     private static final Logger logger = Logger.getLogger(MessageProcessor.class);
 
-    private static final String V1_LAST_ID = "v1_last_id";
+    /** at INFO level, one in this many message transactions is logged */
+    private static final int FLUSHED_LOG_SAMPLE_RATE = 100;
+
+    private static final String V1_LAST_ID = Keyspace.V1_LAST_ID.getName();
 
     private static ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(1);
     static {
@@ -98,6 +106,8 @@ public class MessageProcessor implements LeaderSelectorListener {
 
     private final Histogram timeInQueue = Metrics.newHistogram(new MetricName("v1", this.getClass().getName().replace(".","_"), "time_in_queue"));
 
+    private final LogSampler flushedLog = new LogSampler(FLUSHED_LOG_SAMPLE_RATE);
+
     private synchronized void setLeader(boolean leader) {
         this.leader = leader;
     }
@@ -127,22 +137,28 @@ public class MessageProcessor implements LeaderSelectorListener {
                 try {
 
                     jedis = Redis.getInstance().getWriteJedis();
-                    logger.debug("retrieved jedis connection: " + jedis.toString());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("retrieved jedis connection: " + jedis.toString());
+                    }
 
                     // set watch on V1_LAST_ID
                     // needs to be set before retrieving the value stored at this key
                     jedis.watch(V1_LAST_ID);
-                    Pair<String,Date> lastIdAndDate = getLastMessageId(jedis);
-                    String newId = lastIdAndDate.getLeft();
+                    String newId = jedis.get(V1_LAST_ID);
+                    long lastId = getLastMessageId(jedis, newId);
 
                     // retrieve a handful of messages (ten) off the queue for processing
                     List<byte[]> messagesToProcess = jedis.lrange(RedisBackplaneMessageDAO.V1_MESSAGE_QUEUE.getBytes(), 0, 9);
 
-                    logger.debug("number of messages to process: " + messagesToProcess.size());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("number of messages to process: " + messagesToProcess.size());
+                    }
 
                     // only enter the next block if we have messages to process
                     if (messagesToProcess.size() > 0) {
 
+                        boolean writeChannelList = ChannelIndexMigration.getInstance().isWriteOld();
+
                         Transaction transaction = jedis.multi();
 
                         insertionTimes.clear();
@@ -170,16 +186,16 @@ public class MessageProcessor implements LeaderSelectorListener {
 
                                     // TOTAL ORDER GUARANTEE
                                     // verify that the date portion of the new message ID is greater than all existing message ID dates
-                                    // if not, uptick id by 1 ms and insert
-                                    // this means that all message ids have unique time stamps, even if they
+                                    // if not, take the next sequence number after the last id and insert
+                                    // this means that all message ids are unique and ordered, even if they
                                     // arrived at the same time.
 
-                                    lastIdAndDate = backplaneMessage.updateId(lastIdAndDate);
+                                    lastId = backplaneMessage.updateId(lastId);
                                     newId = backplaneMessage.getIdValue();
 
-                                    // messageTime is guaranteed to be a unique identifier of the message
+                                    // the numeric id is guaranteed to be a unique identifier of the message
                                     // because of the TOTAL ORDER mechanism above
-                                    long messageTime = BackplaneMessage.getDateFromId(newId).getTime();
+                                    long messageTime = lastId;
 
                                     // save the individual message by key
                                     transaction.set(RedisBackplaneMessageDAO.getKey(newId), SerializationUtils.serialize(backplaneMessage));
@@ -190,8 +206,11 @@ public class MessageProcessor implements LeaderSelectorListener {
                                         transaction.expire(RedisBackplaneMessageDAO.getKey(newId), retentionTimeSeconds);
                                     }
 
-                                    // add message id to channel list
-                                    transaction.rpush(RedisBackplaneMessageDAO.getChannelKey(backplaneMessage.getChannel()), newId.getBytes());
+                                    // add message id to channel list, until the channel index migration is cut over
+                                    if (writeChannelList) {
+                                        transaction.rpush(RedisBackplaneMessageDAO.getChannelKey(backplaneMessage.getChannel()), newId.getBytes());
+                                    }
+                                    transaction.zadd(RedisBackplaneMessageDAO.getChannelIndexKey(backplaneMessage.getChannel()), messageTime, newId.getBytes());
 
                                     // add message id to sorted set of all message ids as an index
                                     String metaData = backplaneMessage.getBus() + " " + backplaneMessage.getChannel() + " " + newId;
@@ -202,34 +221,44 @@ public class MessageProcessor implements LeaderSelectorListener {
 
                                     // make sure all subscribers get the update
                                     transaction.publish("alerts", newId);
+                                    transaction.publish(MessageNotifier.V1_ALERTS_CHANNEL,
+                                            MessageNotifier.notification(backplaneMessage.getBus(), backplaneMessage.getChannel(), newId));
 
                                     // pop one message off the queue - which will only happen if this transaction is successful
                                     transaction.lpop(RedisBackplaneMessageDAO.V1_MESSAGE_QUEUE);
 
-                                    logger.info("pipelined message " + oldId + " -> " + newId);
+                                    if (logger.isDebugEnabled()) {
+                                        logger.debug("pipelined message " + oldId + " -> " + newId);
+                                    }
                                 }
                             }
                         } // for messages
 
                         transaction.set(V1_LAST_ID, newId);
 
-                        logger.info("processing transaction with " + insertionTimes.size() + " message(s)");
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("processing transaction with " + insertionTimes.size() + " message(s)");
+                        }
                         if (transaction.exec() == null) {
                             // the transaction failed
                             continue;
                         }
                         // </ATOMIC> - redis transaction
 
-                        logger.info("flushed " + insertionTimes.size() + " messages");
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("flushed " + insertionTimes.size() + " messages");
+                        } else if (flushedLog.sample() && logger.isInfoEnabled()) {
+                            logger.info("flushed " + insertionTimes.size() + " messages (1 in " + flushedLog.getRate() + " transactions logged)");
+                        }
                         long now = System.currentTimeMillis();
                         for (String insertionId : insertionTimes) {
-                            Date oldIdDate = BackplaneMessage.getDateFromId(insertionId);
-                            long diff = now - oldIdDate.getTime();
+                            long oldIdTime = MessageId.parseTime(insertionId);
+                            long diff = now - oldIdTime;
                             timeInQueue.update(diff);
                             if (diff < 0 || diff > 2880000) {
                                 logger.warn("time diff is bizarre at: " + diff
-                                        + "; now: " + DateTimeUtils.ISO8601.get().format(new Date(now))
-                                        + ", oldId: " + DateTimeUtils.ISO8601.get().format(oldIdDate));
+                                        + "; now: " + DateTimeUtils.formatIso8601(now)
+                                        + ", oldId: " + insertionId);
                             }
                         }
 
@@ -267,16 +296,15 @@ public class MessageProcessor implements LeaderSelectorListener {
         }
     }
 
-    private Pair<String,Date> getLastMessageId(Jedis jedis) {
-        // retrieve the latest 'live' message ID
-        String latestMessageId = jedis.get(V1_LAST_ID);
-        Date dateFromId = BackplaneMessage.getDateFromId(latestMessageId);
-        return StringUtils.isEmpty(latestMessageId) || null == dateFromId ?
-                getLastMessageIdLegacy(jedis) :
-                new Pair<String, Date>(latestMessageId, dateFromId);
+    /**
+     * @return the numeric id of the latest 'live' message
+     */
+    private long getLastMessageId(Jedis jedis, String latestMessageId) {
+        long lastId = StringUtils.isEmpty(latestMessageId) ? -1 : MessageId.parse(latestMessageId);
+        return lastId < 0 ? getLastMessageIdLegacy(jedis) : lastId;
     }
 
-    private Pair<String,Date> getLastMessageIdLegacy(Jedis jedis) {
+    private long getLastMessageIdLegacy(Jedis jedis) {
         // retrieve the latest 'live' message ID
         // old/legacy method, used as fallback with the deployment of the replacement method
         // todo: remove after transition is completed
@@ -290,13 +318,11 @@ public class MessageProcessor implements LeaderSelectorListener {
             }
         }
 
-        try {
-            return StringUtils.isEmpty(latestMessageId) ?
-                    new Pair<String, Date>("", new Date(0)) :
-                    new Pair<String, Date>(latestMessageId, DateTimeUtils.ISO8601.get().parse(latestMessageId.substring(0, latestMessageId.indexOf("Z") + 1)));
-        } catch (Exception e) {
-            logger.warn("error retrieving last message ID and date from V1_MESSAGES: " + e.getMessage(), e);
-            return new Pair<String, Date>("", new Date(0));
+        long lastId = StringUtils.isEmpty(latestMessageId) ? 0 : MessageId.parse(latestMessageId);
+        if (lastId < 0) {
+            logger.warn("error retrieving last message ID from V1_MESSAGES: " + latestMessageId);
+            return 0;
         }
+        return lastId;
     }
 }
@@ -17,11 +17,13 @@
 package com.janrain.backplane.server.config;
 
 import com.janrain.backplane.server.MessageProcessor;
-import com.janrain.backplane.server.dao.DaoFactory;
-import com.janrain.cache.CachedL1;
+import com.janrain.backplane.server.dao.redis.ChannelIndexMigration;
+import com.janrain.backplane.server.dao.redis.RedisBackplaneMessageDAO;
 import com.janrain.commons.util.AwsUtility;
 import com.janrain.commons.util.InitSystemProps;
-import com.janrain.redis.Redis;
+import com.janrain.redis.GroupCommitWriter;
+import com.janrain.redis.MessageNotifier;
+import com.janrain.redis.QueueDepthMonitor;
 import com.janrain.utils.BackplaneSystemProps;
 import com.netflix.curator.framework.CuratorFramework;
 import com.netflix.curator.framework.CuratorFrameworkFactory;
@@ -58,7 +60,7 @@ public class Backplane1Config {
 	 * @return the debugMode
 	 */
 	public static boolean isDebugMode() {
-        return Boolean.valueOf(cachedGet(BpServerConfig.Field.DEBUG_MODE));
+        return BpServerConfigHolder.getInstance().get().isDebugMode();
 	}
 
     /**
@@ -66,13 +68,11 @@ public class Backplane1Config {
      */
 
     public long getDefaultMaxMessageLimit() {
-        Long max = Long.valueOf(cachedGet(BpServerConfig.Field.DEFAULT_MESSAGES_MAX));
-        return max == null ? Backplane1Config.BP_MAX_MESSAGES_DEFAULT : max;
+        return BpServerConfigHolder.getInstance().get().getDefaultMessagesMax();
     }
 
     public static boolean isLeaderDisabled() {
-        // skip DAO layer, not so crazy about editing serialized streams for debug, yay FED-76
-        return isDebugMode() && Redis.getInstance().get(EC2InstanceId) != null;
+        return BpServerConfigHolder.getInstance().get().isLeaderDisabled();
     }
 
     public Exception getDebugException(Exception e) {
@@ -96,6 +96,20 @@ public class Backplane1Config {
         return EC2InstanceId;
     }
 
+    /**
+     * @return sampled length of the incoming message queue
+     */
+    public long getMessageQueueDepth() {
+        return messageQueueMonitor.getDepth();
+    }
+
+    /**
+     * @return incoming message queue length above which new posts are rejected, 0 if unlimited
+     */
+    public long getMessageQueueMax() {
+        return BpServerConfigHolder.getInstance().get().getMessageQueueMax();
+    }
+
     public static void addToBackgroundServices(ScheduledExecutorService messageWorkerTask) {
         backgroundServices.add(messageWorkerTask);
     }
@@ -127,13 +141,16 @@ public class Backplane1Config {
 
     private static final String BUILD_PROPERTIES = "/build.properties";
     private static final String BUILD_VERSION_PROPERTY = "build.version";
-    private static final String BP_CONFIG_ENTRY_NAME = "bpserverconfig";
-    private static final long BP_MAX_MESSAGES_DEFAULT = 100;
     private static final Properties buildProperties = new Properties();
     private static final List<ExecutorService> backgroundServices = new ArrayList<ExecutorService>();
 
     private final String bpInstanceId;
 
+    private static final long MESSAGE_QUEUE_SAMPLE_MILLIS = 500L;
+
+    private final QueueDepthMonitor messageQueueMonitor = new QueueDepthMonitor(RedisBackplaneMessageDAO.V1_MESSAGE_QUEUE,
+            new MetricName("v1", MessageProcessor.class.getName().replace(".","_"), "queue_depth"));
+
     // Amazon specific instance-id value
     private static String EC2InstanceId = AwsUtility.retrieveEC2InstanceId();
 
@@ -157,6 +174,19 @@ public class Backplane1Config {
 
     @PostConstruct
     private void init() {
+        backgroundServices.add(BpServerConfigHolder.getInstance().start(EC2InstanceId));
+
+        if (BackplaneSystemProps.isInMemory()) {
+            logger.warn("v1 requires Redis and ZooKeeper, v1 message processing not started with " +
+                    BackplaneSystemProps.DAO_FACTORY + "=memory");
+            return;
+        }
+
+        backgroundServices.add(messageQueueMonitor.start(MESSAGE_QUEUE_SAMPLE_MILLIS));
+        backgroundServices.add(GroupCommitWriter.getInstance().start());
+        backgroundServices.add(MessageNotifier.getV1Instance().start());
+        backgroundServices.add(ChannelIndexMigration.getInstance().start());
+
         try {
             String zkServerConfig = System.getProperty(BackplaneSystemProps.ZOOKEEPER_SERVERS);
             if (StringUtils.isEmpty(zkServerConfig)) {
@@ -194,28 +224,4 @@ public class Backplane1Config {
         }
     }
 
-    private static String cachedGet(BpServerConfig.Field property) {
-
-        BpServerConfig bpServerConfigCache = (BpServerConfig) CachedL1.getInstance().getObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY);
-        if (bpServerConfigCache == null) {
-            // pull from db if not found in cache
-            try {
-                bpServerConfigCache = DaoFactory.getConfigDAO().get(BackplaneSystemProps.BPSERVER_CONFIG_KEY);
-            } catch (Exception e) {
-                bpServerConfigCache = null;
-            }
-
-            if (bpServerConfigCache == null) {
-                // no instance found in cache or the db, so let's use the default record
-                bpServerConfigCache = new BpServerConfig();
-            }
-            // add it to the L1 cache
-            CachedL1.getInstance().setObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY, -1, bpServerConfigCache);
-        }
-
-        return bpServerConfigCache.get(property);
-
-    }
-
-
 }
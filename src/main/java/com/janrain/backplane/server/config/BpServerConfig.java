@@ -27,6 +27,7 @@ public class BpServerConfig extends ExternalizableCore {
         d.put(Field.DEFAULT_MESSAGES_MAX.getFieldName(), Long.toString(Field.MESSAGES_MAX_DEFAULT));
         d.put(Field.CONFIG_CACHE_AGE_SECONDS.getFieldName(), Long.toString(Field.CONFIG_CACHE_AGE_SECONDS_DEFAULT));
         d.put(Field.TOKEN_CACHE_MAX_MB.getFieldName(), Long.toString(Field.TOKEN_CACHE_MAX_MB_DEFAULT));
+        d.put(Field.MESSAGE_QUEUE_MAX.getFieldName(), Long.toString(Field.MESSAGE_QUEUE_MAX_DEFAULT));
 
         try {
             super.init(BackplaneSystemProps.BPSERVER_CONFIG_KEY, d);
@@ -74,7 +75,20 @@ public class BpServerConfig extends ExternalizableCore {
                     int intValue = validateInt(fieldName, value);
                 }
             }},
-        TOKEN_CACHE_MAX_MB;
+        TOKEN_CACHE_MAX_MB,
+        /** incoming message queue length above which new posts are rejected; 0 disables, optional */
+        MESSAGE_QUEUE_MAX {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+
+            @Override
+            public void validate(String value) throws SimpleDBException {
+                if (value != null) {
+                    validateInt(getFieldName(), value);
+                }
+            }};
 
         @Override
         public String getFieldName() {
@@ -98,6 +112,7 @@ public class BpServerConfig extends ExternalizableCore {
         private static final long CLEANUP_INTERVAL_MINUTES_DEFAULT = 2;
         private static final long MESSAGES_MAX_DEFAULT = 50;
         private static final long TOKEN_CACHE_MAX_MB_DEFAULT = 100;
+        private static final long MESSAGE_QUEUE_MAX_DEFAULT = 100000;
     }
 
     // PRIVATE
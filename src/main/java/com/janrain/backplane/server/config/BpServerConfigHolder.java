@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.server.config;
+
+import com.janrain.backplane.server.dao.DaoFactory;
+import com.janrain.redis.Redis;
+import com.janrain.utils.BackplaneSystemProps;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the current server configuration as an immutable snapshot behind a volatile reference.
+ *
+ * Hot paths (debug mode checks, exception handlers, the message processor loops) read plain fields
+ * from the current snapshot; the backing store is only consulted by the background refresh task,
+ * which re-reads it every CONFIG_CACHE_AGE_SECONDS, and by explicit updates from the admin pages.
+ */
+public class BpServerConfigHolder {
+
+    // - PUBLIC
+
+    public static BpServerConfigHolder getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the current configuration snapshot, loaded from the store on first use
+     */
+    public Snapshot get() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    refresh();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Starts the background refresh task, if not already running.
+     *
+     * @param instanceId this node's instance id, under which the leader override flag is set
+     * @return the executor running the refresh task, for shutdown by the owner
+     */
+    public synchronized ScheduledExecutorService start(String instanceId) {
+        this.instanceId = instanceId;
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor();
+            scheduleRefresh(0);
+        }
+        return refresher;
+    }
+
+    /**
+     * Re-reads the configuration and the leader override flag from the backing store
+     * and publishes a new snapshot.
+     */
+    public void refresh() {
+        BpServerConfig config = null;
+        try {
+            config = DaoFactory.getConfigDAO().get(BackplaneSystemProps.BPSERVER_CONFIG_KEY);
+        } catch (Exception e) {
+            logger.warn("error reading server configuration, keeping current snapshot: " + e.getMessage());
+            if (snapshot != null) {
+                return;
+            }
+        }
+        update(config);
+    }
+
+    /**
+     * Publishes a snapshot of the provided configuration, e.g. right after it was persisted
+     * by an admin update, without waiting for the next refresh.
+     */
+    public void update(BpServerConfig config) {
+        Snapshot next = new Snapshot(config == null ? new BpServerConfig() : config, readLeaderDisabled(config));
+        Snapshot previous = snapshot;
+        snapshot = next;
+        if (previous != null && previous.isDebugMode() != next.isDebugMode()) {
+            logger.info("debug mode changed to " + next.isDebugMode());
+        }
+    }
+
+    /**
+     * Immutable, pre-parsed view of a BpServerConfig.
+     */
+    public static final class Snapshot {
+
+        public boolean isDebugMode() {
+            return debugMode;
+        }
+
+        public boolean isLeaderDisabled() {
+            return leaderDisabled;
+        }
+
+        public long getDefaultMessagesMax() {
+            return defaultMessagesMax;
+        }
+
+        public long getConfigCacheAgeSeconds() {
+            return configCacheAgeSeconds;
+        }
+
+        public long getCleanupIntervalMinutes() {
+            return cleanupIntervalMinutes;
+        }
+
+        public long getTokenCacheMaxMb() {
+            return tokenCacheMaxMb;
+        }
+
+        /**
+         * @return incoming message queue length above which new posts are rejected, 0 if unlimited
+         */
+        public long getMessageQueueMax() {
+            return messageQueueMax;
+        }
+
+        /**
+         * @return raw field value, for fields without a typed getter
+         */
+        public String get(BpServerConfig.Field field) {
+            return config.get(field);
+        }
+
+        // - PRIVATE
+
+        private final BpServerConfig config;
+        private final boolean debugMode;
+        private final boolean leaderDisabled;
+        private final long defaultMessagesMax;
+        private final long configCacheAgeSeconds;
+        private final long cleanupIntervalMinutes;
+        private final long tokenCacheMaxMb;
+        private final long messageQueueMax;
+
+        private Snapshot(BpServerConfig config, boolean leaderDisabled) {
+            this.config = config;
+            this.debugMode = Boolean.valueOf(config.get(BpServerConfig.Field.DEBUG_MODE));
+            this.leaderDisabled = leaderDisabled;
+            this.defaultMessagesMax = parseLong(config, BpServerConfig.Field.DEFAULT_MESSAGES_MAX, DEFAULT_MESSAGES_MAX);
+            this.configCacheAgeSeconds = parseLong(config, BpServerConfig.Field.CONFIG_CACHE_AGE_SECONDS, DEFAULT_REFRESH_SECONDS);
+            this.cleanupIntervalMinutes = parseLong(config, BpServerConfig.Field.CLEANUP_INTERVAL_MINUTES, DEFAULT_CLEANUP_INTERVAL_MINUTES);
+            this.tokenCacheMaxMb = parseLong(config, BpServerConfig.Field.TOKEN_CACHE_MAX_MB, DEFAULT_TOKEN_CACHE_MAX_MB);
+            this.messageQueueMax = parseLong(config, BpServerConfig.Field.MESSAGE_QUEUE_MAX, DEFAULT_MESSAGE_QUEUE_MAX);
+        }
+    }
+
+    // - PACKAGE
+
+    static long parseLong(BpServerConfig config, BpServerConfig.Field field, long defaultValue) {
+        String value = config.get(field);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("invalid value for " + field.getFieldName() + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(BpServerConfigHolder.class);
+
+    private static final long DEFAULT_MESSAGES_MAX = 100;
+    private static final long DEFAULT_REFRESH_SECONDS = 10;
+    private static final long DEFAULT_CLEANUP_INTERVAL_MINUTES = 2;
+    private static final long DEFAULT_TOKEN_CACHE_MAX_MB = 100;
+    private static final long DEFAULT_MESSAGE_QUEUE_MAX = 100000;
+
+    private static final BpServerConfigHolder instance = new BpServerConfigHolder();
+
+    private volatile Snapshot snapshot;
+
+    private volatile String instanceId;
+
+    private ScheduledExecutorService refresher;
+
+    private BpServerConfigHolder() { }
+
+    private void scheduleRefresh(long delaySeconds) {
+        refresher.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Throwable t) {
+                    logger.error("error refreshing server configuration", t);
+                } finally {
+                    // the refresh interval is itself a config setting, pick it up from the latest snapshot
+                    long next = snapshot == null ? DEFAULT_REFRESH_SECONDS : snapshot.getConfigCacheAgeSeconds();
+                    if (! refresher.isShutdown()) {
+                        scheduleRefresh(next > 0 ? next : DEFAULT_REFRESH_SECONDS);
+                    }
+                }
+            }
+        }, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private boolean readLeaderDisabled(BpServerConfig config) {
+        if (config == null || ! Boolean.valueOf(config.get(BpServerConfig.Field.DEBUG_MODE))) {
+            return false;
+        }
+        // skip DAO layer, not so crazy about editing serialized streams for debug, yay FED-76
+        try {
+            String ec2InstanceId = instanceId;
+            return ec2InstanceId != null && Redis.getInstance().get(ec2InstanceId) != null;
+        } catch (Exception e) {
+            logger.warn("error reading leader override flag: " + e.getMessage());
+            return snapshot != null && snapshot.isLeaderDisabled();
+        }
+    }
+}
@@ -19,7 +19,10 @@ package com.janrain.backplane.server.dao;
 import com.janrain.backplane.server.BusConfig1;
 import com.janrain.backplane.server.dao.redis.*;
 import com.janrain.backplane2.server.config.User;
+import com.janrain.backplane2.server.dao.memory.MemoryAdminDAO;
+import com.janrain.backplane2.server.dao.memory.MemoryConfigDAO;
 import com.janrain.backplane2.server.dao.redis.RedisAdminDAO;
+import com.janrain.utils.BackplaneSystemProps;
 
 /**
  * @author Tom Raney
@@ -63,7 +66,7 @@ public class DaoFactory {
 
     private static RedisBackplaneMessageDAO messageDao = new RedisBackplaneMessageDAO();
     private static RedisUserDAO userDao = new RedisUserDAO();
-    private static RedisAdminDAO adminDao = new RedisAdminDAO();
+    private static RedisAdminDAO adminDao = BackplaneSystemProps.isInMemory() ? new MemoryAdminDAO() : new RedisAdminDAO();
     private static RedisBusConfig1DAO busDao = new RedisBusConfig1DAO();
-    private static RedisConfigDAO configDao = new RedisConfigDAO();
+    private static RedisConfigDAO configDao = BackplaneSystemProps.isInMemory() ? new MemoryConfigDAO() : new RedisConfigDAO();
 }
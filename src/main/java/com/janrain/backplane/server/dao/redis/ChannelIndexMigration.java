@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.server.dao.redis;
+
+import com.janrain.redis.Keyspace;
+import com.janrain.redis.KeyspaceMigration;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Tuple;
+
+import java.util.Set;
+
+/**
+ * Migrates the v1 channel indexes from message id lists to sets scored by numeric message id,
+ * backfilled from the v1_messages index in score order.
+ */
+public class ChannelIndexMigration extends KeyspaceMigration {
+
+    // - PUBLIC
+
+    public static ChannelIndexMigration getInstance() {
+        return instance;
+    }
+
+    // - PROTECTED
+
+    @Override
+    protected Batch migrateBatch(Jedis jedis, long cursor, int batchSize) {
+        String min = cursor < 0 ? "-inf" : "(" + cursor;
+        Set<Tuple> messageMeta = jedis.zrangeByScoreWithScores(Keyspace.V1_MESSAGES.getName(), min, "+inf", 0, batchSize);
+
+        long last = cursor;
+        Pipeline pipeline = jedis.pipelined();
+        for (Tuple meta : messageMeta) {
+            String[] segs = meta.getElement().split(" ");
+            if (segs.length == 3) {
+                pipeline.zadd(Keyspace.V1_CHANNEL_INDEX.key(segs[1]), meta.getScore(), segs[2].getBytes());
+            }
+            last = (long) meta.getScore();
+        }
+        pipeline.sync();
+
+        long remaining = messageMeta.size() < batchSize ? 0 : jedis.zcount(Keyspace.V1_MESSAGES.getName(), "(" + last, "+inf");
+        return new Batch(last, messageMeta.size(), remaining);
+    }
+
+    // - PRIVATE
+
+    private static final ChannelIndexMigration instance = new ChannelIndexMigration();
+
+    private ChannelIndexMigration() {
+        super("v1_channel_index", Keyspace.V1_CHANNEL_LIST, Keyspace.V1_CHANNEL_INDEX);
+    }
+}
@@ -16,10 +16,13 @@
 
 package com.janrain.backplane.server.dao.redis;
 
+import com.janrain.backplane.MessageId;
 import com.janrain.backplane.server.BackplaneMessage;
 import com.janrain.backplane.server.BackplaneServerException;
 import com.janrain.backplane.server.dao.DAO;
 import com.janrain.commons.supersimpledb.SimpleDBException;
+import com.janrain.redis.GroupCommitWriter;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Histogram;
@@ -32,6 +35,7 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
+import redis.clients.jedis.Tuple;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
 import java.util.*;
@@ -41,19 +45,29 @@ import java.util.*;
  */
 public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
 
-    final public static String V1_MESSAGE_QUEUE = "v1_message_queue";
-    final public static String V1_MESSAGES = "v1_messages";
+    final public static String V1_MESSAGE_QUEUE = Keyspace.V1_MESSAGE_QUEUE.getName();
+    final public static String V1_MESSAGES = Keyspace.V1_MESSAGES.getName();
 
     public static byte[] getBusKey(String bus) {
-        return ("v1_bus_idx_" + bus).getBytes();
+        return Keyspace.V1_BUS_INDEX.key(bus);
     }
 
+    /**
+     * Channel index as a list of message ids, replaced by the scored channel index (see ChannelIndexMigration).
+     */
     public static byte[] getChannelKey(String channel) {
-        return ("v1_channel_idx_" + channel).getBytes();
+        return Keyspace.V1_CHANNEL_LIST.key(channel);
+    }
+
+    /**
+     * Channel index scored by numeric message id.
+     */
+    public static byte[] getChannelIndexKey(String channel) {
+        return Keyspace.V1_CHANNEL_INDEX.key(channel);
     }
 
     public static byte[] getKey(String key) {
-        return ("v1_message_" + key).getBytes();
+        return Keyspace.V1_MESSAGE.key(key);
     }
 
     /**
@@ -64,7 +78,21 @@ public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
 
     @Override
     public void persist(BackplaneMessage message) throws BackplaneServerException {
-        Redis.getInstance().rpush(V1_MESSAGE_QUEUE.getBytes(), SerializationUtils.serialize(message));
+        GroupCommitWriter.getInstance().rpush(V1_MESSAGE_QUEUE.getBytes(), SerializationUtils.serialize(message));
+    }
+
+    /**
+     * Enqueues all messages for processing in a single round trip, preserving their order.
+     */
+    public void persistAll(List<BackplaneMessage> messages) throws BackplaneServerException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<byte[]> serialized = new ArrayList<byte[]>(messages.size());
+        for (BackplaneMessage message : messages) {
+            serialized.add(SerializationUtils.serialize(message));
+        }
+        Redis.getInstance().rpush(V1_MESSAGE_QUEUE.getBytes(), serialized);
     }
 
     @Override
@@ -72,8 +100,8 @@ public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
         Jedis jedis = null;
         try {
             jedis = Redis.getInstance().getWriteJedis();
-            Date d = BackplaneMessage.getDateFromId(id);
-            Set<String> sortedSetBytes = jedis.zrangeByScore(V1_MESSAGES, d.getTime(), d.getTime());
+            long score = MessageId.score(id);
+            Set<String> sortedSetBytes = jedis.zrangeByScore(V1_MESSAGES, score, score);
 
             if (!sortedSetBytes.isEmpty()) {
                 String key = sortedSetBytes.iterator().next();
@@ -82,6 +110,7 @@ public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
                 Response<Long> del1 = t.zrem(V1_MESSAGES, key);
                 String[] args = key.split(" ");
                 Response<Long> del2 = t.lrem(getChannelKey(args[1]), 0, args[2].getBytes());
+                t.zrem(getChannelIndexKey(args[1]), args[2].getBytes());
                 Response<Long> del3 = t.zrem(getBusKey(args[0]), args[2].getBytes());
                 Response<Long> del4 = t.del(getKey(id));
 
@@ -152,7 +181,7 @@ public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
 
     @Override
     public BackplaneMessage get(String key) {
-        byte[] messageBytes = Redis.getInstance().get(key.getBytes());
+        byte[] messageBytes = Redis.getInstance().getAsync(key.getBytes()).reply();
         if (messageBytes != null) {
             return (BackplaneMessage) SerializationUtils.deserialize(messageBytes);
         }
@@ -165,7 +194,9 @@ public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
     }
 
     public int getMessageCount(String bus, String channel) {
-        return (int) Redis.getInstance().llen(getChannelKey(channel));
+        return (int) (ChannelIndexMigration.getInstance().isReadNew() ?
+                Redis.getInstance().zcard(getChannelIndexKey(channel)) :
+                Redis.getInstance().llen(getChannelKey(channel)));
     }
 
     /**
@@ -185,11 +216,21 @@ public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
 
             double sinceInMs = 0;
             if (StringUtils.isNotBlank(since)) {
-                sinceInMs = BackplaneMessage.getDateFromId(since).getTime();
+                sinceInMs = MessageId.score(since);
             }
 
-            // every message has a unique timestamp - which serves as a key for indexing
-            List<byte[]> messageIdBytes = jedis.lrange(getChannelKey(channel), 0, -1);
+            // every message has a unique numeric id - which serves as a key for indexing
+            ChannelIndexMigration migration = ChannelIndexMigration.getInstance();
+            List<byte[]> messageIdBytes = null;
+            if (migration.isReadNew()) {
+                // only the messages after since
+                messageIdBytes = new ArrayList<byte[]>(jedis.zrangeByScore(getChannelIndexKey(channel),
+                        StringUtils.isNotBlank(since) ? sinceInMs + 1 : 0, Double.POSITIVE_INFINITY));
+            }
+            if (messageIdBytes == null ||
+                (messageIdBytes.isEmpty() && migration.isReadThrough() && ! jedis.exists(getChannelIndexKey(channel)))) {
+                messageIdBytes = jedis.lrange(getChannelKey(channel), 0, -1);
+            }
             List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
 
             if (!messageIdBytes.isEmpty()) {
@@ -231,7 +272,11 @@ public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
         return ids;
     }
 
-    public List<BackplaneMessage> getMessagesByBus(String bus, String since, String sticky) throws SimpleDBException, BackplaneServerException {
+    /**
+     * @param limit maximum number of ids to return, 0 for no limit
+     * @return ids of the messages on the bus after since, in order
+     */
+    public List<String> getMessageIdsByBus(String bus, String since, int limit) throws BackplaneServerException {
 
         Jedis jedis = null;
 
@@ -239,40 +284,63 @@ public class RedisBackplaneMessageDAO extends DAO<BackplaneMessage> {
 
             jedis = Redis.getInstance().getReadJedis();
 
-            double sinceInMs = 0;
+            // every message has a unique numeric id - which serves as a key for indexing
+            double min = 0;
             if (StringUtils.isNotBlank(since)) {
-                sinceInMs = BackplaneMessage.getDateFromId(since).getTime();
+                min = MessageId.score(since) + 1;
             }
 
-            // every message has a unique timestamp - which serves as a key for indexing
-            Set<byte[]> messageIdBytes = Redis.getInstance().zrangebyscore(RedisBackplaneMessageDAO.getBusKey(bus), sinceInMs, Double.POSITIVE_INFINITY);
+            Set<byte[]> messageIdBytes = limit > 0 ?
+                    jedis.zrangeByScore(getBusKey(bus), min, Double.POSITIVE_INFINITY, 0, limit) :
+                    jedis.zrangeByScore(getBusKey(bus), min, Double.POSITIVE_INFINITY);
 
-            List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+            List<String> ids = new ArrayList<String>(messageIdBytes.size());
+            for (byte[] b : messageIdBytes) {
+                ids.add(new String(b));
+            }
+            return ids;
 
-            Pipeline pipeline = jedis.pipelined();
-            List<Response<byte[]>> responses = new ArrayList<Response<byte[]>>();
+        } catch (JedisConnectionException jce) {
+            logger.warn("connection broken on bus " + bus);
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+            jedis = null;
+            throw new BackplaneServerException(jce.getMessage(), jce);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
 
-            if (messageIdBytes != null) {
-                for (byte[] b: messageIdBytes) {
-                    responses.add(pipeline.get(getKey(new String(b))));
-                }
-                pipeline.sync();
-                for (Response<byte[]> response: responses) {
-                    byte[] bytes = response.get();
-                    if (bytes != null) {
-                        BackplaneMessage backplaneMessage = (BackplaneMessage) SerializationUtils.deserialize(bytes);
-                        messages.add(backplaneMessage);
-                    }
-                }
-            }
+    /**
+     * Fetches the messages with the provided ids, in a single round trip; expired messages are skipped.
+     *
+     * @param sticky if not blank, only messages with this sticky flag are returned
+     * @return the messages, in the order of the provided ids
+     */
+    public List<BackplaneMessage> getMessages(List<String> ids, String sticky) throws BackplaneServerException {
 
-            filterAndSort(messages, since, sticky);
+        List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>(ids.size());
+        if (ids.isEmpty()) {
             return messages;
+        }
 
-        } finally {
-            Redis.getInstance().releaseToPool(jedis);
+        byte[][] keys = new byte[ids.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = getKey(ids.get(i));
         }
 
+        try {
+            for (byte[] bytes : Redis.getInstance().mget(keys)) {
+                if (bytes != null) {
+                    BackplaneMessage message = (BackplaneMessage) SerializationUtils.deserialize(bytes);
+                    if (StringUtils.isBlank(sticky) || sticky.equals(message.get(BackplaneMessage.Field.STICKY.getFieldName()))) {
+                        messages.add(message);
+                    }
+                }
+            }
+        } catch (JedisConnectionException jce) {
+            throw new BackplaneServerException(jce.getMessage(), jce);
+        }
+        return messages;
     }
 
 
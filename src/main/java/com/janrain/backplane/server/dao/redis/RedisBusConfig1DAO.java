@@ -3,6 +3,7 @@ package com.janrain.backplane.server.dao.redis;
 import com.janrain.backplane.server.BackplaneServerException;
 import com.janrain.backplane.server.BusConfig1;
 import com.janrain.backplane.server.dao.DAO;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.log4j.Logger;
@@ -19,7 +20,7 @@ import java.util.List;
 public class RedisBusConfig1DAO extends DAO<BusConfig1> {
 
     public static byte[] getKey(String busId) {
-        return ("v1_bus_" + busId).getBytes();
+        return Keyspace.V1_BUS.key(busId);
     }
 
     private static final Logger logger = Logger.getLogger(RedisBusConfig1DAO.class);
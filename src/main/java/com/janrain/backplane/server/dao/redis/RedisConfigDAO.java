@@ -4,6 +4,7 @@ import com.janrain.backplane.server.BackplaneServerException;
 import com.janrain.backplane.server.config.BpServerConfig;
 import com.janrain.backplane.server.dao.DAO;
 import com.janrain.commons.util.SerializationUtils;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.log4j.Logger;
@@ -17,7 +18,7 @@ import java.util.List;
 public class RedisConfigDAO extends DAO<BpServerConfig> {
 
     public static byte[] getKey(String id) {
-        return ("config_" + id).getBytes();
+        return Keyspace.CONFIG.key(id);
     }
 
     @Override
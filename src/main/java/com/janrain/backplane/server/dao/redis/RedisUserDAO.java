@@ -3,6 +3,7 @@ package com.janrain.backplane.server.dao.redis;
 import com.janrain.backplane.server.BackplaneServerException;
 import com.janrain.backplane.server.dao.DAO;
 import com.janrain.backplane2.server.config.User;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.log4j.Logger;
@@ -19,7 +20,7 @@ import java.util.List;
 public class RedisUserDAO extends DAO<User> {
 
     public static byte[] getKey(String userId) {
-        return ("v1_user_" + userId).getBytes();
+        return Keyspace.V1_USER.key(userId);
     }
 
     @Override
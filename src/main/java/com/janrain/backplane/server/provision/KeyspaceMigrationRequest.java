@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane.server.provision;
+
+public class KeyspaceMigrationRequest extends AdminRequest {
+
+    // - PUBLIC
+
+    public String getMigration() {
+        return migration;
+    }
+
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setMigration(String migration) {
+        this.migration = migration;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    // - PRIVATE
+
+    private String migration;
+    private String mode;
+}
@@ -20,16 +20,19 @@ import com.janrain.backplane.server.BusConfig1;
 import com.janrain.backplane.server.config.AuthException;
 import com.janrain.backplane.server.config.Backplane1Config;
 import com.janrain.backplane.server.dao.DaoFactory;
+import com.janrain.backplane.server.dao.redis.ChannelIndexMigration;
 import com.janrain.backplane2.server.config.User;
 import com.janrain.commons.supersimpledb.SimpleDBException;
 import com.janrain.commons.supersimpledb.message.AbstractMessage;
 import com.janrain.crypto.HmacHashUtils;
+import com.janrain.redis.KeyspaceMigration;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -87,6 +90,36 @@ public class ProvisioningController {
         return doUpdate(User.class, updateRequest);
     }
 
+    /**
+     * Reports the state of the Redis keyspace migrations.
+     */
+    @RequestMapping(value = "/keyspace/list", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Map<String, String>> keyspaceList(@RequestBody AdminRequest listRequest) throws AuthException {
+        checkAdminAuth(listRequest.getAdmin(), listRequest.getSecret());
+        Map<String,Map<String,String>> result = new LinkedHashMap<String, Map<String, String>>();
+        for (KeyspaceMigration migration : KEYSPACE_MIGRATIONS) {
+            result.put(migration.getName(), migration.getStatus());
+        }
+        return result;
+    }
+
+    /**
+     * Switches a Redis keyspace migration's mode, e.g. to CUTOVER once all nodes run the migration code.
+     */
+    @RequestMapping(value = "/keyspace/update", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, String> keyspaceUpdate(@RequestBody KeyspaceMigrationRequest updateRequest) throws AuthException {
+        checkAdminAuth(updateRequest.getAdmin(), updateRequest.getSecret());
+        for (KeyspaceMigration migration : KEYSPACE_MIGRATIONS) {
+            if (migration.getName().equals(updateRequest.getMigration())) {
+                migration.setMode(KeyspaceMigration.Mode.valueOf(updateRequest.getMode()));
+                return migration.getStatus();
+            }
+        }
+        throw new IllegalArgumentException("Unknown keyspace migration: " + updateRequest.getMigration());
+    }
+
     /**
      * Handle auth errors
      */
@@ -135,6 +168,9 @@ public class ProvisioningController {
     private static final String ERR_MSG_FIELD = "ERR_MSG";
     private static final String CONFIG_NOT_FOUND = "CONFIG_NOT_FOUND";
 
+    private static final List<KeyspaceMigration> KEYSPACE_MIGRATIONS = Arrays.<KeyspaceMigration>asList(
+            ChannelIndexMigration.getInstance());
+
     @Inject
     private Backplane1Config bpConfig;
 
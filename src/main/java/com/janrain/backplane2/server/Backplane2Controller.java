@@ -17,12 +17,12 @@
 package com.janrain.backplane2.server;
 
 import com.janrain.backplane2.server.config.*;
+import com.janrain.backplane2.server.dao.ChannelCache;
 import com.janrain.backplane2.server.dao.DAOFactory;
 import com.janrain.commons.supersimpledb.SimpleDBException;
 import com.janrain.crypto.ChannelUtil;
 import com.janrain.crypto.HmacHashUtils;
 import com.janrain.oauth2.*;
-import com.janrain.redis.Redis;
 import com.janrain.servlet.ServletUtil;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.TimerContext;
@@ -34,13 +34,17 @@ import org.springframework.web.HttpRequestMethodNotSupportedException;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.ModelAndView;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.janrain.oauth2.OAuth2.*;
 import static javax.servlet.http.HttpServletResponse.SC_UNAUTHORIZED;
@@ -231,9 +235,11 @@ public class Backplane2Controller {
             checkClientCredentialsBasicAuthOnly(request.getQueryString(), client_id, client_secret);
             Client authenticatedClient = getAuthenticatedClient(authorizationHeader);
 
-            return (new AuthenticatedTokenRequest(
+            Map<String,Object> tokenResponse = (new AuthenticatedTokenRequest(
                     grant_type, authenticatedClient, code, redirect_uri, refresh_token, scope,
                     daoFactory, request, authorizationHeader)).tokenResponse();
+            heavyHitters.tokenIssued(authenticatedClient.getClientId());
+            return tokenResponse;
         } catch (TokenException e) {
             return handleTokenException(e, response);
         } catch (AuthException e) {
@@ -270,10 +276,13 @@ public class Backplane2Controller {
         ServletUtil.checkSecure(request);
 
         TimerContext context = null;
-        // only time the event if it is not blocking
-        if ("0".equals(block)) {
+        // only time the event if it is not blocking, blocking requests are tracked by pollMetrics
+        boolean blocking = ! "0".equals(block);
+        if ( ! blocking) {
             context = v2GetsTimer.time();
         }
+        long start = System.currentTimeMillis();
+        GrantType parkedType = null;
 
         try {
             MessageRequest messageRequest = new MessageRequest(callback, since, block);
@@ -283,12 +292,19 @@ public class Backplane2Controller {
                 return returnMessage(OAuth2.OAUTH2_TOKEN_INVALID_REQUEST, "Invalid token type: " + token.getType(),
                         HttpServletResponse.SC_FORBIDDEN, response);
             }
+            heavyHitters.polled(token);
 
             MessagesResponse bpResponse = new MessagesResponse(messageRequest.getSince());
             boolean exit = false;
+            int queries = 0;
             do {
                 daoFactory.getBackplaneMessageDAO().retrieveMessagesPerScope(bpResponse, token);
+                queries++;
                 if (!bpResponse.hasMessages() && new Date().before(messageRequest.getReturnBefore())) {
+                    if (parkedType == null) {
+                        parkedType = token.getType();
+                        pollMetrics.parked(parkedType);
+                    }
                     try {
                         Thread.sleep(MESSAGES_POLL_SLEEP_MILLIS);
                     } catch (InterruptedException e) {
@@ -298,6 +314,20 @@ public class Backplane2Controller {
                     exit = true;
                 }
             } while (!exit);
+            pollMetrics.responded(token.getType(), blocking, start, queries, bpResponse);
+            if (bpResponse.hasMessages()) {
+                DeliveryLatency.getInstance().delivered(bpResponse.getMessages());
+            }
+
+            if ( ! bpResponse.hasMessages() && StringUtils.isBlank(callback)) {
+                // an empty response is fully determined by the last message id
+                String etag = "\"" + StringUtils.defaultString(bpResponse.getLastMessageId()) + "\"";
+                response.setHeader("ETag", etag);
+                if (etag.equals(request.getHeader("If-None-Match"))) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return null;
+                }
+            }
 
             return bpResponse.asResponseFields(request.getServerName(), token.getType().isPrivileged());
 
@@ -313,6 +343,59 @@ public class Backplane2Controller {
             if (context != null) {
                 context.stop();
             }
+            if (parkedType != null) {
+                pollMetrics.unparked(parkedType);
+            }
+        }
+    }
+
+    /**
+     * Stream messages in the token's scope as Server-Sent Events.
+     *
+     * Resumes from the Last-Event-ID request header if present, otherwise from the since parameter.
+     * Token errors are reported as a "tokenerror" event, since EventSource clients can't read error responses.
+     */
+    @RequestMapping(value = "/stream", method = { RequestMethod.GET})
+    public void stream(final HttpServletRequest request, HttpServletResponse response,
+                       @RequestParam(value = OAUTH2_ACCESS_TOKEN_PARAM_NAME, required = false) final String access_token,
+                       @RequestParam(value = "since", required = false) String since,
+                       @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                       @RequestHeader(value = "Authorization", required = false) final String authorizationHeader)
+            throws SimpleDBException, BackplaneServerException, IOException {
+
+        ServletUtil.checkSecure(request);
+
+        if (activeStreams.incrementAndGet() > MAX_STREAMS) {
+            activeStreams.decrementAndGet();
+            throw new RetryAfterException("Too many open streams, try again later", HttpServletResponse.SC_SERVICE_UNAVAILABLE, SHED_RETRY_AFTER_MILLIS);
+        }
+
+        try {
+            response.setContentType(MessageStream.CONTENT_TYPE);
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Cache-Control", "no-cache");
+            response.setHeader("Access-Control-Allow-Origin", "*");
+            Writer out = response.getWriter();
+
+            Token token;
+            try {
+                token = Token.fromRequest(daoFactory, request, access_token, authorizationHeader);
+                if (token.getType().isRefresh()) {
+                    throw new TokenException("Invalid token type: " + token.getType(), HttpServletResponse.SC_FORBIDDEN);
+                }
+            } catch (TokenException te) {
+                logger.warn("Error processing stream request: " + te.getMessage(), bpConfig.getDebugException(te));
+                MessageStream.writeTokenError(out, te.getOauthErrorCode(), te.getMessage());
+                return;
+            }
+
+            new MessageStream(daoFactory, token, StringUtils.isNotBlank(lastEventId) ? lastEventId : since, request.getServerName()).run(out);
+
+        } catch (IOException e) {
+            // client went away
+            logger.debug("stream closed: " + e.getMessage());
+        } finally {
+            activeStreams.decrementAndGet();
         }
     }
 
@@ -377,6 +460,7 @@ public class Backplane2Controller {
             throws SimpleDBException, BackplaneServerException {
 
         ServletUtil.checkSecure(request);
+        checkMessageQueueDepth();
 
         final TimerContext context = v2PostTimer.time();
 
@@ -386,7 +470,14 @@ public class Backplane2Controller {
                 throw new TokenException("Invalid token type: " + token.getType(), HttpServletResponse.SC_FORBIDDEN);
             }
 
-            daoFactory.getBackplaneMessageDAO().persist(parsePostedMessage(messagePostBody, token));
+            BackplaneMessage message = parsePostedMessage(messagePostBody, token);
+            postRateLimiter.checkPost(token.get(Token.TokenField.ISSUED_TO_CLIENT_ID), Collections.singletonList(message));
+            if (DeliveryLatency.isSampled(message)) {
+                message.setAccepted(System.currentTimeMillis());
+            }
+            daoFactory.getBackplaneMessageDAO().persist(message);
+            heavyHitters.posted(Collections.singletonList(message));
+            channelCache.incrementMessageCount(message.get(BackplaneMessage.Field.CHANNEL), 1);
             response.setStatus(HttpServletResponse.SC_CREATED);
             return null;
 
@@ -401,6 +492,104 @@ public class Backplane2Controller {
         }
     }
 
+    /**
+     * Publish a batch of messages to Backplane.
+     *
+     * The token is validated once; each message is validated on its own and all valid messages
+     * are enqueued together. The response lists the outcome for each posted message, in order.
+     */
+    @RequestMapping(value = "/messages", method = { RequestMethod.POST})
+    public @ResponseBody Map<String,Object> postMessageBatch(
+            HttpServletRequest request, HttpServletResponse response,
+            @RequestBody Map<String,List<Map<String,Object>>> messagesPostBody,
+            @RequestParam(value = OAUTH2_ACCESS_TOKEN_PARAM_NAME, required = false) String access_token,
+            @RequestHeader(value = "Authorization", required = false) String authorizationHeader)
+            throws SimpleDBException, BackplaneServerException {
+
+        ServletUtil.checkSecure(request);
+        checkMessageQueueDepth();
+
+        final TimerContext context = v2BatchPostTimer.time();
+
+        try {
+            Token token = Token.fromRequest(daoFactory, request, access_token, authorizationHeader);
+            if ( token.getType().isRefresh() || ! token.getType().isPrivileged() ) {
+                throw new TokenException("Invalid token type: " + token.getType(), HttpServletResponse.SC_FORBIDDEN);
+            }
+
+            List<Map<String,Object>> msgs = messagesPostBody.get("messages");
+            if (msgs == null || msgs.isEmpty()) {
+                throw new InvalidRequestException("Missing messages payload", HttpServletResponse.SC_BAD_REQUEST);
+            }
+            if (messagesPostBody.keySet().size() != 1) { // other garbage in the payload
+                throw new InvalidRequestException("Invalid data in payload", HttpServletResponse.SC_BAD_REQUEST);
+            }
+            if (msgs.size() > MAX_MESSAGES_PER_POST) {
+                throw new InvalidRequestException("Too many messages in payload, max is " + MAX_MESSAGES_PER_POST,
+                        HttpServletResponse.SC_BAD_REQUEST);
+            }
+
+            List<BackplaneMessage> accepted = new ArrayList<BackplaneMessage>(msgs.size());
+            List<Map<String,Object>> results = new ArrayList<Map<String,Object>>(msgs.size());
+            Map<String,Integer> pendingPerChannel = new HashMap<String, Integer>();
+            for (Map<String,Object> msg : msgs) {
+                Map<String,Object> result = new LinkedHashMap<String, Object>();
+                try {
+                    Object channelId = msg == null ? null : msg.get(BackplaneMessage.Field.CHANNEL.getFieldName());
+                    Integer pending = pendingPerChannel.get(channelId == null ? null : channelId.toString());
+                    BackplaneMessage message = validatePostedMessage(msg, token, pending == null ? 0 : pending);
+                    accepted.add(message);
+                    pendingPerChannel.put(message.get(BackplaneMessage.Field.CHANNEL), pending == null ? 1 : pending + 1);
+                    result.put(POST_RESULT_STATUS, HttpServletResponse.SC_CREATED);
+                } catch (InvalidRequestException ire) {
+                    result.put(POST_RESULT_STATUS, ire.getHttpResponseCode());
+                    result.put(ERR_MSG_FIELD, ire.getMessage());
+                }
+                results.add(result);
+            }
+
+            if (! accepted.isEmpty()) {
+                postRateLimiter.checkPost(token.get(Token.TokenField.ISSUED_TO_CLIENT_ID), accepted);
+            }
+            long acceptedTime = System.currentTimeMillis();
+            for (BackplaneMessage message : accepted) {
+                if (DeliveryLatency.isSampled(message)) {
+                    message.setAccepted(acceptedTime);
+                }
+            }
+            daoFactory.getBackplaneMessageDAO().persistAll(accepted);
+            heavyHitters.posted(accepted);
+            for (Map.Entry<String,Integer> channelPosts : pendingPerChannel.entrySet()) {
+                channelCache.incrementMessageCount(channelPosts.getKey(), channelPosts.getValue());
+            }
+
+            response.setStatus(HttpServletResponse.SC_OK);
+            Map<String,Object> responseBody = new LinkedHashMap<String, Object>();
+            responseBody.put("results", results);
+            return responseBody;
+
+        } catch (TokenException te) {
+            return handleTokenException(te, response);
+        } catch (InvalidRequestException ire) {
+            throw ire;
+        } catch (Exception e) {
+            throw new BackplaneServerException("Error processing post request: " + e.getMessage(), e);
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * Heavy hitters report: the top buses by posts and polls, channels by posts and clients by tokens issued,
+     * over the last minute across all nodes. Access is restricted by the IPRangeFilter.
+     *
+     * @param k number of entries per category
+     */
+    @RequestMapping(value = "/admin/heavy_hitters", method = { RequestMethod.GET})
+    public @ResponseBody Map<String,Object> heavyHitters(@RequestParam(value = "k", defaultValue = "20", required = false) int k) {
+        return heavyHitters.report(k);
+    }
+
     public Map<String, Object> returnMessage(final String errorCode, final String errorMessage, int responseCode, HttpServletResponse response) {
         response.setStatus(responseCode);
         return new HashMap<String,Object>() {{
@@ -455,6 +644,20 @@ public class Backplane2Controller {
         }};
     }
 
+    /**
+     * Handle rate limited / shed requests, telling the client when to retry
+     */
+    @ExceptionHandler
+    @ResponseBody
+    public Map<String, Object> handleRetryAfter(final RetryAfterException e, HttpServletResponse response) {
+        logger.warn("Backplane request not admitted: " + e.getMessage());
+        response.setStatus(e.getHttpResponseCode());
+        response.setHeader("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+        return new HashMap<String,Object>() {{
+            put(ERR_MSG_FIELD, e.getMessage());
+        }};
+    }
+
     /**
      * Handle invalid HTTP request method exceptions
      */
@@ -482,30 +685,6 @@ public class Backplane2Controller {
     }
 
 
-    /*
-    public static String randomString(int length) {
-        byte[] randomBytes = new byte[length];
-        // the base64 character set per RFC 4648 with last two members '-' and '_' removed due to possible
-        // compatibility issues.
-        byte[] digits = {'A','B','C','D','E','F','G','H','I','J','K','L','M','N','O','P','Q','R','S','T',
-                         'U','V','W','X','Y','Z','a','b','c','d','e','f','g','h','i','j','k','l','m','n',
-                         'o','p','q','r','s','t','u','v','w','x','y','z','0','1','2','3','4','5','6','7',
-                         '8','9'};
-        random.nextBytes(randomBytes);
-        for (int i = 0; i < length; i++) {
-            byte b = randomBytes[i];
-            int c = Math.abs(b % digits.length);
-            randomBytes[i] = digits[c];
-        }
-        try {
-            return new String(randomBytes, "US-ASCII");
-        }
-        catch (UnsupportedEncodingException e) {
-            logger.error("US-ASCII character encoding not supported", e); // shouldn't happen
-            return null;
-        }
-    }
-    */
     
     // - PRIVATE
 
@@ -526,14 +705,22 @@ public class Backplane2Controller {
 
     private static final int MESSAGES_POLL_SLEEP_MILLIS = 3000;
 
+    private static final int MAX_MESSAGES_PER_POST = 100;
+    private static final long SHED_RETRY_AFTER_MILLIS = 5000L;
+    private static final int MAX_STREAMS = 500;
+    private static final String POST_RESULT_STATUS = "status";
+
+    private static final int CHANNEL_CACHE_MAX_ENTRIES = 10000;
+    private static final long CHANNEL_CACHE_MAX_TTL_MILLIS = 60000L;
+    private static final long CHANNEL_CACHE_NEGATIVE_TTL_MILLIS = 2000L;
+    private static final long CHANNEL_COUNT_TTL_MILLIS = 1000L;
+
     @Inject
     private DAOFactory daoFactory;
 
     @Inject
     private Backplane2Config bpConfig;
 
-    //private static final Random random = new SecureRandom();
-
     private void checkBusOwnerAuth(String busOwner, String password) throws AuthException {
         User busOwnerEntry = null;
         try {
@@ -641,7 +828,9 @@ public class Backplane2Controller {
             authError("Incorrect password for client " + client);
         }
 
-        logger.info("Authenticated client: " + client);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Authenticated client: " + client);
+        }
         return clientEntry;
     }
 
@@ -820,8 +1009,6 @@ public class Backplane2Controller {
     }
 
     private BackplaneMessage parsePostedMessage(Map<String, Map<String, Object>> messagePostBody, Token token) throws BackplaneServerException {
-        List<BackplaneMessage> result = new ArrayList<BackplaneMessage>();
-
         Map<String,Object> msg = messagePostBody.get("message");
         if (msg == null) { // no message body?
             throw new InvalidRequestException("Missing message payload", HttpServletResponse.SC_BAD_REQUEST);
@@ -831,6 +1018,17 @@ public class Backplane2Controller {
             throw new InvalidRequestException("Invalid data in payload", HttpServletResponse.SC_BAD_REQUEST);
         }
 
+        return validatePostedMessage(msg, token, 0);
+    }
+
+    /**
+     * @param pendingForChannel number of messages accepted for the message's channel, but not yet enqueued
+     */
+    private BackplaneMessage validatePostedMessage(Map<String, Object> msg, Token token, int pendingForChannel) throws BackplaneServerException {
+        if (msg == null) {
+            throw new InvalidRequestException("Missing message payload", HttpServletResponse.SC_BAD_REQUEST);
+        }
+
         String channelId = msg.get(BackplaneMessage.Field.CHANNEL.getFieldName()) != null ? msg.get(BackplaneMessage.Field.CHANNEL.getFieldName()).toString() : null;
         String bus = msg.get(BackplaneMessage.Field.BUS.getFieldName()) != null ? msg.get(BackplaneMessage.Field.BUS.getFieldName()).toString() : null;
         Channel channel = getChannel(channelId);
@@ -840,7 +1038,7 @@ public class Backplane2Controller {
         }
 
         // check to see if channel is already full
-        if (daoFactory.getBackplaneMessageDAO().getMessageCount(channelId) >= bpConfig.getDefaultMaxMessageLimit()) {
+        if (isChannelFull(channelId, pendingForChannel)) {
             throw new InvalidRequestException("Message limit of " + bpConfig.getDefaultMaxMessageLimit() + " has been reached for channel '" + channel + "'",
                     HttpServletResponse.SC_FORBIDDEN);
         }
@@ -862,29 +1060,63 @@ public class Backplane2Controller {
     }
 
     private Channel getChannel(String channelId) throws BackplaneServerException {
-        Channel channel = daoFactory.getChannelDao().get(channelId);
-        if (channel == null) {
-            // legacy channel-bus binding support
-            // todo: remove after all old channels have expired
-            BusConfig2 busConfig = daoFactory.getBusDao().get(Redis.getInstance().get("v2_channel_bus_" + channelId));
-            if (busConfig != null) {
-                try {
-                    channel = new Channel(channelId, busConfig, 0);
-                } catch (SimpleDBException e) {
-                    // shouldn't happen
-                    throw new BackplaneServerException("", e);
-                }
-            }
+        if (channelId == null) {
+            return null;
+        }
+        ChannelCache.CachedChannel cached = channelCache.get(channelId);
+        if (cached != null) {
+            return cached.getChannel();
         }
+        Channel channel = daoFactory.getChannelDao().get(channelId);
+        channelCache.put(channelId, channel);
         return channel;
     }
 
+    private void checkMessageQueueDepth() {
+        long max = bpConfig.getMessageQueueMax();
+        if (max > 0 && bpConfig.getMessageQueueDepth() >= max) {
+            throw new RetryAfterException("Message queue is full, try again later", HttpServletResponse.SC_SERVICE_UNAVAILABLE, SHED_RETRY_AFTER_MILLIS);
+        }
+    }
+
+    /**
+     * Checks the channel message limit against the cached count estimate, which is adjusted locally
+     * for accepted messages; the count is only re-read from the DAO when stale or when the limit appears reached.
+     */
+    private boolean isChannelFull(String channelId, int pendingForChannel) throws BackplaneServerException {
+        long limit = bpConfig.getDefaultMaxMessageLimit();
+        long count = channelCache.getMessageCount(channelId);
+        if (count < 0 || count + pendingForChannel >= limit) {
+            count = daoFactory.getBackplaneMessageDAO().getMessageCount(channelId);
+            channelCache.setMessageCount(channelId, count);
+        }
+        return count + pendingForChannel >= limit;
+    }
+
+    private PostRateLimiter postRateLimiter;
+
+    private final AtomicInteger activeStreams = new AtomicInteger(0);
+
+    @PostConstruct
+    private void init() {
+        postRateLimiter = new PostRateLimiter(daoFactory);
+    }
+
+    private final ChannelCache channelCache = new ChannelCache(
+            CHANNEL_CACHE_MAX_ENTRIES, CHANNEL_CACHE_MAX_TTL_MILLIS, CHANNEL_CACHE_NEGATIVE_TTL_MILLIS, CHANNEL_COUNT_TTL_MILLIS);
+
+    private final MessagesPollMetrics pollMetrics = new MessagesPollMetrics();
+
+    private final HeavyHitters heavyHitters = HeavyHitters.getInstance();
+
     private final com.yammer.metrics.core.Timer v2GetsTimer =
             com.yammer.metrics.Metrics.newTimer(new MetricName("v2", this.getClass().getName().replace(".","_"), "v2_gets_time"), TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
     private final com.yammer.metrics.core.Timer v2GetSingleMessageTimer =
             com.yammer.metrics.Metrics.newTimer(new MetricName("v2", this.getClass().getName().replace(".","_"), "v2_get_single_message_time"), TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
     private final com.yammer.metrics.core.Timer v2PostTimer =
             com.yammer.metrics.Metrics.newTimer(new MetricName("v2", this.getClass().getName().replace(".","_"), "v2_posts_time"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+    private final com.yammer.metrics.core.Timer v2BatchPostTimer =
+            com.yammer.metrics.Metrics.newTimer(new MetricName("v2", this.getClass().getName().replace(".","_"), "v2_batch_posts_time"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
     private final com.yammer.metrics.core.Timer getRegularTokenTimer =
             com.yammer.metrics.Metrics.newTimer(new MetricName("v2", this.getClass().getName().replace(".","_"), "v2_get_reg_tokens_time"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
     private final com.yammer.metrics.core.Timer getPrivilegedTokenTimer =
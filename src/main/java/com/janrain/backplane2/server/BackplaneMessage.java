@@ -17,10 +17,10 @@
 package com.janrain.backplane2.server;
 
 import com.janrain.backplane.DateTimeUtils;
+import com.janrain.backplane.MessageId;
 import com.janrain.backplane.server.ExternalizableCore;
 import com.janrain.commons.supersimpledb.SimpleDBException;
 import com.janrain.commons.supersimpledb.message.MessageField;
-import com.janrain.commons.util.Pair;
 import com.janrain.crypto.ChannelUtil;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -45,7 +45,7 @@ public class BackplaneMessage extends ExternalizableCore {
     public BackplaneMessage(String clientSourceUrl, int defaultExpireSeconds, int maxExpireSeconds, Map<String, Object> data) throws BackplaneServerException, SimpleDBException {
         checkUpstreamExtraFields(data);
         Map<String,String> d = new LinkedHashMap<String, String>(toStringMap(data));
-        String id = generateMessageId(new Date());
+        String id = generateMessageId(System.currentTimeMillis());
         d.put(Field.ID.getFieldName(), id);
         d.put(Field.SOURCE.getFieldName(), clientSourceUrl);
         if (data.containsKey(Field.PAYLOAD.getFieldName())) {
@@ -67,38 +67,54 @@ public class BackplaneMessage extends ExternalizableCore {
         return EnumSet.allOf(Field.class);
     }
 
-    public Pair<String, Date> updateId(Pair<String, Date> lastIdAndDate) {
-        long thisTime = 0;
-        try {
-            thisTime = getDateFromId(getIdValue()).getTime();
-        } catch (Exception e) {
-            Date thisDate = new Date();
-            thisTime = thisDate.getTime();
-            put(Field.ID.getFieldName(), generateMessageId(thisDate));
-        }
-
-        long lastTime = 0;
-        try {
-            lastTime = getDateFromId(lastIdAndDate.getLeft()).getTime();
-        } catch (Exception e) {
-            //
+    /**
+     * Assigns the message its final id, the next after lastId if the message's id isn't already greater.
+     *
+     * @return the message's numeric id
+     */
+    public long updateId(long lastId) {
+        String currentId = getIdValue();
+        long id = currentId == null ? -1 : MessageId.parse(currentId);
+        if (id < 0) {
+            id = MessageId.fromTime(System.currentTimeMillis());
         }
-
-        if (thisTime <= lastTime) {
-            logger.warn("message has an id " + getIdValue() + " that is not > the latest id of " + lastIdAndDate.getLeft());
-            Date newDate = new Date(lastIdAndDate.getRight().getTime() + 1);
-            put(Field.ID.getFieldName(), generateMessageId(newDate));
-            logger.warn("fixed");
-            return new Pair<String, Date>(getIdValue(), newDate);
-        } else {
-            return lastIdAndDate;
+        if (id <= lastId) {
+            if (MessageId.getTime(id) < MessageId.getTime(lastId)) {
+                logger.warn("message has an id " + currentId + " that is not > the latest id of " + MessageId.format(lastId, ""));
+            }
+            // next sequence number within the latest id's millisecond
+            id = lastId + 1;
         }
+        put(Field.ID.getFieldName(), MessageId.format(id, currentId == null ? ChannelUtil.randomString(10) : MessageId.getSuffix(currentId)));
+        return id;
     }
 
     public String getBus() {
         return this.get(Field.BUS);
     }
 
+    public void setAccepted(long millis) {
+        put(Field.ACCEPTED.getFieldName(), Long.toString(millis));
+    }
+
+    /**
+     * @return the time the message was accepted from the publisher, or -1 if not recorded
+     */
+    public long getAccepted() {
+        return getTime(Field.ACCEPTED);
+    }
+
+    public void setCommitted(long millis) {
+        put(Field.COMMITTED.getFieldName(), Long.toString(millis));
+    }
+
+    /**
+     * @return the time the message was committed, or -1 if not recorded
+     */
+    public long getCommitted() {
+        return getTime(Field.COMMITTED);
+    }
+
     public String getChannel() {
         return this.get(Field.CHANNEL);
     }
@@ -180,7 +196,12 @@ public class BackplaneMessage extends ExternalizableCore {
             }
         },
 
-        PAYLOAD("payload", NONE);
+        PAYLOAD("payload", NONE),
+
+        // internal, for delivery latency tracking: acceptance and commit times (ms), not sent to clients
+        ACCEPTED("accepted", false, NONE),
+
+        COMMITTED("committed", false, NONE);
 
         @Override
         public String getFieldName() {
@@ -223,12 +244,12 @@ public class BackplaneMessage extends ExternalizableCore {
             return null;
         }
 
-        try {
-            return DateTimeUtils.ISO8601.get().parse(backplaneMessageId.substring(0, backplaneMessageId.indexOf("Z") + 1));
-        } catch (ParseException e) {
-            logger.warn(e);
+        long time = MessageId.parseTime(backplaneMessageId);
+        if (time < 0) {
+            logger.warn("invalid message id: " + backplaneMessageId);
+            return null;
         }
-        return null;
+        return new Date(time);
     }
 
     // - PRIVATE
@@ -246,6 +267,16 @@ public class BackplaneMessage extends ExternalizableCore {
         add(Field.EXPIRE.getFieldName());
     }};
 
+    private long getTime(Field field) {
+        String value = get(field);
+        if (StringUtils.isEmpty(value)) return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private void checkUpstreamExtraFields(Map<String, Object> data) {
         for (String field : data.keySet()) {
             if (!UPSTREAM_FIELDS.contains(field)) {
@@ -257,8 +288,8 @@ public class BackplaneMessage extends ExternalizableCore {
     /**
      * @return a time-based, lexicographically comparable message ID.
      */
-    private static String generateMessageId(Date date) {
-        return DateTimeUtils.ISO8601.get().format(date) + "-" + ChannelUtil.randomString(10);
+    private static String generateMessageId(long millis) {
+        return MessageId.format(MessageId.fromTime(millis), ChannelUtil.randomString(10));
     }
 
     private String extractFieldValueAsJsonString(Field field, Map<String,Object> data) throws BackplaneServerException {
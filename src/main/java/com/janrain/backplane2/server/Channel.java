@@ -25,6 +25,7 @@ public class Channel extends ExternalizableCore {
         data.put(ChannelField.ID.getFieldName(), id);
         data.put(ChannelField.BUS.getFieldName(), busConfig.getIdValue());
         data.put(ChannelField.EXPIRE_SECONDS.getFieldName(), Integer.toString(channelExpireSeconds));
+        data.put(ChannelField.CREATED.getFieldName(), Long.toString(System.currentTimeMillis()));
         data.put(ChannelField.MESSAGE_EXPIRE_DEFAULT_SECONDS.getFieldName(), Integer.toString(busConfig.getRetentionTimeSeconds()));
         data.put(ChannelField.MESSAGE_EXPIRE_MAX_SECONDS.getFieldName(), Integer.toString(busConfig.getRetentionTimeStickySeconds()));
         super.init(id, data);
@@ -67,7 +68,15 @@ public class Channel extends ExternalizableCore {
             public void validate(String value) throws SimpleDBException {
                 super.validate(value);
                 validateInt(getFieldName(), value);
-        }};
+        }},
+
+        /** creation time in millis, the channel expires EXPIRE_SECONDS after it; absent on older channels */
+        CREATED("created") {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+        };
 
         @Override
         public String getFieldName() {
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import com.janrain.backplane.MessageId;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * End to end latency of sampled v2 messages, from acceptance of the publisher's POST
+ * to the commit and to the first delivery to a subscriber on this node, overall and per bus:
+ *
+ * - commit_latency[_bus]: acceptance to commit (queueing and processing by the leader)
+ * - delivery_latency[_bus]: acceptance to the first messages response or stream event carrying the message
+ *
+ * Messages are sampled by their id's random suffix, so that all nodes sample the same messages;
+ * only the sampled messages are stamped with their acceptance and commit times (isSampled()).
+ * Only the first MAX_BUSES buses seen get their own histograms, the others are counted as "other".
+ */
+public class DeliveryLatency {
+
+    // - PUBLIC
+
+    public static DeliveryLatency getInstance() {
+        return instance;
+    }
+
+    public void committed(BackplaneMessage message) {
+        long accepted = message.getAccepted();
+        long committed = message.getCommitted();
+        if (accepted > 0 && committed > 0 && isSampled(message)) {
+            long latency = Math.max(0, committed - accepted);
+            commitLatency.update(latency);
+            forBus(message.getBus()).commitLatency.update(latency);
+        }
+    }
+
+    public void delivered(List<BackplaneMessage> messages) {
+        long now = System.currentTimeMillis();
+        for (BackplaneMessage message : messages) {
+            long accepted = message.getAccepted();
+            if (accepted > 0 && isSampled(message) && firstDelivery(message.getIdValue())) {
+                long latency = Math.max(0, now - accepted);
+                deliveryLatency.update(latency);
+                forBus(message.getBus()).deliveryLatency.update(latency);
+            }
+        }
+    }
+
+    /**
+     * @return true if the message's latencies are tracked; the id suffix, and so the outcome, doesn't change
+     * when the message processor assigns the final id
+     */
+    public static boolean isSampled(BackplaneMessage message) {
+        String id = message.getIdValue();
+        return id != null && (MessageId.getSuffix(id).hashCode() & Integer.MAX_VALUE) % SAMPLE_RATE == 0;
+    }
+
+    // - PRIVATE
+
+    private static final DeliveryLatency instance = new DeliveryLatency();
+
+    /** one in SAMPLE_RATE messages is tracked */
+    private static final int SAMPLE_RATE = 10;
+
+    private static final int MAX_BUSES = 100;
+
+    private static final String OTHER_BUSES = "other";
+
+    /** sampled message ids already delivered by this node */
+    private static final int MAX_DELIVERED_IDS = 10000;
+
+    private final Histogram commitLatency = Metrics.newHistogram(metricName("commit_latency"));
+    private final Histogram deliveryLatency = Metrics.newHistogram(metricName("delivery_latency"));
+
+    private final ConcurrentMap<String,BusHistograms> buses = new ConcurrentHashMap<String, BusHistograms>();
+
+    private final Map<String,Boolean> deliveredIds = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_DELIVERED_IDS;
+        }
+    });
+
+    private DeliveryLatency() { }
+
+    private static MetricName metricName(String name) {
+        return new MetricName("v2", DeliveryLatency.class.getName().replace(".","_"), name);
+    }
+
+    private boolean firstDelivery(String messageId) {
+        return deliveredIds.put(messageId, Boolean.TRUE) == null;
+    }
+
+    private BusHistograms forBus(String bus) {
+        String key = bus == null ? OTHER_BUSES : bus;
+        BusHistograms histograms = buses.get(key);
+        if (histograms == null) {
+            if (buses.size() >= MAX_BUSES) {
+                key = OTHER_BUSES;
+            }
+            buses.putIfAbsent(key, new BusHistograms(key));
+            histograms = buses.get(key);
+        }
+        return histograms;
+    }
+
+    private static final class BusHistograms {
+
+        private BusHistograms(String bus) {
+            String tag = bus.replaceAll("[^A-Za-z0-9]", "_");
+            commitLatency = Metrics.newHistogram(metricName("commit_latency_" + tag));
+            deliveryLatency = Metrics.newHistogram(metricName("delivery_latency_" + tag));
+        }
+
+        private final Histogram commitLatency;
+        private final Histogram deliveryLatency;
+    }
+}
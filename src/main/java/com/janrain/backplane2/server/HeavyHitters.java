@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import com.janrain.crypto.SecureIds;
+import com.janrain.redis.Keyspace;
+import com.janrain.redis.Redis;
+import com.janrain.utils.BackplaneSystemProps;
+import com.janrain.utils.SpaceSaving;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heavy hitter detection: which buses, channels and clients account for most of the load.
+ *
+ * Each node counts posts per bus and channel, polls per bus and token issuance per client
+ * in fixed size Space-Saving sketches, so memory use doesn't depend on the number of tenants.
+ * To keep request threads from contending on a sketch's lock, each sketch is striped by thread
+ * into STRIPES independent sketches, merged when published.
+ * Every PUBLISH_SECONDS the sketches are reset and their last interval snapshot is published to Redis,
+ * from where the snapshots of all live nodes are merged for the admin report.
+ */
+public class HeavyHitters {
+
+    // - PUBLIC
+
+    public static HeavyHitters getInstance() {
+        return instance;
+    }
+
+    public void posted(List<BackplaneMessage> messages) {
+        for (BackplaneMessage message : messages) {
+            sketches.get(BUS_POSTS).add(message.getBus());
+            sketches.get(CHANNEL_POSTS).add(message.getChannel());
+        }
+    }
+
+    public void polled(Token token) {
+        Set<String> buses = token.getScope().getScopeFieldValues(BackplaneMessage.Field.BUS);
+        if (buses != null) {
+            for (String bus : buses) {
+                sketches.get(BUS_POLLS).add(bus);
+            }
+        }
+    }
+
+    public void tokenIssued(String clientId) {
+        sketches.get(CLIENT_TOKENS).add(clientId);
+    }
+
+    /**
+     * Starts publishing the sketches every PUBLISH_SECONDS.
+     *
+     * @return the executor running the publishing task, for shutdown by the owner
+     */
+    public synchronized ScheduledExecutorService start() {
+        if (publisher == null) {
+            publisher = Executors.newSingleThreadScheduledExecutor();
+            publisher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    publish();
+                }
+            }, PUBLISH_SECONDS, PUBLISH_SECONDS, TimeUnit.SECONDS);
+        }
+        return publisher;
+    }
+
+    /**
+     * @return the top k entries of each sketch, merged from the last published interval of all live nodes
+     * (this node only, in memory mode or if Redis is unavailable)
+     */
+    public Map<String,Object> report(int k) {
+        k = Math.max(0, Math.min(k, SKETCH_CAPACITY));
+        Collection<NodeSnapshot> nodes = BackplaneSystemProps.isInMemory() ? null : readNodeSnapshots();
+        if (nodes == null) {
+            NodeSnapshot local = lastPublished;
+            nodes = local == null ? Collections.<NodeSnapshot>emptyList() : Collections.singletonList(local);
+        }
+
+        Map<String,Object> report = new LinkedHashMap<String, Object>();
+        report.put("interval_seconds", PUBLISH_SECONDS);
+        report.put("nodes", nodes.size());
+        for (String sketch : sketches.keySet()) {
+            List<SpaceSaving.Snapshot> snapshots = new ArrayList<SpaceSaving.Snapshot>();
+            long total = 0;
+            for (NodeSnapshot node : nodes) {
+                SpaceSaving.Snapshot snapshot = node.sketches.get(sketch);
+                if (snapshot != null) {
+                    snapshots.add(snapshot);
+                    total += snapshot.getTotal();
+                }
+            }
+            List<Map<String,Object>> top = new ArrayList<Map<String, Object>>();
+            for (SpaceSaving.Estimate estimate : SpaceSaving.merge(snapshots, SKETCH_CAPACITY, k)) {
+                Map<String,Object> entry = new LinkedHashMap<String, Object>();
+                entry.put("key", estimate.getKey());
+                entry.put("count", estimate.getCount());
+                entry.put("error", estimate.getError());
+                top.add(entry);
+            }
+            Map<String,Object> sketchReport = new LinkedHashMap<String, Object>();
+            sketchReport.put("total", total);
+            sketchReport.put("top", top);
+            report.put(sketch, sketchReport);
+        }
+        return report;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(HeavyHitters.class);
+
+    private static final HeavyHitters instance = new HeavyHitters();
+
+    private static final String BUS_POSTS = "bus_posts";
+    private static final String CHANNEL_POSTS = "channel_posts";
+    private static final String BUS_POLLS = "bus_polls";
+    private static final String CLIENT_TOKENS = "client_tokens";
+
+    /** counters per sketch; keys with more than 1/SKETCH_CAPACITY of a node's interval total are always tracked */
+    private static final int SKETCH_CAPACITY = 1000;
+
+    /** sketches per counted dimension, updated by threads picked by thread id */
+    private static final int STRIPES = 8;
+
+    private static final long PUBLISH_SECONDS = 60;
+
+    /** node snapshots older than this many intervals are from nodes that went away */
+    private static final int STALE_INTERVALS = 3;
+
+    private static final byte[] REDIS_KEY = Keyspace.V2_HEAVY_HITTERS.getName().getBytes();
+
+    private final String nodeId = SecureIds.randomString(16);
+
+    private final Map<String,StripedSketch> sketches = new LinkedHashMap<String, StripedSketch>() {{
+        put(BUS_POSTS, new StripedSketch());
+        put(CHANNEL_POSTS, new StripedSketch());
+        put(BUS_POLLS, new StripedSketch());
+        put(CLIENT_TOKENS, new StripedSketch());
+    }};
+
+    private volatile NodeSnapshot lastPublished;
+
+    private ScheduledExecutorService publisher;
+
+    private static final class NodeSnapshot implements Serializable {
+
+        private NodeSnapshot(long time, HashMap<String,SpaceSaving.Snapshot> sketches) {
+            this.time = time;
+            this.sketches = sketches;
+        }
+
+        private static final long serialVersionUID = 6287012961547416823L;
+
+        private final long time;
+        private final HashMap<String,SpaceSaving.Snapshot> sketches;
+    }
+
+    private static final class StripedSketch {
+
+        private final SpaceSaving[] stripes = new SpaceSaving[STRIPES];
+
+        private StripedSketch() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new SpaceSaving(SKETCH_CAPACITY);
+            }
+        }
+
+        private void add(String key) {
+            stripes[(int) (Thread.currentThread().getId() % STRIPES)].add(key);
+        }
+
+        /**
+         * @return the stripes' estimates merged into a single sketch snapshot, resetting the stripes
+         */
+        private SpaceSaving.Snapshot reset() {
+            List<SpaceSaving.Snapshot> snapshots = new ArrayList<SpaceSaving.Snapshot>(STRIPES);
+            long total = 0;
+            for (SpaceSaving stripe : stripes) {
+                SpaceSaving.Snapshot snapshot = stripe.reset();
+                snapshots.add(snapshot);
+                total += snapshot.getTotal();
+            }
+            return new SpaceSaving.Snapshot(SpaceSaving.merge(snapshots, SKETCH_CAPACITY, SKETCH_CAPACITY), total);
+        }
+    }
+
+    private HeavyHitters() { }
+
+    private void publish() {
+        HashMap<String,SpaceSaving.Snapshot> snapshots = new HashMap<String, SpaceSaving.Snapshot>();
+        for (Map.Entry<String,StripedSketch> sketch : sketches.entrySet()) {
+            snapshots.put(sketch.getKey(), sketch.getValue().reset());
+        }
+        NodeSnapshot snapshot = new NodeSnapshot(System.currentTimeMillis(), snapshots);
+        lastPublished = snapshot;
+        if (BackplaneSystemProps.isInMemory()) return;
+
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.hset(REDIS_KEY, nodeId.getBytes(), SerializationUtils.serialize(snapshot));
+            Redis.getInstance().releaseToPool(jedis);
+        } catch (Exception e) {
+            logger.warn("error publishing heavy hitters: " + e.getMessage());
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+        }
+    }
+
+    /**
+     * @return the live nodes' snapshots, or null on error
+     */
+    private Collection<NodeSnapshot> readNodeSnapshots() {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            long staleBefore = System.currentTimeMillis() - STALE_INTERVALS * PUBLISH_SECONDS * 1000L;
+            List<NodeSnapshot> live = new ArrayList<NodeSnapshot>();
+            for (Map.Entry<byte[],byte[]> node : jedis.hgetAll(REDIS_KEY).entrySet()) {
+                NodeSnapshot snapshot = (NodeSnapshot) SerializationUtils.deserialize(node.getValue());
+                if (snapshot.time < staleBefore) {
+                    jedis.hdel(REDIS_KEY, node.getKey());
+                } else {
+                    live.add(snapshot);
+                }
+            }
+            Redis.getInstance().releaseToPool(jedis);
+            return live;
+        } catch (Exception e) {
+            logger.warn("error reading heavy hitters: " + e.getMessage());
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import com.janrain.backplane2.server.dao.DAOFactory;
+import com.janrain.oauth2.OAuth2;
+import com.janrain.redis.MessageNotifier;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams the messages in a token's scope as Server-Sent Events over a single long lived response.
+ *
+ * The stream first catches up from the requested message id, then sends new messages as the
+ * MessageNotifier reports them committed for a bus/channel that may be in scope.
+ * Comment-only heartbeats keep intermediaries from closing an idle connection;
+ * the stream ends after a maximum duration, clients resume from the last event id.
+ */
+public class MessageStream implements MessageNotifier.Listener {
+
+    // - PUBLIC
+
+    public static final String CONTENT_TYPE = "text/event-stream";
+
+    public MessageStream(DAOFactory daoFactory, Token token, String since, String serverName) {
+        this.daoFactory = daoFactory;
+        this.token = token;
+        this.since = StringUtils.isBlank(since) ? "" : since;
+        this.serverName = serverName;
+        this.scopeBuses = token.getScope().getScopeFieldValues(BackplaneMessage.Field.BUS);
+        this.scopeChannels = token.getScope().getScopeFieldValues(BackplaneMessage.Field.CHANNEL);
+    }
+
+    /**
+     * Writes events to the provided writer until the maximum stream duration is reached,
+     * the token expires, or the client goes away (IOException).
+     */
+    public void run(Writer out) throws IOException, BackplaneServerException {
+        MessageNotifier notifier = MessageNotifier.getInstance();
+        notifier.addListener(this);
+        try {
+            long end = System.currentTimeMillis() + MAX_STREAM_MILLIS;
+            boolean pending = true;
+            boolean ready = false;
+            boolean notified = false;
+            boolean recheck = false;
+            while (! Thread.currentThread().isInterrupted()) {
+                if (token.isExpired()) {
+                    writeTokenError(out, OAuth2.OAUTH2_TOKEN_INVALID_GRANT, "invalid token");
+                    return;
+                }
+
+                if (pending) {
+                    MessagesResponse bpResponse = new MessagesResponse(since);
+                    daoFactory.getBackplaneMessageDAO().retrieveMessagesPerScope(bpResponse, token);
+                    for (BackplaneMessage message : bpResponse.getMessages()) {
+                        writeEvent(out, null, message.getIdValue(), message.asFrame(serverName, token.getType().isPrivileged()));
+                    }
+                    if (bpResponse.hasMessages()) {
+                        DeliveryLatency.getInstance().delivered(bpResponse.getMessages());
+                    }
+                    if (StringUtils.isNotBlank(bpResponse.getLastMessageId())) {
+                        since = bpResponse.getLastMessageId();
+                    }
+                    if (! ready) {
+                        writeEvent(out, EVENT_READY, since, null);
+                        ready = true;
+                    }
+                    out.flush();
+                    if (bpResponse.moreMessages()) {
+                        continue;
+                    }
+                    // a notification may arrive before the commit is visible on the read replica, look once more
+                    recheck = notified && ! bpResponse.hasMessages();
+                }
+
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                long wait = recheck ? RECHECK_MILLIS : notifier.isConnected() ? HEARTBEAT_MILLIS : POLL_MILLIS;
+                notified = await(Math.min(wait, remaining));
+                pending = notified || recheck || ! notifier.isConnected();
+                if (! pending) {
+                    out.write(": heartbeat\n\n");
+                    out.flush();
+                }
+            }
+        } finally {
+            notifier.removeListener(this);
+        }
+    }
+
+    /**
+     * Reports a token error to the client as a "tokenerror" event, with the same fields as error responses for polling clients.
+     */
+    public static void writeTokenError(Writer out, String oauthErrorCode, String errorDescription) throws IOException {
+        Map<String,Object> error = new HashMap<String, Object>();
+        error.put("error", oauthErrorCode);
+        error.put("error_description", errorDescription);
+        writeEvent(out, EVENT_TOKEN_ERROR, null, error);
+        out.flush();
+    }
+
+    @Override
+    public void messageCommitted(String bus, String channel, String messageId) {
+        if ( (scopeBuses == null || scopeBuses.contains(bus)) && (scopeChannels == null || scopeChannels.contains(channel)) ) {
+            synchronized (lock) {
+                signalled = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void subscribed() {
+        // catch up on anything committed while notifications were not received
+        synchronized (lock) {
+            signalled = true;
+            lock.notifyAll();
+        }
+    }
+
+    // - PRIVATE
+
+    private static final long MAX_STREAM_MILLIS = 5 * 60 * 1000L;
+    private static final long HEARTBEAT_MILLIS = 20 * 1000L;
+    private static final long POLL_MILLIS = 3000L;
+    private static final long RECHECK_MILLIS = 250L;
+
+    private static final String EVENT_READY = "ready";
+    private static final String EVENT_TOKEN_ERROR = "tokenerror";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final DAOFactory daoFactory;
+    private final Token token;
+    private final String serverName;
+    private final Set<String> scopeBuses;
+    private final Set<String> scopeChannels;
+    private String since;
+
+    private final Object lock = new Object();
+    private boolean signalled = false;
+
+    /**
+     * @return true if new messages may be available
+     */
+    private boolean await(long millis) {
+        synchronized (lock) {
+            long until = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (! signalled && remaining > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining = until - System.currentTimeMillis();
+            }
+            boolean result = signalled;
+            signalled = false;
+            return result;
+        }
+    }
+
+    private static void writeEvent(Writer out, String event, String id, Object data) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        if (event != null) {
+            sb.append("event: ").append(event).append('\n');
+        }
+        if (id != null) {
+            sb.append("id: ").append(id).append('\n');
+        }
+        // serialized JSON has no raw newlines, one data line per event
+        sb.append("data: ").append(data == null ? "{}" : mapper.writeValueAsString(data)).append("\n\n");
+        out.write(sb.toString());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics for GET /v2/messages, including the blocking (long poll) requests that v2_gets_time leaves out,
+ * tagged by the access token type (anonymous, client_credentials, authorization_code):
+ *
+ * - v2_blocked_gets_[type]: requests currently waiting for messages on this node
+ * - v2_blocking_gets_time_[type]: total time of requests with block > 0
+ * - v2_poll_requeries_[type]: message queries repeated by each blocking request while waiting
+ * - v2_poll_wake_latency_[type]: for requests that waited, time from the commit of the earliest committed
+ *   returned message to the response; only messages sampled for DeliveryLatency carry their commit time,
+ *   responses without any are not measured
+ * - v2_messages_per_response_[type]: number of messages in each response
+ * - v2_more_messages_[type]: responses truncated at the per response limit (moreMessages set)
+ */
+public class MessagesPollMetrics {
+
+    // - PUBLIC
+
+    public MessagesPollMetrics() {
+        for (GrantType type : GrantType.values()) {
+            if ( ! type.isRefresh()) {
+                byType.put(type, new TypeMetrics(type));
+            }
+        }
+    }
+
+    /**
+     * Call once per request, before the first wait for new messages; must be followed by unparked().
+     */
+    public void parked(GrantType type) {
+        TypeMetrics metrics = byType.get(type);
+        if (metrics != null) {
+            metrics.blocked.incrementAndGet();
+        }
+    }
+
+    public void unparked(GrantType type) {
+        TypeMetrics metrics = byType.get(type);
+        if (metrics != null) {
+            metrics.blocked.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param startMillis request start
+     * @param queries number of message queries done, more than one if the request waited
+     */
+    public void responded(GrantType type, boolean blocking, long startMillis, int queries, MessagesResponse response) {
+        TypeMetrics metrics = byType.get(type);
+        if (metrics == null) return;
+
+        long now = System.currentTimeMillis();
+        metrics.messagesPerResponse.update(response.messageCount());
+        if (response.moreMessages()) {
+            metrics.moreMessages.mark();
+        }
+        if (blocking) {
+            metrics.blockingGetsTime.update(now - startMillis, TimeUnit.MILLISECONDS);
+            metrics.requeries.update(queries - 1);
+            if (queries > 1 && response.hasMessages()) {
+                long committed = Long.MAX_VALUE;
+                for (BackplaneMessage message : response.getMessages()) {
+                    long messageCommitted = message.getCommitted();
+                    if (messageCommitted > 0 && messageCommitted < committed) {
+                        committed = messageCommitted;
+                    }
+                }
+                if (committed < Long.MAX_VALUE) {
+                    metrics.wakeLatency.update(Math.max(0, now - committed));
+                }
+            }
+        }
+    }
+
+    // - PRIVATE
+
+    private final Map<GrantType,TypeMetrics> byType = new EnumMap<GrantType, TypeMetrics>(GrantType.class);
+
+    private static final class TypeMetrics {
+
+        private TypeMetrics(GrantType type) {
+            String tag = type.name().toLowerCase();
+            Metrics.newGauge(metricName("v2_blocked_gets_" + tag), new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return blocked.get();
+                }
+            });
+            blockingGetsTime = Metrics.newTimer(metricName("v2_blocking_gets_time_" + tag), TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
+            requeries = Metrics.newHistogram(metricName("v2_poll_requeries_" + tag));
+            wakeLatency = Metrics.newHistogram(metricName("v2_poll_wake_latency_" + tag));
+            messagesPerResponse = Metrics.newHistogram(metricName("v2_messages_per_response_" + tag));
+            moreMessages = Metrics.newMeter(metricName("v2_more_messages_" + tag), "responses", TimeUnit.MINUTES);
+        }
+
+        private static MetricName metricName(String name) {
+            return new MetricName("v2", MessagesPollMetrics.class.getName().replace(".","_"), name);
+        }
+
+        private final AtomicInteger blocked = new AtomicInteger();
+        private final Timer blockingGetsTime;
+        private final Histogram requeries;
+        private final Histogram wakeLatency;
+        private final Histogram messagesPerResponse;
+        private final Meter moreMessages;
+    }
+}
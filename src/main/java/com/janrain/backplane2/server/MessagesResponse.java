@@ -35,10 +35,40 @@ public class MessagesResponse {
         this.messages.addAll(messages);
     }
 
+    /**
+     * Adds the messages in scope, up to the per response limit, from the provided messages in id order.
+     * The last message id is set to the last message added if more messages remain,
+     * otherwise to the last of the provided messages.
+     */
+    public void addMessagesInScope(List<BackplaneMessage> unfilteredMessages, Scope scope) {
+        List<BackplaneMessage> filteredMessages = new ArrayList<BackplaneMessage>();
+        for (BackplaneMessage unfilteredMessage : unfilteredMessages) {
+            if (scope.isMessageInScope(unfilteredMessage)) {
+                if (filteredMessages.size() >= MAX_MSGS_IN_FRAME) {
+                    moreMessages(true);
+                    setLastMessageId(filteredMessages.get(filteredMessages.size() - 1).getIdValue());
+                    break;
+                }
+                filteredMessages.add(unfilteredMessage);
+            }
+        }
+
+        // update lastMessageId to point to last message in this unfiltered result
+        if (unfilteredMessages.size() > 0 && ! moreMessages()) {
+            setLastMessageId(unfilteredMessages.get(unfilteredMessages.size() - 1).getIdValue());
+        }
+
+        addMessages(filteredMessages);
+    }
+
     public boolean hasMessages() {
         return messages != null && ! messages.isEmpty();
     }
 
+    public List<BackplaneMessage> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
     public int messageCount() {
         return messages.size();
     }
@@ -59,6 +89,8 @@ public class MessagesResponse {
 
     // - PRIVATE
 
+    private static final int MAX_MSGS_IN_FRAME = 25;
+
     private List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
     private String lastMessageId;
     private boolean moreMessages = false;
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import com.janrain.backplane2.server.config.BusConfig2;
+import com.janrain.backplane2.server.dao.DAOFactory;
+import com.janrain.redis.Keyspace;
+import com.janrain.redis.RateLimiter;
+import org.apache.log4j.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Admission control for posted messages, against the per bus, per channel and per client
+ * post rate limits configured in BusConfig2.
+ */
+public class PostRateLimiter {
+
+    // - PUBLIC
+
+    public PostRateLimiter(DAOFactory daoFactory) {
+        this(daoFactory, RateLimiter.getInstance());
+    }
+
+    public PostRateLimiter(DAOFactory daoFactory, RateLimiter rateLimiter) {
+        this.daoFactory = daoFactory;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Admits all provided (already validated) messages posted with the client's token, or none of them.
+     *
+     * @throws RetryAfterException with a 429 status code if any of the applicable rate limits would be exceeded
+     * @throws InvalidRequestException with a 413 status code if the messages exceed a rate limit's burst capacity,
+     * i.e. the request would never be admitted
+     */
+    public void checkPost(String clientId, List<BackplaneMessage> messages) throws BackplaneServerException {
+        Map<String,Integer> perBus = new LinkedHashMap<String, Integer>();
+        Map<String,Integer> perChannel = new LinkedHashMap<String, Integer>();
+        Map<String,String> channelBus = new LinkedHashMap<String, String>();
+        for (BackplaneMessage message : messages) {
+            String bus = message.get(BackplaneMessage.Field.BUS);
+            String channel = message.get(BackplaneMessage.Field.CHANNEL);
+            increment(perBus, bus);
+            increment(perChannel, channel);
+            channelBus.put(channel, bus);
+        }
+
+        List<RateLimiter.Bucket> buckets = new ArrayList<RateLimiter.Bucket>();
+        for (Map.Entry<String,Integer> busPosts : perBus.entrySet()) {
+            BusRateLimits limits = getLimits(busPosts.getKey());
+            addBucket(buckets, Keyspace.V2_RATELIMIT_BUS.keyString(busPosts.getKey()), limits.bus, busPosts.getValue());
+            addBucket(buckets, Keyspace.V2_RATELIMIT_CLIENT.keyString(busPosts.getKey() + "_" + clientId), limits.client, busPosts.getValue());
+        }
+        for (Map.Entry<String,Integer> channelPosts : perChannel.entrySet()) {
+            BusRateLimits limits = getLimits(channelBus.get(channelPosts.getKey()));
+            addBucket(buckets, Keyspace.V2_RATELIMIT_CHANNEL.keyString(channelPosts.getKey()), limits.channel, channelPosts.getValue());
+        }
+
+        long retryAfterMillis = rateLimiter.acquire(buckets);
+        if (retryAfterMillis == RateLimiter.EXCEEDS_CAPACITY) {
+            throw new InvalidRequestException("Post rate limit exceeded: too many messages in one request (" + messages.size() + ")",
+                    HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        }
+        if (retryAfterMillis > 0) {
+            throw new RetryAfterException("Post rate limit exceeded", RetryAfterException.SC_TOO_MANY_REQUESTS, retryAfterMillis);
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(PostRateLimiter.class);
+
+    private static final long LIMITS_CACHE_MILLIS = 60000L;
+    private static final int LIMITS_CACHE_MAX_ENTRIES = 10000;
+
+    /** bucket capacity, in seconds worth of the configured rate */
+    private static final double BURST_SECONDS = 1.0;
+
+    private final DAOFactory daoFactory;
+    private final RateLimiter rateLimiter;
+
+    private final Map<String,BusRateLimits> limitsCache = new ConcurrentHashMap<String, BusRateLimits>();
+
+    private static final class BusRateLimits {
+        private final double bus;
+        private final double channel;
+        private final double client;
+        private final long expiresAt;
+
+        private BusRateLimits(double bus, double channel, double client, long expiresAt) {
+            this.bus = bus;
+            this.channel = channel;
+            this.client = client;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private BusRateLimits getLimits(String bus) throws BackplaneServerException {
+        long now = System.currentTimeMillis();
+        BusRateLimits limits = limitsCache.get(bus);
+        if (limits == null || limits.expiresAt <= now) {
+            BusConfig2 busConfig = daoFactory.getBusDao().get(bus);
+            limits = busConfig == null ? new BusRateLimits(0, 0, 0, now + LIMITS_CACHE_MILLIS) :
+                    new BusRateLimits(
+                        parseLimit(busConfig, BusConfig2.Field.POST_RATE_LIMIT_BUS),
+                        parseLimit(busConfig, BusConfig2.Field.POST_RATE_LIMIT_CHANNEL),
+                        parseLimit(busConfig, BusConfig2.Field.POST_RATE_LIMIT_CLIENT),
+                        now + LIMITS_CACHE_MILLIS);
+            if (limitsCache.size() >= LIMITS_CACHE_MAX_ENTRIES) {
+                limitsCache.clear();
+            }
+            limitsCache.put(bus, limits);
+        }
+        return limits;
+    }
+
+    private static double parseLimit(BusConfig2 busConfig, BusConfig2.Field field) {
+        try {
+            return busConfig.getPostRateLimit(field);
+        } catch (NumberFormatException e) {
+            logger.warn("ignoring invalid " + field.getFieldName() + " for bus " + busConfig.getIdValue() + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static void addBucket(List<RateLimiter.Bucket> buckets, String key, double ratePerSecond, int cost) {
+        if (ratePerSecond > 0) {
+            buckets.add(new RateLimiter.Bucket(key, ratePerSecond, Math.max(1.0, ratePerSecond * BURST_SECONDS), cost));
+        }
+    }
+
+    private static void increment(Map<String,Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+/**
+ * Invalid request that the client may retry after some time, e.g. when rate limited or when the server sheds load.
+ */
+public class RetryAfterException extends InvalidRequestException {
+
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    public RetryAfterException(String message, int httpResponseCode, long retryAfterMillis) {
+        super(message, httpResponseCode);
+        this.retryAfterSeconds = Math.max(1, (retryAfterMillis + 999) / 1000);
+    }
+
+    /**
+     * @return value for the Retry-After response header
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    // - PRIVATE
+
+    private final long retryAfterSeconds;
+}
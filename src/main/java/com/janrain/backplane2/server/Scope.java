@@ -271,7 +271,6 @@ public class Scope {
     private static Map<BackplaneMessage.Field, LinkedHashSet<String>> parseScopeString(String scopeString) throws TokenException {
 
         Map<BackplaneMessage.Field,LinkedHashSet<String>> scopes = new LinkedHashMap<BackplaneMessage.Field, LinkedHashSet<String>>();
-        logger.debug("parsing scopeString = '" + scopeString + "' ...");
 
         if (StringUtils.isNotBlank(scopeString)) {
             // TODO: is there a maximum length for the scope string?
@@ -284,10 +283,11 @@ public class Scope {
                     scopes.put(keyValue.getLeft(), new LinkedHashSet<String>());
                 }
                 scopes.get(keyValue.getLeft()).add(keyValue.getRight());
-                logger.debug("added " + keyValue.getLeft() + ":" + keyValue.getRight());
             }
         }
-        logger.debug("parsed scopes: " + scopes);
+        if (logger.isDebugEnabled()) {
+            logger.debug("parsed scope string '" + scopeString + "': " + scopes);
+        }
         return scopes;
     }
 
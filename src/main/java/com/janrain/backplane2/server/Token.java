@@ -306,7 +306,9 @@ public class Token extends ExternalizableCore {
 
     private Token(String id, Map<String,String> data) throws SimpleDBException {
         super.init(id, data);
-        logger.debug("created token: " + this.toString());
+        if (logger.isDebugEnabled()) {
+            logger.debug("created token: " + this.toString());
+        }
     }
 
     private static Pair<String,EnumSet<TokenSource>> extractToken(String queryString, String requestParam, String authHeader) {
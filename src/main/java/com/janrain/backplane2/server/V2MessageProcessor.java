@@ -17,12 +17,16 @@
 package com.janrain.backplane2.server;
 
 import com.janrain.backplane.DateTimeUtils;
+import com.janrain.backplane.MessageId;
 import com.janrain.backplane2.server.config.Backplane2Config;
 import com.janrain.backplane2.server.dao.DAOFactory;
 import com.janrain.backplane2.server.dao.redis.RedisBackplaneMessageDAO;
-import com.janrain.commons.util.Pair;
+import com.janrain.redis.Keyspace;
+import com.janrain.redis.MessageNotifier;
 import com.janrain.redis.Redis;
+import com.janrain.redis.RedisLease;
 import com.janrain.utils.BackplaneSystemProps;
+import com.janrain.utils.LogSampler;
 import com.netflix.curator.framework.CuratorFramework;
 import com.netflix.curator.framework.recipes.leader.LeaderSelectorListener;
 import com.netflix.curator.framework.state.ConnectionState;
@@ -36,8 +40,9 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Transaction;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -45,6 +50,14 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Commits queued v2 messages, on the single leader node.
+ *
+ * The leader is elected through ZooKeeper (LeaderSelectorListener), or, in hot standby mode,
+ * is whichever node holds a short Redis lease; the other nodes poll the lease and take over within
+ * a lease period when the leader stops renewing it.
+ * Either way, commit transactions WATCH the last message id (and, in hot standby mode, the lease),
+ * so that a deposed leader can't commit after another one took over.
+ *
  * @author Tom Raney
  */
 public class V2MessageProcessor implements LeaderSelectorListener {
@@ -69,6 +82,7 @@ public class V2MessageProcessor implements LeaderSelectorListener {
     public void takeLeadership(CuratorFramework curatorFramework) throws Exception {
         setLeader(true);
         logger.info("[" + BackplaneSystemProps.getMachineName() + "] v2 leader elected for message processing");
+        recordIngestStall();
 
         ScheduledFuture<?> cleanupTask = scheduledExecutor.scheduleAtFixedRate(cleanupRunnable, 1, 2, TimeUnit.HOURS);
         insertMessages();
@@ -86,11 +100,56 @@ public class V2MessageProcessor implements LeaderSelectorListener {
         }
     }
 
+    /**
+     * Hot standby mode: processes messages while holding the lease, otherwise polls for it;
+     * runs until the thread is interrupted.
+     */
+    public void runHotStandby(RedisLease lease, long pollMillis) {
+        this.lease = lease;
+        logger.info("[" + lease.getOwner() + "] v2 message processor standing by");
+        ScheduledFuture<?> cleanupTask = null;
+        try {
+            while ( ! Thread.currentThread().isInterrupted()) {
+                if ( ! config.isLeaderDisabled() && lease.acquire()) {
+                    if (cleanupTask == null) {
+                        logger.info("[" + lease.getOwner() + "] v2 leader lease acquired for message processing");
+                        recordIngestStall();
+                        cleanupTask = scheduledExecutor.scheduleAtFixedRate(cleanupRunnable, 1, 2, TimeUnit.HOURS);
+                    }
+                    try {
+                        processSingleBatchOfPendingMessages();
+                    } catch (Exception e) {
+                        logger.warn(e);
+                    }
+                    Thread.sleep(150);
+                } else {
+                    if (cleanupTask != null) {
+                        cleanupTask.cancel(false);
+                        cleanupTask = null;
+                        logger.info("[" + lease.getOwner() + "] v2 leader lease lost, standing by");
+                    }
+                    Thread.sleep(pollMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (cleanupTask != null) {
+                cleanupTask.cancel(false);
+            }
+            lease.release();
+            logger.info("[" + lease.getOwner() + "] v2 message processor stopped");
+        }
+    }
+
     // - PRIVATE
 
     private static final Logger logger = Logger.getLogger(V2MessageProcessor.class);
 
-    private static final String V2_LAST_ID = "v2_last_id";
+    private static final String V2_LAST_ID = Keyspace.V2_LAST_ID.getName();
+
+    /** at INFO level, one in this many message transactions is logged */
+    private static final int FLUSHED_LOG_SAMPLE_RATE = 100;
 
     private static ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(1);
     static {
@@ -101,6 +160,11 @@ public class V2MessageProcessor implements LeaderSelectorListener {
 
     private final Histogram timeInQueue = Metrics.newHistogram(new MetricName("v2", this.getClass().getName().replace(".","_"), "time_in_queue"));
 
+    /** time the oldest queued message waited for a leader, at leadership changes */
+    private final Histogram ingestStall = Metrics.newHistogram(new MetricName("v2", this.getClass().getName().replace(".","_"), "ingest_stall_time"));
+
+    private final LogSampler flushedLog = new LogSampler(FLUSHED_LOG_SAMPLE_RATE);
+
     private final Backplane2Config config;
 
     private synchronized void setLeader(boolean leader) {
@@ -113,6 +177,9 @@ public class V2MessageProcessor implements LeaderSelectorListener {
 
     private boolean leader = false;
 
+    /** set in hot standby mode only */
+    private volatile RedisLease lease;
+
     /**
      * Processor to pull messages off queue and make them available
      *
@@ -143,19 +210,28 @@ public class V2MessageProcessor implements LeaderSelectorListener {
     private void processSingleBatchOfPendingMessages() throws Exception {
 
         Jedis jedis = null;
+        DataShards dataShards = null;
 
         try {
 
             jedis = Redis.getInstance().getWriteJedis();
+            dataShards = new DataShards();
 
             List<String> insertionTimes = new ArrayList<String>();
 
+            // fencing: the transaction fails if the lease changes hands
+            if (lease != null && ! lease.watch(jedis)) {
+                return;
+            }
+
             // set watch on V1_LAST_ID
             // needs to be set before retrieving the value stored at this key
             jedis.watch(V2_LAST_ID);
 
-            Pair<String,Date> lastIdAndDate = getLastMessageId(jedis);
-            String newId = lastIdAndDate.getLeft();
+            String newId = jedis.get(V2_LAST_ID);
+            long lastId = getLastMessageId(jedis, newId);
+            // the message data on other shards is fenced by the last id the batch's ids are derived from
+            long baseId = lastId;
 
             // retrieve a handful of messages (ten) off the queue for processing
             List<byte[]> messagesToProcess = jedis.lrange(RedisBackplaneMessageDAO.V2_MESSAGE_QUEUE.getBytes(), 0, 9);
@@ -166,6 +242,7 @@ public class V2MessageProcessor implements LeaderSelectorListener {
                 Transaction transaction = jedis.multi();
 
                 insertionTimes.clear();
+                List<BackplaneMessage> processed = new ArrayList<BackplaneMessage>(messagesToProcess.size());
 
                 // <ATOMIC> - redis transaction
                 for (byte[] messageBytes : messagesToProcess) {
@@ -174,14 +251,22 @@ public class V2MessageProcessor implements LeaderSelectorListener {
                         BackplaneMessage backplaneMessage = (BackplaneMessage) SerializationUtils.deserialize(messageBytes);
 
                         if (backplaneMessage != null) {
-                            newId = processSingleMessage(backplaneMessage, transaction, insertionTimes, lastIdAndDate);
+                            lastId = processSingleMessage(backplaneMessage, transaction, dataShards, insertionTimes, lastId);
+                            newId = backplaneMessage.getIdValue();
+                            processed.add(backplaneMessage);
                         }
                     }
                 }
 
                 transaction.set(V2_LAST_ID, newId);
+                dataShards.committed(transaction);
+
+                // message data on the other shards goes first, the home shard transaction is the commit point
+                dataShards.exec(baseId);
 
-                logger.info("processing transaction with " + insertionTimes.size() + " v2 message(s)");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("processing transaction with " + insertionTimes.size() + " v2 message(s)");
+                }
                 List<Object> results = transaction.exec();
                 if (results == null || results.size() == 0) {
                     logger.warn("transaction failed! - halting work for now");
@@ -189,15 +274,22 @@ public class V2MessageProcessor implements LeaderSelectorListener {
                 }
                 // </ATOMIC> - redis transaction
 
-                logger.info("flushed " + insertionTimes.size() + " v2 messages");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("flushed " + insertionTimes.size() + " v2 messages");
+                } else if (flushedLog.sample() && logger.isInfoEnabled()) {
+                    logger.info("flushed " + insertionTimes.size() + " v2 messages (1 in " + flushedLog.getRate() + " transactions logged)");
+                }
                 long now = System.currentTimeMillis();
                 for (String insertionId : insertionTimes) {
-                    long diff = now - com.janrain.backplane.server.BackplaneMessage.getDateFromId(insertionId).getTime();
+                    long diff = now - MessageId.parseTime(insertionId);
                     timeInQueue.update(diff);
                     if (diff < 0 || diff > 2880000) {
                         logger.warn("time diff is bizarre at: " + diff);
                     }
                 }
+                for (BackplaneMessage message : processed) {
+                    DeliveryLatency.getInstance().committed(message);
+                }
             }
         } catch (Exception e) {
             // if we get here, something bonked, like a connection to the redis server
@@ -217,16 +309,34 @@ public class V2MessageProcessor implements LeaderSelectorListener {
         }
     }
 
-    private Pair<String, Date> getLastMessageId(Jedis jedis) {
-        // retrieve the latest 'live' message ID
-        String latestMessageId = jedis.get(V2_LAST_ID);
-        Date dateFromId = BackplaneMessage.getDateFromId(latestMessageId);
-        return StringUtils.isEmpty(latestMessageId) || null == dateFromId ?
-                getLastMessageIdLegacy(jedis) :
-                new Pair<String, Date>(latestMessageId, dateFromId);
+    /**
+     * Records for how long the oldest queued message has been waiting, when taking over as leader.
+     */
+    private void recordIngestStall() {
+        try {
+            List<byte[]> oldest = Redis.getInstance().lrange(RedisBackplaneMessageDAO.V2_MESSAGE_QUEUE.getBytes(), 0, 0);
+            if (oldest == null || oldest.isEmpty()) {
+                ingestStall.update(0);
+                return;
+            }
+            BackplaneMessage message = (BackplaneMessage) SerializationUtils.deserialize(oldest.get(0));
+            long stall = Math.max(0, System.currentTimeMillis() - MessageId.parseTime(message.getIdValue()));
+            ingestStall.update(stall);
+            logger.info("v2 message ingestion stalled for " + stall + "ms before leadership change");
+        } catch (Exception e) {
+            logger.warn("error checking v2 message queue for ingestion stall: " + e.getMessage());
+        }
     }
 
-    private Pair<String, Date> getLastMessageIdLegacy(Jedis jedis) {
+    /**
+     * @return the numeric id of the latest 'live' message
+     */
+    private long getLastMessageId(Jedis jedis, String latestMessageId) {
+        long lastId = StringUtils.isEmpty(latestMessageId) ? -1 : MessageId.parse(latestMessageId);
+        return lastId < 0 ? getLastMessageIdLegacy(jedis) : lastId;
+    }
+
+    private long getLastMessageIdLegacy(Jedis jedis) {
         // retrieve the latest 'live' message ID
         // old/legacy method, used as fallback with the deployment of the replacement method
         // todo: remove after transition is completed
@@ -239,51 +349,62 @@ public class V2MessageProcessor implements LeaderSelectorListener {
             }
         }
 
-        Pair<String, Date> lastIdAndDate =  new Pair<String, Date>("", new Date(0));
-        try {
-            lastIdAndDate = StringUtils.isEmpty(latestMessageId) ?
-                    new Pair<String, Date>("", new Date(0)) :
-                    new Pair<String, Date>(latestMessageId, DateTimeUtils.ISO8601.get().parse(latestMessageId.substring(0, latestMessageId.indexOf("Z") + 1)));
-        } catch (Exception e) {
-            logger.warn("error retrieving last message ID and date from V1_MESSAGES: " + e.getMessage(), e);
-            lastIdAndDate = new Pair<String, Date>("", new Date(0));
+        long lastId = StringUtils.isEmpty(latestMessageId) ? 0 : MessageId.parse(latestMessageId);
+        if (lastId < 0) {
+            logger.warn("error retrieving last message ID from V2_MESSAGES: " + latestMessageId);
+            return 0;
         }
-
-        return lastIdAndDate;
+        return lastId;
     }
 
-    private String processSingleMessage(BackplaneMessage backplaneMessage,
-                                        Transaction transaction, List<String> insertionTimes,
-                                        Pair<String, Date> lastIdAndDate) throws Exception {
+    /**
+     * @return the message's numeric id
+     */
+    private long processSingleMessage(BackplaneMessage backplaneMessage,
+                                      Transaction transaction, DataShards dataShards,
+                                      List<String> insertionTimes, long lastId) throws Exception {
 
         try {
             String oldId = backplaneMessage.getIdValue();
             insertionTimes.add(oldId);
 
             // TOTAL ORDER GUARANTEE
-            // verify that the date portion of the new message ID is greater than all existing message ID dates
-            // if not, uptick id by 1 ms and insert
-            // this means that all message ids have unique time stamps, even if they
+            // verify that the new message's numeric ID is greater than all existing message IDs
+            // if not, take the next sequence number after the latest ID
+            // this means that all message ids are unique, even if they
             // arrived at the same time.
 
-            backplaneMessage.updateId(lastIdAndDate);
+            long id = backplaneMessage.updateId(lastId);
             String newId = backplaneMessage.getIdValue();
+            // only messages sampled for the delivery latency metrics carry an acceptance time
+            if (backplaneMessage.getAccepted() > 0) {
+                backplaneMessage.setCommitted(System.currentTimeMillis());
+            }
 
-            // messageTime is guaranteed to be a unique identifier of the message
+            // the numeric id is guaranteed to be a unique identifier of the message
             // because of the TOTAL ORDER mechanism above
-            long messageTime = BackplaneMessage.getDateFromId(newId).getTime();
+            long messageTime = id;
 
-            // <ATOMIC>
-            // save the individual message by key & TTL
-            transaction.setex(RedisBackplaneMessageDAO.getKey(newId),
-                    DateTimeUtils.getExpireSeconds(backplaneMessage.getIdValue(), backplaneMessage.get(BackplaneMessage.Field.EXPIRE), backplaneMessage.isSticky()),
-                    SerializationUtils.serialize(backplaneMessage));
+            byte[] key = RedisBackplaneMessageDAO.getKey(newId);
+            int seconds = DateTimeUtils.getExpireSeconds(backplaneMessage.getIdValue(), backplaneMessage.get(BackplaneMessage.Field.EXPIRE), backplaneMessage.isSticky());
+            byte[] body = SerializationUtils.serialize(backplaneMessage);
+            byte[] channelKey = RedisBackplaneMessageDAO.getChannelKey(backplaneMessage.getChannel());
+            byte[] busKey = RedisBackplaneMessageDAO.getBusKey(backplaneMessage.getBus());
+            byte[] member = backplaneMessage.getIdValue().getBytes();
 
-            // channel and bus sorted set index
-            transaction.zadd(RedisBackplaneMessageDAO.getChannelKey(backplaneMessage.getChannel()), messageTime,
-                    backplaneMessage.getIdValue().getBytes());
-            transaction.zadd(RedisBackplaneMessageDAO.getBusKey(backplaneMessage.getBus()), messageTime,
-                    backplaneMessage.getIdValue().getBytes());
+            // <ATOMIC>
+            // message body and indexes live on the bus's shard
+            int shard = Redis.getInstance().getBusShard(backplaneMessage.getBus());
+            if (shard == 0) {
+                // save the individual message by key & TTL
+                transaction.setex(key, seconds, body);
+
+                // channel and bus sorted set index
+                transaction.zadd(channelKey, messageTime, member);
+                transaction.zadd(busKey, messageTime, member);
+            } else {
+                dataShards.write(shard, key, seconds, body, channelKey, busKey, messageTime, member);
+            }
 
             // add message id to sorted set of all message ids as an index
             String metaData = backplaneMessage.getBus() + " " + backplaneMessage.getChannel() + " " +
@@ -295,16 +416,124 @@ public class V2MessageProcessor implements LeaderSelectorListener {
 
             // make sure all subscribers get the update
             transaction.publish("alerts", newId);
+            transaction.publish(MessageNotifier.V2_ALERTS_CHANNEL,
+                    MessageNotifier.notification(backplaneMessage.getBus(), backplaneMessage.getChannel(), newId));
 
             // pop one message off the queue - which will only happen if this transaction is successful
             transaction.lpop(RedisBackplaneMessageDAO.V2_MESSAGE_QUEUE);
             // </ATOMIC>
 
-            logger.info("pipelined v2 message " + oldId + " -> " + newId);
-            return newId;
+            if (logger.isDebugEnabled()) {
+                logger.debug("pipelined v2 message " + oldId + " -> " + newId);
+            }
+            return id;
         } catch (Exception e) {
             throw e;
         }
 
     }
+
+    /**
+     * Message data (bodies, bus and channel indexes) stored on shards other than the home shard.
+     *
+     * It is written before the commit transaction on the home shard, which records the latest message id written
+     * to each shard, so that readers can tell if a shard's replica has caught up with the commits.
+     *
+     * The message data is written by a script that fences it with the last id
+     * the batch's message ids were derived from: each shard keeps the highest such base id written to it,
+     * and rejects writes from a lower one, i.e. from a leader that lost the race for the home shard commit
+     * and would otherwise leave message data under ids that are never committed.
+     * Writes from the same base id are idempotent: if the commit fails, the next attempt processes the same queued
+     * messages from the same last id, and writes them with the same ids.
+     */
+    private static final class DataShards {
+
+        private void write(int shard, byte[] key, int seconds, byte[] body, byte[] channelKey, byte[] busKey,
+                           long score, byte[] member) {
+            List<byte[]> keys = keysByShard.get(shard);
+            List<byte[]> args = argsByShard.get(shard);
+            if (keys == null) {
+                keys = new ArrayList<byte[]>();
+                keys.add(Keyspace.V2_SHARD_FENCE.bytes());
+                keys.add(Keyspace.V2_SHARD_LAST_ID.bytes());
+                keysByShard.put(shard, keys);
+                args = new ArrayList<byte[]>();
+                argsByShard.put(shard, args);
+            }
+            lastScores.put(shard, score);
+            keys.add(key);
+            keys.add(channelKey);
+            keys.add(busKey);
+            args.add(Integer.toString(seconds).getBytes());
+            args.add(body);
+            args.add(Long.toString(score).getBytes());
+            args.add(member);
+        }
+
+        /**
+         * Records the latest message id written to each shard, in the home shard commit transaction.
+         */
+        private void committed(Transaction home) {
+            for (Map.Entry<Integer, Long> entry : lastScores.entrySet()) {
+                home.hset(Keyspace.V2_SHARD_COMMITTED.bytes(), Integer.toString(entry.getKey()).getBytes(),
+                        Long.toString(entry.getValue()).getBytes());
+            }
+        }
+
+        /**
+         * @throws IllegalStateException if the writes were fenced off on a shard, by a leader with a higher base id
+         */
+        private void exec(long baseId) {
+            for (Map.Entry<Integer, List<byte[]>> entry : keysByShard.entrySet()) {
+                int shard = entry.getKey();
+                List<byte[]> args = new ArrayList<byte[]>(argsByShard.get(shard).size() + 2);
+                args.add(Long.toString(baseId).getBytes());
+                args.add(Long.toString(lastScores.get(shard)).getBytes());
+                args.addAll(argsByShard.get(shard));
+
+                Jedis jedis = Redis.getInstance().getWriteJedis(shard);
+                Object written;
+                try {
+                    written = jedis.eval(FENCED_WRITE_SCRIPT.getBytes(), entry.getValue(), args);
+                    Redis.getInstance().releaseToPool(jedis);
+                } catch (RuntimeException e) {
+                    Redis.getInstance().releaseBrokenResourceToPool(jedis);
+                    throw e;
+                }
+                if (! Long.valueOf(1).equals(written)) {
+                    throw new IllegalStateException("message data write from last id " + baseId + " fenced off on shard " + shard);
+                }
+            }
+            keysByShard.clear();
+            argsByShard.clear();
+            lastScores.clear();
+        }
+
+        /**
+         * KEYS: fence, shard last id, then body, channel index and bus index keys for each message;
+         * ARGV: base id, numeric id of the last message, then TTL seconds, body, score and index member for each message
+         */
+        private static final String FENCED_WRITE_SCRIPT =
+                "local fence = redis.call('get', KEYS[1]) " +
+                "if fence and tonumber(fence) > tonumber(ARGV[1]) then " +
+                "  return 0 " +
+                "end " +
+                "redis.call('set', KEYS[1], ARGV[1]) " +
+                "for i = 0, (#KEYS - 2) / 3 - 1 do " +
+                "  local k = i * 3 + 3 " +
+                "  local a = i * 4 + 3 " +
+                "  redis.call('setex', KEYS[k], ARGV[a], ARGV[a + 1]) " +
+                "  redis.call('zadd', KEYS[k + 1], ARGV[a + 2], ARGV[a + 3]) " +
+                "  redis.call('zadd', KEYS[k + 2], ARGV[a + 2], ARGV[a + 3]) " +
+                "end " +
+                "local last = redis.call('get', KEYS[2]) " +
+                "if not last or tonumber(last) < tonumber(ARGV[2]) then " +
+                "  redis.call('set', KEYS[2], ARGV[2]) " +
+                "end " +
+                "return 1";
+
+        private final Map<Integer, List<byte[]>> keysByShard = new HashMap<Integer, List<byte[]>>();
+        private final Map<Integer, List<byte[]>> argsByShard = new HashMap<Integer, List<byte[]>>();
+        private final Map<Integer, Long> lastScores = new HashMap<Integer, Long>();
+    }
 }
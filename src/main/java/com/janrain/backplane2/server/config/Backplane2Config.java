@@ -16,16 +16,23 @@
 
 package com.janrain.backplane2.server.config;
 
-import com.janrain.backplane.server.config.BpServerConfig;
+import com.janrain.backplane.server.config.BpServerConfigHolder;
 import com.janrain.backplane2.server.BackplaneServerException;
+import com.janrain.backplane2.server.HeavyHitters;
 import com.janrain.backplane2.server.V2MessageProcessor;
 import com.janrain.backplane2.server.dao.DAOFactory;
-import com.janrain.cache.CachedL1;
+import com.janrain.backplane2.server.dao.redis.MessageHighWaterMarks;
+import com.janrain.backplane2.server.dao.redis.RedisBackplaneMessageDAO;
 import com.janrain.commons.supersimpledb.SimpleDBException;
 import com.janrain.commons.util.AwsUtility;
 import com.janrain.commons.util.InitSystemProps;
+import com.janrain.redis.GroupCommitWriter;
+import com.janrain.redis.Keyspace;
+import com.janrain.redis.MessageNotifier;
+import com.janrain.redis.QueueDepthMonitor;
+import com.janrain.redis.RedisLease;
 import com.janrain.crypto.HmacHashUtils;
-import com.janrain.redis.Redis;
+import com.janrain.crypto.SecureIds;
 import com.janrain.utils.BackplaneSystemProps;
 import com.netflix.curator.framework.CuratorFramework;
 import com.netflix.curator.framework.CuratorFrameworkFactory;
@@ -65,7 +72,7 @@ public class Backplane2Config {
 	 * @return the debugMode
 	 */
 	public boolean isDebugMode() {
-        return Boolean.valueOf(cachedGet(BpServerConfig.Field.DEBUG_MODE));
+        return BpServerConfigHolder.getInstance().get().isDebugMode();
 	}
 
     /**
@@ -73,13 +80,11 @@ public class Backplane2Config {
      * @throws SimpleDBException
      */
     public long getDefaultMaxMessageLimit() {
-        Long max = Long.valueOf(cachedGet(BpServerConfig.Field.DEFAULT_MESSAGES_MAX));
-        return max == null ? Backplane2Config.BP_MAX_MESSAGES_DEFAULT : max;
+        return BpServerConfigHolder.getInstance().get().getDefaultMessagesMax();
     }
 
     public boolean isLeaderDisabled() {
-        // skip DAO layer, not so crazy about editing serialized streams for debug, yay FED-76
-        return isDebugMode() && Redis.getInstance().get(EC2InstanceId) != null;
+        return BpServerConfigHolder.getInstance().get().isLeaderDisabled();
     }
 
 
@@ -104,6 +109,20 @@ public class Backplane2Config {
         return EC2InstanceId;
     }
 
+    /**
+     * @return sampled length of the incoming message queue
+     */
+    public long getMessageQueueDepth() {
+        return messageQueueMonitor.getDepth();
+    }
+
+    /**
+     * @return incoming message queue length above which new posts are rejected, 0 if unlimited
+     */
+    public long getMessageQueueMax() {
+        return BpServerConfigHolder.getInstance().get().getMessageQueueMax();
+    }
+
     public static void addToBackgroundServices(ScheduledExecutorService messageWorkerTask) {
         backgroundServices.add(messageWorkerTask);
     }
@@ -136,11 +155,17 @@ public class Backplane2Config {
     private static final String BUILD_PROPERTIES = "/build.properties";
     private static final String BUILD_VERSION_PROPERTY = "build.version";
     private static final Properties buildProperties = new Properties();
-    private static final long BP_MAX_MESSAGES_DEFAULT = 100;
     private static final List<ExecutorService> backgroundServices = new ArrayList<ExecutorService>();
 
     private final String bpInstanceId;
 
+    private static final long MESSAGE_QUEUE_SAMPLE_MILLIS = 500L;
+
+    private static final long MIN_LEASE_POLL_MILLIS = 10L;
+
+    private final QueueDepthMonitor messageQueueMonitor = new QueueDepthMonitor(RedisBackplaneMessageDAO.V2_MESSAGE_QUEUE,
+            new MetricName("v2", V2MessageProcessor.class.getName().replace(".","_"), "queue_depth"));
+
     private ExecutorService pingRedis;
 
 
@@ -181,6 +206,22 @@ public class Backplane2Config {
         logger.info("Configured Backplane Server instance: " + bpInstanceId);
     }
 
+    /**
+     * @return the v2 message processor hot standby lease duration, 0 if not enabled
+     */
+    private static long readProcessorLeaseMillis() {
+        String configured = System.getProperty(BackplaneSystemProps.V2_PROCESSOR_LEASE_MILLIS);
+        if (StringUtils.isNotBlank(configured)) {
+            try {
+                return Long.parseLong(configured.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("invalid " + BackplaneSystemProps.V2_PROCESSOR_LEASE_MILLIS + ": " + configured +
+                        ", using ZooKeeper leader election");
+            }
+        }
+        return 0;
+    }
+
     private ScheduledExecutorService createPingTask() {
         ScheduledExecutorService ping = Executors.newScheduledThreadPool(1);
         ping.scheduleWithFixedDelay(new Runnable() {
@@ -195,7 +236,22 @@ public class Backplane2Config {
     @PostConstruct
     private void init() {
 
+        if (BackplaneSystemProps.isInMemory()) {
+            // messages are committed as they are posted, no queue, leader or Redis to watch
+            backgroundServices.add(BpServerConfigHolder.getInstance().start(EC2InstanceId));
+            MessageNotifier.getInstance().startLocal();
+            backgroundServices.add(HeavyHitters.getInstance().start());
+            logger.info("using in-memory DAOs, data is not shared with other nodes and is lost on restart");
+            return;
+        }
+
         backgroundServices.add(createPingTask());
+        backgroundServices.add(BpServerConfigHolder.getInstance().start(EC2InstanceId));
+        backgroundServices.add(messageQueueMonitor.start(MESSAGE_QUEUE_SAMPLE_MILLIS));
+        backgroundServices.add(GroupCommitWriter.getInstance().start());
+        MessageHighWaterMarks.getInstance().start();
+        backgroundServices.add(MessageNotifier.getInstance().start());
+        backgroundServices.add(HeavyHitters.getInstance().start());
 
         try {
             String zkServerConfig = System.getProperty(BackplaneSystemProps.ZOOKEEPER_SERVERS);
@@ -205,10 +261,26 @@ public class Backplane2Config {
             }
             CuratorFramework client = CuratorFrameworkFactory.newClient(zkServerConfig, new ExponentialBackoffRetry(50, 20));
             client.start();
-            LeaderSelector leaderSelector = new LeaderSelector(client, "/v2_worker", new V2MessageProcessor(this, daoFactory));
-            leaderSelector.autoRequeue();
-            leaderSelector.start();
+            final V2MessageProcessor messageProcessor = new V2MessageProcessor(this, daoFactory);
+            final long leaseMillis = readProcessorLeaseMillis();
+            if (leaseMillis <= 0) {
+                LeaderSelector leaderSelector = new LeaderSelector(client, "/v2_worker", messageProcessor);
+                leaderSelector.autoRequeue();
+                leaderSelector.start();
+            }
             com.janrain.redis.Redis.getInstance().setActiveRedisInstance(client);
+            if (leaseMillis > 0) {
+                final RedisLease lease = new RedisLease(Keyspace.V2_PROCESSOR_LEASE.getName(),
+                        BackplaneSystemProps.getMachineName() + "/" + SecureIds.randomString(8), leaseMillis);
+                ExecutorService standby = Executors.newSingleThreadExecutor();
+                standby.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        messageProcessor.runHotStandby(lease, Math.max(MIN_LEASE_POLL_MILLIS, leaseMillis / 4));
+                    }
+                });
+                backgroundServices.add(standby);
+            }
         } catch (Exception e) {
             logger.error(e);
         }
@@ -241,40 +313,6 @@ public class Backplane2Config {
     @Inject
     private DAOFactory daoFactory;
 
-    private String cachedGet(BpServerConfig.Field property) {
-
-        try {
-
-            BpServerConfig bpServerConfigCache = (BpServerConfig) CachedL1.getInstance().getObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY);
-            if (bpServerConfigCache == null) {
-                // pull from db if not found in cache
-                try {
-                    bpServerConfigCache = daoFactory.getConfigDAO().get(BackplaneSystemProps.BPSERVER_CONFIG_KEY);
-                } catch (Exception e) {
-                    // if we get an error from the db, create a new object
-                }
-
-                if (bpServerConfigCache == null) {
-                    // no instance found in cache or the db, so let's use the default record
-                    bpServerConfigCache = new BpServerConfig();
-                }
-                // add it to the L1 cache
-                CachedL1.getInstance().setObject(BackplaneSystemProps.BPSERVER_CONFIG_KEY, -1, bpServerConfigCache);
-            }
-
-            return bpServerConfigCache.get(property);
-
-        } catch (Exception e) {
-            logger.error(e);
-            return null;
-        }
-
-    }
-
-    private Long getMaxCacheAge() {
-        return Long.valueOf(cachedGet(BpServerConfig.Field.CONFIG_CACHE_AGE_SECONDS));
-    }
-
     public void checkAdminAuth(String user, String password) throws AuthException {
         try {
             User userEntry = daoFactory.getAdminDAO().get(user);
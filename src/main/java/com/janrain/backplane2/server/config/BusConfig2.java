@@ -54,6 +54,14 @@ public class BusConfig2 extends ExternalizableCore {
         return Integer.valueOf(get(Field.RETENTION_STICKY_TIME_SECONDS));
     }
 
+    /**
+     * @return the configured post rate limit (messages per second), or 0 if not limited
+     */
+    public double getPostRateLimit(Field rateLimitField) {
+        String value = get(rateLimitField);
+        return value == null || value.trim().length() == 0 ? 0 : Double.parseDouble(value);
+    }
+
     @Override
     public Set<? extends MessageField> getFields() {
         return EnumSet.allOf(Field.class);
@@ -88,6 +96,42 @@ public class BusConfig2 extends ExternalizableCore {
                         throw new InvalidRequestException("Value of " + fieldName + " = " + intValue + " but must be between " + RETENTION_STICKY_MIN_SECONDS + " and " + RETENTION_STICKY_MAX_VALUE);
                     }
                 }
+            }},
+
+        /** max messages per second posted to the bus, optional */
+        POST_RATE_LIMIT_BUS {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+
+            @Override
+            public void validate(String value) throws SimpleDBException {
+                validateRateLimit(getFieldName(), value);
+            }},
+
+        /** max messages per second posted to any one channel of the bus, optional */
+        POST_RATE_LIMIT_CHANNEL {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+
+            @Override
+            public void validate(String value) throws SimpleDBException {
+                validateRateLimit(getFieldName(), value);
+            }},
+
+        /** max messages per second posted to the bus by any one client, optional */
+        POST_RATE_LIMIT_CLIENT {
+            @Override
+            public boolean isRequired() {
+                return false;
+            }
+
+            @Override
+            public void validate(String value) throws SimpleDBException {
+                validateRateLimit(getFieldName(), value);
             }};
 
 
@@ -110,6 +154,20 @@ public class BusConfig2 extends ExternalizableCore {
 
         // - PRIVATE
 
+        private static void validateRateLimit(String fieldName, String value) {
+            if (value == null || value.trim().length() == 0) return;
+            double rate;
+            try {
+                rate = Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new InvalidRequestException("Value of " + fieldName + " = " + value + " is not a number");
+            }
+            if (rate <= 0 || rate > RATE_LIMIT_MAX_VALUE) {
+                throw new InvalidRequestException("Value of " + fieldName + " = " + value + " but must be greater than 0 and at most " + RATE_LIMIT_MAX_VALUE);
+            }
+        }
+
+        private static final double RATE_LIMIT_MAX_VALUE = 100000;
         private static final int RETENTION_MIN_SECONDS = 60;
         private static final int RETENTION_MAX_VALUE = 604800; // one week
         private static final int RETENTION_STICKY_MIN_SECONDS = 28800; // eight hours
@@ -39,6 +39,11 @@ public interface BackplaneMessageDAO extends DAO<BackplaneMessage> {
 
     long countMessages() throws BackplaneServerException;
 
+    /**
+     * Enqueues all provided messages for processing in a single round trip, preserving their order.
+     */
+    void persistAll(List<BackplaneMessage> messages) throws BackplaneServerException;
+
     /**
      * Retrieve all messages by per scope in the provided bpResponse object.
      * Guaranteed to delivery results in order of message ID.
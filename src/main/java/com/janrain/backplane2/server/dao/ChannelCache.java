@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao;
+
+import com.janrain.backplane2.server.Channel;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-node LRU cache of channel metadata (bus binding, message expiration defaults)
+ * and approximate per-channel message counts, used to validate posted messages
+ * without going to Redis on every request.
+ *
+ * Channel entries never outlive the channel itself (CREATED + EXPIRE_SECONDS);
+ * unknown channels are cached (negatively) for a short time only.
+ */
+public class ChannelCache {
+
+    // - PUBLIC
+
+    /**
+     * @param maxEntries max number of channels kept in the cache
+     * @param maxTtlMillis upper bound for how long a known channel is cached
+     * @param negativeTtlMillis how long an unknown channel is remembered as such
+     * @param countTtlMillis how long a message count read from the backing store is trusted
+     */
+    public ChannelCache(final int maxEntries, long maxTtlMillis, long negativeTtlMillis, long countTtlMillis) {
+        this.maxTtlMillis = maxTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.countTtlMillis = countTtlMillis;
+        this.cache = new LinkedHashMap<String, CachedChannel>(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedChannel> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached lookup result for the channel, or null if the channel is not cached
+     *         (a non-null entry with a null channel means the channel is known not to exist)
+     */
+    public synchronized CachedChannel get(String channelId) {
+        CachedChannel entry = cache.get(channelId);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            cache.remove(channelId);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.mark();
+        } else {
+            hits.mark();
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the result of a channel lookup; a null channel records that the channel does not exist.
+     */
+    public synchronized void put(String channelId, Channel channel) {
+        long now = System.currentTimeMillis();
+        long ttl = channel == null ? negativeTtlMillis : channelTtlMillis(channel, now);
+        CachedChannel previous = cache.get(channelId);
+        CachedChannel entry = new CachedChannel(channel, now + ttl);
+        if (previous != null && channel != null && previous.channel != null) {
+            // keep the message count estimate across channel metadata refreshes
+            entry.count = previous.count;
+            entry.countExpiresAt = previous.countExpiresAt;
+        }
+        cache.put(channelId, entry);
+    }
+
+    public synchronized void invalidate(String channelId) {
+        cache.remove(channelId);
+    }
+
+    /**
+     * @return the approximate number of messages in the channel, or -1 if not known or stale
+     */
+    public synchronized long getMessageCount(String channelId) {
+        CachedChannel entry = cache.get(channelId);
+        if (entry == null || entry.channel == null || entry.countExpiresAt <= System.currentTimeMillis()) {
+            return -1;
+        }
+        return entry.count;
+    }
+
+    /**
+     * Records the message count read from the backing store.
+     */
+    public synchronized void setMessageCount(String channelId, long count) {
+        CachedChannel entry = cache.get(channelId);
+        if (entry != null && entry.channel != null) {
+            entry.count = count;
+            entry.countExpiresAt = System.currentTimeMillis() + countTtlMillis;
+        }
+    }
+
+    /**
+     * Accounts locally for a message accepted for the channel, until the count is refreshed from the backing store.
+     */
+    public synchronized void incrementMessageCount(String channelId, int delta) {
+        CachedChannel entry = cache.get(channelId);
+        if (entry != null && entry.channel != null && entry.count >= 0) {
+            entry.count += delta;
+        }
+    }
+
+    public static final class CachedChannel {
+
+        /**
+         * @return the cached channel, or null if the channel is known not to exist
+         */
+        public Channel getChannel() {
+            return channel;
+        }
+
+        // - PRIVATE
+
+        private final Channel channel;
+        private final long expiresAt;
+        private long count = -1;
+        private long countExpiresAt = 0;
+
+        private CachedChannel(Channel channel, long expiresAt) {
+            this.channel = channel;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // - PRIVATE
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 500;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private final long maxTtlMillis;
+    private final long negativeTtlMillis;
+    private final long countTtlMillis;
+
+    private final Map<String,CachedChannel> cache;
+
+    private final Meter hits = Metrics.newMeter(new MetricName("v2", this.getClass().getName().replace(".","_"), "channel_cache_hits"), "hits", TimeUnit.SECONDS);
+    private final Meter misses = Metrics.newMeter(new MetricName("v2", this.getClass().getName().replace(".","_"), "channel_cache_misses"), "misses", TimeUnit.SECONDS);
+
+    /**
+     * @return how long the channel can be cached, at most until the channel expires; 0 or less if it already has
+     */
+    private long channelTtlMillis(Channel channel, long now) {
+        long channelTtl = parseLong(channel.get(Channel.ChannelField.EXPIRE_SECONDS)) * 1000;
+        if (channelTtl <= 0) {
+            // legacy channel-bus bindings carry no expiration
+            return maxTtlMillis;
+        }
+        long created = parseLong(channel.get(Channel.ChannelField.CREATED));
+        if (created <= 0) {
+            // channels created before the creation time was recorded, the remaining lifetime is unknown
+            return Math.min(channelTtl, negativeTtlMillis);
+        }
+        return Math.min(created + channelTtl - now, maxTtlMillis);
+    }
+
+    private static long parseLong(String value) {
+        return StringUtils.isNotEmpty(value) && StringUtils.isNumeric(value) ? Long.parseLong(value) : 0;
+    }
+}
@@ -1,7 +1,9 @@
 package com.janrain.backplane2.server.dao;
 
 import com.janrain.backplane.server.dao.redis.RedisConfigDAO;
+import com.janrain.backplane2.server.dao.memory.MemoryDAOFactory;
 import com.janrain.backplane2.server.dao.redis.RedisDAOFactory;
+import com.janrain.utils.BackplaneSystemProps;
 
 /**
  * @author Tom Raney
@@ -10,6 +12,7 @@ public abstract class DAOFactory {
 
     // List of DAO types supported by the factory
     public static final int REDIS = 1;
+    public static final int MEMORY = 2;
 
     public abstract BusDAO getBusDao();
     public abstract ChannelDAO getChannelDao();
@@ -25,10 +28,19 @@ public abstract class DAOFactory {
     public abstract DAO getDaoByObjectType(Class<?> obj);
     public abstract AdminDAO getAdminDAO();
 
+    /**
+     * @return the DAO factory selected with the DAO_FACTORY system property, Redis unless set to "memory"
+     */
+    public static DAOFactory getDAOFactory() {
+        return getDAOFactory(BackplaneSystemProps.isInMemory() ? MEMORY : REDIS);
+    }
+
     public static DAOFactory getDAOFactory(int factory) {
         switch (factory) {
             case REDIS:
                 return new RedisDAOFactory();
+            case MEMORY:
+                return new MemoryDAOFactory();
             default:
                 return null;
         }
@@ -78,7 +78,9 @@ public class MessageCache<T extends Message> {
             cache.put(message.getIdValue(), message);
             size.addAndGet(message.sizeBytes());
         }
-        logger.info("Added " + messages.size() + " " + first.getClass().getSimpleName() + " items to cache");
+        if (logger.isDebugEnabled()) {
+            logger.debug("Added " + messages.size() + " " + first.getClass().getSimpleName() + " items to cache");
+        }
     }
 
     public synchronized @NotNull List<T> getMessagesSince(String sinceIso8601timestamp, long acceptableStaleMillis) {
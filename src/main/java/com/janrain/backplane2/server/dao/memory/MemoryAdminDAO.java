@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane2.server.BackplaneServerException;
+import com.janrain.backplane2.server.config.User;
+import com.janrain.backplane2.server.dao.redis.RedisAdminDAO;
+
+import java.util.List;
+
+/**
+ * Admin accounts kept in process, for the in-memory DAOFactory.
+ * Shared by the v1 and v2 DAO factories, the admin account is created on the v1 admin pages.
+ */
+public class MemoryAdminDAO extends RedisAdminDAO {
+
+    @Override
+    public void persist(User user) throws BackplaneServerException {
+        store.put(user.getIdValue(), user, MemoryStore.NEVER);
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        store.remove(id);
+    }
+
+    @Override
+    public User get(String key) {
+        return store.get(key);
+    }
+
+    @Override
+    public List<User> getAll() throws BackplaneServerException {
+        return store.getAll();
+    }
+
+    // - PRIVATE
+
+    private final MemoryStore<User> store = new MemoryStore<User>();
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane2.server.dao.AuthorizationDecisionKeyDAO;
+import com.janrain.oauth2.AuthorizationDecisionKey;
+
+public class MemoryAuthorizationDecisionKeyDAO extends MemoryDAO<AuthorizationDecisionKey> implements AuthorizationDecisionKeyDAO {
+
+    @Override
+    public void deleteExpiredAuthorizationDecisionKeys() {
+        store.purgeExpired();
+    }
+
+    // - PROTECTED
+
+    @Override
+    protected long expireAt(AuthorizationDecisionKey authorizationDecisionKey) {
+        return iso8601ExpireAt(authorizationDecisionKey.get(AuthorizationDecisionKey.Field.EXPIRES));
+    }
+}
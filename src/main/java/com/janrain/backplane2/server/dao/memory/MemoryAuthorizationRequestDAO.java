@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane2.server.dao.AuthorizationRequestDAO;
+import com.janrain.oauth2.AuthorizationRequest;
+
+public class MemoryAuthorizationRequestDAO extends MemoryDAO<AuthorizationRequest> implements AuthorizationRequestDAO {
+
+    @Override
+    public void deleteExpiredAuthorizationRequests() {
+        store.purgeExpired();
+    }
+
+    // - PROTECTED
+
+    @Override
+    protected long expireAt(AuthorizationRequest authorizationRequest) {
+        return iso8601ExpireAt(authorizationRequest.get(AuthorizationRequest.Field.EXPIRES));
+    }
+}
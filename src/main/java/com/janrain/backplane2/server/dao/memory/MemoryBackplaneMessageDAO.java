@@ -0,0 +1,297 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane.DateTimeUtils;
+import com.janrain.backplane.MessageId;
+import com.janrain.backplane2.server.*;
+import com.janrain.backplane2.server.dao.BackplaneMessageDAO;
+import com.janrain.oauth2.TokenException;
+import com.janrain.redis.MessageNotifier;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Messages kept in process, indexed by numeric message id in skip lists for all messages, per bus and per channel,
+ * mirroring the Redis sorted set indexes.
+ *
+ * Posted messages are committed (assigned their final id and indexed) immediately, there is no queue
+ * and no message processor. Expired messages are skipped on reads and purged periodically on writes.
+ */
+public class MemoryBackplaneMessageDAO implements BackplaneMessageDAO {
+
+    @Override
+    public BackplaneMessage get(String id) throws BackplaneServerException {
+        long score = id == null ? -1 : MessageId.score(id);
+        StoredMessage stored = score < 0 ? null : messages.get(score);
+        if (stored == null || stored.isExpired(System.currentTimeMillis()) || ! id.equals(stored.message.getIdValue())) {
+            return null;
+        }
+        return stored.message;
+    }
+
+    @Override
+    public List<BackplaneMessage> getAll() throws BackplaneServerException {
+        return retrieveMessagesNoScope(null);
+    }
+
+    @Override
+    public void persist(BackplaneMessage message) throws BackplaneServerException {
+        commit(message);
+        purgeIfDue();
+    }
+
+    @Override
+    public void persistAll(List<BackplaneMessage> messages) throws BackplaneServerException {
+        for (BackplaneMessage message : messages) {
+            commit(message);
+        }
+        purgeIfDue();
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException {
+        long score = MessageId.score(id);
+        if (score < 0) {
+            logger.warn("cannot retrieve numeric id from " + id + ": aborting delete");
+            return;
+        }
+        StoredMessage stored = messages.remove(score);
+        if (stored == null) {
+            logger.warn("v2 message " + id + " not found");
+            return;
+        }
+        removeFromIndex(busIndex, stored.message.getBus(), score);
+        removeFromIndex(channelIndex, stored.message.getChannel(), score);
+    }
+
+    @Override
+    public BackplaneMessage getLatestMessage() throws BackplaneServerException {
+        long now = System.currentTimeMillis();
+        for (StoredMessage stored : messages.descendingMap().values()) {
+            if ( ! stored.isExpired(now)) {
+                return stored.message;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    @Override
+    public BackplaneMessage retrieveBackplaneMessage(@NotNull String messageId, @NotNull Token token)
+            throws BackplaneServerException, TokenException {
+
+        BackplaneMessage message = get(messageId);
+
+        if ( message == null || ! token.getScope().isMessageInScope(message)) {
+            // don't disclose that the messageId exists if not in scope
+            throw new TokenException("Message id '" + messageId + "' not found", HttpServletResponse.SC_NOT_FOUND);
+        } else {
+            return message;
+        }
+    }
+
+    @Override
+    public long getMessageCount(String channel) throws BackplaneServerException {
+        ConcurrentNavigableMap<Long,StoredMessage> index = channelIndex.get(channel);
+        return index == null ? 0 : index.size();
+    }
+
+    @Override
+    public long countMessages() throws BackplaneServerException {
+        return messages.size();
+    }
+
+    @Override
+    public void retrieveMessagesPerScope(@NotNull MessagesResponse bpResponse, @NotNull Token token) throws BackplaneServerException {
+        Scope scope = token.getScope();
+        String lastMessageId = bpResponse.getLastMessageId();
+        long since = StringUtils.isBlank(lastMessageId) ? 0 : Math.max(0, MessageId.score(lastMessageId));
+
+        Set<String> channels = scope.getScopeFieldValues(BackplaneMessage.Field.CHANNEL);
+        Set<String> buses = scope.getScopeFieldValues(BackplaneMessage.Field.BUS);
+        List<BackplaneMessage> candidates;
+        if (channels != null) {
+            candidates = union(channelIndex, channels, since, buses);
+        } else if (buses != null) {
+            candidates = union(busIndex, buses, since, null);
+        } else {
+            candidates = Collections.emptyList();
+        }
+
+        if ( ! candidates.isEmpty()) {
+            bpResponse.addMessagesInScope(candidates, scope);
+        } else {
+            BackplaneMessage latest = getLatestMessage();
+            bpResponse.setLastMessageId(latest == null ? "" : latest.getIdValue());
+        }
+    }
+
+    @Override
+    public List<BackplaneMessage> retrieveMessagesNoScope(@Nullable String sinceIso8601timestamp) throws BackplaneServerException {
+        long since = StringUtils.isBlank(sinceIso8601timestamp) ? 0 : MessageId.score(sinceIso8601timestamp);
+        return unexpired(messages.tailMap(since, false));
+    }
+
+    @Override
+    public List<BackplaneMessage> retrieveMessagesByChannel(String channel) throws BackplaneServerException {
+        ConcurrentNavigableMap<Long,StoredMessage> index = channelIndex.get(channel);
+        if (index == null) {
+            return new ArrayList<BackplaneMessage>();
+        }
+        return unexpired(index);
+    }
+
+    @Override
+    public void deleteExpiredMessages() throws BackplaneServerException {
+        long now = System.currentTimeMillis();
+        int cleanedUpCount = 0;
+        for (Map.Entry<Long,StoredMessage> entry : messages.entrySet()) {
+            if (entry.getValue().isExpired(now) && messages.remove(entry.getKey(), entry.getValue())) {
+                removeFromIndex(busIndex, entry.getValue().message.getBus(), entry.getKey());
+                removeFromIndex(channelIndex, entry.getValue().message.getChannel(), entry.getKey());
+                cleanedUpCount++;
+            }
+        }
+        logger.info("v2 message cleanup, " + cleanedUpCount + " messages deleted");
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryBackplaneMessageDAO.class);
+
+    private static final long PURGE_INTERVAL_MILLIS = 60000L;
+
+    private final ConcurrentNavigableMap<Long,StoredMessage> messages = new ConcurrentSkipListMap<Long, StoredMessage>();
+    private final ConcurrentMap<String,ConcurrentNavigableMap<Long,StoredMessage>> busIndex =
+            new ConcurrentHashMap<String, ConcurrentNavigableMap<Long, StoredMessage>>();
+    private final ConcurrentMap<String,ConcurrentNavigableMap<Long,StoredMessage>> channelIndex =
+            new ConcurrentHashMap<String, ConcurrentNavigableMap<Long, StoredMessage>>();
+
+    /** numeric id of the latest committed message, guarded by this */
+    private long lastId = 0;
+
+    private volatile long lastPurge = System.currentTimeMillis();
+
+    private static final class StoredMessage {
+
+        private StoredMessage(BackplaneMessage message, long expireAt) {
+            this.message = message;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expireAt <= now;
+        }
+
+        private final BackplaneMessage message;
+        private final long expireAt;
+    }
+
+    private void commit(BackplaneMessage message) {
+        String bus = message.getBus();
+        String channel = message.getChannel();
+        synchronized (this) {
+            // TOTAL ORDER GUARANTEE, as in the v2 message processor
+            long id = message.updateId(lastId);
+            lastId = id;
+            if (message.getAccepted() > 0) {
+                message.setCommitted(System.currentTimeMillis());
+            }
+            long expireAt = System.currentTimeMillis() + 1000L *
+                    DateTimeUtils.getExpireSeconds(message.getIdValue(), message.get(BackplaneMessage.Field.EXPIRE), message.isSticky());
+            StoredMessage stored = new StoredMessage(message, expireAt);
+            messages.put(id, stored);
+            index(busIndex, bus).put(id, stored);
+            index(channelIndex, channel).put(id, stored);
+        }
+        DeliveryLatency.getInstance().committed(message);
+        MessageNotifier.getInstance().messageCommitted(bus, channel, message.getIdValue());
+    }
+
+    /** must be called holding this, so that empty indexes are not removed while being added to */
+    private static ConcurrentNavigableMap<Long,StoredMessage> index(ConcurrentMap<String,ConcurrentNavigableMap<Long,StoredMessage>> indexes, String key) {
+        ConcurrentNavigableMap<Long,StoredMessage> index = indexes.get(key);
+        if (index == null) {
+            index = new ConcurrentSkipListMap<Long, StoredMessage>();
+            indexes.put(key, index);
+        }
+        return index;
+    }
+
+    private void removeFromIndex(ConcurrentMap<String,ConcurrentNavigableMap<Long,StoredMessage>> indexes, String key, long id) {
+        ConcurrentNavigableMap<Long,StoredMessage> index = indexes.get(key);
+        if (index == null) return;
+        index.remove(id);
+        if (index.isEmpty()) {
+            synchronized (this) {
+                if (index.isEmpty()) {
+                    indexes.remove(key, index);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the unexpired messages after since in the union of the provided indexes, in id order,
+     * restricted to the provided buses if not null
+     */
+    private List<BackplaneMessage> union(Map<String,ConcurrentNavigableMap<Long,StoredMessage>> indexes, Set<String> keys,
+                                         long since, @Nullable Set<String> buses) {
+        long now = System.currentTimeMillis();
+        SortedMap<Long,BackplaneMessage> union = new TreeMap<Long, BackplaneMessage>();
+        for (String key : keys) {
+            ConcurrentNavigableMap<Long,StoredMessage> index = indexes.get(key);
+            if (index == null) continue;
+            for (Map.Entry<Long,StoredMessage> entry : index.tailMap(since, false).entrySet()) {
+                StoredMessage stored = entry.getValue();
+                if ( ! stored.isExpired(now) && (buses == null || buses.contains(stored.message.getBus()))) {
+                    union.put(entry.getKey(), stored.message);
+                }
+            }
+        }
+        return new ArrayList<BackplaneMessage>(union.values());
+    }
+
+    private static List<BackplaneMessage> unexpired(SortedMap<Long,StoredMessage> index) {
+        long now = System.currentTimeMillis();
+        List<BackplaneMessage> result = new ArrayList<BackplaneMessage>();
+        for (StoredMessage stored : index.values()) {
+            if ( ! stored.isExpired(now)) {
+                result.add(stored.message);
+            }
+        }
+        return result;
+    }
+
+    private void purgeIfDue() throws BackplaneServerException {
+        long now = System.currentTimeMillis();
+        if (now - lastPurge > PURGE_INTERVAL_MILLIS) {
+            lastPurge = now;
+            deleteExpiredMessages();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane2.server.BackplaneServerException;
+import com.janrain.backplane2.server.config.BusConfig2;
+import com.janrain.backplane2.server.dao.BusDAO;
+import com.janrain.backplane2.server.dao.GrantDAO;
+import com.janrain.oauth2.TokenException;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MemoryBusDAO extends MemoryDAO<BusConfig2> implements BusDAO {
+
+    public MemoryBusDAO(GrantDAO grantDao) {
+        this.grantDao = grantDao;
+    }
+
+    @Override
+    public List<BusConfig2> retrieveByOwner(String busOwner) throws BackplaneServerException {
+        List<BusConfig2> filtered = new ArrayList<BusConfig2>();
+        for (BusConfig2 busConfig : getAll()) {
+            if (busOwner.equals(busConfig.get(BusConfig2.Field.OWNER))) {
+                filtered.add(busConfig);
+            }
+        }
+        return filtered;
+    }
+
+    @Override
+    public void deleteByOwner(String busOwner) throws BackplaneServerException, TokenException {
+        for (BusConfig2 busConfig : retrieveByOwner(busOwner)) {
+            delete(busConfig.getIdValue());
+        }
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException, TokenException {
+        store.remove(id);
+        // cleanup related grants
+        grantDao.deleteByBuses(Collections.singletonList(id));
+        logger.info("Bus " + id + " deleted successfully");
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryBusDAO.class);
+
+    private final GrantDAO grantDao;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane2.server.BackplaneServerException;
+import com.janrain.backplane2.server.config.User;
+import com.janrain.backplane2.server.dao.BusDAO;
+import com.janrain.backplane2.server.dao.BusOwnerDAO;
+import com.janrain.oauth2.TokenException;
+import org.apache.log4j.Logger;
+
+public class MemoryBusOwnerDAO extends MemoryDAO<User> implements BusOwnerDAO {
+
+    public MemoryBusOwnerDAO(BusDAO busDao) {
+        this.busDao = busDao;
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException, TokenException {
+        store.remove(id);
+        // delete all associated buses (and their dependencies)
+        busDao.deleteByOwner(id);
+        logger.info("Bus owner " + id + " deleted successfully");
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryBusOwnerDAO.class);
+
+    private final BusDAO busDao;
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane.server.BackplaneServerException;
+import com.janrain.backplane.server.config.BpServerConfig;
+import com.janrain.backplane.server.dao.redis.RedisConfigDAO;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Server configuration kept in process, for the in-memory DAOFactory.
+ */
+public class MemoryConfigDAO extends RedisConfigDAO {
+
+    @Override
+    public BpServerConfig get(@Nullable String id) {
+        return store.get(id);
+    }
+
+    @Override
+    public void persist(BpServerConfig obj) throws BackplaneServerException {
+        store.put(obj.getIdValue(), obj, MemoryStore.NEVER);
+    }
+
+    // - PRIVATE
+
+    private final MemoryStore<BpServerConfig> store = new MemoryStore<BpServerConfig>();
+}
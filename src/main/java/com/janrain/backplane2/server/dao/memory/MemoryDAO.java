@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane.DateTimeUtils;
+import com.janrain.backplane.server.ExternalizableCore;
+import com.janrain.backplane2.server.BackplaneServerException;
+import com.janrain.backplane2.server.dao.DAO;
+import com.janrain.oauth2.TokenException;
+
+import java.util.List;
+
+/**
+ * Base for the in-memory DAOs: objects are kept in a MemoryStore, keyed by their id value.
+ */
+public abstract class MemoryDAO<T extends ExternalizableCore> implements DAO<T> {
+
+    @Override
+    public T get(String id) throws BackplaneServerException {
+        return store.get(id);
+    }
+
+    @Override
+    public List<T> getAll() throws BackplaneServerException {
+        return store.getAll();
+    }
+
+    @Override
+    public void persist(T obj) throws BackplaneServerException {
+        store.put(obj.getIdValue(), obj, expireAt(obj));
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException, TokenException {
+        store.remove(id);
+    }
+
+    // - PROTECTED
+
+    protected final MemoryStore<T> store = new MemoryStore<T>();
+
+    /**
+     * @return the object's expiration time in milliseconds, or MemoryStore.NEVER
+     */
+    protected long expireAt(T obj) {
+        return MemoryStore.NEVER;
+    }
+
+    /**
+     * @return the expiration time of an ISO8601 formatted expires field, or MemoryStore.NEVER if not set
+     */
+    protected static long iso8601ExpireAt(String expires) {
+        long expireAt = DateTimeUtils.parseIso8601(expires, 0);
+        return expireAt < 0 ? MemoryStore.NEVER : expireAt;
+    }
+}
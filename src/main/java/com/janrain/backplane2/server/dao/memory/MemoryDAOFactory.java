@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane.server.dao.redis.RedisConfigDAO;
+import com.janrain.backplane2.server.config.BusConfig2;
+import com.janrain.backplane2.server.config.Client;
+import com.janrain.backplane2.server.config.User;
+import com.janrain.backplane2.server.dao.*;
+
+/**
+ * DAOs keeping all data in process, for single node deployments and benchmarks:
+ * no Redis or ZooKeeper, and nothing survives a restart.
+ *
+ * Selected with the DAO_FACTORY=memory system property.
+ */
+public class MemoryDAOFactory extends DAOFactory {
+
+    @Override
+    public BusDAO getBusDao() {
+        return busDao;
+    }
+
+    @Override
+    public ChannelDAO getChannelDao() {
+        return channelDao;
+    }
+
+    @Override
+    public TokenDAO getTokenDao() {
+        return tokenDao;
+    }
+
+    @Override
+    public GrantDAO getGrantDao() {
+        return grantDao;
+    }
+
+    @Override
+    public BusOwnerDAO getBusOwnerDAO() {
+        return busOwnerDao;
+    }
+
+    @Override
+    public ClientDAO getClientDAO() {
+        return clientDao;
+    }
+
+    @Override
+    public BackplaneMessageDAO getBackplaneMessageDAO() {
+        return messageDao;
+    }
+
+    @Override
+    public AuthSessionDAO getAuthSessionDAO() {
+        return authSessionDao;
+    }
+
+    @Override
+    public AuthorizationRequestDAO getAuthorizationRequestDAO() {
+        return authorizationRequestDao;
+    }
+
+    @Override
+    public AuthorizationDecisionKeyDAO getAuthorizationDecisionKeyDAO() {
+        return authorizationDecisionKeyDao;
+    }
+
+    @Override
+    public RedisConfigDAO getConfigDAO() {
+        // shared with the server configuration holder
+        return com.janrain.backplane.server.dao.DaoFactory.getConfigDAO();
+    }
+
+    @Override
+    public DAO getDaoByObjectType(Class<?> obj) {
+        if (Client.class.isAssignableFrom(obj)) {
+            return getClientDAO();
+        } else if (User.class.isAssignableFrom(obj)) {
+            return getBusOwnerDAO();
+        } else if (BusConfig2.class.isAssignableFrom(obj)) {
+            return getBusDao();
+        }
+
+        return null;
+    }
+
+    @Override
+    public AdminDAO getAdminDAO() {
+        // shared with the v1 admin pages, where the admin account is created
+        return com.janrain.backplane.server.dao.DaoFactory.getAdminDAO();
+    }
+
+    // - PRIVATE
+
+    private final TokenDAO tokenDao = new MemoryTokenDAO();
+    private final GrantDAO grantDao = new MemoryGrantDAO(tokenDao);
+    private final BusDAO busDao = new MemoryBusDAO(grantDao);
+    private final ChannelDAO channelDao = new MemoryChannelDAO();
+    private final BusOwnerDAO busOwnerDao = new MemoryBusOwnerDAO(busDao);
+    private final ClientDAO clientDao = new MemoryClientDAO();
+    private final BackplaneMessageDAO messageDao = new MemoryBackplaneMessageDAO();
+    private final AuthSessionDAO authSessionDao = new MemoryAuthSessionDAO();
+    private final AuthorizationRequestDAO authorizationRequestDao = new MemoryAuthorizationRequestDAO();
+    private final AuthorizationDecisionKeyDAO authorizationDecisionKeyDao = new MemoryAuthorizationDecisionKeyDAO();
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane2.server.BackplaneMessage;
+import com.janrain.backplane2.server.BackplaneServerException;
+import com.janrain.backplane2.server.Grant;
+import com.janrain.backplane2.server.Scope;
+import com.janrain.backplane2.server.dao.GrantDAO;
+import com.janrain.backplane2.server.dao.TokenDAO;
+import com.janrain.oauth2.TokenException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class MemoryGrantDAO extends MemoryDAO<Grant> implements GrantDAO {
+
+    public MemoryGrantDAO(TokenDAO tokenDao) {
+        this.tokenDao = tokenDao;
+    }
+
+    @Override
+    public List<Grant> getByClientId(String clientId) throws BackplaneServerException {
+        List<Grant> filtered = new ArrayList<Grant>();
+        for (Grant grant : getAll()) {
+            if (clientId.equals(grant.get(Grant.GrantField.ISSUED_TO_CLIENT_ID)) && grant.getState().isActive()) {
+                filtered.add(grant);
+            }
+        }
+        return filtered;
+    }
+
+    @Override
+    public void update(Grant existing, Grant updated) throws BackplaneServerException, TokenException {
+        tokenDao.revokeTokenByGrant(existing.getIdValue());
+        store.remove(existing.getIdValue());
+        persist(updated);
+        logger.info("Updated grant (and revoked tokens): " + updated.getIdValue());
+    }
+
+    @Override
+    public void delete(String id) throws BackplaneServerException, TokenException {
+        store.remove(id);
+        tokenDao.revokeTokenByGrant(id);
+        logger.info("deleted grant " + id);
+    }
+
+    @Override
+    public void deleteByBuses(@NotNull List<String> busesToDelete) throws BackplaneServerException, TokenException {
+        Scope deleteBusesScope = new Scope(Scope.getEncodedScopesAsString(BackplaneMessage.Field.BUS, busesToDelete));
+        for (Grant grant : getAll()) {
+            Set<String> grantBuses = grant.getAuthorizedScope().getScopeFieldValues(BackplaneMessage.Field.BUS);
+            if (grantBuses == null) continue;
+            for (String bus : grantBuses) {
+                if (busesToDelete.contains(bus)) {
+                    revokeBuses(grant, deleteBusesScope);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean revokeBuses(List<Grant> grants, List<String> buses) throws BackplaneServerException, TokenException {
+        Scope busesToRevoke = new Scope(Scope.getEncodedScopesAsString(BackplaneMessage.Field.BUS, buses));
+        boolean changes = false;
+        for (Grant grant : grants) {
+            changes = revokeBuses(grant, busesToRevoke) || changes;
+        }
+        return changes;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryGrantDAO.class);
+
+    private final TokenDAO tokenDao;
+
+    private boolean revokeBuses(Grant grant, Scope busesToRevoke) throws BackplaneServerException {
+        try {
+            Scope grantScope = grant.getAuthorizedScope();
+            Scope updatedScope = Scope.revoke(grantScope, busesToRevoke);
+            if (updatedScope.equals(grantScope)) return false;
+            if (!updatedScope.isAuthorizationRequired()) {
+                logger.info("Revoked all buses from grant: " + grant.getIdValue());
+                delete(grant.getIdValue());
+            } else {
+                Grant updated = new Grant.Builder(grant, grant.getState()).scope(updatedScope).buildGrant();
+                update(grant, updated);
+                logger.info("Buses updated for grant: " + updated.getIdValue() + " remaining scope: '" + updated.getAuthorizedScope() + "'");
+            }
+            return true;
+        } catch (Exception e) {
+            throw new BackplaneServerException(e.getMessage());
+        }
+    }
+}
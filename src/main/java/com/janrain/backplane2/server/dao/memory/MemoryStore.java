@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-process key/value store with per entry expiration, the equivalent of a Redis key space with TTLs.
+ *
+ * Expired entries are not returned, and are purged when found on access and periodically on writes.
+ * Values are stored by reference, not copied.
+ */
+public class MemoryStore<T> {
+
+    // - PUBLIC
+
+    /** expiration time for entries that don't expire */
+    public static final long NEVER = 0;
+
+    public T get(String id) {
+        if (id == null) return null;
+        Entry<T> entry = entries.get(id);
+        if (entry == null) return null;
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(id, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * @return all entries that haven't expired, in id order
+     */
+    public List<T> getAll() {
+        long now = System.currentTimeMillis();
+        List<T> values = new ArrayList<T>();
+        for (Entry<T> entry : entries.values()) {
+            if ( ! entry.isExpired(now)) {
+                values.add(entry.value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param expireAt expiration time in milliseconds, or NEVER
+     */
+    public void put(String id, T value, long expireAt) {
+        entries.put(id, new Entry<T>(value, expireAt));
+        long now = System.currentTimeMillis();
+        if (now - lastPurge > PURGE_INTERVAL_MILLIS) {
+            lastPurge = now;
+            purgeExpired();
+        }
+    }
+
+    /**
+     * @return the removed value, or null if there was none or it had expired
+     */
+    public T remove(String id) {
+        Entry<T> entry = entries.remove(id);
+        return entry == null || entry.isExpired(System.currentTimeMillis()) ? null : entry.value;
+    }
+
+    /**
+     * @return the number of expired entries removed
+     */
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int purged = 0;
+        Iterator<Map.Entry<String,Entry<T>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().isExpired(now)) {
+                it.remove();
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // - PRIVATE
+
+    private static final long PURGE_INTERVAL_MILLIS = 60000L;
+
+    private final ConcurrentNavigableMap<String,Entry<T>> entries = new ConcurrentSkipListMap<String, Entry<T>>();
+
+    private volatile long lastPurge = System.currentTimeMillis();
+
+    private static final class Entry<T> {
+
+        private Entry(T value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expireAt != NEVER && expireAt <= now;
+        }
+
+        private final T value;
+        private final long expireAt;
+    }
+}
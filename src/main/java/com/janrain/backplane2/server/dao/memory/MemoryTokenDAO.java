@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane2.server.BackplaneServerException;
+import com.janrain.backplane2.server.Token;
+import com.janrain.backplane2.server.dao.TokenDAO;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class MemoryTokenDAO extends MemoryDAO<Token> implements TokenDAO {
+
+    @Override
+    public void delete(String tokenId) throws BackplaneServerException {
+        if (store.remove(tokenId) != null) {
+            logger.info("removed token " + tokenId);
+        }
+    }
+
+    @Override
+    public List<Token> retrieveTokensByGrant(String grantId) throws BackplaneServerException {
+        List<Token> filtered = new ArrayList<Token>();
+        for (Token token : getAll()) {
+            if (token.getBackingGrants().contains(grantId)) {
+                filtered.add(token);
+            }
+        }
+        return filtered;
+    }
+
+    @Override
+    public void revokeTokenByGrant(String grantId) throws BackplaneServerException {
+        List<Token> tokens = retrieveTokensByGrant(grantId);
+        for (Token token : tokens) {
+            delete(token.getIdValue());
+            logger.info("revoked token " + token.getIdValue());
+        }
+        if (! tokens.isEmpty()) {
+            logger.info("all tokens for grant " + grantId + " have been revoked");
+        }
+    }
+
+    @Override
+    public void deleteExpiredTokens() throws BackplaneServerException {
+        logger.info("removed " + store.purgeExpired() + " expired tokens");
+    }
+
+    @Override
+    public void cacheRevokedCleanup() {
+        // no-op
+    }
+
+    // - PROTECTED
+
+    @Override
+    protected long expireAt(Token token) {
+        Date expires = token.getExpirationDate();
+        return expires == null ? MemoryStore.NEVER : expires.getTime();
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MemoryTokenDAO.class);
+}
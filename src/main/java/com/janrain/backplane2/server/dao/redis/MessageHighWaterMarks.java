@@ -0,0 +1,232 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.redis;
+
+import com.janrain.backplane.MessageId;
+import com.janrain.backplane2.server.BackplaneMessage;
+import com.janrain.backplane2.server.Scope;
+import com.janrain.redis.MessageNotifier;
+import com.janrain.redis.Redis;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latest committed message (index score) per channel and per bus, kept current from the MessageNotifier's commit notifications,
+ * so that polls with nothing new since their last seen message can be answered without querying Redis.
+ *
+ * Every message committed after the baseline (the latest message when the notification subscription was established)
+ * is notified; channels and buses without an entry have no messages after the baseline,
+ * or are looked up in Redis once, when asked about an earlier time.
+ */
+public class MessageHighWaterMarks implements MessageNotifier.Listener {
+
+    // - PUBLIC
+
+    public static MessageHighWaterMarks getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts receiving commit notifications; must be called before the MessageNotifier is started.
+     */
+    public void start() {
+        MessageNotifier.getInstance().addListener(this);
+    }
+
+    /**
+     * @return true if no message in the provided scope was committed after the sinceMessageId message,
+     * false if there may be new messages
+     */
+    public boolean isUpToDate(Scope scope, String sinceMessageId) {
+        if (baseline < 0 || ! MessageNotifier.getInstance().isConnected()) {
+            return false;
+        }
+        long since = StringUtils.isBlank(sinceMessageId) ? -1 : MessageId.score(sinceMessageId);
+        if (since < 0) {
+            return false;
+        }
+
+        // messages in scope are in the intersection of the channel and bus scopes, checking one of them is enough
+        Set<String> channels = scope.getScopeFieldValues(BackplaneMessage.Field.CHANNEL);
+        Set<String> buses = scope.getScopeFieldValues(BackplaneMessage.Field.BUS);
+        if (channels != null && ! channels.isEmpty()) {
+            for (String channel : channels) {
+                if ( ! isUpToDate(new String(RedisBackplaneMessageDAO.getChannelKey(channel)), null, since)) return false;
+            }
+        } else if (buses != null && ! buses.isEmpty()) {
+            for (String bus : buses) {
+                if ( ! isUpToDate(new String(RedisBackplaneMessageDAO.getBusKey(bus)), bus, since)) return false;
+            }
+        } else {
+            return false;
+        }
+
+        upToDate.mark();
+        return true;
+    }
+
+    @Override
+    public void subscribed() {
+        // notifications may have been missed while disconnected, start over
+        baseline = -1;
+        marks.clear();
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Set<Tuple> last = jedis.zrangeWithScores(RedisBackplaneMessageDAO.V2_MESSAGES.getBytes(), -1, -1);
+            long latest = last.isEmpty() ? 0 : (long) last.iterator().next().getScore();
+            maxSeen = latest;
+            baseline = latest;
+            Redis.getInstance().releaseToPool(jedis);
+        } catch (Exception e) {
+            logger.warn("error reading latest message, polls will query redis: " + e.getMessage());
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+        }
+    }
+
+    @Override
+    public void messageCommitted(String bus, String channel, String messageId) {
+        long time = MessageId.score(messageId);
+        if (time < 0) return;
+        if (marks.size() >= MAX_ENTRIES) {
+            // everything committed so far is at or before maxSeen
+            baseline = Math.max(baseline, maxSeen);
+            marks.clear();
+        }
+        raise(new String(RedisBackplaneMessageDAO.getChannelKey(channel)), time);
+        raise(new String(RedisBackplaneMessageDAO.getBusKey(bus)), time);
+        if (time > maxSeen) {
+            maxSeen = time;
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MessageHighWaterMarks.class);
+
+    private static final int MAX_ENTRIES = 100000;
+
+    private static final MessageHighWaterMarks instance = new MessageHighWaterMarks();
+
+    /** redis index key -> latest committed message score */
+    private final ConcurrentMap<String,Long> marks = new ConcurrentHashMap<String, Long>();
+
+    private volatile long baseline = -1;
+    private volatile long maxSeen = 0;
+
+    private final Meter upToDate = Metrics.newMeter(
+            new MetricName("v2", this.getClass().getName().replace(".","_"), "up_to_date_polls"), "polls", TimeUnit.MINUTES);
+
+    private final Meter lookups = Metrics.newMeter(
+            new MetricName("v2", this.getClass().getName().replace(".","_"), "redis_lookups"), "lookups", TimeUnit.MINUTES);
+
+    private MessageHighWaterMarks() { }
+
+    private boolean isUpToDate(String indexKey, String bus, long since) {
+        Long latest = marks.get(indexKey);
+        if (latest == null) {
+            if (since >= baseline) {
+                return true;
+            }
+            latest = lookup(indexKey, bus, since);
+            if (latest == null) {
+                return false;
+            }
+        }
+        return latest <= since;
+    }
+
+    /**
+     * Looks up the index on the read replicas. A replica's answer is recorded for subsequent polls only if the replica
+     * has the baseline message, and so every message before it; otherwise a replica with nothing newer than since
+     * may still be catching up, and the primary is asked instead.
+     *
+     * @param bus the bus of a bus index, or null for channel indexes, which are looked up on all message keyspace shards
+     * @return the latest message score in the index from Redis, or null on error
+     */
+    private Long lookup(String indexKey, String bus, long since) {
+        lookups.mark();
+        Redis redis = Redis.getInstance();
+        long latest = 0;
+        boolean complete = true;
+        for (int shard = 0; shard < redis.getShardCount(); shard++) {
+            if (bus != null && shard != redis.getBusShard(bus)) continue;
+            Jedis jedis = null;
+            try {
+                jedis = redis.getReadJedis(shard);
+                Pipeline pipeline = jedis.pipelined();
+                Response<Set<Tuple>> last = pipeline.zrevrangeWithScores(indexKey.getBytes(), 0, 0);
+                // the message index is only on the home shard
+                Response<Set<Tuple>> global = shard == 0 ?
+                        pipeline.zrevrangeWithScores(RedisBackplaneMessageDAO.V2_MESSAGES.getBytes(), 0, 0) : null;
+                pipeline.sync();
+                long shardLatest = score(last.get());
+                boolean caughtUp = global != null && score(global.get()) >= baseline;
+                redis.releaseToPool(jedis);
+                jedis = null;
+                if ( ! caughtUp && shardLatest <= since) {
+                    jedis = redis.getWriteJedis(shard);
+                    shardLatest = score(jedis.zrevrangeWithScores(indexKey.getBytes(), 0, 0));
+                    redis.releaseToPool(jedis);
+                    jedis = null;
+                    caughtUp = true;
+                }
+                latest = Math.max(latest, shardLatest);
+                complete &= caughtUp;
+            } catch (Exception e) {
+                logger.warn("error reading latest message for " + indexKey + ": " + e.getMessage());
+                redis.releaseBrokenResourceToPool(jedis);
+                return null;
+            }
+        }
+        return complete ? raise(indexKey, latest) : latest;
+    }
+
+    private static long score(Set<Tuple> last) {
+        return last == null || last.isEmpty() ? 0 : (long) last.iterator().next().getScore();
+    }
+
+    /**
+     * @return the index's high water mark after the update
+     */
+    private long raise(String indexKey, long time) {
+        while (true) {
+            Long current = marks.putIfAbsent(indexKey, time);
+            if (current == null) {
+                return time;
+            }
+            if (current >= time) {
+                return current;
+            }
+            if (marks.replace(indexKey, current, time)) {
+                return time;
+            }
+        }
+    }
+}
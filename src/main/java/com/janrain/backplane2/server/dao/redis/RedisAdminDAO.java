@@ -3,6 +3,7 @@ package com.janrain.backplane2.server.dao.redis;
 import com.janrain.backplane2.server.BackplaneServerException;
 import com.janrain.backplane2.server.config.User;
 import com.janrain.backplane2.server.dao.AdminDAO;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.SerializationUtils;
@@ -16,7 +17,7 @@ import java.util.List;
 public class RedisAdminDAO implements AdminDAO {
 
     public static byte[] getAdminUserKey(String userId) {
-        return ("v2_admin_" + userId).getBytes();
+        return Keyspace.V2_ADMIN.key(userId);
     }
 
     @Override
@@ -3,6 +3,7 @@ package com.janrain.backplane2.server.dao.redis;
 import com.janrain.backplane2.server.AuthSession;
 import com.janrain.backplane2.server.BackplaneServerException;
 import com.janrain.backplane2.server.dao.AuthSessionDAO;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.SerializationUtils;
@@ -15,7 +16,7 @@ import java.util.List;
 public class RedisAuthSessionDAO implements AuthSessionDAO {
 
     public static byte[] getKey(String id) {
-        return ("v2_auth_session_" + id).getBytes();
+        return Keyspace.V2_AUTH_SESSION.key(id);
     }
 
     @Override
@@ -3,6 +3,7 @@ package com.janrain.backplane2.server.dao.redis;
 import com.janrain.backplane2.server.BackplaneServerException;
 import com.janrain.backplane2.server.dao.AuthorizationDecisionKeyDAO;
 import com.janrain.oauth2.AuthorizationDecisionKey;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.SerializationUtils;
@@ -15,7 +16,7 @@ import java.util.List;
 public class RedisAuthorizationDecisionKeyDAO implements AuthorizationDecisionKeyDAO {
 
     public static byte[] getKey(String id) {
-        return ("v2_auth_decision_" + id).getBytes();
+        return Keyspace.V2_AUTH_DECISION.key(id);
     }
 
     @Override
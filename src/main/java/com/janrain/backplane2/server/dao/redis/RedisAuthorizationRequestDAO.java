@@ -3,6 +3,7 @@ package com.janrain.backplane2.server.dao.redis;
 import com.janrain.backplane2.server.BackplaneServerException;
 import com.janrain.backplane2.server.dao.AuthorizationRequestDAO;
 import com.janrain.oauth2.AuthorizationRequest;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.SerializationUtils;
@@ -15,7 +16,7 @@ import java.util.List;
 public class RedisAuthorizationRequestDAO implements AuthorizationRequestDAO {
 
     public static byte[] getKey(String id) {
-        return ("v2_auth_request_" + id).getBytes();
+        return Keyspace.V2_AUTH_REQUEST.key(id);
     }
 
     @Override
@@ -16,10 +16,13 @@
 
 package com.janrain.backplane2.server.dao.redis;
 
+import com.janrain.backplane.MessageId;
 import com.janrain.backplane2.server.*;
 import com.janrain.backplane2.server.dao.BackplaneMessageDAO;
 import com.janrain.crypto.ChannelUtil;
 import com.janrain.oauth2.TokenException;
+import com.janrain.redis.GroupCommitWriter;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.commons.lang.StringUtils;
@@ -37,19 +40,19 @@ import java.util.*;
  */
 public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
 
-    final public static String V2_MESSAGE_QUEUE = "v2_message_queue";
-    final public static String V2_MESSAGES = "v2_messages";
+    final public static String V2_MESSAGE_QUEUE = Keyspace.V2_MESSAGE_QUEUE.getName();
+    final public static String V2_MESSAGES = Keyspace.V2_MESSAGES.getName();
 
     public static byte[] getBusKey(String bus) {
-        return ("v2_bus_idx_" + bus).getBytes();
+        return Keyspace.V2_BUS_INDEX.key(bus);
     }
 
     public static byte[] getChannelKey(String channel) {
-        return ("v2_channel_idx_" + channel).getBytes();
+        return Keyspace.V2_CHANNEL_INDEX.key(channel);
     }
 
     public static byte[] getKey(String key) {
-        return ("v2_message_" + key).getBytes();
+        return Keyspace.V2_MESSAGE.key(key);
     }
 
 
@@ -62,7 +65,8 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
             Set<byte[]> bytesList = jedis.zrange(V2_MESSAGES.getBytes(), -1, -1);
             if (! bytesList.isEmpty()) {
                 String args[] = new String(bytesList.iterator().next()).split(" ");
-                byte[] bytes = jedis.get(getKey(args[2]));
+                int shard = Redis.getInstance().getBusShard(args[0]);
+                byte[] bytes = shard == 0 ? jedis.get(getKey(args[2])) : get(shard, getKey(args[2]));
                 if (bytes != null) {
                     return (BackplaneMessage) SerializationUtils.deserialize(bytes);
                 }
@@ -90,7 +94,21 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
 
     @Override
     public long getMessageCount(String channel) {
-        return (int) Redis.getInstance().zcard(getChannelKey(channel));
+        Redis redis = Redis.getInstance();
+        if (redis.getShardCount() == 1) {
+            return (int) redis.zcard(getChannelKey(channel));
+        }
+        long count = 0;
+        for (int shard = 0; shard < redis.getShardCount(); shard++) {
+            Jedis jedis = null;
+            try {
+                jedis = redis.getReadJedis(shard);
+                count += jedis.zcard(getChannelKey(channel));
+            } finally {
+                redis.releaseToPool(jedis);
+            }
+        }
+        return count;
     }
 
     @Override
@@ -101,48 +119,30 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
     @Override
     public void retrieveMessagesPerScope(@NotNull MessagesResponse bpResponse, @NotNull Token token) throws BackplaneServerException {
         final Scope scope = token.getScope();
+        if (MessageHighWaterMarks.getInstance().isUpToDate(scope, bpResponse.getLastMessageId())) {
+            // nothing new, keep the requested since
+            return;
+        }
+        if (Redis.getInstance().getShardCount() > 1) {
+            retrieveMessagesPerScopeSharded(bpResponse, scope);
+            return;
+        }
         Jedis jedis = null;
         try {
             jedis = Redis.getInstance().getReadJedis();
             Transaction t = jedis.multi();
             List<String> unions = new ArrayList<String>();
-
-            Set<String> channelScopes = scope.getScopeFieldValues(BackplaneMessage.Field.CHANNEL);
-            if (channelScopes != null) {
-                String channelUnion = "scope_req_" + ChannelUtil.randomString(10);
-                unions.add(channelUnion);
-                for(String channel : channelScopes) {
-                    t.zunionstore( channelUnion.getBytes(), new ZParams() {{aggregate(Aggregate.MAX);}},
-                            channelUnion.getBytes(), getChannelKey(channel) );
-                }
-            }
-            Set<String> busScopes = scope.getScopeFieldValues(BackplaneMessage.Field.BUS);
-            if (busScopes != null) {
-                String busUnion = "scope_req_" + ChannelUtil.randomString(10);
-                unions.add(busUnion);
-                for(String bus : busScopes) {
-                    t.zunionstore( busUnion.getBytes(), new ZParams() {{aggregate(Aggregate.MAX);}},
-                            busUnion.getBytes(), getBusKey(bus));
-                }
-            }
-            String channelBusIntersection = null;
-            for(String union : unions) {
-                if (channelBusIntersection == null) {
-                    channelBusIntersection = union;
-                } else {
-                    t.zinterstore( channelBusIntersection.getBytes(), new ZParams() {{aggregate(Aggregate.MAX);}},
-                                   channelBusIntersection.getBytes(), union.getBytes());
-                }
-            }
+            String channelBusIntersection = scopeIntersection(t, scope.getScopeFieldValues(BackplaneMessage.Field.CHANNEL),
+                    scope.getScopeFieldValues(BackplaneMessage.Field.BUS), unions);
 
             Response<Set<byte[]>> lastResponse = t.zrange(V2_MESSAGES.getBytes(), -1, -1);
             List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
 
             if (channelBusIntersection != null) {
-                Date lastMessageDate = BackplaneMessage.getDateFromId(bpResponse.getLastMessageId());
-                long lastMessageTime = lastMessageDate == null ? 0 : lastMessageDate.getTime();
+                String lastMessageId = bpResponse.getLastMessageId();
+                long lastMessageScore = StringUtils.isBlank(lastMessageId) ? 0 : Math.max(0, MessageId.score(lastMessageId));
                 Response<Set<String>> busChannelMessageIds = t.zrangeByScore(channelBusIntersection,
-                        lastMessageTime+1, Double.MAX_VALUE);
+                        lastMessageScore+1, Double.MAX_VALUE);
                 for(String union : unions) t.del(union);
                 t.exec();
                 if (! busChannelMessageIds.get().isEmpty()) {
@@ -160,7 +160,7 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
             }
 
             if ( ! messages.isEmpty()) {
-                filterMessagesPerScope(messages, scope, bpResponse);
+                bpResponse.addMessagesInScope(messages, scope);
             } else {
                 Set<byte[]> lastBytes = lastResponse.get();
                 if (lastBytes.isEmpty()) {
@@ -188,30 +188,38 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
 
             double sinceInMs = 0;
             if (StringUtils.isNotBlank(sinceIso8601timestamp)) {
-                sinceInMs = BackplaneMessage.getDateFromId(sinceIso8601timestamp).getTime();
+                sinceInMs = MessageId.score(sinceIso8601timestamp);
             }
 
-            // every message has a unique timestamp - which serves as a key for indexing
+            // every message has a unique numeric id - which serves as a key for indexing
             Set<byte[]> messageIdBytes = jedis.zrangeByScore(V2_MESSAGES.getBytes(), sinceInMs+1, Double.POSITIVE_INFINITY);
 
             List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
 
-            Pipeline pipeline = jedis.pipelined();
-            List<Response<byte[]>> responses = new ArrayList<Response<byte[]>>();
-
             if (messageIdBytes != null) {
+                // message keys grouped by the shard of their bus
+                Map<Integer,List<byte[]>> shardKeys = new HashMap<Integer, List<byte[]>>();
                 for (byte[] b: messageIdBytes) {
                     String[] args = new String(b).split(" ");
-                    byte[] key = getKey(args[2]);
-                    responses.add(pipeline.get(key));
+                    int shard = Redis.getInstance().getBusShard(args[0]);
+                    List<byte[]> keys = shardKeys.get(shard);
+                    if (keys == null) {
+                        keys = new ArrayList<byte[]>();
+                        shardKeys.put(shard, keys);
+                    }
+                    keys.add(getKey(args[2]));
                 }
-                pipeline.sync();
-                for (Response<byte[]> response : responses) {
-                    if (response.get() != null) {
-                        BackplaneMessage backplaneMessage = (BackplaneMessage) SerializationUtils.deserialize(response.get());
-                        messages.add(backplaneMessage);
+                for (Map.Entry<Integer,List<byte[]>> entry : shardKeys.entrySet()) {
+                    if (entry.getKey() == 0) {
+                        fetch(jedis, entry.getValue(), messages);
                     } else {
-                        logger.warn("failed to retrieve a message");
+                        Jedis shardJedis = null;
+                        try {
+                            shardJedis = Redis.getInstance().getReadJedis(entry.getKey());
+                            fetch(shardJedis, entry.getValue(), messages);
+                        } finally {
+                            Redis.getInstance().releaseToPool(shardJedis);
+                        }
                     }
                 }
             }
@@ -233,46 +241,35 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
     @Override
     public List<BackplaneMessage> retrieveMessagesByChannel(String channel) throws BackplaneServerException {
 
-        Jedis jedis = null;
+        List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
 
-        try {
-
-            jedis = Redis.getInstance().getReadJedis();
+        // the channel's bus isn't known here, check all shards
+        for (int shard = 0; shard < Redis.getInstance().getShardCount(); shard++) {
+            Jedis jedis = null;
+            try {
+                jedis = Redis.getInstance().getReadJedis(shard);
 
-            List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
-            Set<byte[]> messageIdBytes = jedis.zrange(getChannelKey(channel), 0, -1);
-
-            Pipeline pipeline = jedis.pipelined();
-            List<Response<byte[]>> responses = new ArrayList<Response<byte[]>>();
-
-            if (messageIdBytes != null) {
-                for (byte[] b: messageIdBytes) {
-                    responses.add(pipeline.get(getKey(new String(b))));
-                }
-                pipeline.sync();
-                for (Response<byte[]> response : responses) {
-                    if (response.get() != null) {
-                        BackplaneMessage backplaneMessage = (BackplaneMessage) SerializationUtils.deserialize(response.get());
-                        messages.add(backplaneMessage);
-                    } else {
-                        logger.warn("failed to retrieve a message");
+                Set<byte[]> messageIdBytes = jedis.zrange(getChannelKey(channel), 0, -1);
+                if (messageIdBytes != null) {
+                    List<byte[]> keys = new ArrayList<byte[]>(messageIdBytes.size());
+                    for (byte[] b: messageIdBytes) {
+                        keys.add(getKey(new String(b)));
                     }
+                    fetch(jedis, keys, messages);
                 }
+            } finally {
+                Redis.getInstance().releaseToPool(jedis);
             }
-
-            Collections.sort(messages, new Comparator<BackplaneMessage>() {
-                @Override
-                public int compare(BackplaneMessage backplaneMessage, BackplaneMessage backplaneMessage1) {
-                    return backplaneMessage.getIdValue().compareTo(backplaneMessage1.getIdValue());
-                }
-            });
-
-            return messages;
-
-        } finally {
-            Redis.getInstance().releaseToPool(jedis);
         }
 
+        Collections.sort(messages, new Comparator<BackplaneMessage>() {
+            @Override
+            public int compare(BackplaneMessage backplaneMessage, BackplaneMessage backplaneMessage1) {
+                return backplaneMessage.getIdValue().compareTo(backplaneMessage1.getIdValue());
+            }
+        });
+
+        return messages;
     }
 
     @Override
@@ -297,7 +294,8 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
                         }
                         String metaData = new String(b);
                         String[] segs = metaData.split(" ");
-                        if (!jedis.exists(getKey(segs[2]))) {
+                        int shard = Redis.getInstance().getBusShard(segs[0]);
+                        if (shard == 0 ? ! jedis.exists(getKey(segs[2])) : ! exists(shard, getKey(segs[2]))) {
                             delete(segs[2]);
                             cleanedUpCount++;
                         }
@@ -320,7 +318,8 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
 
     @Override
     public BackplaneMessage get(String id) throws BackplaneServerException {
-        byte[] messageBytes = Redis.getInstance().get(getKey(id));
+        byte[] messageBytes = Redis.getInstance().getShardCount() == 1 ?
+                Redis.getInstance().getAsync(getKey(id)).reply() : getSharded(id);
         if (messageBytes != null) {
             return (BackplaneMessage) SerializationUtils.deserialize(messageBytes);
         }
@@ -336,7 +335,19 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
     public void persist(BackplaneMessage obj) throws BackplaneServerException {
         // the messages will not be immediately available for reading until they
         // are inserted by the message processing thread.
-        Redis.getInstance().rpush(V2_MESSAGE_QUEUE.getBytes(), SerializationUtils.serialize(obj));
+        GroupCommitWriter.getInstance().rpush(V2_MESSAGE_QUEUE.getBytes(), SerializationUtils.serialize(obj));
+    }
+
+    @Override
+    public void persistAll(List<BackplaneMessage> messages) throws BackplaneServerException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<byte[]> serialized = new ArrayList<byte[]>(messages.size());
+        for (BackplaneMessage message : messages) {
+            serialized.add(SerializationUtils.serialize(message));
+        }
+        Redis.getInstance().rpush(V2_MESSAGE_QUEUE.getBytes(), serialized);
     }
 
     @Override
@@ -344,25 +355,44 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
         Jedis jedis = null;
         try {
             jedis = Redis.getInstance().getWriteJedis();
-            Date d = BackplaneMessage.getDateFromId(id);
-            if (d == null) {
-                logger.warn("cannot retrieve date from " + id + ": aborting delete");
+            long score = MessageId.score(id);
+            if (score < 0) {
+                logger.warn("cannot retrieve numeric id from " + id + ": aborting delete");
                 return;
             }
-            long time = d.getTime();
-            Set<String> sortedSetBytes = jedis.zrangeByScore(V2_MESSAGES, time, time);
+            Set<String> sortedSetBytes = jedis.zrangeByScore(V2_MESSAGES, score, score);
 
             if (!sortedSetBytes.isEmpty()) {
                 String key = sortedSetBytes.iterator().next();
-                Transaction t = jedis.multi();
-
-                Response<Long> del1 = t.zrem(V2_MESSAGES, key);
                 String[] args = key.split(" ");
-                Response<Long> del2 = t.zrem(getChannelKey(args[1]), args[2].getBytes());
-                Response<Long> del3 = t.zrem(getBusKey(args[0]), args[2].getBytes());
-                Response<Long> del4 = t.del(getKey(id));
+                int shard = Redis.getInstance().getBusShard(args[0]);
+                Response<Long> del1, del2, del3, del4;
+                if (shard == 0) {
+                    Transaction t = jedis.multi();
 
-                t.exec();
+                    del1 = t.zrem(V2_MESSAGES, key);
+                    del2 = t.zrem(getChannelKey(args[1]), args[2].getBytes());
+                    del3 = t.zrem(getBusKey(args[0]), args[2].getBytes());
+                    del4 = t.del(getKey(id));
+
+                    t.exec();
+                } else {
+                    // message data first: an index entry left behind is cleaned up by deleteExpiredMessages()
+                    Jedis shardJedis = null;
+                    try {
+                        shardJedis = Redis.getInstance().getWriteJedis(shard);
+                        Transaction st = shardJedis.multi();
+                        del2 = st.zrem(getChannelKey(args[1]), args[2].getBytes());
+                        del3 = st.zrem(getBusKey(args[0]), args[2].getBytes());
+                        del4 = st.del(getKey(id));
+                        st.exec();
+                    } finally {
+                        Redis.getInstance().releaseToPool(shardJedis);
+                    }
+                    Transaction t = jedis.multi();
+                    del1 = t.zrem(V2_MESSAGES, key);
+                    t.exec();
+                }
 
                 if (del1.get() == 0) {
                     logger.warn("could not remove message " + id + " from " + V2_MESSAGES);
@@ -390,29 +420,239 @@ public class RedisBackplaneMessageDAO implements BackplaneMessageDAO {
 
     // PRIVATE
 
-    private static final int MAX_MSGS_IN_FRAME = 25;
-
     private static final Logger logger = Logger.getLogger(RedisBackplaneMessageDAO.class);
 
-    private void filterMessagesPerScope(List<BackplaneMessage> unfilteredMessages, Scope scope, MessagesResponse bpResponse) {
-        // Filter and add to results
-        List<BackplaneMessage> filteredMessages = new ArrayList<BackplaneMessage>();
-        for (BackplaneMessage unfilteredMessage : unfilteredMessages) {
-            if (scope.isMessageInScope(unfilteredMessage)) {
-                if (filteredMessages.size() >= MAX_MSGS_IN_FRAME) {
-                    bpResponse.moreMessages(true);
-                    bpResponse.setLastMessageId(filteredMessages.get(filteredMessages.size() - 1).getIdValue());
-                    break;
+    /**
+     * Queues the union of the channel scopes' indexes intersected with the union of the bus scopes' indexes
+     * on the transaction, adding the temporary keys to unions.
+     *
+     * @return the key of the resulting sorted set, or null if there are no channel or bus scopes
+     */
+    private static String scopeIntersection(Transaction t, Set<String> channelScopes, Set<String> busScopes, List<String> unions) {
+        if (channelScopes != null) {
+            String channelUnion = "scope_req_" + ChannelUtil.randomString(10);
+            unions.add(channelUnion);
+            for(String channel : channelScopes) {
+                t.zunionstore( channelUnion.getBytes(), new ZParams() {{aggregate(Aggregate.MAX);}},
+                        channelUnion.getBytes(), getChannelKey(channel) );
+            }
+        }
+        if (busScopes != null) {
+            String busUnion = "scope_req_" + ChannelUtil.randomString(10);
+            unions.add(busUnion);
+            for(String bus : busScopes) {
+                t.zunionstore( busUnion.getBytes(), new ZParams() {{aggregate(Aggregate.MAX);}},
+                        busUnion.getBytes(), getBusKey(bus));
+            }
+        }
+        String channelBusIntersection = null;
+        for(String union : unions) {
+            if (channelBusIntersection == null) {
+                channelBusIntersection = union;
+            } else {
+                t.zinterstore( channelBusIntersection.getBytes(), new ZParams() {{aggregate(Aggregate.MAX);}},
+                               channelBusIntersection.getBytes(), union.getBytes());
+            }
+        }
+        return channelBusIntersection;
+    }
+
+    /**
+     * Scope query across the message keyspace shards: the bus scopes are queried on their shards
+     * (all shards if the scope has no buses) and the results merged in message id order.
+     *
+     * Results are capped at the latest message committed on the home shard when the query started:
+     * message data is written to the shards before it is committed, and can't be returned before its predecessors.
+     * The shards are queried on their read replicas, and on their primaries if the replica has not caught up
+     * with the latest message committed on the shard, so that lagging replicas don't skip messages below the cap.
+     */
+    private void retrieveMessagesPerScopeSharded(MessagesResponse bpResponse, Scope scope) throws BackplaneServerException {
+        Redis redis = Redis.getInstance();
+        try {
+            String latestId = "";
+            long cap = 0;
+            Map<String,String> shardsCommitted;
+            Jedis jedis = null;
+            try {
+                jedis = redis.getReadJedis();
+                Transaction t = jedis.multi();
+                Response<Set<String>> lastResponse = t.zrange(V2_MESSAGES, -1, -1);
+                Response<Map<String,String>> committedResponse = t.hgetAll(Keyspace.V2_SHARD_COMMITTED.getName());
+                t.exec();
+                Set<String> last = lastResponse.get();
+                if (! last.isEmpty()) {
+                    latestId = last.iterator().next().split(" ")[2];
+                    cap = MessageId.score(latestId);
+                }
+                shardsCommitted = committedResponse.get();
+            } finally {
+                redis.releaseToPool(jedis);
+            }
+
+            Set<String> channelScopes = scope.getScopeFieldValues(BackplaneMessage.Field.CHANNEL);
+            Set<String> busScopes = scope.getScopeFieldValues(BackplaneMessage.Field.BUS);
+
+            // shard -> buses in scope on the shard, or null for all buses
+            Map<Integer,Set<String>> shardBuses = new HashMap<Integer, Set<String>>();
+            if (busScopes != null) {
+                for (String bus : busScopes) {
+                    int shard = redis.getBusShard(bus);
+                    Set<String> buses = shardBuses.get(shard);
+                    if (buses == null) {
+                        buses = new HashSet<String>();
+                        shardBuses.put(shard, buses);
+                    }
+                    buses.add(bus);
+                }
+            } else if (channelScopes != null) {
+                for (int shard = 0; shard < redis.getShardCount(); shard++) {
+                    shardBuses.put(shard, null);
+                }
+            }
+
+            String lastMessageId = bpResponse.getLastMessageId();
+            long lastMessageScore = StringUtils.isBlank(lastMessageId) ? 0 : Math.max(0, MessageId.score(lastMessageId));
+
+            List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+            if (cap > lastMessageScore) {
+                for (Map.Entry<Integer,Set<String>> entry : shardBuses.entrySet()) {
+                    int shard = entry.getKey();
+                    // the home shard's data is committed with the messages, the other shards' before them
+                    long committed = cap;
+                    if (shard != 0) {
+                        String shardCommitted = shardsCommitted.get(Integer.toString(shard));
+                        committed = shardCommitted == null ? 0 : Math.min(cap, Long.parseLong(shardCommitted));
+                    }
+                    List<BackplaneMessage> shardMessages = queryShard(redis.getReadJedis(shard), shard,
+                            channelScopes, entry.getValue(), lastMessageScore, cap, committed);
+                    if (shardMessages == null) {
+                        shardMessages = queryShard(redis.getWriteJedis(shard), shard,
+                                channelScopes, entry.getValue(), lastMessageScore, cap, 0);
+                    }
+                    messages.addAll(shardMessages);
+                }
+            }
+
+            if ( ! messages.isEmpty()) {
+                Collections.sort(messages, new Comparator<BackplaneMessage>() {
+                    @Override
+                    public int compare(BackplaneMessage message, BackplaneMessage message1) {
+                        long score = MessageId.score(message.getIdValue());
+                        long score1 = MessageId.score(message1.getIdValue());
+                        return score < score1 ? -1 : score == score1 ? 0 : 1;
+                    }
+                });
+                bpResponse.addMessagesInScope(messages, scope);
+            } else {
+                bpResponse.setLastMessageId(latestId);
+            }
+        } catch (Exception e) {
+            logger.error(e);
+            throw new BackplaneServerException(e.getMessage());
+        }
+    }
+
+    /**
+     * Queries one shard for the messages in scope with ids in (lastMessageScore, cap], releasing the connection.
+     *
+     * @param committed numeric id of the latest message committed on the shard, that the shard must have
+     * @return the messages, or null if the shard has not caught up with the committed message
+     */
+    private static List<BackplaneMessage> queryShard(Jedis jedis, int shard, Set<String> channelScopes, Set<String> busScopes,
+                                                     long lastMessageScore, long cap, long committed) {
+        Redis redis = Redis.getInstance();
+        try {
+            Transaction t = jedis.multi();
+            Response<String> shardLastResponse = t.get(shard == 0 ? Keyspace.V2_LAST_ID.getName() : Keyspace.V2_SHARD_LAST_ID.getName());
+            List<String> unions = new ArrayList<String>();
+            String channelBusIntersection = scopeIntersection(t, channelScopes, busScopes, unions);
+            Response<Set<String>> busChannelMessageIds = t.zrangeByScore(channelBusIntersection,
+                    lastMessageScore+1, cap);
+            for(String union : unions) t.del(union);
+            t.exec();
+
+            String shardLast = shardLastResponse.get();
+            long shardLastScore = shardLast == null ? -1 : shard == 0 ? MessageId.score(shardLast) : Long.parseLong(shardLast);
+            if (committed > 0 && shardLastScore < committed) {
+                return null;
+            }
+
+            List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>();
+            if (! busChannelMessageIds.get().isEmpty()) {
+                List<byte[]> keys = new ArrayList<byte[]>();
+                for(String msgId : busChannelMessageIds.get()) {
+                    keys.add(getKey(msgId));
+                }
+                for(byte[] messageBytes : jedis.mget(keys.toArray(new byte[keys.size()][]))) {
+                    if (messageBytes != null) messages.add((BackplaneMessage) SerializationUtils.deserialize(messageBytes));
                 }
-                filteredMessages.add(unfilteredMessage);
             }
+            return messages;
+        } finally {
+            redis.releaseToPool(jedis);
+        }
+    }
+
+    /**
+     * Retrieves the messages with the provided keys with one pipeline, adding them to messages.
+     */
+    private static void fetch(Jedis jedis, List<byte[]> keys, List<BackplaneMessage> messages) {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<byte[]>> responses = new ArrayList<Response<byte[]>>(keys.size());
+        for (byte[] key : keys) {
+            responses.add(pipeline.get(key));
+        }
+        pipeline.sync();
+        for (Response<byte[]> response : responses) {
+            if (response.get() != null) {
+                BackplaneMessage backplaneMessage = (BackplaneMessage) SerializationUtils.deserialize(response.get());
+                messages.add(backplaneMessage);
+            } else {
+                logger.warn("failed to retrieve a message");
+            }
+        }
+    }
+
+    /**
+     * @return the message stored on its bus's shard, looked up in the message index on the home shard
+     */
+    private static byte[] getSharded(String id) {
+        long score = MessageId.score(id);
+        if (score < 0) {
+            return null;
+        }
+        Jedis jedis = null;
+        Set<String> metaData;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            metaData = jedis.zrangeByScore(V2_MESSAGES, score, score);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
         }
+        if (metaData.isEmpty()) {
+            return null;
+        }
+        String[] args = metaData.iterator().next().split(" ");
+        return get(Redis.getInstance().getBusShard(args[0]), getKey(id));
+    }
 
-        // update lastMessageId to point to last message in this unfiltered result
-        if (unfilteredMessages.size() > 0 && !bpResponse.moreMessages()) {
-            bpResponse.setLastMessageId(unfilteredMessages.get(unfilteredMessages.size() - 1).getIdValue());
+    private static byte[] get(int shard, byte[] key) {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis(shard);
+            return jedis.get(key);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
         }
+    }
 
-        bpResponse.addMessages(filteredMessages);
+    private static boolean exists(int shard, byte[] key) {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis(shard);
+            return jedis.exists(key);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
     }
 }
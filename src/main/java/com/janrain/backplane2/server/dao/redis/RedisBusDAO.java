@@ -21,6 +21,7 @@ import com.janrain.backplane2.server.config.BusConfig2;
 import com.janrain.backplane2.server.dao.BusDAO;
 import com.janrain.backplane2.server.dao.GrantDAO;
 import com.janrain.oauth2.TokenException;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.log4j.Logger;
@@ -41,7 +42,7 @@ public class RedisBusDAO implements BusDAO {
     }
 
     public static byte[] getKey(String id) {
-        return ("v2_bus_" + id).getBytes();
+        return Keyspace.V2_BUS.key(id);
     }
 
     @Override
@@ -5,6 +5,7 @@ import com.janrain.backplane2.server.config.User;
 import com.janrain.backplane2.server.dao.BusDAO;
 import com.janrain.backplane2.server.dao.BusOwnerDAO;
 import com.janrain.oauth2.TokenException;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.log4j.Logger;
@@ -21,7 +22,7 @@ import java.util.List;
 public class RedisBusOwnerDAO implements BusOwnerDAO {
 
     public static byte[] getKey(String id) {
-        return ("v2_bus_owner_" + id).getBytes();
+        return Keyspace.V2_BUS_OWNER.key(id);
     }
 
     public RedisBusOwnerDAO(BusDAO busDao) {
@@ -2,8 +2,12 @@ package com.janrain.backplane2.server.dao.redis;
 
 import com.janrain.backplane2.server.BackplaneServerException;
 import com.janrain.backplane2.server.Channel;
+import com.janrain.backplane2.server.config.BusConfig2;
+import com.janrain.backplane2.server.dao.BusDAO;
 import com.janrain.backplane2.server.dao.ChannelDAO;
+import com.janrain.commons.supersimpledb.SimpleDBException;
 import com.janrain.oauth2.TokenException;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 
@@ -14,8 +18,12 @@ import java.util.List;
  */
 public class RedisChannelDAO implements ChannelDAO {
 
+    public RedisChannelDAO(BusDAO busDao) {
+        this.busDao = busDao;
+    }
+
     public static byte[] getKey(String id) {
-        return ("v2_channel_" + id).getBytes();
+        return Keyspace.V2_CHANNEL.key(id);
     }
 
     @Override
@@ -23,9 +31,19 @@ public class RedisChannelDAO implements ChannelDAO {
         byte[] bytes = Redis.getInstance().get(getKey(id));
         if (bytes != null) {
             return (Channel) SerializationUtils.deserialize(bytes);
-        } else {
-            return null;
         }
+        // legacy channel-bus binding support
+        // todo: remove after all old channels have expired
+        BusConfig2 busConfig = busDao.get(Redis.getInstance().get(Keyspace.V2_CHANNEL_BUS.keyString(id)));
+        if (busConfig != null) {
+            try {
+                return new Channel(id, busConfig, 0);
+            } catch (SimpleDBException e) {
+                // shouldn't happen
+                throw new BackplaneServerException("", e);
+            }
+        }
+        return null;
     }
 
     @Override
@@ -46,4 +64,8 @@ public class RedisChannelDAO implements ChannelDAO {
     public void delete(String channelId) throws BackplaneServerException, TokenException {
         Redis.getInstance().del(getKey(channelId));
     }
+
+    // - PRIVATE
+
+    private final BusDAO busDao;
 }
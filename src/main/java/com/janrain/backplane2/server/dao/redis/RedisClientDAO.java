@@ -4,6 +4,7 @@ import com.janrain.backplane2.server.BackplaneServerException;
 import com.janrain.backplane2.server.config.Client;
 import com.janrain.backplane2.server.dao.ClientDAO;
 import com.janrain.oauth2.TokenException;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.log4j.Logger;
@@ -20,7 +21,7 @@ import java.util.List;
 public class RedisClientDAO implements ClientDAO {
 
     public static byte[] getKey(String id) {
-        return ("v2_client_" + id).getBytes();
+        return Keyspace.V2_CLIENT.key(id);
     }
 
     @Override
@@ -5,15 +5,10 @@ import com.janrain.backplane2.server.config.BusConfig2;
 import com.janrain.backplane2.server.config.Client;
 import com.janrain.backplane2.server.config.User;
 import com.janrain.backplane2.server.dao.*;
-import org.springframework.context.annotation.Scope;
-import org.springframework.stereotype.Service;
 
 /**
  * @author Tom Raney
  */
-
-@Service(value="redisDaoFactory")
-@Scope(value="singleton")
 public class RedisDAOFactory extends DAOFactory {
 
     @Override
@@ -93,7 +88,7 @@ public class RedisDAOFactory extends DAOFactory {
     private static final TokenDAO tokenDao = new RedisTokenDAO();
     private static final GrantDAO grantDao = new RedisGrantDAO(tokenDao);
     private static final BusDAO busDao = new RedisBusDAO(grantDao);
-    private static final ChannelDAO channelDao = new RedisChannelDAO();
+    private static final ChannelDAO channelDao = new RedisChannelDAO(busDao);
     private static final BusOwnerDAO busOwnerDao = new RedisBusOwnerDAO(busDao);
     private static final ClientDAO clientDao = new RedisClientDAO();
     private static final BackplaneMessageDAO messageDao = new RedisBackplaneMessageDAO();
@@ -7,6 +7,7 @@ import com.janrain.backplane2.server.Scope;
 import com.janrain.backplane2.server.dao.GrantDAO;
 import com.janrain.backplane2.server.dao.TokenDAO;
 import com.janrain.oauth2.TokenException;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.log4j.Logger;
@@ -141,7 +142,7 @@ public class RedisGrantDAO implements GrantDAO {
     private final TokenDAO tokenDAO;
 
     private static byte[] getKey(String id) {
-        return ("v2_grant_" + id).getBytes();
+        return Keyspace.V2_GRANT.key(id);
     }
 
     private boolean revokeBuses(Grant grant, Scope busesToRevoke) throws BackplaneServerException {
@@ -4,6 +4,7 @@ import com.janrain.backplane2.server.BackplaneServerException;
 import com.janrain.backplane2.server.Token;
 import com.janrain.backplane2.server.dao.TokenDAO;
 import com.janrain.commons.supersimpledb.SimpleDBException;
+import com.janrain.redis.Keyspace;
 import com.janrain.redis.Redis;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.log4j.Logger;
@@ -19,12 +20,12 @@ import java.util.List;
 public class RedisTokenDAO implements TokenDAO {
 
     public static byte[] getKey(String id) {
-        return ("v2_token_" + id).getBytes();
+        return Keyspace.V2_TOKEN.key(id);
     }
 
     @Override
     public Token get(String id) throws BackplaneServerException {
-        byte[] bytes = Redis.getInstance().get(getKey(id));
+        byte[] bytes = Redis.getInstance().getAsync(getKey(id)).reply();
         if (bytes != null) {
             return (Token) SerializationUtils.deserialize(bytes);
         } else {
@@ -83,7 +84,6 @@ public class RedisTokenDAO implements TokenDAO {
         List<Token> filtered = new ArrayList<Token>();
         for (Token token: tokens) {
             if (token.getBackingGrants().contains(grantId)) {
-                logger.info("found");
                 filtered.add(token);
             }
         }
@@ -140,7 +140,6 @@ public class RedisTokenDAO implements TokenDAO {
     private static final Logger logger = Logger.getLogger(RedisTokenDAO.class);
 
     private String getChannelBindingKey(@NotNull String channel) {
-        // todo: key prefixes should be centralized to avoid conflicts
-        return "v2_channel_bus_" + channel;
+        return Keyspace.V2_CHANNEL_BUS.keyString(channel);
     }
 }
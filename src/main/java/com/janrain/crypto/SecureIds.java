@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.crypto;
+
+import org.apache.log4j.Logger;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Random identifiers (channels, tokens, message id suffixes, cookies) from a cryptographically strong generator.
+ *
+ * Each thread uses its own generator and draws from a buffer of random bytes,
+ * so that request threads don't serialize on a shared, internally synchronized SecureRandom.
+ * The SHA1PRNG implementation is requested explicitly: the platform default (NativePRNG)
+ * reads from a single, process wide source under a global lock.
+ *
+ * Bytes are mapped to the alphabet without modulo bias: the low bits of each byte
+ * index the alphabet and out of range values are discarded.
+ */
+public class SecureIds {
+
+    // - PUBLIC
+
+    /**
+     * @return a random string of the requested length over [A-Za-z0-9]
+     */
+    public static String randomString(int length) {
+        return sources.get().next(length, ALPHANUMERIC, ALPHANUMERIC_MASK);
+    }
+
+    /**
+     * @return a random string of the requested length over [0-9a-f]
+     */
+    public static String randomHexString(int length) {
+        return sources.get().next(length, HEX, HEX_MASK);
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(SecureIds.class);
+
+    private static final String PRNG_ALGORITHM = "SHA1PRNG";
+
+    private static final int BUFFER_SIZE = 512;
+
+    // the base64 character set per RFC 4648 with last two members '-' and '_' removed due to possible
+    // compatibility issues.
+    private static final char[] ALPHANUMERIC = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final int ALPHANUMERIC_MASK = 0x3f;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int HEX_MASK = 0x0f;
+
+    private static final ThreadLocal<Source> sources = new ThreadLocal<Source>() {
+        @Override
+        protected Source initialValue() {
+            return new Source(newSecureRandom());
+        }
+    };
+
+    private SecureIds() { }
+
+    private static SecureRandom newSecureRandom() {
+        try {
+            return SecureRandom.getInstance(PRNG_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn(PRNG_ALGORITHM + " not available, using the default SecureRandom: " + e.getMessage());
+            return new SecureRandom();
+        }
+    }
+
+    private static final class Source {
+
+        private Source(SecureRandom random) {
+            this.random = random;
+        }
+
+        /**
+         * @param mask selects the low bits of each random byte, the smallest 2^n - 1 covering the alphabet
+         */
+        private String next(int length, char[] alphabet, int mask) {
+            char[] result = new char[length];
+            int i = 0;
+            while (i < length) {
+                if (position == buffer.length) {
+                    random.nextBytes(buffer);
+                    position = 0;
+                }
+                int index = buffer[position++] & mask;
+                if (index < alphabet.length) {
+                    result[i++] = alphabet[index];
+                }
+            }
+            return new String(result);
+        }
+
+        private final SecureRandom random;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = BUFFER_SIZE;
+    }
+}
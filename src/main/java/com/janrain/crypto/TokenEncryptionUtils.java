@@ -23,7 +23,9 @@ public class TokenEncryptionUtils {
      */
     public static Token fromEncryptedString(String cookieValue, String encryptionKey) throws UtilsException {
 
-        logger.debug("Parsing encrypted session data:\n" + cookieValue);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Parsing encrypted session data:\n" + cookieValue);
+        }
         String unencryptedValue = EncryptUtil.decrypt(cookieValue, encryptionKey);
         ObjectMapper mapper = new ObjectMapper();
         Token data;
@@ -56,7 +58,9 @@ public class TokenEncryptionUtils {
 
         try {
             String encrypted = EncryptUtil.encrypt(value, encryptionKey);
-            logger.debug("Sending encrypted Token:\n" + encrypted);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Sending encrypted Token:\n" + encrypted);
+            }
             return encrypted;
         } catch (UtilsException e) {
             logger.error("Error encrypting token: " + e.getMessage(), e);
@@ -69,7 +69,7 @@ public class AnonymousTokenRequest implements TokenRequest {
 
     @Override
     public Map<String,Object> tokenResponse() throws TokenException {
-        logger.info("Responding to anonymous token request...");
+        logger.debug("Responding to anonymous token request...");
         final Token accessToken;
         final Integer expiresIn = grantType.getAccessType().getTokenExpiresSecondsDefault();
         Date expires = new Date(System.currentTimeMillis() + expiresIn.longValue() * 1000);
@@ -83,7 +83,7 @@ public class AnonymousTokenRequest implements TokenRequest {
             logger.error("error processing anonymous access token request: " + e.getMessage(), e);
             throw new TokenException(OAuth2.OAUTH2_TOKEN_SERVER_ERROR, "error processing anonymous token request", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         } finally {
-            logger.info("exiting anonymous token request");
+            logger.debug("exiting anonymous token request");
             try {
                 if (this.refreshToken != null) {
                     daoFactory.getTokenDao().delete(this.refreshToken.getIdValue());
@@ -80,7 +80,7 @@ public class AuthenticatedTokenRequest implements TokenRequest {
 
     @Override
     public Map<String,Object> tokenResponse() throws TokenException {
-        logger.info("Responding to authenticated token request...");
+        logger.debug("Responding to authenticated token request...");
         final Token accessToken;
         final Integer expiresIn = grantType.getAccessType().getTokenExpiresSecondsDefault();
         Date expires = new Date(System.currentTimeMillis() + expiresIn.longValue() * 1000);
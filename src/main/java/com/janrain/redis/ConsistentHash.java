@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping keys to shard numbers, with VIRTUAL_NODES points per shard.
+ *
+ * Shards are identified by their number only, so the ring is the same on all nodes configured with the same shard count;
+ * appending a shard moves about 1/n of the keys to it and leaves the others in place.
+ */
+public class ConsistentHash {
+
+    // - PUBLIC
+
+    public ConsistentHash(int shards) {
+        if (shards < 1) throw new IllegalArgumentException("at least one shard required: " + shards);
+        this.shards = shards;
+        for (int shard = 0; shard < shards; shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                ring.put(hash("shard-" + shard + "-" + node), shard);
+            }
+        }
+    }
+
+    public int getShard(String key) {
+        if (shards == 1) return 0;
+        SortedMap<Long,Integer> tail = ring.tailMap(hash(key == null ? "" : key));
+        return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    public int getShardCount() {
+        return shards;
+    }
+
+    // - PRIVATE
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private final int shards;
+
+    private final TreeMap<Long,Integer> ring = new TreeMap<Long, Integer>();
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
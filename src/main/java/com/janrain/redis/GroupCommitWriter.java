@@ -0,0 +1,318 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import com.janrain.utils.BackplaneSystemProps;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces the message queue pushes of concurrent requests into one pipeline per flush,
+ * so that each request doesn't pay for its own connection checkout and round trip.
+ *
+ * A single writer thread collects pushes for up to REDIS_GROUP_COMMIT_MICROS after the first one,
+ * or until MAX_BATCH are pending, and flushes them; request threads wait for their own push's reply.
+ * Replies and errors are those of Redis.rpush(); pushes are made directly when the writer isn't running.
+ *
+ * A push is either claimed by the writer for a flush or withdrawn by its request thread, never both:
+ * a push not claimed within REPLY_TIMEOUT_MILLIS, e.g. behind a stuck flush, or left queued when the writer
+ * stopped, is withdrawn and made directly, so that it is neither lost nor pushed twice.
+ */
+public class GroupCommitWriter {
+
+    // - PUBLIC
+
+    public static GroupCommitWriter getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts the writer thread.
+     *
+     * @return the executor running the writer, for shutdown by the owner
+     */
+    public synchronized ExecutorService start() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor();
+            running = true;
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            });
+            logger.info("group commit writer started, flushing every " + maxDelayMicros + "us or " + MAX_BATCH + " pushes");
+        }
+        return writer;
+    }
+
+    /**
+     * Appends the value to the list, waiting until the batch it was flushed with is acknowledged.
+     *
+     * @return the length of the list after the push
+     */
+    public Long rpush(byte[] key, byte[] value) {
+        ExecutorService current = writer;
+        if (current == null || current.isShutdown() || ! running) {
+            return target.rpush(key, value);
+        }
+        Push push = new Push(key, value);
+        pending.add(push);
+        if ( ! running && push.withdraw()) {
+            // the writer stopped, and won't drain the queue again
+            return target.rpush(key, value);
+        }
+        return await(push);
+    }
+
+    // - PACKAGE
+
+    /**
+     * Where the pushes are sent, Redis outside of tests.
+     */
+    static interface Target {
+
+        Long rpush(byte[] key, byte[] value);
+
+        /**
+         * @return the replies in order: the list length, or the RuntimeException if the push was rejected
+         */
+        List<Object> rpushPipelined(List<byte[]> keys, List<byte[]> values);
+    }
+
+    GroupCommitWriter(Target target, long maxDelayMicros, long replyTimeoutMillis) {
+        this.target = target;
+        this.maxDelayMicros = maxDelayMicros;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(GroupCommitWriter.class);
+
+    private static final int MAX_BATCH = 100;
+
+    private static final long DEFAULT_MAX_DELAY_MICROS = 200;
+
+    private static final long POLL_MILLIS = 100;
+
+    /** longer than a Redis connection checkout and socket timeout, the writer reports those errors first */
+    private static final long REPLY_TIMEOUT_MILLIS = 10000;
+
+    private static final GroupCommitWriter instance = new GroupCommitWriter(new Target() {
+        @Override
+        public Long rpush(byte[] key, byte[] value) {
+            return Redis.getInstance().rpush(key, value);
+        }
+
+        @Override
+        public List<Object> rpushPipelined(List<byte[]> keys, List<byte[]> values) {
+            return Redis.getInstance().rpushPipelined(keys, values);
+        }
+    }, readMaxDelayMicros(), REPLY_TIMEOUT_MILLIS);
+
+    private final BlockingQueue<Push> pending = new LinkedBlockingQueue<Push>();
+
+    private final Target target;
+
+    private final long maxDelayMicros;
+
+    private final long replyTimeoutMillis;
+
+    private final Histogram batchSizes = Metrics.newHistogram(
+            new MetricName("redis", this.getClass().getName().replace(".","_"), "group_commit_batch_size"));
+
+    private volatile ExecutorService writer;
+
+    /** false once the writer thread exits, for whatever reason */
+    private volatile boolean running;
+
+    private static long readMaxDelayMicros() {
+        String configured = System.getProperty(BackplaneSystemProps.REDIS_GROUP_COMMIT_MICROS);
+        if (StringUtils.isNotBlank(configured)) {
+            try {
+                return Math.max(0, Long.parseLong(configured.trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("invalid " + BackplaneSystemProps.REDIS_GROUP_COMMIT_MICROS + ": " + configured +
+                        ", using " + DEFAULT_MAX_DELAY_MICROS);
+            }
+        }
+        return DEFAULT_MAX_DELAY_MICROS;
+    }
+
+    private void write() {
+        List<Push> batch = new ArrayList<Push>(MAX_BATCH);
+        try {
+            while ( ! writer.isShutdown()) {
+                Push first = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null || ! first.claim()) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+                while (batch.size() < MAX_BATCH) {
+                    long wait = deadline - System.nanoTime();
+                    Push next = wait > 0 ? pending.poll(wait, TimeUnit.NANOSECONDS) : pending.poll();
+                    if (next == null) break;
+                    if (next.claim()) batch.add(next);
+                }
+                flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            running = false;
+            logger.error("group commit writer failed, pushing directly", t);
+            // the batch may have been partly flushed
+            failed(batch, t);
+        } finally {
+            // new pushes go directly from now on, those already queued are flushed here or withdrawn by their threads
+            running = false;
+            List<Push> queued = new ArrayList<Push>();
+            pending.drainTo(queued);
+            for (Push push : queued) {
+                if (push.claim()) batch.add(push);
+            }
+            try {
+                if (! batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (Throwable t) {
+                logger.error("error flushing " + batch.size() + " queued push(es) on shutdown", t);
+                failed(batch, t);
+            }
+            logger.info("group commit writer stopped");
+        }
+    }
+
+    private void flush(List<Push> batch) {
+        batchSizes.update(batch.size());
+        List<byte[]> keys = new ArrayList<byte[]>(batch.size());
+        List<byte[]> values = new ArrayList<byte[]>(batch.size());
+        for (Push push : batch) {
+            keys.add(push.key);
+            values.add(push.value);
+        }
+        List<Object> replies;
+        try {
+            replies = target.rpushPipelined(keys, values);
+        } catch (RuntimeException e) {
+            logger.warn("error flushing " + batch.size() + " queued push(es): " + e.getMessage());
+            for (Push push : batch) {
+                push.done(null, e);
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Object reply = replies.get(i);
+            if (reply instanceof RuntimeException) {
+                batch.get(i).done(null, (RuntimeException) reply);
+            } else {
+                batch.get(i).done((Long) reply, null);
+            }
+        }
+    }
+
+    private static void failed(List<Push> batch, Throwable t) {
+        for (Push push : batch) {
+            push.done(null, new JedisConnectionException("group commit writer failed: " + t.getMessage()));
+        }
+        batch.clear();
+    }
+
+    private Long await(Push push) {
+        try {
+            if ( ! push.flushed.await(replyTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                if (push.withdraw()) {
+                    // never handed to Redis, safe to push here instead
+                    logger.warn("group commit writer didn't pick up a push within " + replyTimeoutMillis + "ms, pushing directly");
+                    return target.rpush(push.key, push.value);
+                }
+                // being flushed, its outcome is Redis's
+                if ( ! push.flushed.await(replyTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new JedisConnectionException("timed out waiting for group commit of rpush to " + new String(push.key));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (push.withdraw()) {
+                throw new JedisConnectionException("interrupted waiting for group commit of rpush to " + new String(push.key));
+            }
+            // being flushed, report its outcome if known
+            if (push.flushed.getCount() > 0) {
+                throw new JedisConnectionException("interrupted waiting for group commit of rpush to " + new String(push.key) + ", outcome unknown");
+            }
+        }
+        if (push.error != null) {
+            throw push.error;
+        }
+        return push.reply;
+    }
+
+    private static final class Push {
+
+        private Push(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * @return true if the writer may flush the push, false if it was withdrawn
+         */
+        private boolean claim() {
+            return state.compareAndSet(PENDING, CLAIMED);
+        }
+
+        /**
+         * @return true if the push won't be flushed, false if the writer already claimed it
+         */
+        private boolean withdraw() {
+            return state.compareAndSet(PENDING, WITHDRAWN);
+        }
+
+        private void done(Long reply, RuntimeException error) {
+            if (flushed.getCount() == 0) return;
+            this.reply = reply;
+            this.error = error;
+            flushed.countDown();
+        }
+
+        private static final int PENDING = 0;
+        private static final int CLAIMED = 1;
+        private static final int WITHDRAWN = 2;
+
+        private final byte[] key;
+        private final byte[] value;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CountDownLatch flushed = new CountDownLatch(1);
+        private volatile Long reply;
+        private volatile RuntimeException error;
+    }
+}
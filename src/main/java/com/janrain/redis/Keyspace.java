@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Registry of the Redis keys and key prefixes used by the backplane servers,
+ * with the schema version of the layout stored under them.
+ *
+ * A layout change adds a new entry with the next schema version, next to the one it replaces,
+ * and a KeyspaceMigration between them; the replaced entry is removed once the migration is cut over
+ * and the old keys are gone.
+ *
+ * New prefixes must not extend existing ones: entries like V2_BUS / V2_BUS_INDEX predate the registry
+ * and rely on the formats of bus names and channel ids to keep their keys apart.
+ */
+public enum Keyspace {
+
+    CONFIG("config_", 1),
+    KEYSPACE_MIGRATION("keyspace_migration_", 1),
+
+    V1_MESSAGE("v1_message_", 1),
+    V1_MESSAGES("v1_messages", 1),
+    V1_MESSAGE_QUEUE("v1_message_queue", 1),
+    V1_LAST_ID("v1_last_id", 1),
+    V1_BUS_INDEX("v1_bus_idx_", 1),
+    /** channel index as a list of message ids, replaced by V1_CHANNEL_INDEX */
+    V1_CHANNEL_LIST("v1_channel_idx_", 1),
+    /** channel index as a set of message ids scored by numeric id */
+    V1_CHANNEL_INDEX("v1_channel_zidx_", 2),
+    V1_ALERTS("v1_alerts", 1),
+    V1_BUS("v1_bus_", 1),
+    V1_USER("v1_user_", 1),
+
+    V2_MESSAGE("v2_message_", 1),
+    V2_MESSAGES("v2_messages", 1),
+    V2_MESSAGE_QUEUE("v2_message_queue", 1),
+    V2_LAST_ID("v2_last_id", 1),
+    /** on data shards other than the home shard, the highest last id message data was written from */
+    V2_SHARD_FENCE("v2_shard_fence", 1),
+    /** on data shards other than the home shard, the numeric id of the latest message data written */
+    V2_SHARD_LAST_ID("v2_shard_last_id", 1),
+    /** on the home shard, hash of the numeric id of the latest committed message per data shard */
+    V2_SHARD_COMMITTED("v2_shard_committed", 1),
+    V2_BUS_INDEX("v2_bus_idx_", 1),
+    V2_CHANNEL_INDEX("v2_channel_idx_", 1),
+    V2_ALERTS("v2_alerts", 1),
+    V2_BUS("v2_bus_", 1),
+    V2_BUS_OWNER("v2_bus_owner_", 1),
+    V2_CHANNEL("v2_channel_", 1),
+    /** channel to bus name bindings, replaced by V2_CHANNEL; read only until the last legacy channels expire */
+    V2_CHANNEL_BUS("v2_channel_bus_", 1),
+    V2_CLIENT("v2_client_", 1),
+    V2_ADMIN("v2_admin_", 1),
+    V2_AUTH_SESSION("v2_auth_session_", 1),
+    V2_AUTH_REQUEST("v2_auth_request_", 1),
+    V2_AUTH_DECISION("v2_auth_decision_", 1),
+    V2_GRANT("v2_grant_", 1),
+    V2_TOKEN("v2_token_", 1),
+    V2_RATELIMIT_BUS("v2_ratelimit_bus_", 1),
+    V2_RATELIMIT_CLIENT("v2_ratelimit_client_", 1),
+    V2_RATELIMIT_CHANNEL("v2_ratelimit_channel_", 1),
+    /** per node heavy hitter sketches, hash keyed by node id */
+    V2_HEAVY_HITTERS("v2_heavy_hitters", 1),
+    /** v2 message processor leader lease, in hot standby mode */
+    V2_PROCESSOR_LEASE("v2_processor_lease", 1);
+
+    /**
+     * @return the key name, for single key entries
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the key for the provided id, for key prefix entries
+     */
+    public String keyString(String id) {
+        return name + id;
+    }
+
+    /**
+     * @return the key for the provided id, for key prefix entries
+     */
+    public byte[] key(String id) {
+        return (name + id).getBytes();
+    }
+
+    /**
+     * @return the key name, for single key entries
+     */
+    public byte[] bytes() {
+        return name.getBytes();
+    }
+
+    // - PRIVATE
+
+    private final String name;
+    private final int version;
+
+    private Keyspace(String name, int version) {
+        this.name = name;
+        this.version = version;
+    }
+
+    static {
+        Set<String> names = new HashSet<String>();
+        for (Keyspace keyspace : values()) {
+            if (! names.add(keyspace.name)) {
+                throw new IllegalStateException("duplicate keyspace: " + keyspace.name);
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Online migration of a keyspace to the layout of the next schema version.
+ *
+ * Nodes running the migration code start in DUAL_WRITE mode: writes go to both layouts, reads to the old one,
+ * while the leader backfills the new layout from the old one in batches (run()).
+ * The migration stays in DUAL_WRITE after the backfill completes: nodes still running the previous code
+ * write only the old layout, so reads can't move to the new one while any of them are left.
+ * Once none are, an administrator switches to READ_THROUGH: reads go to the new layout and fall back
+ * to the old one for data not found there, writes still go to both; and then to CUTOVER, which stops
+ * writes to the old layout; the old keys can be dropped after that.
+ *
+ * The mode and backfill progress are shared by all nodes through the KEYSPACE_MIGRATION hash for the migration;
+ * each node reads them on first use and then re-reads them every MODE_REFRESH_MILLIS from a background task (start()),
+ * so the mode checks on request threads never go to Redis.
+ */
+public abstract class KeyspaceMigration implements Runnable {
+
+    // - PUBLIC
+
+    public static enum Mode { DUAL_WRITE, READ_THROUGH, CUTOVER }
+
+    public String getName() {
+        return name;
+    }
+
+    public Keyspace getFrom() {
+        return from;
+    }
+
+    public Keyspace getTo() {
+        return to;
+    }
+
+    public Mode getMode() {
+        if (refreshed == 0) {
+            refresh();
+        }
+        return mode;
+    }
+
+    /**
+     * Starts the background mode refresh task, if not already running.
+     *
+     * @return the executor running the refresh task, for shutdown by the owner
+     */
+    public synchronized ScheduledExecutorService start() {
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor();
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (Throwable t) {
+                        logger.error("error refreshing keyspace migration " + name + " state", t);
+                    }
+                }
+            }, 0, MODE_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return refresher;
+    }
+
+    /**
+     * @return true if writes should (also) go to the old layout
+     */
+    public boolean isWriteOld() {
+        return getMode() != Mode.CUTOVER;
+    }
+
+    /**
+     * @return true if reads should go to the new layout
+     */
+    public boolean isReadNew() {
+        return getMode() != Mode.DUAL_WRITE;
+    }
+
+    /**
+     * @return true if reads from the new layout should fall back to the old one
+     */
+    public boolean isReadThrough() {
+        return getMode() == Mode.READ_THROUGH;
+    }
+
+    /**
+     * Switches the mode for all nodes; the switch to READ_THROUGH or CUTOVER requires a completed backfill
+     * and must only be made when no nodes running the previous code are left.
+     */
+    public void setMode(Mode newMode) {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            if (newMode != Mode.DUAL_WRITE && jedis.hget(stateKey, FIELD_COMPLETE) == null) {
+                throw new IllegalStateException("keyspace migration " + name + " backfill not completed, cannot switch to " + newMode);
+            }
+            jedis.hset(stateKey, FIELD_MODE, newMode.name());
+            logger.info("keyspace migration " + name + " switched to " + newMode);
+        } catch (JedisConnectionException e) {
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+            jedis = null;
+            throw e;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+        refresh();
+    }
+
+    /**
+     * @return the migration state, for reporting
+     */
+    public Map<String,String> getStatus() {
+        refresh();
+        Map<String,String> status = new LinkedHashMap<String, String>();
+        status.put("from", from.getName() + " (v" + from.getVersion() + ")");
+        status.put("to", to.getName() + " (v" + to.getVersion() + ")");
+        status.put(FIELD_MODE, mode.name());
+        status.put(FIELD_MIGRATED, Long.toString(migrated));
+        status.put(FIELD_REMAINING, Long.toString(remaining));
+        status.put(FIELD_COMPLETE, Boolean.toString(complete));
+        return status;
+    }
+
+    /**
+     * Backfills the next batch, on the leader; the mode is left to the administrator once the backfill is complete.
+     */
+    @Override
+    public void run() {
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Map<String,String> state = jedis.hgetAll(stateKey);
+            if (state.containsKey(FIELD_COMPLETE)) {
+                return;
+            }
+
+            long cursor = state.containsKey(FIELD_CURSOR) ? Long.parseLong(state.get(FIELD_CURSOR)) : -1;
+            long count = state.containsKey(FIELD_MIGRATED) ? Long.parseLong(state.get(FIELD_MIGRATED)) : 0;
+
+            Batch batch = migrateBatch(jedis, cursor, BATCH_SIZE);
+
+            Map<String,String> update = new HashMap<String, String>();
+            update.put(FIELD_CURSOR, Long.toString(batch.cursor));
+            update.put(FIELD_MIGRATED, Long.toString(count + batch.migrated));
+            update.put(FIELD_REMAINING, Long.toString(batch.remaining));
+            if (batch.remaining == 0) {
+                update.put(FIELD_COMPLETE, "true");
+                logger.info("keyspace migration " + name + " backfill completed, " + (count + batch.migrated) + " items migrated");
+            }
+            jedis.hmset(stateKey, update);
+        } catch (JedisConnectionException e) {
+            logger.warn("keyspace migration " + name + " backfill interrupted: " + e.getMessage());
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+            jedis = null;
+        } catch (Exception e) {
+            // catch-all, retried on the next run
+            logger.error("keyspace migration " + name + " backfill error: " + e.getMessage(), e);
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+
+    // - PROTECTED
+
+    protected KeyspaceMigration(String name, Keyspace from, Keyspace to) {
+        this.name = name;
+        this.from = from;
+        this.to = to;
+        this.stateKey = Keyspace.KEYSPACE_MIGRATION.keyString(name);
+
+        String group = this.getClass().getName().replace(".","_");
+        Metrics.newGauge(new MetricName("redis", group, "migrated"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return migrated;
+            }
+        });
+        Metrics.newGauge(new MetricName("redis", group, "remaining"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return remaining;
+            }
+        });
+        Metrics.newGauge(new MetricName("redis", group, "mode"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return mode.ordinal();
+            }
+        });
+    }
+
+    protected static class Batch {
+
+        /**
+         * @param cursor position after the last migrated item, passed to the next batch
+         * @param migrated number of items migrated in this batch
+         * @param remaining number of items left after this batch, 0 when the backfill is complete
+         */
+        public Batch(long cursor, long migrated, long remaining) {
+            this.cursor = cursor;
+            this.migrated = migrated;
+            this.remaining = remaining;
+        }
+
+        private final long cursor;
+        private final long migrated;
+        private final long remaining;
+    }
+
+    /**
+     * Copies the next batch of up to batchSize items from the old layout to the new one; must be idempotent,
+     * items written concurrently through the dual writes may be copied again.
+     *
+     * @param cursor the cursor returned with the previous batch, -1 for the first batch
+     */
+    protected abstract Batch migrateBatch(Jedis jedis, long cursor, int batchSize);
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(KeyspaceMigration.class);
+
+    private static final long MODE_REFRESH_MILLIS = 10000L;
+    private static final int BATCH_SIZE = 500;
+
+    private static final String FIELD_MODE = "mode";
+    private static final String FIELD_CURSOR = "cursor";
+    private static final String FIELD_MIGRATED = "migrated";
+    private static final String FIELD_REMAINING = "remaining";
+    private static final String FIELD_COMPLETE = "complete";
+
+    private final String name;
+    private final Keyspace from;
+    private final Keyspace to;
+    private final String stateKey;
+
+    private volatile Mode mode = Mode.DUAL_WRITE;
+    private volatile long migrated = 0;
+    private volatile long remaining = -1;
+    private volatile boolean complete = false;
+    private volatile long refreshed = 0;
+
+    private ScheduledExecutorService refresher;
+
+    private void refresh() {
+        refreshed = System.currentTimeMillis();
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getReadJedis();
+            Map<String,String> state = jedis.hgetAll(stateKey);
+            mode = state.containsKey(FIELD_MODE) ? Mode.valueOf(state.get(FIELD_MODE)) : Mode.DUAL_WRITE;
+            migrated = state.containsKey(FIELD_MIGRATED) ? Long.parseLong(state.get(FIELD_MIGRATED)) : 0;
+            remaining = state.containsKey(FIELD_REMAINING) ? Long.parseLong(state.get(FIELD_REMAINING)) : -1;
+            complete = state.containsKey(FIELD_COMPLETE);
+        } catch (JedisConnectionException e) {
+            // keep the last known mode
+            logger.warn("error reading keyspace migration " + name + " state: " + e.getMessage());
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+            jedis = null;
+        } catch (Exception e) {
+            logger.error("invalid keyspace migration " + name + " state: " + e.getMessage());
+        } finally {
+            Redis.getInstance().releaseToPool(jedis);
+        }
+    }
+}
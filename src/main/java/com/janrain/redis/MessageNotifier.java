@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Delivers notifications of committed messages to listeners on this node.
+ *
+ * The leader publishes "bus channel messageId" on the V2_ALERTS_CHANNEL (or V1_ALERTS_CHANNEL) Redis channel
+ * as part of each message's commit transaction; a single subscriber connection per node and protocol version
+ * fans the notifications out to the registered listeners.
+ * With the in-memory DAOs there is no Redis subscription, messages are reported as they are committed (startLocal()).
+ */
+public class MessageNotifier {
+
+    // - PUBLIC
+
+    public static final String V2_ALERTS_CHANNEL = Keyspace.V2_ALERTS.getName();
+    public static final String V1_ALERTS_CHANNEL = Keyspace.V1_ALERTS.getName();
+
+    public static MessageNotifier getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the notifier for committed v1 messages
+     */
+    public static MessageNotifier getV1Instance() {
+        return v1Instance;
+    }
+
+    public interface Listener {
+
+        /**
+         * Called on the notifier's subscriber thread, must not block.
+         */
+        void messageCommitted(String bus, String channel, String messageId);
+
+        /**
+         * Called on the notifier's subscriber thread each time the subscription is (re)established,
+         * before isConnected() reports true; notifications may have been missed while disconnected.
+         */
+        void subscribed();
+    }
+
+    /**
+     * @return the notification payload published for a committed message
+     */
+    public static String notification(String bus, String channel, String messageId) {
+        return bus + " " + channel + " " + messageId;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return true if notifications are currently being received;
+     * if not, listeners should fall back to polling
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Starts the subscriber thread, if not already running.
+     *
+     * @return the executor running the subscriber, for shutdown by the owner
+     */
+    public synchronized ExecutorService start() {
+        if (subscriber == null) {
+            subscriber = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, threadName);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            subscriber.execute(new Runnable() {
+                @Override
+                public void run() {
+                    subscribe();
+                }
+            });
+        }
+        return subscriber;
+    }
+
+    /**
+     * Marks notifications as being received without subscribing to Redis, for single node deployments
+     * where all messages are committed on this node and reported with messageCommitted().
+     */
+    public synchronized void startLocal() {
+        if ( ! connected) {
+            for (Listener listener : listeners) {
+                try {
+                    listener.subscribed();
+                } catch (Exception e) {
+                    logger.error("error notifying listener " + listener, e);
+                }
+            }
+            connected = true;
+            logger.info("delivering local notifications for " + alertsChannel);
+        }
+    }
+
+    /**
+     * Notifies the listeners of a message committed on this node.
+     */
+    public void messageCommitted(String bus, String channel, String messageId) {
+        for (Listener listener : listeners) {
+            try {
+                listener.messageCommitted(bus, channel, messageId);
+            } catch (Exception e) {
+                logger.error("error notifying listener " + listener, e);
+            }
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MessageNotifier.class);
+
+    private static final long RECONNECT_DELAY_MILLIS = 1000L;
+
+    private static final MessageNotifier instance = new MessageNotifier(V2_ALERTS_CHANNEL, "v2-message-notifier");
+    private static final MessageNotifier v1Instance = new MessageNotifier(V1_ALERTS_CHANNEL, "v1-message-notifier");
+
+    private final String alertsChannel;
+    private final String threadName;
+
+    private final Set<Listener> listeners = Collections.newSetFromMap(new ConcurrentHashMap<Listener, Boolean>());
+
+    private volatile boolean connected = false;
+
+    private ExecutorService subscriber;
+
+    private MessageNotifier(String alertsChannel, String threadName) {
+        this.alertsChannel = alertsChannel;
+        this.threadName = threadName;
+    }
+
+    private void subscribe() {
+        while ( ! Thread.currentThread().isInterrupted()) {
+            Jedis jedis = null;
+            try {
+                jedis = Redis.getInstance().getSubscriberJedis();
+                // blocks until unsubscribed or the connection fails
+                jedis.subscribe(new JedisPubSub() {
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        notifyListeners(message);
+                    }
+
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        for (Listener listener : listeners) {
+                            try {
+                                listener.subscribed();
+                            } catch (Exception e) {
+                                logger.error("error notifying listener " + listener, e);
+                            }
+                        }
+                        connected = true;
+                        logger.info("subscribed to " + channel);
+                    }
+
+                    @Override
+                    public void onPMessage(String pattern, String channel, String message) { }
+                    @Override
+                    public void onUnsubscribe(String channel, int subscribedChannels) { }
+                    @Override
+                    public void onPUnsubscribe(String pattern, int subscribedChannels) { }
+                    @Override
+                    public void onPSubscribe(String pattern, int subscribedChannels) { }
+                }, alertsChannel);
+                Redis.getInstance().releaseToPool(jedis);
+            } catch (Exception e) {
+                logger.warn("message notification subscription failed: " + e.getMessage());
+                Redis.getInstance().releaseBrokenResourceToPool(jedis);
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void notifyListeners(String notification) {
+        String[] segs = notification.split(" ");
+        if (segs.length != 3) {
+            logger.warn("invalid message notification: " + notification);
+            return;
+        }
+        messageCommitted(segs[0], segs[1], segs[2]);
+    }
+}
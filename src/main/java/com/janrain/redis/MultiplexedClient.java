@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A few multiplexed connections per server, used round robin and (re)connected on demand.
+ */
+class MultiplexedClient {
+
+    // - PACKAGE
+
+    /**
+     * @param servers host:port of each server
+     */
+    MultiplexedClient(List<String> servers, int connectionsPerServer, RedisMetrics metrics) {
+        this.metrics = metrics;
+        this.servers = new String[servers.size() * connectionsPerServer];
+        for (int i = 0; i < this.servers.length; i++) {
+            this.servers[i] = servers.get(i % servers.size());
+        }
+        connections = new AtomicReferenceArray<MultiplexedConnection>(this.servers.length);
+    }
+
+    <T> RedisFuture<T> send(String name, Protocol.Command command, byte[]... args) {
+        int i = (next.getAndIncrement() & Integer.MAX_VALUE) % servers.length;
+        MultiplexedConnection connection = connections.get(i);
+        if (connection == null || ! connection.isOpen()) {
+            try {
+                connection = connect(i);
+            } catch (JedisConnectionException e) {
+                return RedisFuture.failed(e);
+            }
+        }
+        return connection.send(name, command, args);
+    }
+
+    // - PRIVATE
+
+    private final RedisMetrics metrics;
+    private final String[] servers;
+    private final AtomicReferenceArray<MultiplexedConnection> connections;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private MultiplexedConnection connect(int i) {
+        synchronized (connections) {
+            MultiplexedConnection connection = connections.get(i);
+            if (connection == null || ! connection.isOpen()) {
+                String[] hostPort = servers[i].split(":");
+                connection = new MultiplexedConnection(hostPort[0], Integer.parseInt(hostPort[1]), metrics);
+                connections.set(i, connection);
+            }
+            return connection;
+        }
+    }
+}
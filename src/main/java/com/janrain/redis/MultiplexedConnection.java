@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.RedisInputStream;
+import redis.clients.util.RedisOutputStream;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Redis connection shared by many in-flight commands: senders write their commands without waiting for the replies,
+ * and a reader thread completes the senders' futures with the replies, which Redis sends in command order.
+ *
+ * Any connection error closes the connection and fails all pending commands; closed connections are replaced
+ * by the MultiplexedClient. A command whose reply is late fails on its own (RedisFuture.reply()), the reader
+ * only closes the connection as dead once the oldest pending command got no reply for DEAD_MILLIS. Only for commands with a single reply, no blocking commands, transactions or subscriptions.
+ */
+class MultiplexedConnection {
+
+    // - PACKAGE
+
+    /**
+     * @throws JedisConnectionException if the connection can't be established
+     */
+    MultiplexedConnection(String host, int port, RedisMetrics metrics) {
+        this(host, port, metrics, DEAD_MILLIS);
+    }
+
+    /**
+     * @param deadMillis how long the oldest pending command may go without a reply before the connection is closed
+     */
+    MultiplexedConnection(String host, int port, RedisMetrics metrics, long deadMillis) {
+        this.server = host + ":" + port;
+        this.metrics = metrics;
+        this.deadNanos = TimeUnit.MILLISECONDS.toNanos(deadMillis);
+        socket = new Socket();
+        try {
+            socket.setReuseAddress(true);
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            // wakes up the reader to check for a dead connection
+            socket.setSoTimeout((int) deadMillis);
+            socket.connect(new InetSocketAddress(host, port), Protocol.DEFAULT_TIMEOUT);
+            out = new RedisOutputStream(socket.getOutputStream());
+            in = new RedisInputStream(socket.getInputStream());
+        } catch (IOException e) {
+            closeSocket();
+            throw new JedisConnectionException("error connecting to " + server + ": " + e.getMessage(), e);
+        }
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, "redis-multiplexed-" + server);
+        reader.setDaemon(true);
+        reader.start();
+        logger.info("multiplexed connection to " + server + " established");
+    }
+
+    boolean isOpen() {
+        return ! closed;
+    }
+
+    /**
+     * Sends the command; the returned future is completed with the reply, as parsed by Jedis' Protocol.read().
+     */
+    @SuppressWarnings("unchecked")
+    <T> RedisFuture<T> send(String name, Protocol.Command command, byte[]... args) {
+        RedisFuture<T> future = new RedisFuture<T>(name, size(args));
+        synchronized (sendLock) {
+            if (closed) {
+                future.fail(new JedisConnectionException("multiplexed connection to " + server + " is closed"));
+                return future;
+            }
+            // queued before it's sent, so that its position matches the reply's
+            pending.add((RedisFuture<Object>) (RedisFuture<?>) future);
+            try {
+                Protocol.sendCommand(out, command, args);
+                out.flush();
+            } catch (IOException e) {
+                close(new JedisConnectionException(e));
+            } catch (JedisConnectionException e) {
+                close(e);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Closes the connection, failing all pending commands with the cause.
+     */
+    void close(JedisConnectionException cause) {
+        synchronized (sendLock) {
+            if (closed) return;
+            closed = true;
+            closeSocket();
+        }
+        metrics.connectionReleased(0, false, true);
+        logger.warn("multiplexed connection to " + server + " closed: " + cause.getMessage());
+        RedisFuture<Object> future;
+        while ((future = pending.poll()) != null) {
+            if (future.fail(cause)) {
+                metrics.command(future.getCommand(), future.getStartNanos(), future.getSentBytes(), 0, true);
+            }
+        }
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(MultiplexedConnection.class);
+
+    /** several reply timeouts, a slow command fails on its own well before its connection is given up */
+    private static final long DEAD_MILLIS = 5L * Protocol.DEFAULT_TIMEOUT;
+
+    private final String server;
+    private final long deadNanos;
+    private final RedisMetrics metrics;
+    private final Socket socket;
+    private RedisOutputStream out;
+    private RedisInputStream in;
+
+    private final Object sendLock = new Object();
+    private final Queue<RedisFuture<Object>> pending = new ConcurrentLinkedQueue<RedisFuture<Object>>();
+    private volatile boolean closed = false;
+
+    private void read() {
+        try {
+            while ( ! closed) {
+                Object reply;
+                JedisException error = null;
+                try {
+                    reply = Protocol.read(in);
+                } catch (JedisDataException e) {
+                    // error reply, the connection is still usable
+                    reply = null;
+                    error = e;
+                } catch (JedisConnectionException e) {
+                    if (e.getCause() instanceof SocketTimeoutException && ! isDead()) {
+                        // nothing received for a while, no reply was in progress: see isDead()
+                        continue;
+                    }
+                    throw e;
+                }
+                RedisFuture<Object> future = pending.poll();
+                if (future == null) {
+                    close(new JedisConnectionException("reply without a pending command from " + server));
+                    return;
+                }
+                boolean completed = error != null ? future.fail(error) : future.complete(reply);
+                if (completed) {
+                    metrics.command(future.getCommand(), future.getStartNanos(), future.getSentBytes(), size(reply), error != null);
+                }
+            }
+        } catch (JedisConnectionException e) {
+            close(e);
+        } catch (RuntimeException e) {
+            close(new JedisConnectionException(e));
+        }
+    }
+
+    /**
+     * Called when nothing was received for the socket timeout, deadNanos.
+     *
+     * @return true if the oldest pending command got no reply for deadNanos; otherwise it was sent after the
+     * reader last received data, so the read that timed out hadn't started on a reply and can be retried
+     */
+    private boolean isDead() {
+        RedisFuture<Object> oldest = pending.peek();
+        return oldest != null && System.nanoTime() - oldest.getStartNanos() >= deadNanos;
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static long size(byte[]... args) {
+        long size = 0;
+        for (byte[] arg : args) {
+            size += arg.length;
+        }
+        return size;
+    }
+
+    private static long size(Object reply) {
+        if (reply instanceof byte[]) {
+            return ((byte[]) reply).length;
+        } else if (reply instanceof List) {
+            long size = 0;
+            for (Object element : (List<?>) reply) {
+                size += size(element);
+            }
+            return size;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the length of a Redis list (message queue) in the background,
+ * so that request paths can check the queue depth without a Redis round trip.
+ */
+public class QueueDepthMonitor {
+
+    // - PUBLIC
+
+    /**
+     * @param queueKey the Redis list to monitor
+     * @param gaugeName name under which the sampled depth is exported
+     */
+    public QueueDepthMonitor(String queueKey, MetricName gaugeName) {
+        this.queueKey = queueKey.getBytes();
+        Metrics.newGauge(gaugeName, new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return depth;
+            }
+        });
+    }
+
+    /**
+     * Starts sampling the queue length every sampleMillis.
+     *
+     * @return the executor running the sampling task, for shutdown by the owner
+     */
+    public synchronized ScheduledExecutorService start(long sampleMillis) {
+        if (sampler == null) {
+            sampler = Executors.newSingleThreadScheduledExecutor();
+            sampler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sample();
+                }
+            }, 0, sampleMillis, TimeUnit.MILLISECONDS);
+        }
+        return sampler;
+    }
+
+    /**
+     * @return the queue length at the last successful sample
+     */
+    public long getDepth() {
+        return depth;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(QueueDepthMonitor.class);
+
+    private final byte[] queueKey;
+
+    private volatile long depth = 0;
+
+    private ScheduledExecutorService sampler;
+
+    private void sample() {
+        try {
+            depth = Redis.getInstance().llen(queueKey);
+        } catch (Exception e) {
+            // keep the last known depth
+            logger.warn("error sampling length of " + new String(queueKey) + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import com.janrain.utils.BackplaneSystemProps;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, with the buckets kept in Redis and updated atomically by a Lua script,
+ * so that all nodes share the same limits.
+ *
+ * Keys recently denied by Redis are remembered locally until their retry time,
+ * so that rejected callers retrying in a loop don't reach Redis at all.
+ *
+ * Errors talking to Redis admit the request: rate limiting must not take the service down with it.
+ * With the in-memory DAOs (single node, no Redis) the buckets are kept in process instead.
+ */
+public class RateLimiter {
+
+    // - PUBLIC
+
+    public static RateLimiter getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param inMemory keep the buckets in process instead of in Redis
+     */
+    public RateLimiter(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    /** acquire() result for requests costing more than a bucket's capacity, which are never admitted */
+    public static final long EXCEEDS_CAPACITY = -1;
+
+    /**
+     * Takes the requested tokens from all provided buckets, or from none of them if any bucket is short.
+     *
+     * @return 0 if admitted, EXCEEDS_CAPACITY if the cost is larger than a bucket's capacity,
+     * otherwise the number of milliseconds after which the request may be retried
+     */
+    public long acquire(List<Bucket> buckets) {
+        if (buckets.isEmpty()) {
+            return 0;
+        }
+        for (Bucket bucket : buckets) {
+            if (bucket.cost > bucket.capacity) {
+                denied.mark();
+                return EXCEEDS_CAPACITY;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        long localWait = checkLocallyDenied(buckets, now);
+        if (localWait > 0) {
+            locallyDenied.mark();
+            return localWait;
+        }
+
+        if (inMemory) {
+            return acquireLocally(buckets, now);
+        }
+
+        List<String> keys = new ArrayList<String>(buckets.size());
+        List<String> args = new ArrayList<String>(1 + buckets.size() * 3);
+        args.add(Long.toString(now));
+        for (Bucket bucket : buckets) {
+            keys.add(bucket.key);
+            args.add(Double.toString(bucket.ratePerSecond));
+            args.add(Double.toString(bucket.capacity));
+            args.add(Integer.toString(bucket.cost));
+        }
+
+        List<?> result;
+        try {
+            result = (List<?>) evalTokenBucket(keys, args);
+        } catch (Exception e) {
+            logger.warn("rate limiter unavailable, admitting request: " + e.getMessage());
+            return 0;
+        }
+
+        int deniedIndex = ((Long) result.get(0)).intValue();
+        if (deniedIndex == 0) {
+            return 0;
+        }
+        long waitMillis = Math.max(1, (Long) result.get(1));
+        markLocallyDenied(buckets.get(deniedIndex - 1).key, now + waitMillis);
+        denied.mark();
+        return waitMillis;
+    }
+
+    /**
+     * A rate limited resource: refills at ratePerSecond, up to capacity tokens.
+     */
+    public static final class Bucket {
+
+        public Bucket(String key, double ratePerSecond, double capacity, int cost) {
+            if (ratePerSecond <= 0 || capacity <= 0) {
+                throw new IllegalArgumentException("Invalid token bucket parameters for " + key + ": rate " + ratePerSecond + ", capacity " + capacity);
+            }
+            this.key = key;
+            this.ratePerSecond = ratePerSecond;
+            this.capacity = capacity;
+            this.cost = cost;
+        }
+
+        // - PRIVATE
+
+        private final String key;
+        private final double ratePerSecond;
+        private final double capacity;
+        private final int cost;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RateLimiter.class);
+
+    private static final RateLimiter instance = new RateLimiter(BackplaneSystemProps.isInMemory());
+
+    private static final int MAX_LOCALLY_DENIED_KEYS = 10000;
+
+    /**
+     * KEYS: bucket keys; ARGV[1]: current time (ms), then (rate per second, capacity, cost) for each key.
+     * Returns {0, 0} if all buckets had enough tokens (and takes them),
+     * or {index of the most constrained bucket (1-based), ms to wait} otherwise (and takes nothing).
+     * Costs larger than the capacity are rejected by acquire() before the script is called.
+     */
+    private static final String TOKEN_BUCKET_SCRIPT =
+            "local now = tonumber(ARGV[1])\n" +
+            "local tokens = {}\n" +
+            "local denied = 0\n" +
+            "local wait = 0\n" +
+            "for i, key in ipairs(KEYS) do\n" +
+            "  local rate = tonumber(ARGV[i * 3 - 1])\n" +
+            "  local capacity = tonumber(ARGV[i * 3])\n" +
+            "  local cost = tonumber(ARGV[i * 3 + 1])\n" +
+            "  local bucket = redis.call('HMGET', key, 'tokens', 'ts')\n" +
+            "  local available = tonumber(bucket[1]) or capacity\n" +
+            "  local ts = tonumber(bucket[2]) or now\n" +
+            "  if now > ts then available = math.min(capacity, available + (now - ts) * rate / 1000) end\n" +
+            "  tokens[i] = available - cost\n" +
+            "  if available < cost then\n" +
+            "    local w = math.ceil((cost - available) * 1000 / rate)\n" +
+            "    if w > wait then wait = w; denied = i end\n" +
+            "  end\n" +
+            "end\n" +
+            "if denied == 0 then\n" +
+            "  for i, key in ipairs(KEYS) do\n" +
+            "    redis.call('HMSET', key, 'tokens', tostring(tokens[i]), 'ts', ARGV[1])\n" +
+            "    redis.call('EXPIRE', key, math.ceil(tonumber(ARGV[i * 3]) / tonumber(ARGV[i * 3 - 1])) + 1)\n" +
+            "  end\n" +
+            "end\n" +
+            "return {denied, wait}\n";
+
+    private final boolean inMemory;
+
+    private volatile String tokenBucketSha;
+
+    private final Map<String,Long> locallyDeniedUntil = new ConcurrentHashMap<String, Long>();
+
+    /** in-memory mode buckets: key -> {tokens, last update time}, guarded by itself */
+    private final Map<String,double[]> localBuckets = new HashMap<String, double[]>();
+
+    private final Meter denied = Metrics.newMeter(new MetricName("redis", this.getClass().getName().replace(".","_"), "rate_limited"), "requests", TimeUnit.SECONDS);
+    private final Meter locallyDenied = Metrics.newMeter(new MetricName("redis", this.getClass().getName().replace(".","_"), "rate_limited_locally"), "requests", TimeUnit.SECONDS);
+
+    private Object evalTokenBucket(List<String> keys, List<String> args) {
+        Jedis jedis = Redis.getInstance().getWriteJedis();
+        boolean broken = false;
+        try {
+            if (tokenBucketSha == null) {
+                tokenBucketSha = jedis.scriptLoad(TOKEN_BUCKET_SCRIPT);
+            }
+            try {
+                return jedis.evalsha(tokenBucketSha, keys, args);
+            } catch (JedisDataException e) {
+                if (e.getMessage() == null || ! e.getMessage().startsWith("NOSCRIPT")) {
+                    throw e;
+                }
+                // script cache flushed or redis failed over, load it again
+                tokenBucketSha = jedis.scriptLoad(TOKEN_BUCKET_SCRIPT);
+                return jedis.evalsha(tokenBucketSha, keys, args);
+            }
+        } catch (RuntimeException e) {
+            broken = ! (e instanceof JedisDataException);
+            throw e;
+        } finally {
+            Redis.getInstance().releaseToPool(jedis, broken);
+        }
+    }
+
+    /**
+     * Same as TOKEN_BUCKET_SCRIPT, for buckets kept in process.
+     */
+    private long acquireLocally(List<Bucket> buckets, long now) {
+        synchronized (localBuckets) {
+            if (localBuckets.size() >= MAX_LOCALLY_DENIED_KEYS) {
+                removeFullLocalBuckets(buckets, now);
+            }
+            double[] tokens = new double[buckets.size()];
+            Bucket deniedBucket = null;
+            long wait = 0;
+            for (int i = 0; i < buckets.size(); i++) {
+                Bucket bucket = buckets.get(i);
+                double cost = bucket.cost;
+                double available = availableTokens(bucket, localBuckets.get(bucket.key), now);
+                tokens[i] = available - cost;
+                if (available < cost) {
+                    long w = (long) Math.ceil((cost - available) * 1000 / bucket.ratePerSecond);
+                    if (w > wait) {
+                        wait = w;
+                        deniedBucket = bucket;
+                    }
+                }
+            }
+            if (deniedBucket == null) {
+                for (int i = 0; i < buckets.size(); i++) {
+                    localBuckets.put(buckets.get(i).key, new double[] {tokens[i], now});
+                }
+                return 0;
+            }
+            long waitMillis = Math.max(1, wait);
+            markLocallyDenied(deniedBucket.key, now + waitMillis);
+            denied.mark();
+            return waitMillis;
+        }
+    }
+
+    private static double availableTokens(Bucket bucket, double[] state, long now) {
+        if (state == null) {
+            return bucket.capacity;
+        }
+        double available = state[0];
+        if (now > state[1]) {
+            available = Math.min(bucket.capacity, available + (now - state[1]) * bucket.ratePerSecond / 1000);
+        }
+        return available;
+    }
+
+    /**
+     * Drops buckets that have been idle long enough to refill (the equivalent of the Redis key expiring).
+     * Only the parameters of the buckets being acquired are known, the largest refill time among them is used.
+     */
+    private void removeFullLocalBuckets(List<Bucket> buckets, long now) {
+        double refillMillis = 0;
+        for (Bucket bucket : buckets) {
+            refillMillis = Math.max(refillMillis, bucket.capacity * 1000 / bucket.ratePerSecond);
+        }
+        Iterator<double[]> states = localBuckets.values().iterator();
+        while (states.hasNext()) {
+            if (now - states.next()[1] > refillMillis) {
+                states.remove();
+            }
+        }
+    }
+
+    private long checkLocallyDenied(List<Bucket> buckets, long now) {
+        long wait = 0;
+        for (Bucket bucket : buckets) {
+            Long until = locallyDeniedUntil.get(bucket.key);
+            if (until != null) {
+                if (until > now) {
+                    wait = Math.max(wait, until - now);
+                } else {
+                    locallyDeniedUntil.remove(bucket.key);
+                }
+            }
+        }
+        return wait;
+    }
+
+    private void markLocallyDenied(String key, long until) {
+        if (locallyDeniedUntil.size() >= MAX_LOCALLY_DENIED_KEYS) {
+            long now = System.currentTimeMillis();
+            Iterator<Long> entries = locallyDeniedUntil.values().iterator();
+            while (entries.hasNext()) {
+                if (entries.next() <= now) {
+                    entries.remove();
+                }
+            }
+            if (locallyDeniedUntil.size() >= MAX_LOCALLY_DENIED_KEYS) {
+                // only an optimization, Redis still enforces the limits
+                return;
+            }
+        }
+        locallyDeniedUntil.put(key, until);
+    }
+}
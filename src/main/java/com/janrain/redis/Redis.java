@@ -34,8 +34,16 @@ import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -56,11 +64,44 @@ public class Redis implements PathChildrenCacheListener {
      */
 
     public Jedis getReadJedis() {
-        return getJedisFromPool(getReadPool());
+        return getJedisFromPool(getReadPool(), false);
     }
 
     public Jedis getWriteJedis() {
-        return getJedisFromPool(getWritePool());
+        return getJedisFromPool(getWritePool(), false);
+    }
+
+    /**
+     * @return a primary connection for a long lived, blocking subscription, not counted in the connection hold metrics
+     */
+    public Jedis getSubscriberJedis() {
+        return getJedisFromPool(getWritePool(), true);
+    }
+
+    /**
+     * @return the number of shards of the v2 message keyspace, shard 0 being the default (REDIS_SERVER_PRIMARY) servers
+     */
+    public int getShardCount() {
+        return busShards.getShardCount();
+    }
+
+    /**
+     * @return the shard holding the v2 messages and message indexes of the bus
+     */
+    public int getBusShard(String bus) {
+        return busShards.getShard(bus);
+    }
+
+    public Jedis getReadJedis(int shard) {
+        if (shard == 0) return getReadJedis();
+        Shard s = shards.get(shard - 1);
+        return getJedisFromPool(s.getReadPool(), s.replicaMetrics, false);
+    }
+
+    public Jedis getWriteJedis(int shard) {
+        if (shard == 0) return getWriteJedis();
+        Shard s = shards.get(shard - 1);
+        return getJedisFromPool(s.writePool, s.primaryMetrics, false);
     }
 
     public void releaseToPool(Jedis jedis) {
@@ -73,156 +114,239 @@ public class Redis implements PathChildrenCacheListener {
 
     public void releaseToPool(Jedis jedis, boolean isBroken) {
         if (jedis == null) return;
-        logger.debug("returning jedis: " + jedis.toString() + " to pool -> isBroken: " + isBroken);
-        JedisPool pool = checkedOutJedises.get(jedis);
-        if (pool != null) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("returning jedis: " + jedis.toString() + " to pool -> isBroken: " + isBroken);
+        }
+        CheckedOut checkedOut = checkedOutJedises.get(jedis);
+        if (checkedOut != null) {
             synchronized (jedis) {
                 if (isBroken) {
-                    pool.returnBrokenResource(jedis);
+                    checkedOut.pool.returnBrokenResource(jedis);
                 } else {
-                    pool.returnResource(jedis);
+                    checkedOut.pool.returnResource(jedis);
                 }
                 checkedOutJedises.remove(jedis);
             }
+            checkedOut.metrics.connectionReleased(checkedOut.nanos, ! checkedOut.subscriber, isBroken);
         } else {
             logger.warn("attempted to return a broken jedis: " + jedis.toString() + " that wasn't checked out");
         }
 
     }
 
-    public void set(byte[] key, byte[] value) {
-        Jedis jedis = getWriteJedis();
-
-        try {
-            jedis.set(key,value);
-        } finally {
-            releaseToPool(jedis);
-        }
+    public void set(final byte[] key, final byte[] value) {
+        execute(getWriteJedis(), new Command<String>("set", key.length + value.length) {
+            @Override
+            String run(Jedis jedis) {
+                return jedis.set(key, value);
+            }
+        });
     }
 
-    public void del(byte[] key) {
-        Jedis jedis = getWriteJedis();
-        try {
-            jedis.del(key);
-        } finally {
-        	releaseToPool(jedis);
-        }
+    public void del(final byte[] key) {
+        execute(getWriteJedis(), new Command<Long>("del", key.length) {
+            @Override
+            Long run(Jedis jedis) {
+                return jedis.del(key);
+            }
+        });
     }
 
-    public void set(byte[] key, byte[] value, int seconds) {
-        Jedis jedis = getWriteJedis();
-        try {
-            jedis.setex(key, seconds, value);
-        } finally {
-            releaseToPool(jedis);
-        }
+    public void set(final byte[] key, final byte[] value, final int seconds) {
+        execute(getWriteJedis(), new Command<String>("setex", key.length + value.length) {
+            @Override
+            String run(Jedis jedis) {
+                return jedis.setex(key, seconds, value);
+            }
+        });
     }
 
     public void set(String key, String value) {
         set(key, value, null);
     }
 
-    public void set(String key, String value, @Nullable Integer seconds) {
-        Jedis jedis = getWriteJedis();
-        try {
-            if (seconds == null) {
-                jedis.set(key, value);
-            } else {
-                jedis.setex(key, seconds, value);
+    public void set(final String key, final String value, @Nullable final Integer seconds) {
+        execute(getWriteJedis(), new Command<String>(seconds == null ? "set" : "setex", key.length() + value.length()) {
+            @Override
+            String run(Jedis jedis) {
+                return seconds == null ? jedis.set(key, value) : jedis.setex(key, seconds, value);
             }
-        } finally {
-        	releaseToPool(jedis);
-        }
+        });
     }
 
-    public void append(byte[] key, byte[] value) {
-        Jedis jedis = getWriteJedis();
-        try {
-            jedis.append(key, value);
-        } finally {
-        	releaseToPool(jedis);
-        }
+    public void append(final byte[] key, final byte[] value) {
+        execute(getWriteJedis(), new Command<Long>("append", key.length + value.length) {
+            @Override
+            Long run(Jedis jedis) {
+                return jedis.append(key, value);
+            }
+        });
     }
 
     public Long rpush(final byte[] key, final byte[] string) {
-        Jedis jedis = getWriteJedis();
-        try {
-            return jedis.rpush(key, string);
-        } finally {
-        	releaseToPool(jedis);
-        }
+        return execute(getWriteJedis(), new Command<Long>("rpush", key.length + string.length) {
+            @Override
+            Long run(Jedis jedis) {
+                return jedis.rpush(key, string);
+            }
+        });
     }
 
-    public long llen(byte[] key) {
-        Jedis jedis = getReadJedis();
-        try {
-            return jedis.llen(key);
-        } finally {
-        	releaseToPool(jedis);
-        }
+    /**
+     * Appends all values to the list with a single (variadic) RPUSH.
+     */
+    public Long rpush(final byte[] key, final List<byte[]> values) {
+        return execute(getWriteJedis(), new Command<Long>("rpush", key.length + size(values)) {
+            @Override
+            Long run(Jedis jedis) {
+                return jedis.rpush(key, values.toArray(new byte[values.size()][]));
+            }
+        });
     }
 
-    public byte[] get(byte[] key) {
-        Jedis jedis = getReadJedis();
-        try {
-            return jedis.get(key);
-        } finally {
-        	releaseToPool(jedis);
-        }
+    /**
+     * Appends each value to the list at the same position in keys, with a single pipeline.
+     *
+     * @return the replies in order: the list length, or the JedisDataException if the push was rejected
+     */
+    public List<Object> rpushPipelined(final List<byte[]> keys, final List<byte[]> values) {
+        return execute(getWriteJedis(), new Command<List<Object>>("rpush_pipelined", size(keys) + size(values)) {
+            @Override
+            List<Object> run(Jedis jedis) {
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<Long>> responses = new ArrayList<Response<Long>>(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    responses.add(pipeline.rpush(keys.get(i), values.get(i)));
+                }
+                pipeline.sync();
+                List<Object> replies = new ArrayList<Object>(responses.size());
+                for (Response<Long> response : responses) {
+                    try {
+                        replies.add(response.get());
+                    } catch (JedisDataException e) {
+                        replies.add(e);
+                    }
+                }
+                return replies;
+            }
+        });
     }
 
-    public String get(String key) {
-        Jedis jedis = getReadJedis();
-        try {
-            return jedis.get(key);
-        } finally {
-        	releaseToPool(jedis);
-        }
+    public long llen(final byte[] key) {
+        return execute(getReadJedis(), new Command<Long>("llen", key.length) {
+            @Override
+            Long run(Jedis jedis) {
+                return jedis.llen(key);
+            }
+        });
     }
 
-    public List<byte[]> mget(byte[]... keys) {
-        Jedis jedis = getReadJedis();
-        try {
-            return jedis.mget(keys);
-        } finally {
-        	releaseToPool(jedis);
+    /**
+     * GET from a read server over a multiplexed connection shared with other in-flight commands,
+     * without a pool checkout; over a pooled read connection if REDIS_MULTIPLEXED_CONNECTIONS is not enabled.
+     */
+    public RedisFuture<byte[]> getAsync(final byte[] key) {
+        if (multiplexedReads == null) {
+            try {
+                return RedisFuture.completed(get(key));
+            } catch (JedisException e) {
+                return RedisFuture.failed(e);
+            }
         }
+        return multiplexedReads.send("get", Protocol.Command.GET, key);
     }
 
-    public byte[] lpop(byte[] key) {
-        Jedis jedis = getReadJedis();
-        try {
-            return jedis.lpop(key);
-        } finally {
-        	releaseToPool(jedis);
-        }
+    public byte[] get(final byte[] key) {
+        return execute(getReadJedis(), new Command<byte[]>("get", key.length) {
+            @Override
+            byte[] run(Jedis jedis) {
+                return jedis.get(key);
+            }
+
+            @Override
+            long replySize(byte[] reply) {
+                return reply == null ? 0 : reply.length;
+            }
+        });
+    }
+
+    public String get(final String key) {
+        return execute(getReadJedis(), new Command<String>("get", key.length()) {
+            @Override
+            String run(Jedis jedis) {
+                return jedis.get(key);
+            }
+
+            @Override
+            long replySize(String reply) {
+                return reply == null ? 0 : reply.length();
+            }
+        });
+    }
+
+    public List<byte[]> mget(final byte[]... keys) {
+        return execute(getReadJedis(), new Command<List<byte[]>>("mget", size(Arrays.asList(keys))) {
+            @Override
+            List<byte[]> run(Jedis jedis) {
+                return jedis.mget(keys);
+            }
+
+            @Override
+            long replySize(List<byte[]> reply) {
+                return size(reply);
+            }
+        });
+    }
+
+    public byte[] lpop(final byte[] key) {
+        return execute(getReadJedis(), new Command<byte[]>("lpop", key.length) {
+            @Override
+            byte[] run(Jedis jedis) {
+                return jedis.lpop(key);
+            }
+
+            @Override
+            long replySize(byte[] reply) {
+                return reply == null ? 0 : reply.length;
+            }
+        });
     }
 
     public List<byte[]> lrange(final byte[] key, final int start, final int end) {
-        Jedis jedis = getReadJedis();
-        try {
-            return jedis.lrange(key, start, end);
-        } finally {
-        	releaseToPool(jedis);
-        }
+        return execute(getReadJedis(), new Command<List<byte[]>>("lrange", key.length) {
+            @Override
+            List<byte[]> run(Jedis jedis) {
+                return jedis.lrange(key, start, end);
+            }
+
+            @Override
+            long replySize(List<byte[]> reply) {
+                return size(reply);
+            }
+        });
     }
 
-    public Set<byte[]> zrangebyscore(final byte[] key, double min, double max) {
-        Jedis jedis = getReadJedis();
-        try {
-            return jedis.zrangeByScore(key, min, max);
-        } finally {
-        	releaseToPool(jedis);
-        }
+    public Set<byte[]> zrangebyscore(final byte[] key, final double min, final double max) {
+        return execute(getReadJedis(), new Command<Set<byte[]>>("zrangebyscore", key.length) {
+            @Override
+            Set<byte[]> run(Jedis jedis) {
+                return jedis.zrangeByScore(key, min, max);
+            }
+
+            @Override
+            long replySize(Set<byte[]> reply) {
+                return size(reply);
+            }
+        });
     }
 
     public long zcard(final byte[] key) {
-        Jedis jedis = getReadJedis();
-        try {
-            return jedis.zcard(key);
-        } finally {
-            getReadPool().getRight().returnResource(jedis);
-        }
+        return execute(getReadJedis(), new Command<Long>("zcard", key.length) {
+            @Override
+            Long run(Jedis jedis) {
+                return jedis.zcard(key);
+            }
+        });
     }
 
     public void setActiveRedisInstance(CuratorFramework client) {
@@ -344,6 +468,14 @@ public class Redis implements PathChildrenCacheListener {
     private final Pair<String,JedisPool> poolForWrites;
     private final ArrayList<Pair<String,JedisPool>> poolForReads = new ArrayList<Pair<String, JedisPool>>();
 
+    /** v2 message keyspace shards 1..n, from REDIS_SHARDS */
+    private final List<Shard> shards = new ArrayList<Shard>();
+
+    private final ConsistentHash busShards;
+
+    /** null unless enabled with REDIS_MULTIPLEXED_CONNECTIONS */
+    private final MultiplexedClient multiplexedReads;
+
     private static Redis instance = new Redis();
     private final String REDIS_LOCK = "/redislock";
     private final String REDIS = "/redis";
@@ -403,6 +535,67 @@ public class Redis implements PathChildrenCacheListener {
             }
         }
 
+        String shardsConfig = System.getProperty(BackplaneSystemProps.REDIS_SHARDS);
+        if (StringUtils.isNotBlank(shardsConfig)) {
+            for (String shardConfig : shardsConfig.split(";")) {
+                if (StringUtils.isBlank(shardConfig)) continue;
+                int shard = shards.size() + 1;
+                String[] primaryAndReads = shardConfig.trim().split("\\|");
+                Pair<String,JedisPool> writePool = createPool(jedisPoolConfig, primaryAndReads[0]);
+                List<Pair<String,JedisPool>> readPools = new ArrayList<Pair<String, JedisPool>>();
+                if (primaryAndReads.length > 1) {
+                    for (String readServer : primaryAndReads[1].split(",")) {
+                        readPools.add(createPool(jedisPoolConfig, readServer));
+                    }
+                } else {
+                    readPools.add(writePool);
+                }
+                shards.add(new Shard(writePool, readPools,
+                        new RedisMetrics("shard" + shard + "_" + RedisMetrics.PRIMARY),
+                        new RedisMetrics("shard" + shard + "_" + RedisMetrics.REPLICA)));
+                logger.info("redis shard " + shard + ": primary " + writePool.getLeft() + ", " + readPools.size() + " read server(s)");
+            }
+        }
+        busShards = new ConsistentHash(shards.size() + 1);
+
+        int multiplexed = readMultiplexedConnections();
+        if (multiplexed > 0) {
+            List<String> multiplexedServers = new ArrayList<String>();
+            for (Pair<String,JedisPool> readPool : poolForReads) {
+                multiplexedServers.add(readPool.getLeft());
+            }
+            multiplexedReads = new MultiplexedClient(multiplexedServers, multiplexed,
+                    new RedisMetrics(RedisMetrics.REPLICA + "_multiplexed"));
+            logger.info("multiplexed reads enabled, " + multiplexed + " connection(s) per read server");
+        } else {
+            multiplexedReads = null;
+        }
+    }
+
+    private static int readMultiplexedConnections() {
+        String configured = System.getProperty(BackplaneSystemProps.REDIS_MULTIPLEXED_CONNECTIONS);
+        if (StringUtils.isNotBlank(configured)) {
+            try {
+                return Integer.parseInt(configured.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("invalid " + BackplaneSystemProps.REDIS_MULTIPLEXED_CONNECTIONS + ": " + configured + ", disabled");
+            }
+        }
+        return 0;
+    }
+
+    private static Pair<String,JedisPool> createPool(JedisPoolConfig jedisPoolConfig, String server) {
+        String[] args = server.trim().split(":");
+        int port = 6379;
+        if (args.length == 2) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                logger.error("invalid Redis server configuration: " + server);
+                System.exit(1);
+            }
+        }
+        return new Pair<String, JedisPool>(args[0] + ":" + port, new JedisPool(jedisPoolConfig, args[0], port));
     }
 
     private Pair<String, JedisPool> getWritePool() {
@@ -413,22 +606,122 @@ public class Redis implements PathChildrenCacheListener {
         return poolForReads.get(random.nextInt(poolForReads.size()));
     }
 
-    private Jedis getJedisFromPool(Pair<String,JedisPool> poolInfo) {
+    private Jedis getJedisFromPool(Pair<String,JedisPool> poolInfo, boolean subscriber) {
+        return getJedisFromPool(poolInfo, poolInfo == poolForWrites ? primaryMetrics : replicaMetrics, subscriber);
+    }
+
+    private Jedis getJedisFromPool(Pair<String,JedisPool> poolInfo, RedisMetrics metrics, boolean subscriber) {
+        long start = System.nanoTime();
         try {
-            logger.debug("attempting to get resource from pool");
             Jedis jedis = poolInfo.getRight().getResource();
             synchronized (jedis) {
-                checkedOutJedises.put(jedis, poolInfo.getRight());
-                logger.debug("jedis " + jedis.getClient().getHost() + " checked out from pool " + poolInfo.getLeft());
+                checkedOutJedises.put(jedis, new CheckedOut(poolInfo.getRight(), metrics, subscriber));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("jedis " + jedis.getClient().getHost() + " checked out from pool " + poolInfo.getLeft());
+                }
             }
+            metrics.poolCheckout(start, false);
             return jedis;
         } catch (RuntimeException e) {
+            metrics.poolCheckout(start, true);
             logger.warn("error retrieving connection to redis pool " + poolInfo.getLeft() + " : " + e.getMessage());
             throw e;
         }
     }
 
-    private ConcurrentHashMap<Jedis, JedisPool> checkedOutJedises = new ConcurrentHashMap<Jedis, JedisPool>();
+    /**
+     * Runs the command on the (checked out) connection, records its metrics and returns the connection to its pool,
+     * as broken if the command failed with a connection error.
+     */
+    private <T> T execute(Jedis jedis, Command<T> command) {
+        CheckedOut checkedOut = checkedOutJedises.get(jedis);
+        RedisMetrics metrics = checkedOut != null ? checkedOut.metrics : primaryMetrics;
+        long start = System.nanoTime();
+        boolean broken = false;
+        T reply = null;
+        boolean failed = true;
+        try {
+            reply = command.run(jedis);
+            failed = false;
+            return reply;
+        } catch (JedisConnectionException e) {
+            broken = true;
+            throw e;
+        } finally {
+            metrics.command(command.name, start, command.requestSize, failed ? 0 : command.replySize(reply), failed);
+            releaseToPool(jedis, broken);
+        }
+    }
+
+    private static abstract class Command<T> {
+
+        private Command(String name, long requestSize) {
+            this.name = name;
+            this.requestSize = requestSize;
+        }
+
+        abstract T run(Jedis jedis);
+
+        long replySize(T reply) {
+            return 0;
+        }
+
+        private final String name;
+        private final long requestSize;
+    }
+
+    private static long size(Collection<byte[]> values) {
+        long size = 0;
+        if (values != null) {
+            for (byte[] value : values) {
+                if (value != null) {
+                    size += value.length;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static final class Shard {
+
+        private Shard(Pair<String,JedisPool> writePool, List<Pair<String,JedisPool>> readPools,
+                      RedisMetrics primaryMetrics, RedisMetrics replicaMetrics) {
+            this.writePool = writePool;
+            this.readPools = readPools;
+            this.primaryMetrics = primaryMetrics;
+            this.replicaMetrics = replicaMetrics;
+        }
+
+        private Pair<String,JedisPool> getReadPool() {
+            return readPools.get(random.nextInt(readPools.size()));
+        }
+
+        private final Pair<String,JedisPool> writePool;
+        private final List<Pair<String,JedisPool>> readPools;
+        private final RedisMetrics primaryMetrics;
+        private final RedisMetrics replicaMetrics;
+    }
+
+    private static final Random random = new Random();
+
+    private static final class CheckedOut {
+
+        private CheckedOut(JedisPool pool, RedisMetrics metrics, boolean subscriber) {
+            this.pool = pool;
+            this.metrics = metrics;
+            this.subscriber = subscriber;
+        }
+
+        private final JedisPool pool;
+        private final RedisMetrics metrics;
+        private final boolean subscriber;
+        private final long nanos = System.nanoTime();
+    }
+
+    private final RedisMetrics primaryMetrics = new RedisMetrics(RedisMetrics.PRIMARY);
+    private final RedisMetrics replicaMetrics = new RedisMetrics(RedisMetrics.REPLICA);
+
+    private ConcurrentHashMap<Jedis, CheckedOut> checkedOutJedises = new ConcurrentHashMap<Jedis, CheckedOut>();
     private final Gauge checkedOutJedisesCounterGauge = Metrics.newGauge(new MetricName("redis", this.getClass().getName().replace(".","_"), "map_db_connections"), new Gauge<Integer>() {
         @Override
         public Integer value() {
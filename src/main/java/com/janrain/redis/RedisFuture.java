@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pending reply of a command sent on a multiplexed connection.
+ *
+ * reply() reports errors like the blocking Redis facade methods, with the Jedis exception;
+ * the Future methods wrap them in an ExecutionException. Commands can't be cancelled once sent.
+ */
+public class RedisFuture<T> implements Future<T> {
+
+    // - PUBLIC
+
+    public static <T> RedisFuture<T> completed(T reply) {
+        RedisFuture<T> future = new RedisFuture<T>(null, 0);
+        future.complete(reply);
+        return future;
+    }
+
+    public static <T> RedisFuture<T> failed(JedisException error) {
+        RedisFuture<T> future = new RedisFuture<T>(null, 0);
+        future.fail(error);
+        return future;
+    }
+
+    /**
+     * Waits for the reply for up to the Redis socket timeout; a command that doesn't get its reply in time fails,
+     * and its reply is discarded when it arrives. The connection's other commands are not affected,
+     * a connection that stopped replying is closed by its reader.
+     *
+     * @return the reply
+     * @throws JedisException if the command failed or timed out
+     */
+    public T reply() {
+        try {
+            if ( ! done.await(Protocol.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                JedisConnectionException timeout = new JedisConnectionException("timed out waiting for " + command + " reply");
+                if (fail(timeout)) {
+                    throw timeout;
+                }
+                // completed meanwhile
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException("interrupted waiting for " + command + " reply");
+        }
+        if (error != null) {
+            throw error;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getDone();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if ( ! done.await(timeout, unit)) {
+            throw new TimeoutException("timed out waiting for " + command + " reply");
+        }
+        return getDone();
+    }
+
+    // - PACKAGE
+
+    RedisFuture(String command, long sentBytes) {
+        this.command = command;
+        this.sentBytes = sentBytes;
+    }
+
+    String getCommand() {
+        return command;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * @return false if the future was already completed
+     */
+    boolean complete(T reply) {
+        if ( ! completed.compareAndSet(false, true)) return false;
+        value = reply;
+        done.countDown();
+        return true;
+    }
+
+    /**
+     * @return false if the future was already completed
+     */
+    boolean fail(JedisException e) {
+        if ( ! completed.compareAndSet(false, true)) return false;
+        error = e;
+        done.countDown();
+        return true;
+    }
+
+    // - PRIVATE
+
+    private final String command;
+    private final long sentBytes;
+    private final long startNanos = System.nanoTime();
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile T value;
+    private volatile JedisException error;
+
+    private T getDone() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+}
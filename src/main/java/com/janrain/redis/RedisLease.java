@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Short, renewable lease on a Redis key, held by at most one owner at a time (requires Redis 2.6, for PSETEX and scripting).
+ *
+ * The lease is considered held locally until leaseMillis after the start of the last successful acquire() call,
+ * which is no later than its expiry in Redis. For fencing, a holder WATCHes the lease key before a transaction:
+ * if the lease expires and is taken over in the meantime, the transaction is not executed.
+ */
+public class RedisLease {
+
+    // - PUBLIC
+
+    public RedisLease(String key, String owner, long leaseMillis) {
+        this.key = key;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Acquires the lease if it is free, or renews it if already held by this owner.
+     *
+     * @return true if the lease is held
+     */
+    public boolean acquire() {
+        long start = System.currentTimeMillis();
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            Object acquired = jedis.eval(ACQUIRE_SCRIPT, Collections.singletonList(key), Arrays.asList(owner, Long.toString(leaseMillis)));
+            Redis.getInstance().releaseToPool(jedis);
+            validUntil = Long.valueOf(1).equals(acquired) ? start + leaseMillis : 0;
+        } catch (Exception e) {
+            // may still be held, until it expires
+            logger.warn("error acquiring lease " + key + ": " + e.getMessage());
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+        }
+        return isHeld();
+    }
+
+    /**
+     * @return true if the lease is held, according to the local clock
+     */
+    public boolean isHeld() {
+        return System.currentTimeMillis() < validUntil;
+    }
+
+    /**
+     * Releases the lease if held, so that another owner can take over without waiting for it to expire.
+     */
+    public void release() {
+        validUntil = 0;
+        Jedis jedis = null;
+        try {
+            jedis = Redis.getInstance().getWriteJedis();
+            jedis.eval(RELEASE_SCRIPT, Collections.singletonList(key), Collections.singletonList(owner));
+            Redis.getInstance().releaseToPool(jedis);
+        } catch (Exception e) {
+            logger.warn("error releasing lease " + key + ": " + e.getMessage());
+            Redis.getInstance().releaseBrokenResourceToPool(jedis);
+        }
+    }
+
+    /**
+     * WATCHes the lease key on the provided connection, for fencing the connection's next transaction.
+     *
+     * @return true if the lease is held by this owner
+     */
+    public boolean watch(Jedis jedis) {
+        jedis.watch(key);
+        return isHeld() && owner.equals(jedis.get(key));
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RedisLease.class);
+
+    private static final String ACQUIRE_SCRIPT =
+            "local holder = redis.call('get', KEYS[1]) " +
+            "if holder == false or holder == ARGV[1] then " +
+            "  redis.call('psetex', KEYS[1], ARGV[2], ARGV[1]) " +
+            "  return 1 " +
+            "end " +
+            "return 0";
+
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('del', KEYS[1]) " +
+            "end " +
+            "return 0";
+
+    private final String key;
+    private final String owner;
+    private final long leaseMillis;
+
+    private volatile long validUntil = 0;
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import com.janrain.utils.BackplaneSystemProps;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis client metrics for one server role (primary or replica), exported through the yammer Metrics registry
+ * (and from there to Graphite) as redis.com_janrain_redis_Redis.[role]_*:
+ *
+ * - [command]_time: latency of each command type issued through Redis
+ * - pool_wait_time: time spent waiting for a pooled connection (blocks up to the pool's maxWait when exhausted)
+ * - connection_hold_time: time a connection was checked out, covering DAO transactions and pipelines
+ * - bytes_out, bytes_in: key and value sizes sent and received by the Redis commands
+ * - errors, pool_errors, broken_connections: failed commands, failed checkouts, connections discarded as broken
+ *
+ * Commands and connection holds slower than REDIS_SLOW_COMMAND_MILLIS are logged.
+ */
+class RedisMetrics {
+
+    // - PACKAGE
+
+    static final String PRIMARY = "primary";
+    static final String REPLICA = "replica";
+
+    RedisMetrics(String role) {
+        this.role = role;
+        poolWait = newTimer("pool_wait_time");
+        connectionHold = newTimer("connection_hold_time");
+        bytesOut = Metrics.newHistogram(metricName("bytes_out"));
+        bytesIn = Metrics.newHistogram(metricName("bytes_in"));
+        errors = Metrics.newMeter(metricName("errors"), "errors", TimeUnit.SECONDS);
+        poolErrors = Metrics.newMeter(metricName("pool_errors"), "errors", TimeUnit.SECONDS);
+        brokenConnections = Metrics.newMeter(metricName("broken_connections"), "connections", TimeUnit.SECONDS);
+    }
+
+    String getRole() {
+        return role;
+    }
+
+    void poolCheckout(long startNanos, boolean failed) {
+        poolWait.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (failed) {
+            poolErrors.mark();
+        }
+    }
+
+    /**
+     * @param timed false for connections whose hold time is not meaningful, e.g. blocking subscriptions
+     */
+    void connectionReleased(long checkoutNanos, boolean timed, boolean broken) {
+        if (broken) {
+            brokenConnections.mark();
+        }
+        if (timed) {
+            long nanos = System.nanoTime() - checkoutNanos;
+            connectionHold.update(nanos, TimeUnit.NANOSECONDS);
+            logIfSlow("connection held", nanos);
+        }
+    }
+
+    void command(String command, long startNanos, long sentBytes, long receivedBytes, boolean failed) {
+        long nanos = System.nanoTime() - startNanos;
+        Timer timer = commandTimers.get(command);
+        if (timer == null) {
+            commandTimers.putIfAbsent(command, newTimer(command + "_time"));
+            timer = commandTimers.get(command);
+        }
+        timer.update(nanos, TimeUnit.NANOSECONDS);
+        bytesOut.update(sentBytes);
+        if (failed) {
+            errors.mark();
+        } else {
+            bytesIn.update(receivedBytes);
+        }
+        logIfSlow(command, nanos);
+    }
+
+    // - PRIVATE
+
+    private static final Logger logger = Logger.getLogger(RedisMetrics.class);
+
+    private static final long DEFAULT_SLOW_COMMAND_MILLIS = 100L;
+
+    private static final long slowNanos = TimeUnit.MILLISECONDS.toNanos(readSlowCommandMillis());
+
+    private final String role;
+    private final ConcurrentMap<String,Timer> commandTimers = new ConcurrentHashMap<String, Timer>();
+    private final Timer poolWait;
+    private final Timer connectionHold;
+    private final Histogram bytesOut;
+    private final Histogram bytesIn;
+    private final Meter errors;
+    private final Meter poolErrors;
+    private final Meter brokenConnections;
+
+    private static long readSlowCommandMillis() {
+        String configured = System.getProperty(BackplaneSystemProps.REDIS_SLOW_COMMAND_MILLIS);
+        if (StringUtils.isNotBlank(configured)) {
+            try {
+                return Long.parseLong(configured.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("invalid " + BackplaneSystemProps.REDIS_SLOW_COMMAND_MILLIS + ": " + configured +
+                        ", using " + DEFAULT_SLOW_COMMAND_MILLIS);
+            }
+        }
+        return DEFAULT_SLOW_COMMAND_MILLIS;
+    }
+
+    private void logIfSlow(String operation, long nanos) {
+        if (slowNanos > 0 && nanos >= slowNanos) {
+            logger.warn("slow redis " + role + " " + operation + ": " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms");
+        }
+    }
+
+    private MetricName metricName(String name) {
+        return new MetricName("redis", Redis.class.getName().replace(".","_"), role + "_" + name);
+    }
+
+    private Timer newTimer(String name) {
+        return Metrics.newTimer(metricName(name), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+    }
+}
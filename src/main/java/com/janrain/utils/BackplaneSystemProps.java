@@ -33,7 +33,19 @@ public class BackplaneSystemProps extends InitSystemProps {
     public static final String ZOOKEEPER_SERVERS  = "ZOOKEEPER_SERVERS";
     public static final String REDIS_SERVER_PRIMARY = "REDIS_SERVER_PRIMARY";
     public static final String REDIS_SERVER_READS = "REDIS_SERVER_READS";
+    /** additional v2 message keyspace shards: primary[|read1,read2...];primary[|reads]... */
+    public static final String REDIS_SHARDS = "REDIS_SHARDS";
+    /** Redis commands and connection holds taking at least this long are logged, 0 disables */
+    public static final String REDIS_SLOW_COMMAND_MILLIS = "REDIS_SLOW_COMMAND_MILLIS";
+    /** how long the message queue pushes of concurrent requests are collected before a flush, in microseconds */
+    public static final String REDIS_GROUP_COMMIT_MICROS = "REDIS_GROUP_COMMIT_MICROS";
+    /** connections per read server shared by in-flight token and message reads; 0 (default) uses the pools */
+    public static final String REDIS_MULTIPLEXED_CONNECTIONS = "REDIS_MULTIPLEXED_CONNECTIONS";
     public static final String IP_WHITE_LIST = "IP_WHITE_LIST";
+    /** v2 message processor hot standby lease, in Redis instead of ZooKeeper leader election; 0 (default) disables */
+    public static final String V2_PROCESSOR_LEASE_MILLIS = "V2_PROCESSOR_LEASE_MILLIS";
+    /** "redis" (default) or "memory", for a single node without Redis and ZooKeeper */
+    public static final String DAO_FACTORY = "DAO_FACTORY";
     public static final String ADMIN_USER = "bpadmin";
     public static final String BPSERVER_CONFIG_KEY = "bpserverconfig";
 
@@ -46,14 +58,29 @@ public class BackplaneSystemProps extends InitSystemProps {
         return "n/a";
     }
 
+    /**
+     * @return true if the v2 data is kept in process (DAO_FACTORY=memory), without Redis and ZooKeeper
+     */
+    public static boolean isInMemory() {
+        return "memory".equalsIgnoreCase(StringUtils.trim(System.getProperty(DAO_FACTORY)));
+    }
+
     public BackplaneSystemProps(String log4jFile) {
         super(log4jFile);
 
+        load(DAO_FACTORY, false);
+        boolean redis = ! isInMemory();
+
         load(GRAPHITE_SERVER, false);
-        load(ZOOKEEPER_SERVERS, true);
-        load(REDIS_SERVER_PRIMARY, true);
-        load(REDIS_SERVER_READS, true);
+        load(ZOOKEEPER_SERVERS, redis);
+        load(REDIS_SERVER_PRIMARY, redis);
+        load(REDIS_SERVER_READS, redis);
+        load(REDIS_SHARDS, false);
+        load(REDIS_SLOW_COMMAND_MILLIS, false);
+        load(REDIS_GROUP_COMMIT_MICROS, false);
+        load(REDIS_MULTIPLEXED_CONNECTIONS, false);
         load(IP_WHITE_LIST, false);
+        load(V2_PROCESSOR_LEASE_MILLIS, false);
 
     }
 
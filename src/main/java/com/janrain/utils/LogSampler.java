@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples repetitive log statements on hot paths (e.g. one per processed message):
+ * lets through one in every rate calls, the first one included.
+ */
+public class LogSampler {
+
+    // - PUBLIC
+
+    public LogSampler(int rate) {
+        if (rate < 1) throw new IllegalArgumentException("rate must be positive: " + rate);
+        this.rate = rate;
+    }
+
+    /**
+     * @return true if this call should be logged
+     */
+    public boolean sample() {
+        return calls.getAndIncrement() % rate == 0;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    // - PRIVATE
+
+    private final int rate;
+
+    private final AtomicLong calls = new AtomicLong();
+}
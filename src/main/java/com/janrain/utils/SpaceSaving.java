@@ -0,0 +1,223 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.utils;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Space-Saving top-k sketch (Metwally et al.): approximate counts for the most frequent keys of a stream,
+ * in memory bounded by the number of counters regardless of the number of distinct keys.
+ *
+ * A key not tracked takes over the counter with the lowest count, inheriting it as its error;
+ * any key with a true count above total / capacity is guaranteed to be tracked.
+ *
+ * Thread safe.
+ */
+public class SpaceSaving {
+
+    // - PUBLIC
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+    }
+
+    public synchronized void add(String key, long count) {
+        if (key == null || count <= 0) return;
+        total += count;
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            ordered.remove(counter);
+        } else if (counters.size() < capacity) {
+            counter = new Counter(key, 0, 0, sequence++);
+            counters.put(key, counter);
+        } else {
+            Counter min = ordered.pollFirst();
+            counters.remove(min.key);
+            counter = new Counter(key, min.count, min.count, sequence++);
+            counters.put(key, counter);
+        }
+        counter.count += count;
+        ordered.add(counter);
+    }
+
+    public void add(String key) {
+        add(key, 1);
+    }
+
+    /**
+     * @return the tracked keys with their estimated counts and errors, highest count first
+     */
+    public synchronized List<Estimate> top(int k) {
+        List<Estimate> top = new ArrayList<Estimate>(Math.min(k, counters.size()));
+        Iterator<Counter> descending = ordered.descendingIterator();
+        while (descending.hasNext() && top.size() < k) {
+            Counter counter = descending.next();
+            top.add(new Estimate(counter.key, counter.count, counter.error));
+        }
+        return top;
+    }
+
+    /**
+     * @return the current estimates (highest count first) and total, resetting the sketch
+     */
+    public synchronized Snapshot reset() {
+        Snapshot snapshot = new Snapshot(top(capacity), total);
+        counters.clear();
+        ordered.clear();
+        total = 0;
+        return snapshot;
+    }
+
+    /**
+     * Merges sketch snapshots (e.g. from several nodes), adding up their counts.
+     * A key missing from a full snapshot may have been counted there up to that snapshot's lowest count,
+     * which is added to both the key's count and its error, so that merged counts remain upper bounds.
+     *
+     * @return the top k merged estimates, highest count first
+     */
+    public static List<Estimate> merge(Collection<Snapshot> snapshots, int capacity, int k) {
+        Map<String,long[]> merged = new HashMap<String, long[]>();
+        long missingMax = 0;
+        for (Snapshot snapshot : snapshots) {
+            long min = snapshot.estimates.size() < capacity || snapshot.estimates.isEmpty() ? 0 :
+                    snapshot.estimates.get(snapshot.estimates.size() - 1).count;
+            Set<String> seen = new HashSet<String>();
+            for (Estimate estimate : snapshot.estimates) {
+                long[] countAndError = merged.get(estimate.key);
+                if (countAndError == null) {
+                    // possibly counted, untracked, by the snapshots merged so far
+                    countAndError = new long[] {missingMax, missingMax};
+                    merged.put(estimate.key, countAndError);
+                }
+                countAndError[0] += estimate.count;
+                countAndError[1] += estimate.error;
+                seen.add(estimate.key);
+            }
+            for (Map.Entry<String,long[]> entry : merged.entrySet()) {
+                if ( ! seen.contains(entry.getKey())) {
+                    entry.getValue()[0] += min;
+                    entry.getValue()[1] += min;
+                }
+            }
+            missingMax += min;
+        }
+
+        List<Estimate> estimates = new ArrayList<Estimate>(merged.size());
+        for (Map.Entry<String,long[]> entry : merged.entrySet()) {
+            estimates.add(new Estimate(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        Collections.sort(estimates, new Comparator<Estimate>() {
+            @Override
+            public int compare(Estimate e1, Estimate e2) {
+                return e1.count < e2.count ? 1 : e1.count > e2.count ? -1 : e1.key.compareTo(e2.key);
+            }
+        });
+        return estimates.size() > k ? new ArrayList<Estimate>(estimates.subList(0, k)) : estimates;
+    }
+
+    public static class Estimate implements Serializable {
+
+        public Estimate(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the estimated count, an upper bound of the key's true count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the maximum overestimation of the count
+         */
+        public long getError() {
+            return error;
+        }
+
+        private static final long serialVersionUID = 4129781375281409373L;
+
+        private final String key;
+        private final long count;
+        private final long error;
+    }
+
+    public static class Snapshot implements Serializable {
+
+        public Snapshot(List<Estimate> estimates, long total) {
+            this.estimates = estimates;
+            this.total = total;
+        }
+
+        /**
+         * @return the tracked keys, highest count first
+         */
+        public List<Estimate> getEstimates() {
+            return estimates;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        private static final long serialVersionUID = -2183509934650913477L;
+
+        private final List<Estimate> estimates;
+        private final long total;
+    }
+
+    // - PRIVATE
+
+    private final int capacity;
+
+    private final Map<String,Counter> counters = new HashMap<String, Counter>();
+
+    /** counters by count, then by age */
+    private final TreeSet<Counter> ordered = new TreeSet<Counter>(new Comparator<Counter>() {
+        @Override
+        public int compare(Counter c1, Counter c2) {
+            if (c1.count != c2.count) return c1.count < c2.count ? -1 : 1;
+            return c1.sequence < c2.sequence ? -1 : c1.sequence > c2.sequence ? 1 : 0;
+        }
+    });
+
+    private long total = 0;
+    private long sequence = 0;
+
+    private static final class Counter {
+
+        private Counter(String key, long count, long error, long sequence) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+            this.sequence = sequence;
+        }
+
+        private final String key;
+        private long count;
+        private final long error;
+        private final long sequence;
+    }
+}
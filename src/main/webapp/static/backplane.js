@@ -47,6 +47,7 @@ window.Backplane = window.Backplane || (function() {
     BP.cachedMessages = {};
     BP.cachedMessagesIndex = [];
     BP.cacheMax = 5;
+    BP.block = 0;
     BP.subscribers = {};
     BP.serverChannel = true;
     BP.awaiting = {
@@ -75,6 +76,7 @@ window.Backplane = window.Backplane || (function() {
  *     channelExpires (optional) - set backplane-channel cookie life span
  *     initFrameFilter (optional) - function to filter the first message frame
  *     cacheMax (optional) - how many messages to cache for late arriving widgets
+ *     block (optional) - how many seconds to hold connection open with server
  */
 Backplane.init = function(config) {
     config = config || {};
@@ -86,6 +88,7 @@ Backplane.init = function(config) {
 
     this.channelByBus = this.getCookieChannels();
     this.cacheMax = config.cacheMax || this.cacheMax;
+    this.block = config.block || 0;
     if (typeof config.serverChannel !== "undefined") {
        this.serverChannel = config.serverChannel;
     }
@@ -378,7 +381,7 @@ Backplane.request = function() {
         // if no response in the reasonable time just restart request
         self.timers.watchdog = setTimeout(function() {
             self.request();
-        }, 5000);
+        }, (self.block * 1000) + 5000);
 
         // if no since parameter exists, check cache and play those back
         // rather than hitting the server
@@ -412,6 +415,8 @@ Backplane.request = function() {
         script.charset = "utf-8";
         script.src = self.config.channelID + "?callback=Backplane.response" +
             (self.since ? "&since=" + encodeURIComponent(self.since) : "") +
+            // the first request returns right away, for the initial frame
+            (typeof self.since != "undefined" && self.block ? "&block=" + self.block : "") +
             "&rnd=" + Math.random();
         var container = document.getElementsByTagName("head")[0] || document.documentElement;
         container.insertBefore(script, container.firstChild);
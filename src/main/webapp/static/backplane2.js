@@ -46,6 +46,10 @@ window.Backplane = window.Backplane || (function() {
     BP.block = 0;
     BP.config = {};
     BP.runRequests = false;
+    BP.useStream = false;
+    BP.stream = null;
+    BP.streamFailures = 0;
+    BP.streamMaxFailures = 3;
     BP.firstFrameReceived = false;
     BP.replayOnPageLoad = false;
     BP.memoryCachedMessages = {};
@@ -83,6 +87,7 @@ window.Backplane = window.Backplane || (function() {
  *     cacheMax (optional) - how many messages to cache for late arriving widgets, default is 10
  *     block (optional) - how many seconds to hold connection open with server
  *     replayOnPageLoad (optional) - replay all messages from long term cache on each page load, default is false
+ *     stream (optional) - receive messages over a server-sent events stream if the browser supports it, default is true
  */
 Backplane.init = function(config) {
     this.log("initializing");
@@ -110,6 +115,7 @@ Backplane.init = function(config) {
     this.cacheMax = config.cacheMax || this.cacheMax;
     this.replayOnPageLoad = config.replayOnPageLoad || this.replayOnPageLoad;
     this.block = config.block || 0;
+    this.useStream = config.stream !== false && typeof window.EventSource !== "undefined";
     if (typeof this.config.channelExpires === "undefined") {
         var d = new Date();
         d.setFullYear(d.getFullYear() + 5);
@@ -272,6 +278,7 @@ Backplane.unsubscribe = function(subscriptionID) {
     if (!this.checkSubscribers()) {
         // No more subscribers left; go to sleep.
         this.runRequests = false;
+        this.closeStream();
     }
 };
 
@@ -564,32 +571,104 @@ Backplane.request = function() {
     if (!this.getChannelName() || !this.runRequests) { return false; }
     this.stopTimer("regular");
     this.stopTimer("watchdog");
+    this.stopTimer("stream");
+    if (this.useStream) {
+        this.openStream();
+        return true;
+    }
     this.timers.regular = setTimeout(function() {
         // if no response in the reasonable time just restart request
         self.timers.watchdog = setTimeout(function() {
             self.request();
         }, (Backplane.block * 1000) + 5000);
 
-        // If no 'since' parameter exists, this is the FIRST call.
-        // Check the long term cache to get the last message id delivered 
-        // and sync up the in-memory message header cache if required.
-        if (!self.since) {
-            var messages = self.getCachedMessages();
-            self.log(messages.length + " message(s) in cache");
-            if (messages.length > 0) {
-                self.since = self.convertMessageURLtoNextURL(messages[messages.length-1].messageURL);
-            }
-            // if the desire is to play back all messages for each page load
-            // then sync up the memory cache with the long term cache
-            if (self.replayOnPageLoad) {
-               Backplane.syncMemoryCache();
-            }            
-        }
-
+        self.initSince();
         Backplane.fetchMessages();
     }, this.calcTimeout());
 };
 
+Backplane.initSince = function() {
+    // If no 'since' parameter exists, this is the FIRST call.
+    // Check the long term cache to get the last message id delivered 
+    // and sync up the in-memory message header cache if required.
+    if (!this.since) {
+        var messages = this.getCachedMessages();
+        this.log(messages.length + " message(s) in cache");
+        if (messages.length > 0) {
+            this.since = this.convertMessageURLtoNextURL(messages[messages.length-1].messageURL);
+        }
+        // if the desire is to play back all messages for each page load
+        // then sync up the memory cache with the long term cache
+        if (this.replayOnPageLoad) {
+           Backplane.syncMemoryCache();
+        }            
+    }
+};
+
+/**
+ * Opens the server-sent events stream, if not already open.
+ * The browser reconnects by itself when the server ends the stream, resuming from the last received message.
+ */
+Backplane.openStream = function() {
+    var self = this, match, url;
+    if (this.stream) { return; }
+
+    this.initSince();
+    match = (this.since || "").match(/[?&]since=([^&]*)/);
+    url = this.config.serverBaseURL + "/stream?access_token=" + encodeURIComponent(this.token) +
+        (match ? "&since=" + match[1] : "");
+    this.log("opening message stream");
+    this.stream = new EventSource(url);
+
+    this.stream.onmessage = function(event) {
+        var message = JSON.parse(event.data);
+        self.since = self.convertMessageURLtoNextURL(message.messageURL);
+        self.deliverMessage(message);
+    };
+    this.stream.addEventListener("ready", function() {
+        self.streamFailures = 0;
+        self.firstFrameReceived = true;
+    }, false);
+    this.stream.addEventListener("tokenerror", function() {
+        self.log("received invalid token error from server on message stream");
+        if (self.refresh_token) {
+            self.log("refreshing access token");
+            self.refreshToken();
+        } else {
+            self.log("refresh token is not available; requesting new access token");
+            self.resetCookieChannel();
+        }
+        self.streamFailed();
+    }, false);
+    this.stream.onerror = function() {
+        // a closed stream was refused by the server (as opposed to dropped) and will not be retried by the browser
+        if (self.stream && self.stream.readyState === 2) {
+            self.streamFailed();
+        }
+    };
+};
+
+Backplane.closeStream = function() {
+    this.stopTimer("stream");
+    if (this.stream) {
+        this.stream.close();
+        this.stream = null;
+    }
+};
+
+Backplane.streamFailed = function() {
+    var self = this;
+    this.closeStream();
+    this.streamFailures++;
+    if (this.streamFailures >= this.streamMaxFailures) {
+        this.log("message stream is not available, falling back to polling");
+        this.useStream = false;
+    }
+    this.timers.stream = setTimeout(function() {
+        self.request();
+    }, this.intervals.frequent * 1000);
+};
+
 
 /**
  * Callback function for message frame request
@@ -597,7 +676,7 @@ Backplane.request = function() {
  */
 
 Backplane.response = function(messageFrame) {
-    var self = this, i, j, k, l, satisfied, queue;
+    var i;
     this.stopTimer("watchdog");
 
     if (typeof messageFrame.error_description !== "undefined") {
@@ -624,32 +703,7 @@ Backplane.response = function(messageFrame) {
     this.since = messageFrame.nextURL;
 
     for (i = 0; i < messageFrame.messages.length; i++) {
-
-        // store in both caches
-        Backplane.addMessageToLongTermCache(messageFrame.messages[i]);
-        Backplane.addMessageToMemoryCache(messageFrame.messages[i]);
-
-        // notify subscribers
-        for (j in this.subscribers) {
-            if (this.subscribers.hasOwnProperty(j)) {
-                this.subscribers[j].callback(messageFrame.messages[i]);
-            }
-        }
-
-        // clean up awaiting specific events queue
-        queue = [];
-        for (k = 0; k < this.awaiting.queue.length; k++) {
-            satisfied = false;
-            for (l = 0; l < this.awaiting.queue[k].length; l++) {
-                if (this.awaiting.queue[k][l] === messageFrame.messages[i].type) {
-                    satisfied = true;
-                }
-            }
-            if (!satisfied) {
-                queue.push(this.awaiting.queue[k]);
-            }
-        }
-        this.awaiting.queue = queue;
+        this.deliverMessage(messageFrame.messages[i]);
     }
 
     // if the moreMessages flag is true, fetch another frame immediately
@@ -662,6 +716,36 @@ Backplane.response = function(messageFrame) {
     this.request();
 };
 
+Backplane.deliverMessage = function(message) {
+    var j, k, l, satisfied, queue;
+
+    // store in both caches
+    Backplane.addMessageToLongTermCache(message);
+    Backplane.addMessageToMemoryCache(message);
+
+    // notify subscribers
+    for (j in this.subscribers) {
+        if (this.subscribers.hasOwnProperty(j)) {
+            this.subscribers[j].callback(message);
+        }
+    }
+
+    // clean up awaiting specific events queue
+    queue = [];
+    for (k = 0; k < this.awaiting.queue.length; k++) {
+        satisfied = false;
+        for (l = 0; l < this.awaiting.queue[k].length; l++) {
+            if (this.awaiting.queue[k][l] === message.type) {
+                satisfied = true;
+            }
+        }
+        if (!satisfied) {
+            queue.push(this.awaiting.queue[k]);
+        }
+    }
+    this.awaiting.queue = queue;
+};
+
 Backplane.stopTimer = function(name) {
     var timer = this.timers[name];
     if (timer) {
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class MessageIdTest {
+
+    @Test
+    public void testIso8601() throws Exception {
+        for (int r=0; r<10000; r++) {
+            long millis = (long) (random.nextDouble() * 8000000000000L) - 1000000000000L;
+            String expected = DateTimeUtils.ISO8601.get().format(new Date(millis));
+            assertEquals(expected, DateTimeUtils.formatIso8601(millis));
+            if (millis >= 0) {
+                assertEquals(millis, DateTimeUtils.parseIso8601(expected, 0));
+            }
+        }
+        assertEquals(-1, DateTimeUtils.parseIso8601("2013-02-30T10:00:00.000Z", 0));
+        assertEquals(-1, DateTimeUtils.parseIso8601("2013-02-28 10:00:00.000Z", 0));
+    }
+
+    @Test
+    public void testMessageIds() {
+        long millis = System.currentTimeMillis();
+        String legacy = DateTimeUtils.ISO8601.get().format(new Date(millis)) + "-abcdefghij";
+        String first = MessageId.format(MessageId.fromTime(millis), "abcdefghij");
+        String second = MessageId.format(MessageId.fromTime(millis) + 1, "abcdefghij");
+
+        assertEquals(millis, MessageId.score(legacy));
+        assertEquals(MessageId.fromTime(millis), MessageId.parse(legacy));
+        assertEquals(MessageId.fromTime(millis) + 1, MessageId.parse(second));
+        assertEquals(MessageId.parse(second), MessageId.score(second));
+        assertEquals(millis, MessageId.parseTime(second));
+        assertEquals("abcdefghij", MessageId.getSuffix(legacy));
+        assertEquals("abcdefghij", MessageId.getSuffix(second));
+        assertTrue(first.compareTo(second) < 0);
+        assertTrue(MessageId.score(legacy) < MessageId.score(first));
+        assertEquals(-1, MessageId.score("not-an-id"));
+    }
+
+    // - PRIVATE
+
+    private static final Random random = new Random();
+
+}
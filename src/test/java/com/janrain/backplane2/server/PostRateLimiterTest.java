@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server;
+
+import com.janrain.backplane2.server.config.BusConfig2;
+import com.janrain.backplane2.server.dao.DAOFactory;
+import com.janrain.backplane2.server.dao.memory.MemoryDAOFactory;
+import com.janrain.redis.RateLimiter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Post rate limits, with the in-memory DAOs and buckets.
+ */
+public class PostRateLimiterTest {
+
+    @Test
+    public void testBatchLargerThanClientLimitRejected() throws Exception {
+        PostRateLimiter limiter = new PostRateLimiter(newDaoFactory("batch.example.com", "10"), new RateLimiter(true));
+
+        try {
+            limiter.checkPost("client1", newMessages("batch.example.com", 100));
+            fail("100 messages admitted against a 10 messages/s limit");
+        } catch (RetryAfterException e) {
+            fail("batch that can never be admitted reported as retryable");
+        } catch (InvalidRequestException e) {
+            assertEquals(413, e.getHttpResponseCode());
+        }
+
+        // the rejected batch didn't use up the limit
+        limiter.checkPost("client1", newMessages("batch.example.com", 10));
+        try {
+            limiter.checkPost("client1", newMessages("batch.example.com", 1));
+            fail("message admitted over the limit");
+        } catch (RetryAfterException e) {
+            assertEquals(RetryAfterException.SC_TOO_MANY_REQUESTS, e.getHttpResponseCode());
+        }
+    }
+
+    // - PRIVATE
+
+    private static DAOFactory newDaoFactory(String bus, String clientLimit) throws Exception {
+        DAOFactory daoFactory = new MemoryDAOFactory();
+        BusConfig2 busConfig = new BusConfig2(bus, "owner", "60", "3600");
+        busConfig.put(BusConfig2.Field.POST_RATE_LIMIT_CLIENT.getFieldName(), clientLimit);
+        daoFactory.getBusDao().persist(busConfig);
+        return daoFactory;
+    }
+
+    private static List<BackplaneMessage> newMessages(String bus, int count) throws Exception {
+        List<BackplaneMessage> messages = new ArrayList<BackplaneMessage>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String,Object> data = new LinkedHashMap<String, Object>();
+            data.put(BackplaneMessage.Field.BUS.getFieldName(), bus);
+            data.put(BackplaneMessage.Field.CHANNEL.getFieldName(), "channel" + i);
+            data.put(BackplaneMessage.Field.TYPE.getFieldName(), "identity/login");
+            data.put(BackplaneMessage.Field.PAYLOAD.getFieldName(), Collections.singletonMap("context", "http://" + bus));
+            messages.add(new BackplaneMessage("http://" + bus, 60, 3600, data));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.backplane2.server.dao.memory;
+
+import com.janrain.backplane2.server.BackplaneMessage;
+import com.janrain.backplane2.server.GrantType;
+import com.janrain.backplane2.server.MessagesResponse;
+import com.janrain.backplane2.server.Token;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MemoryBackplaneMessageDAOTest {
+
+    @Test
+    public void testOrderingAndScope() throws Exception {
+        MemoryBackplaneMessageDAO dao = new MemoryBackplaneMessageDAO();
+        BackplaneMessage first = newMessage("a.example.com", "channel1");
+        BackplaneMessage second = newMessage("b.example.com", "channel2");
+        BackplaneMessage third = newMessage("a.example.com", "channel1");
+        dao.persist(first);
+        dao.persist(second);
+        dao.persist(third);
+
+        assertEquals(3, dao.countMessages());
+        assertEquals(2, dao.getMessageCount("channel1"));
+        assertEquals(third.getIdValue(), dao.getLatestMessage().getIdValue());
+
+        List<BackplaneMessage> channel1 = dao.retrieveMessagesByChannel("channel1");
+        assertEquals(first.getIdValue(), channel1.get(0).getIdValue());
+        assertEquals(third.getIdValue(), channel1.get(1).getIdValue());
+
+        MessagesResponse response = new MessagesResponse(null);
+        dao.retrieveMessagesPerScope(response, newToken("bus:a.example.com"));
+        assertEquals(2, response.getMessages().size());
+        assertEquals(third.getIdValue(), response.getLastMessageId());
+
+        response = new MessagesResponse(first.getIdValue());
+        dao.retrieveMessagesPerScope(response, newToken("bus:a.example.com"));
+        assertEquals(1, response.getMessages().size());
+        assertEquals(third.getIdValue(), response.getMessages().get(0).getIdValue());
+
+        response = new MessagesResponse(null);
+        dao.retrieveMessagesPerScope(response, newToken("channel:channel2"));
+        assertEquals(1, response.getMessages().size());
+        assertEquals(second.getIdValue(), response.getMessages().get(0).getIdValue());
+
+        assertNotNull(dao.get(second.getIdValue()));
+        dao.delete(second.getIdValue());
+        assertNull(dao.get(second.getIdValue()));
+        assertEquals(0, dao.getMessageCount("channel2"));
+    }
+
+    // - PRIVATE
+
+    private static BackplaneMessage newMessage(String bus, String channel) throws Exception {
+        Map<String,Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("context", "http://" + bus + "/page.html");
+        Map<String,Object> data = new LinkedHashMap<String, Object>();
+        data.put(BackplaneMessage.Field.BUS.getFieldName(), bus);
+        data.put(BackplaneMessage.Field.CHANNEL.getFieldName(), channel);
+        data.put(BackplaneMessage.Field.TYPE.getFieldName(), "identity/login");
+        data.put(BackplaneMessage.Field.PAYLOAD.getFieldName(), payload);
+        return new BackplaneMessage("http://" + bus, 60, 3600, data);
+    }
+
+    private static Token newToken(String scope) throws Exception {
+        return new Token.Builder(GrantType.ANONYMOUS, scope)
+                .expires(new Date(System.currentTimeMillis() + 3600000L))
+                .buildToken();
+    }
+}
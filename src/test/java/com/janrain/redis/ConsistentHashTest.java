@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsistentHashTest {
+
+    @Test
+    public void testKeysSpreadAcrossShards() {
+        ConsistentHash hash = new ConsistentHash(4);
+        int[] counts = new int[4];
+        for (int i = 0; i < 10000; i++) {
+            counts[hash.getShard("bus" + i + ".example.com")]++;
+        }
+        for (int count : counts) {
+            assertTrue("uneven shard: " + count, count > 1500 && count < 3500);
+        }
+    }
+
+    @Test
+    public void testAddingShardOnlyMovesKeysToIt() {
+        ConsistentHash three = new ConsistentHash(3);
+        ConsistentHash four = new ConsistentHash(4);
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String bus = "bus" + i + ".example.com";
+            int before = three.getShard(bus);
+            int after = four.getShard(bus);
+            if (before != after) {
+                assertEquals(3, after);
+                moved++;
+            }
+        }
+        assertTrue("moved: " + moved, moved > 1500 && moved < 3500);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import org.junit.After;
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Group commit ordering, error propagation and fallback to direct pushes, against an in-process list.
+ */
+public class GroupCommitWriterTest {
+
+    @After
+    public void stop() throws InterruptedException {
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testConcurrentPushesKeepOrderAndReplies() throws Exception {
+        final FakeTarget target = new FakeTarget();
+        final GroupCommitWriter groupCommit = started(new GroupCommitWriter(target, 500, 5000));
+
+        final int threads = 8;
+        final int pushes = 200;
+        List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+        ExecutorService clients = executor(Executors.newFixedThreadPool(threads));
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(clients.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() {
+                    List<Long> replies = new ArrayList<Long>();
+                    for (int i = 0; i < pushes; i++) {
+                        replies.add(groupCommit.rpush(KEY, (thread + "-" + i).getBytes()));
+                    }
+                    return replies;
+                }
+            }));
+        }
+
+        for (int t = 0; t < threads; t++) {
+            List<Long> replies = results.get(t).get(10, TimeUnit.SECONDS);
+            long previous = 0;
+            for (int i = 0; i < pushes; i++) {
+                long reply = replies.get(i);
+                // each reply is the list length right after the push, and a thread's pushes keep their order
+                assertEquals(t + "-" + i, target.list.get((int) reply - 1));
+                assertTrue(reply > previous);
+                previous = reply;
+            }
+        }
+        assertEquals(threads * pushes, target.list.size());
+    }
+
+    @Test
+    public void testFlushErrorPropagated() {
+        FakeTarget target = new FakeTarget();
+        target.flushError = new JedisConnectionException("connection refused");
+        GroupCommitWriter groupCommit = started(new GroupCommitWriter(target, 0, 5000));
+        try {
+            groupCommit.rpush(KEY, "a".getBytes());
+            fail("expected the flush error");
+        } catch (JedisConnectionException e) {
+            assertSame(target.flushError, e);
+        }
+        assertTrue(target.list.isEmpty());
+    }
+
+    @Test
+    public void testRejectedPushFailsOnlyItself() throws Exception {
+        FakeTarget target = new FakeTarget();
+        target.rejected = "bad";
+        final GroupCommitWriter groupCommit = started(new GroupCommitWriter(target, 200000, 5000));
+
+        ExecutorService clients = executor(Executors.newFixedThreadPool(2));
+        Future<Long> good = clients.submit(push(groupCommit, "good"));
+        Future<Long> bad = clients.submit(push(groupCommit, "bad"));
+
+        assertEquals(Long.valueOf(1), good.get(5, TimeUnit.SECONDS));
+        try {
+            bad.get(5, TimeUnit.SECONDS);
+            fail("expected the rejected push's error");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JedisDataException);
+        }
+        assertEquals(Collections.singletonList("good"), target.list);
+    }
+
+    @Test
+    public void testPushNotPickedUpInTimeIsPushedOnceDirectly() throws Exception {
+        FakeTarget target = new FakeTarget();
+        target.blocked = new CountDownLatch(1);
+        GroupCommitWriter groupCommit = started(new GroupCommitWriter(target, 0, 300));
+
+        // the first push's flush is stuck, the second one waits behind it
+        Future<Long> first = executor(Executors.newSingleThreadExecutor()).submit(push(groupCommit, "first"));
+        while (target.flushes.get() == 0) Thread.sleep(5);
+
+        assertEquals(Long.valueOf(1), groupCommit.rpush(KEY, "second".getBytes()));
+
+        target.blocked.countDown();
+        assertEquals(Long.valueOf(2), first.get(5, TimeUnit.SECONDS));
+
+        // the writer skips the withdrawn push
+        Thread.sleep(200);
+        assertEquals(1, target.flushed.get());
+        assertEquals(Arrays.asList("second", "first"), target.list);
+    }
+
+    @Test
+    public void testPushAfterStopGoesDirectly() throws Exception {
+        FakeTarget target = new FakeTarget();
+        GroupCommitWriter groupCommit = new GroupCommitWriter(target, 0, 5000);
+        ExecutorService writer = groupCommit.start();
+        writer.shutdownNow();
+        assertTrue(writer.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(Long.valueOf(1), groupCommit.rpush(KEY, "a".getBytes()));
+        assertEquals(0, target.flushed.get());
+    }
+
+    @Test
+    public void testDeadWriterDetected() throws Exception {
+        FakeTarget target = new FakeTarget();
+        target.fatal = new OutOfMemoryError("test");
+        GroupCommitWriter groupCommit = started(new GroupCommitWriter(target, 0, 5000));
+
+        try {
+            groupCommit.rpush(KEY, "a".getBytes());
+            fail("expected the writer failure");
+        } catch (JedisConnectionException e) {
+            // outcome unknown
+        }
+
+        long start = System.currentTimeMillis();
+        assertEquals(Long.valueOf(1), groupCommit.rpush(KEY, "b".getBytes()));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(Collections.singletonList("b"), target.list);
+    }
+
+    // - PRIVATE
+
+    private static final byte[] KEY = "queue".getBytes();
+
+    private final List<ExecutorService> executors = new ArrayList<ExecutorService>();
+
+    private static class FakeTarget implements GroupCommitWriter.Target {
+
+        private final List<String> list = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger flushes = new AtomicInteger();
+        private final AtomicInteger flushed = new AtomicInteger();
+        private volatile RuntimeException flushError;
+        private volatile Error fatal;
+        private volatile String rejected;
+        private volatile CountDownLatch blocked;
+
+        @Override
+        public synchronized Long rpush(byte[] key, byte[] value) {
+            list.add(new String(value));
+            return (long) list.size();
+        }
+
+        @Override
+        public List<Object> rpushPipelined(List<byte[]> keys, List<byte[]> values) {
+            flushes.incrementAndGet();
+            if (fatal != null) throw fatal;
+            if (flushError != null) throw flushError;
+            CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new JedisConnectionException(e);
+                }
+            }
+            List<Object> replies = new ArrayList<Object>();
+            synchronized (this) {
+                for (byte[] value : values) {
+                    String string = new String(value);
+                    if (string.equals(rejected)) {
+                        replies.add(new JedisDataException("rejected"));
+                    } else {
+                        list.add(string);
+                        flushed.incrementAndGet();
+                        replies.add((long) list.size());
+                    }
+                }
+            }
+            return replies;
+        }
+    }
+
+    private GroupCommitWriter started(GroupCommitWriter groupCommit) {
+        executor(groupCommit.start());
+        return groupCommit;
+    }
+
+    private ExecutorService executor(ExecutorService executor) {
+        executors.add(executor);
+        return executor;
+    }
+
+    private static Callable<Long> push(final GroupCommitWriter groupCommit, final String value) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() {
+                return groupCommit.rpush(KEY, value.getBytes());
+            }
+        };
+    }
+}
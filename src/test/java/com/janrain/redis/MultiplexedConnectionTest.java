@@ -0,0 +1,262 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Multiplexed connections against an in-process server answering GETs with "v-" + key, in command order;
+ * some keys get special treatment: "bad" an error reply, "slow" a reply after more than the reply timeout,
+ * "hang" no reply at all, and "drop" closes the connection.
+ */
+public class MultiplexedConnectionTest {
+
+    @Before
+    public void startServer() throws IOException {
+        server = new FakeServer();
+        executor.submit(server);
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentRepliesMatchTheirCommands() throws Exception {
+        final MultiplexedConnection connection = connect(10000);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        ExecutorService clients = Executors.newFixedThreadPool(20);
+        try {
+            for (int t = 0; t < 20; t++) {
+                final int thread = t;
+                results.add(clients.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int i = 0; i < 500; i++) {
+                            String key = "k" + thread + "_" + i;
+                            if ( ! ("v-" + key).equals(get(connection, key))) return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        assertTrue(connection.isOpen());
+    }
+
+    @Test
+    public void testErrorReplyFailsOnlyItsCommand() {
+        MultiplexedConnection connection = connect(10000);
+        RedisFuture<byte[]> bad = connection.send("get", Protocol.Command.GET, "bad".getBytes());
+        RedisFuture<byte[]> good = connection.send("get", Protocol.Command.GET, "good".getBytes());
+        try {
+            bad.reply();
+            fail("expected the error reply");
+        } catch (JedisDataException e) {
+            assertEquals("ERR wrong", e.getMessage());
+        }
+        assertEquals("v-good", new String(good.reply()));
+        assertNull(get(connection, "nil"));
+        assertTrue(connection.isOpen());
+    }
+
+    @Test
+    public void testLateReplyFailsOnlyItsCommand() {
+        MultiplexedConnection connection = connect(10000);
+        RedisFuture<byte[]> slow = connection.send("get", Protocol.Command.GET, "slow".getBytes());
+        RedisFuture<byte[]> next = connection.send("get", Protocol.Command.GET, "next".getBytes());
+        try {
+            slow.reply();
+            fail("expected a timeout");
+        } catch (JedisConnectionException e) {
+            // timed out
+        }
+        assertTrue(connection.isOpen());
+
+        // the late reply is discarded, the following ones still go to their commands
+        assertEquals("v-next", new String(next.reply()));
+        assertEquals("v-after", get(connection, "after"));
+    }
+
+    @Test
+    public void testDeadConnectionClosedByReader() throws Exception {
+        MultiplexedConnection connection = connect(300);
+        // idle longer than the dead connection timeout, with nothing pending
+        Thread.sleep(700);
+        assertTrue(connection.isOpen());
+        assertEquals("v-alive", get(connection, "alive"));
+
+        RedisFuture<byte[]> hang = connection.send("get", Protocol.Command.GET, "hang".getBytes());
+        try {
+            hang.get(5, TimeUnit.SECONDS);
+            fail("expected the connection to be closed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JedisConnectionException);
+        }
+        assertFalse(connection.isOpen());
+    }
+
+    @Test
+    public void testClientReconnectsClosedConnection() throws Exception {
+        MultiplexedClient client = new MultiplexedClient(Arrays.asList("localhost:" + server.getPort()), 1, metrics);
+        assertEquals("v-first", new String(client.<byte[]>send("get", Protocol.Command.GET, "first".getBytes()).reply()));
+
+        RedisFuture<byte[]> dropped = client.send("get", Protocol.Command.GET, "drop".getBytes());
+        try {
+            dropped.get(5, TimeUnit.SECONDS);
+            fail("expected the connection to be closed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JedisConnectionException);
+        }
+
+        assertEquals("v-again", new String(client.<byte[]>send("get", Protocol.Command.GET, "again".getBytes()).reply()));
+        assertEquals(2, server.getConnections());
+    }
+
+    // - PRIVATE
+
+    private final RedisMetrics metrics = new RedisMetrics("test_multiplexed");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private FakeServer server;
+
+    private MultiplexedConnection connect(long deadMillis) {
+        return new MultiplexedConnection("localhost", server.getPort(), metrics, deadMillis);
+    }
+
+    private static String get(MultiplexedConnection connection, String key) {
+        byte[] value = connection.<byte[]>send("get", Protocol.Command.GET, key.getBytes()).reply();
+        return value == null ? null : new String(value);
+    }
+
+    private class FakeServer implements Runnable {
+
+        private FakeServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+        }
+
+        private int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private synchronized int getConnections() {
+            return connections.size();
+        }
+
+        private synchronized void close() throws IOException {
+            serverSocket.close();
+            for (Socket socket : connections) {
+                socket.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    synchronized (this) {
+                        connections.add(socket);
+                    }
+                    executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int args = Integer.parseInt(line.substring(1));
+                    List<String> command = new ArrayList<String>(args);
+                    for (int i = 0; i < args; i++) {
+                        in.readLine();
+                        command.add(in.readLine());
+                    }
+                    String key = command.get(1);
+                    if ("bad".equals(key)) {
+                        out.write("-ERR wrong\r\n".getBytes());
+                    } else if ("nil".equals(key)) {
+                        out.write("$-1\r\n".getBytes());
+                    } else if ("drop".equals(key)) {
+                        socket.close();
+                        return;
+                    } else if ("hang".equals(key)) {
+                        Thread.sleep(Long.MAX_VALUE);
+                    } else {
+                        if ("slow".equals(key)) {
+                            Thread.sleep(Protocol.DEFAULT_TIMEOUT + 500);
+                        }
+                        String value = "v-" + key;
+                        out.write(("$" + value.length() + "\r\n" + value + "\r\n").getBytes());
+                    }
+                    if ( ! in.ready()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // closed
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+
+        private final ServerSocket serverSocket;
+        private final List<Socket> connections = new ArrayList<Socket>();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.redis;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Token bucket behavior, with the in-process buckets.
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void testCostAboveCapacityRejected() {
+        RateLimiter limiter = new RateLimiter(true);
+        RateLimiter.Bucket batch = new RateLimiter.Bucket("test_batch", 10, 10, 100);
+        assertEquals(RateLimiter.EXCEEDS_CAPACITY, limiter.acquire(Collections.singletonList(batch)));
+
+        // nothing was taken, a full bucket's worth is still admitted
+        RateLimiter.Bucket full = new RateLimiter.Bucket("test_batch", 10, 10, 10);
+        assertEquals(0, limiter.acquire(Collections.singletonList(full)));
+    }
+
+    @Test
+    public void testDeniedWhenEmptyAndNothingTaken() {
+        RateLimiter limiter = new RateLimiter(true);
+        RateLimiter.Bucket bus = new RateLimiter.Bucket("test_bus", 10, 10, 6);
+        RateLimiter.Bucket channel = new RateLimiter.Bucket("test_channel", 100, 100, 6);
+        assertEquals(0, limiter.acquire(Arrays.asList(bus, channel)));
+
+        long wait = limiter.acquire(Arrays.asList(bus, channel));
+        assertTrue("wait: " + wait, wait > 0 && wait <= 200);
+
+        // the denied request took nothing from the channel bucket
+        RateLimiter.Bucket otherBus = new RateLimiter.Bucket("test_other_bus", 10, 10, 1);
+        RateLimiter.Bucket rest = new RateLimiter.Bucket("test_channel", 100, 100, 94);
+        assertEquals(0, limiter.acquire(Arrays.asList(otherBus, rest)));
+    }
+}
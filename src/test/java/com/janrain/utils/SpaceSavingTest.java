@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 Janrain, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.janrain.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpaceSavingTest {
+
+    @Test
+    public void testHeavyHittersTrackedInBoundedSpace() {
+        SpaceSaving sketch = new SpaceSaving(10);
+        for (int i = 0; i < 10000; i++) {
+            sketch.add("heavy");
+            if (i % 2 == 0) sketch.add("medium");
+            sketch.add("tenant" + i);
+        }
+
+        List<SpaceSaving.Estimate> top = sketch.top(2);
+        assertEquals("heavy", top.get(0).getKey());
+        assertEquals("medium", top.get(1).getKey());
+        assertTrue(top.get(0).getCount() - top.get(0).getError() <= 10000);
+        assertTrue(top.get(0).getCount() >= 10000);
+        assertEquals(10, sketch.top(100).size());
+    }
+
+    @Test
+    public void testMerge() {
+        SpaceSaving node1 = new SpaceSaving(2);
+        SpaceSaving node2 = new SpaceSaving(2);
+        node1.add("a", 10);
+        node1.add("b", 5);
+        node2.add("b", 7);
+        node2.add("c", 3);
+
+        List<SpaceSaving.Estimate> merged = SpaceSaving.merge(Arrays.asList(node1.reset(), node2.reset()), 2, 3);
+        // node2 was full and may have dropped up to its lowest count of "a"
+        assertEquals("a", merged.get(0).getKey());
+        assertEquals(13, merged.get(0).getCount());
+        assertEquals(3, merged.get(0).getError());
+        assertEquals("b", merged.get(1).getKey());
+        assertEquals(12, merged.get(1).getCount());
+        assertEquals(0, merged.get(1).getError());
+        // and node1 up to its lowest count of "c"
+        assertEquals("c", merged.get(2).getKey());
+        assertEquals(8, merged.get(2).getCount());
+        assertEquals(5, merged.get(2).getError());
+        assertEquals(0, node1.top(2).size());
+    }
+}